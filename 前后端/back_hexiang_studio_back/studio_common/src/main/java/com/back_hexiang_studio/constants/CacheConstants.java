@@ -68,4 +68,15 @@ public class CacheConstants {
      */
     public static final String CAPTCHA_FAIL_PATTERN = "captcha_fail:*";
 
+    /**
+     *  认证主体缓存失效通知频道（Redis Pub/Sub）
+     * 消息内容：用户ID，"*" 表示清空全部
+     */
+    public static final String AUTH_PRINCIPAL_INVALIDATE_CHANNEL = "auth:principal:invalidate";
+
+    /**
+     *  认证主体缓存失效通知：清空全部
+     */
+    public static final String AUTH_PRINCIPAL_INVALIDATE_ALL = "*";
+
 }
\ No newline at end of file
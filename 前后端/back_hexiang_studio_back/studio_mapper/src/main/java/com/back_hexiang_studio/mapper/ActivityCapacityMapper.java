@@ -0,0 +1,47 @@
+package com.back_hexiang_studio.mapper;
+
+import com.back_hexiang_studio.entity.ActivityCapacity;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+/**
+ * 活动名额Mapper接口
+ */
+@Mapper
+public interface ActivityCapacityMapper {
+
+    /**
+     * 查询名额设置
+     * @param planId 计划ID
+     * @return 名额设置
+     */
+    ActivityCapacity selectByPlanId(@Param("planId") Long planId);
+
+    /**
+     * 查询名额设置并加悲观锁，同一活动的预约、取消、名额调整依次执行
+     * @param planId 计划ID
+     * @return 名额设置
+     */
+    ActivityCapacity selectByPlanIdForUpdate(@Param("planId") Long planId);
+
+    /**
+     * 不存在时创建不限名额的设置
+     * @param planId 计划ID
+     * @return 影响行数
+     */
+    int insertIfAbsent(@Param("planId") Long planId);
+
+    /**
+     * 新增或更新名额设置
+     * @param capacity 名额设置
+     * @return 影响行数
+     */
+    int upsert(ActivityCapacity capacity);
+
+    /**
+     * 删除名额设置
+     * @param planId 计划ID
+     * @return 影响行数
+     */
+    int deleteByPlanId(@Param("planId") Long planId);
+}
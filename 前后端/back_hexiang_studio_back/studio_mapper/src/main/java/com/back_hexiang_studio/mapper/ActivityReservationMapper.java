@@ -138,4 +138,49 @@ public interface ActivityReservationMapper {
      * @return 影响行数
      */
     int updateReservationStatus(@Param("planId") Long planId, @Param("studentId") Long studentId, @Param("status") String status);
-} 
\ No newline at end of file
+    
+    /**
+     * 查询学生在某活动的有效预约（已预约、已签到、候补）
+     * @param planId 计划ID
+     * @param studentId 学生ID
+     * @return 预约记录，不存在时返回null
+     */
+    ActivityReservation selectActiveByPlanIdAndStudentId(@Param("planId") Long planId, @Param("studentId") Long studentId);
+    
+    /**
+     * 批量查询学生在某活动的有效预约（已预约、已签到、候补）
+     * @param planId 计划ID
+     * @param studentIds 学生ID列表
+     * @return 预约记录列表
+     */
+    List<ActivityReservation> selectActiveByPlanIdAndStudentIds(@Param("planId") Long planId, @Param("studentIds") List<Long> studentIds);
+    
+    /**
+     * 统计已占用名额（已预约、已签到）
+     * @param planId 计划ID
+     * @return 已占用名额
+     */
+    int countOccupiedSeats(@Param("planId") Long planId);
+    
+    /**
+     * 统计候补人数
+     * @param planId 计划ID
+     * @return 候补人数
+     */
+    int countWaitlisted(@Param("planId") Long planId);
+    
+    /**
+     * 按预约先后查询候补名单
+     * @param planId 计划ID
+     * @param limit 最多返回条数，为空时返回全部
+     * @return 候补预约列表
+     */
+    List<ActivityReservation> selectWaitlisted(@Param("planId") Long planId, @Param("limit") Integer limit);
+    
+    /**
+     * 候补转为已预约
+     * @param reservationIds 预约ID列表
+     * @return 影响行数
+     */
+    int promoteWaitlisted(@Param("reservationIds") List<Long> reservationIds);
+}
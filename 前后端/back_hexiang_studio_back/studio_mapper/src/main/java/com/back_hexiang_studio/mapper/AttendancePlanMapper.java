@@ -29,15 +29,18 @@ public interface AttendancePlanMapper {
     // 查询考勤计划总数
     int selectCount(Map<String, Object> params);
     
-    // 查询已结束但未处理的课程考勤计划
-    List<AttendancePlan> findExpiredUnprocessedCoursePlans();
+    // 查询已结束但未处理（仍有未签到记录）的课程考勤计划，只取 plan_id % shardCount = shardIndex 的分片
+    List<AttendancePlan> findExpiredUnprocessedCoursePlans(@Param("shardIndex") int shardIndex,
+                                                           @Param("shardCount") int shardCount);
     
     // 查询指定日期的考勤计划
     List<AttendancePlan> selectByDate(@Param("date") LocalDate date);
 
-    //查找时间段中考勤计划
+    //查找时间段中考勤计划，只取 plan_id % shardCount = shardIndex 的分片
     List<AttendancePlan> findDutyPlanByTimeRange(@Param("startTime") LocalDateTime startTime,
-                                                 @Param("endTime") LocalDateTime endTime);
+                                                 @Param("endTime") LocalDateTime endTime,
+                                                 @Param("shardIndex") int shardIndex,
+                                                 @Param("shardCount") int shardCount);
 
     //查找即将开始考勤的计划（30分钟后）
     List<AttendancePlan> findUpcomingAttendancePlans( @Param("startTime") LocalDateTime startTime,
@@ -60,4 +63,17 @@ public interface AttendancePlanMapper {
     
     // 根据值班安排ID查找考勤计划ID
     Long findPlanIdByScheduleId(@Param("scheduleId") Long scheduleId);
+
+    // 一次查询学生可见的有效考勤计划（课程选修、活动预约、值班名单），附带统计数据和本人考勤状态
+    List<Map<String, Object>> selectVisiblePlansForStudent(@Param("studentId") Long studentId,
+                                                           @Param("admin") boolean admin,
+                                                           @Param("now") LocalDateTime now,
+                                                           @Param("showBefore") LocalDateTime showBefore);
+
+    // 查询签到窗口内（已开始或即将开始、尚未结束）的有效考勤计划
+    List<AttendancePlan> findPlansInCheckInWindow(@Param("now") LocalDateTime now,
+                                                  @Param("until") LocalDateTime until);
+
+    // 查询有资格参与考勤计划的学生ID（课程选修、活动预约、值班名单）
+    List<Long> selectEligibleStudentIds(@Param("planId") Long planId);
 }
\ No newline at end of file
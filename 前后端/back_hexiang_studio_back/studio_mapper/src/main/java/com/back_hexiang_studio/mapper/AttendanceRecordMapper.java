@@ -45,6 +45,19 @@ public interface AttendanceRecordMapper {
 
     List<AttendanceRecord> findByPlanAndStatus(@Param("planId") Long planId, @Param("attendanceStatus") AttendanceStatus attendanceStatus);
 
+    /**
+     * 将多个考勤计划中未签到的记录批量标记为缺席
+     * @param planIds 考勤计划ID列表
+     * @param updateTime 更新时间
+     * @return 更新的记录数
+     */
+    int markPendingAsAbsentByPlanIds(@Param("planIds") List<Long> planIds, @Param("updateTime") LocalDateTime updateTime);
+
+    /**
+     * 按 (计划ID, 学生ID) 批量查询并加悲观锁，用于签到记录批量落库
+     */
+    List<AttendanceRecord> findByPlanStudentPairsForUpdate(@Param("records") List<AttendanceRecord> records);
+
     @Select("SELECT ar.*, s.student_name, s.student_number, ap.name as plan_name, ap.start_time, ap.end_time " +
             "FROM attendance_record ar " +
             "JOIN student s ON ar.student_id = s.id " +
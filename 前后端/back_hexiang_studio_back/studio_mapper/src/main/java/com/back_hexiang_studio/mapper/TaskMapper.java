@@ -59,8 +59,8 @@ public interface TaskMapper {
     //检擦任务是否存在
     Long isTaskExist(Long taskId);
 
-    // 批量更新逾期任务状态
-    void updateOverdueTasksStatus();
+    // 批量更新逾期任务状态，返回更新条数
+    int updateOverdueTasksStatus();
 
     // 根据用户ID查找紧急的待办任务
     List<MyTaskVO> findUrgentTasksByUserId(@Param("userId") Long userId);
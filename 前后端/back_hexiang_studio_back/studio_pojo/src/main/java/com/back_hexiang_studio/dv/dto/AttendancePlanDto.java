@@ -85,4 +85,14 @@ public class AttendancePlanDto {
      * 常用地点ID，如果使用常用地点则填写此字段
      */
     private Integer commonLocationId;
+    
+    /**
+     * 活动名额上限(活动考勤专用)，小于等于0表示不限
+     */
+    private Integer capacity;
+    
+    /**
+     * 名额已满时是否开启候补(活动考勤专用)
+     */
+    private Boolean waitlistEnabled;
 } 
\ No newline at end of file
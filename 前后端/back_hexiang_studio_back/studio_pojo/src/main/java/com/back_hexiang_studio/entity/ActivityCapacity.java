@@ -0,0 +1,43 @@
+package com.back_hexiang_studio.entity;
+
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * 活动名额设置
+ * 每个活动计划一行，预约时对该行加锁，保证名额分配与重复预约检查的原子性
+ */
+@Data
+public class ActivityCapacity {
+    /**
+     * 活动计划ID
+     */
+    private Long planId;
+
+    /**
+     * 名额上限，为空或小于等于0表示不限
+     */
+    private Integer capacity;
+
+    /**
+     * 名额已满时是否进入候补名单
+     */
+    private Boolean waitlistEnabled;
+
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createTime;
+
+    /**
+     * 更新时间
+     */
+    private LocalDateTime updateTime;
+
+    /**
+     * 是否限制名额
+     */
+    public boolean isLimited() {
+        return capacity != null && capacity > 0;
+    }
+}
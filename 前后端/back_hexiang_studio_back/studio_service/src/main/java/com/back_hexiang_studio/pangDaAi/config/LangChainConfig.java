@@ -1,6 +1,7 @@
 package com.back_hexiang_studio.pangDaAi.config;
 
 import com.back_hexiang_studio.pangDaAi.service.memory.PersistentChatMemoryStore;
+import com.back_hexiang_studio.pangDaAi.service.rag.LocalVectorEmbeddingStore;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.memory.ChatMemory;
 import dev.langchain4j.memory.chat.MessageWindowChatMemory;
@@ -81,6 +82,18 @@ public class LangChainConfig {
     @Value("${langchain4j.embedding-store.dimension:1536}")
     private Integer milvusDimension;
 
+    @Value("${langchain4j.embedding-store.local.hnsw-threshold:5000}")
+    private int localHnswThreshold;
+
+    @Value("${langchain4j.embedding-store.local.m:16}")
+    private int localHnswM;
+
+    @Value("${langchain4j.embedding-store.local.ef-construction:100}")
+    private int localEfConstruction;
+
+    @Value("${langchain4j.embedding-store.local.ef-search:256}")
+    private int localEfSearch;
+
     // ===================================================================
     // Chat / StreamingChat 模型配置验证
     // 依赖 Spring Boot Starter 自动装配，但验证工具调用支持
@@ -131,6 +144,13 @@ public class LangChainConfig {
         if ("milvus".equalsIgnoreCase(embeddingStoreProvider)) {
             return createMilvusEmbeddingStore();
         }
+        // 单机 / 离线部署：本地连续数组 + HNSW，无需 Milvus 容器
+        if ("local".equalsIgnoreCase(embeddingStoreProvider)) {
+            log.info(" 本地向量存储配置 - Dimension: {}, HNSW阈值: {}, M: {}, efConstruction: {}, efSearch: {}",
+                    milvusDimension, localHnswThreshold, localHnswM, localEfConstruction, localEfSearch);
+            return new LocalVectorEmbeddingStore(milvusDimension, localHnswThreshold, localHnswM,
+                    localEfConstruction, localEfSearch);
+        }
         return new InMemoryEmbeddingStore<>();
     }
 
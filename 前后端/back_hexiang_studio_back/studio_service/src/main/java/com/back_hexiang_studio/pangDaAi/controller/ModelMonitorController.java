@@ -2,6 +2,7 @@ package com.back_hexiang_studio.pangDaAi.controller;
 
 import com.back_hexiang_studio.pangDaAi.service.ModelRouterService;
 import com.back_hexiang_studio.pangDaAi.service.ModelRouterService.AIModel;
+import com.back_hexiang_studio.pangDaAi.service.ModelUsageMetrics;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -12,6 +13,7 @@ import java.util.*;
 
 /**
  * AI模型监控管理后台控制器
+ * 统计类接口读取小时/日汇总表（由 ModelUsageRollupService 定时维护），实时状态读取内存指标
  */
 @RestController
 @RequestMapping("/api/model-monitor")
@@ -23,6 +25,9 @@ public class ModelMonitorController {
     
     @Autowired
     private ModelRouterService modelRouterService;
+    
+    @Autowired
+    private ModelUsageMetrics modelUsageMetrics;
 
     /**
      * 获取模型使用统计概览
@@ -36,25 +41,25 @@ public class ModelMonitorController {
         try {
             // 总体统计
             String overviewSql = "SELECT " +
-                "COUNT(*) as total_requests, " +
+                "IFNULL(SUM(request_count), 0) as total_requests, " +
                 "COUNT(DISTINCT user_id) as unique_users, " +
-                "SUM(cost) as total_cost, " +
-                "AVG(response_time) as avg_response_time, " +
-                "AVG(success) * 100 as success_rate " +
-                "FROM model_usage_log " +
-                "WHERE create_time >= DATE_SUB(NOW(), INTERVAL ? DAY)";
+                "SUM(total_cost) as total_cost, " +
+                "SUM(total_response_time) / NULLIF(SUM(response_count), 0) as avg_response_time, " +
+                "SUM(success_count) * 100 / NULLIF(SUM(request_count), 0) as success_rate " +
+                "FROM model_usage_rollup_daily " +
+                "WHERE stat_date >= DATE_SUB(CURDATE(), INTERVAL ? DAY)";
                 
             Map<String, Object> overview = jdbcTemplate.queryForMap(overviewSql, days);
             result.put("overview", overview);
             
             // 各模型使用分布
             String modelDistSql = "SELECT model_name, " +
-                "COUNT(*) as request_count, " +
-                "SUM(cost) as total_cost, " +
-                "AVG(response_time) as avg_response_time, " +
-                "AVG(success) * 100 as success_rate " +
-                "FROM model_usage_log " +
-                "WHERE create_time >= DATE_SUB(NOW(), INTERVAL ? DAY) " +
+                "SUM(request_count) as request_count, " +
+                "SUM(total_cost) as total_cost, " +
+                "SUM(total_response_time) / NULLIF(SUM(response_count), 0) as avg_response_time, " +
+                "SUM(success_count) * 100 / NULLIF(SUM(request_count), 0) as success_rate " +
+                "FROM model_usage_rollup_daily " +
+                "WHERE stat_date >= DATE_SUB(CURDATE(), INTERVAL ? DAY) " +
                 "GROUP BY model_name " +
                 "ORDER BY request_count DESC";
                 
@@ -63,10 +68,10 @@ public class ModelMonitorController {
             
             // 问题类型分布
             String questionTypeSql = "SELECT question_type, " +
-                "COUNT(*) as count, " +
+                "SUM(selection_count) as count, " +
                 "GROUP_CONCAT(DISTINCT selected_model) as models_used " +
-                "FROM model_selection_log " +
-                "WHERE create_time >= DATE_SUB(NOW(), INTERVAL ? DAY) " +
+                "FROM model_selection_rollup_daily " +
+                "WHERE stat_date >= DATE_SUB(CURDATE(), INTERVAL ? DAY) " +
                 "GROUP BY question_type " +
                 "ORDER BY count DESC";
                 
@@ -74,13 +79,13 @@ public class ModelMonitorController {
             result.put("questionTypeDistribution", questionTypeStats);
             
             // 每日成本趋势
-            String costTrendSql = "SELECT DATE(create_time) as date, " +
-                "SUM(cost) as daily_cost, " +
-                "COUNT(*) as daily_requests, " +
+            String costTrendSql = "SELECT stat_date as date, " +
+                "SUM(total_cost) as daily_cost, " +
+                "SUM(request_count) as daily_requests, " +
                 "COUNT(DISTINCT user_id) as daily_users " +
-                "FROM model_usage_log " +
-                "WHERE create_time >= DATE_SUB(CURDATE(), INTERVAL ? DAY) " +
-                "GROUP BY DATE(create_time) " +
+                "FROM model_usage_rollup_daily " +
+                "WHERE stat_date >= DATE_SUB(CURDATE(), INTERVAL ? DAY) " +
+                "GROUP BY stat_date " +
                 "ORDER BY date DESC";
                 
             List<Map<String, Object>> costTrend = jdbcTemplate.queryForList(costTrendSql, days);
@@ -111,14 +116,14 @@ public class ModelMonitorController {
         try {
             // 用户使用量排行
             String usageRankSql = "SELECT u.name as user_name, " +
-                "COUNT(*) as request_count, " +
-                "SUM(mul.cost) as total_cost, " +
-                "AVG(mul.response_time) as avg_response_time, " +
-                "GROUP_CONCAT(DISTINCT mul.model_name) as models_used " +
-                "FROM model_usage_log mul " +
-                "LEFT JOIN user u ON mul.user_id = u.user_id " +
-                "WHERE mul.create_time >= DATE_SUB(NOW(), INTERVAL ? DAY) " +
-                "GROUP BY mul.user_id, u.name " +
+                "SUM(r.request_count) as request_count, " +
+                "SUM(r.total_cost) as total_cost, " +
+                "SUM(r.total_response_time) / NULLIF(SUM(r.response_count), 0) as avg_response_time, " +
+                "GROUP_CONCAT(DISTINCT r.model_name) as models_used " +
+                "FROM model_usage_rollup_daily r " +
+                "LEFT JOIN user u ON r.user_id = u.user_id " +
+                "WHERE r.stat_date >= DATE_SUB(CURDATE(), INTERVAL ? DAY) " +
+                "GROUP BY r.user_id, u.name " +
                 "ORDER BY request_count DESC " +
                 "LIMIT ?";
                 
@@ -127,13 +132,13 @@ public class ModelMonitorController {
             
             // 成本消耗排行
             String costRankSql = "SELECT u.name as user_name, " +
-                "SUM(mul.cost) as total_cost, " +
-                "COUNT(*) as request_count, " +
-                "ROUND(SUM(mul.cost) / COUNT(*), 4) as avg_cost_per_request " +
-                "FROM model_usage_log mul " +
-                "LEFT JOIN user u ON mul.user_id = u.user_id " +
-                "WHERE mul.create_time >= DATE_SUB(NOW(), INTERVAL ? DAY) " +
-                "GROUP BY mul.user_id, u.name " +
+                "SUM(r.total_cost) as total_cost, " +
+                "SUM(r.request_count) as request_count, " +
+                "ROUND(SUM(r.total_cost) / NULLIF(SUM(r.request_count), 0), 4) as avg_cost_per_request " +
+                "FROM model_usage_rollup_daily r " +
+                "LEFT JOIN user u ON r.user_id = u.user_id " +
+                "WHERE r.stat_date >= DATE_SUB(CURDATE(), INTERVAL ? DAY) " +
+                "GROUP BY r.user_id, u.name " +
                 "ORDER BY total_cost DESC " +
                 "LIMIT ?";
                 
@@ -160,31 +165,14 @@ public class ModelMonitorController {
         Map<String, Object> result = new HashMap<>();
         
         try {
-            // 最近1小时的模型使用情况
-            String realtimeSql = "SELECT model_name, " +
-                "COUNT(*) as recent_requests, " +
-                "AVG(response_time) as avg_response_time, " +
-                "AVG(success) * 100 as success_rate, " +
-                "MAX(create_time) as last_used " +
-                "FROM model_usage_log " +
-                "WHERE create_time >= DATE_SUB(NOW(), INTERVAL 1 HOUR) " +
-                "GROUP BY model_name " +
-                "ORDER BY recent_requests DESC";
-                
-            List<Map<String, Object>> realtimeStats = jdbcTemplate.queryForList(realtimeSql);
-            result.put("realtimeStats", realtimeStats);
+            // 最近1小时的模型使用情况（内存分钟窗口）
+            result.put("realtimeStats", modelUsageMetrics.getRealtimeStats());
             
             // 系统健康状况
-            String healthSql = "SELECT " +
-                "COUNT(*) as total_requests_last_hour, " +
-                "AVG(success) * 100 as overall_success_rate, " +
-                "AVG(response_time) as avg_response_time, " +
-                "COUNT(DISTINCT user_id) as active_users " +
-                "FROM model_usage_log " +
-                "WHERE create_time >= DATE_SUB(NOW(), INTERVAL 1 HOUR)";
-                
-            Map<String, Object> systemHealth = jdbcTemplate.queryForMap(healthSql);
-            result.put("systemHealth", systemHealth);
+            result.put("systemHealth", modelUsageMetrics.getSystemHealth());
+            
+            // 对话预处理各阶段耗时
+            result.put("pipelineStages", modelUsageMetrics.getStageStats());
             
             // 模型配置信息
             List<Map<String, Object>> modelConfigs = new ArrayList<>();
@@ -222,13 +210,13 @@ public class ModelMonitorController {
         try {
             // 今日高成本用户
             String highCostUsersSql = "SELECT u.name as user_name, " +
-                "SUM(mul.cost) as today_cost, " +
-                "COUNT(*) as today_requests, " +
-                "ROUND(SUM(mul.cost) / COUNT(*), 4) as avg_cost_per_request " +
-                "FROM model_usage_log mul " +
-                "LEFT JOIN user u ON mul.user_id = u.user_id " +
-                "WHERE DATE(mul.create_time) = CURDATE() " +
-                "GROUP BY mul.user_id, u.name " +
+                "SUM(r.total_cost) as today_cost, " +
+                "SUM(r.request_count) as today_requests, " +
+                "ROUND(SUM(r.total_cost) / NULLIF(SUM(r.request_count), 0), 4) as avg_cost_per_request " +
+                "FROM model_usage_rollup_daily r " +
+                "LEFT JOIN user u ON r.user_id = u.user_id " +
+                "WHERE r.stat_date = CURDATE() " +
+                "GROUP BY r.user_id, u.name " +
                 "HAVING today_cost > 10.0 " +
                 "ORDER BY today_cost DESC " +
                 "LIMIT 20";
@@ -236,15 +224,15 @@ public class ModelMonitorController {
             List<Map<String, Object>> highCostUsers = jdbcTemplate.queryForList(highCostUsersSql);
             result.put("highCostUsers", highCostUsers);
             
-            // 异常使用模式检测
+            // 异常使用模式检测（按小时汇总：上一整点至今）
             String anomalyDetectionSql = "SELECT u.name as user_name, " +
-                "mul.model_name, " +
-                "COUNT(*) as usage_count, " +
-                "AVG(mul.response_time) as avg_response_time " +
-                "FROM model_usage_log mul " +
-                "LEFT JOIN user u ON mul.user_id = u.user_id " +
-                "WHERE mul.create_time >= DATE_SUB(NOW(), INTERVAL 1 HOUR) " +
-                "GROUP BY mul.user_id, mul.model_name, u.name " +
+                "r.model_name, " +
+                "SUM(r.request_count) as usage_count, " +
+                "SUM(r.total_response_time) / NULLIF(SUM(r.response_count), 0) as avg_response_time " +
+                "FROM model_usage_rollup_hourly r " +
+                "LEFT JOIN user u ON r.user_id = u.user_id " +
+                "WHERE r.bucket_time >= DATE_FORMAT(DATE_SUB(NOW(), INTERVAL 1 HOUR), '%Y-%m-%d %H:00:00') " +
+                "GROUP BY r.user_id, r.model_name, u.name " +
                 "HAVING usage_count > 50 " +  // 1小时内使用超过50次
                 "ORDER BY usage_count DESC " +
                 "LIMIT 10";
@@ -254,11 +242,11 @@ public class ModelMonitorController {
             
             // 模型失败率预警
             String failureRateSql = "SELECT model_name, " +
-                "COUNT(*) as total_requests, " +
-                "SUM(CASE WHEN success = 0 THEN 1 ELSE 0 END) as failed_requests, " +
-                "ROUND((SUM(CASE WHEN success = 0 THEN 1 ELSE 0 END) / COUNT(*)) * 100, 2) as failure_rate " +
-                "FROM model_usage_log " +
-                "WHERE create_time >= DATE_SUB(NOW(), INTERVAL 2 HOUR) " +
+                "SUM(request_count) as total_requests, " +
+                "SUM(request_count - success_count) as failed_requests, " +
+                "ROUND((SUM(request_count - success_count) / SUM(request_count)) * 100, 2) as failure_rate " +
+                "FROM model_usage_rollup_hourly " +
+                "WHERE bucket_time >= DATE_FORMAT(DATE_SUB(NOW(), INTERVAL 2 HOUR), '%Y-%m-%d %H:00:00') " +
                 "GROUP BY model_name " +
                 "HAVING failure_rate > 5.0 " +  // 失败率超过5%
                 "ORDER BY failure_rate DESC";
@@ -290,25 +278,25 @@ public class ModelMonitorController {
         try {
             // 用户个人使用统计
             String personalStatsSql = "SELECT " +
-                "COUNT(*) as total_requests, " +
-                "SUM(cost) as total_cost, " +
-                "AVG(cost) as avg_cost_per_request, " +
-                "AVG(response_time) as avg_response_time, " +
-                "AVG(success) * 100 as success_rate, " +
+                "IFNULL(SUM(request_count), 0) as total_requests, " +
+                "SUM(total_cost) as total_cost, " +
+                "SUM(total_cost) / NULLIF(SUM(request_count), 0) as avg_cost_per_request, " +
+                "SUM(total_response_time) / NULLIF(SUM(response_count), 0) as avg_response_time, " +
+                "SUM(success_count) * 100 / NULLIF(SUM(request_count), 0) as success_rate, " +
                 "COUNT(DISTINCT model_name) as models_used " +
-                "FROM model_usage_log " +
-                "WHERE user_id = ? AND create_time >= DATE_SUB(NOW(), INTERVAL ? DAY)";
+                "FROM model_usage_rollup_daily " +
+                "WHERE user_id = ? AND stat_date >= DATE_SUB(CURDATE(), INTERVAL ? DAY)";
                 
             Map<String, Object> personalStats = jdbcTemplate.queryForMap(personalStatsSql, userId, days);
             result.put("personalStats", personalStats);
             
             // 用户模型使用偏好
             String modelPreferenceSql = "SELECT model_name, " +
-                "COUNT(*) as usage_count, " +
-                "SUM(cost) as total_cost, " +
-                "AVG(response_time) as avg_response_time " +
-                "FROM model_usage_log " +
-                "WHERE user_id = ? AND create_time >= DATE_SUB(NOW(), INTERVAL ? DAY) " +
+                "SUM(request_count) as usage_count, " +
+                "SUM(total_cost) as total_cost, " +
+                "SUM(total_response_time) / NULLIF(SUM(response_count), 0) as avg_response_time " +
+                "FROM model_usage_rollup_daily " +
+                "WHERE user_id = ? AND stat_date >= DATE_SUB(CURDATE(), INTERVAL ? DAY) " +
                 "GROUP BY model_name " +
                 "ORDER BY usage_count DESC";
                 
@@ -317,10 +305,10 @@ public class ModelMonitorController {
             
             // 用户问题类型分布
             String questionTypeStatsSql = "SELECT question_type, " +
-                "COUNT(*) as count, " +
+                "SUM(selection_count) as count, " +
                 "GROUP_CONCAT(DISTINCT selected_model) as models_used " +
-                "FROM model_selection_log " +
-                "WHERE user_id = ? AND create_time >= DATE_SUB(NOW(), INTERVAL ? DAY) " +
+                "FROM model_selection_rollup_daily " +
+                "WHERE user_id = ? AND stat_date >= DATE_SUB(CURDATE(), INTERVAL ? DAY) " +
                 "GROUP BY question_type " +
                 "ORDER BY count DESC";
                 
@@ -76,6 +76,15 @@ public class DynamicAIService {
         return streamingChatModelCache.computeIfAbsent(modelName, this::createStreamingChatModel);
     }
     
+    /**
+     * 智能路由选择流式模型名称（调用方按名称缓存模型相关对象时使用）
+     */
+    public String selectStreamingModelName(String userMessage, Long userId, String sessionId) {
+        ModelRouterService.AIModel selectedModel = modelRouterService.selectModel(userMessage, userId, sessionId);
+        log.info("  动态选择模型: {} ({})", selectedModel.getModelName(), selectedModel.getDescription());
+        return selectedModel.getModelName();
+    }
+    
     /**
      * 根据指定模型名获取聊天模型
      */
@@ -0,0 +1,165 @@
+package com.back_hexiang_studio.pangDaAi.service;
+
+import com.back_hexiang_studio.pangDaAi.config.AIModelProperties;
+import com.back_hexiang_studio.pangDaAi.service.rag.ToolClassificationService;
+import com.back_hexiang_studio.pangDaAi.service.rag.ToolClassificationService.ToolCategory;
+import com.back_hexiang_studio.pangDaAi.service.rag.ToolClassificationService.UsageScenario;
+import com.back_hexiang_studio.pangDaAi.util.KeywordAutomaton;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 共享关键词分类器
+ *
+ * 把问题类型（AIModelProperties.questionTypes）、工具分类、使用场景、特殊查询模式、
+ * 背景信息提示等所有关键词编进同一个 Aho-Corasick 自动机，启动时构建一次。
+ * 同一条消息只扫描一遍，结果短暂缓存，供模型路由、工具分类、RAG检索策略、背景信息过滤共同使用。
+ *
+ * @author 胖达AI助手开发团队
+ */
+@Slf4j
+@Component
+public class KeywordClassifier {
+
+    public static final String QUESTION_GROUP = "question:";
+    public static final String CATEGORY_GROUP = "category:";
+    public static final String SCENARIO_GROUP = "scenario:";
+    public static final String PATTERN_GROUP = "pattern:";
+    public static final String HINT_GROUP = "hint:";
+
+    private static final String DEFAULT_QUESTION_TYPE = "CASUAL";
+
+    // 未配置 questionTypes 时使用的默认关键词（按匹配优先级排列）
+    private static final Map<String, List<String>> DEFAULT_QUESTION_KEYWORDS = new LinkedHashMap<>();
+    static {
+        DEFAULT_QUESTION_KEYWORDS.put("CASUAL", Arrays.asList("你好", "hello", "hi", "谢谢", "再见", "天气", "新闻", "时间"));
+        DEFAULT_QUESTION_KEYWORDS.put("STUDIO_QUERY", Arrays.asList("查询", "查看", "显示", "列表", "谁是", "我是谁", "成员", "人员", "统计"));
+        DEFAULT_QUESTION_KEYWORDS.put("STUDIO_MANAGEMENT", Arrays.asList("任务", "考勤", "请假", "审批", "权限", "角色", "部门", "管理", "分配"));
+        DEFAULT_QUESTION_KEYWORDS.put("COMPLEX_ANALYSIS", Arrays.asList("分析", "对比", "建议", "优化", "决策", "策略", "评估", "如何提高"));
+        DEFAULT_QUESTION_KEYWORDS.put("LONG_CONTENT", Arrays.asList("计划", "方案", "总结", "报告", "详细说明", "完整介绍"));
+        DEFAULT_QUESTION_KEYWORDS.put("CODE_GENERATION", Arrays.asList("代码", "编程", "开发", "bug", "调试", "系统设计", "架构", "算法", "数据库", "API"));
+    }
+
+    /**
+     * 背景信息过滤使用的工具提示分类
+     */
+    public enum ContextHint {
+        USER("用户", "成员", "人员", "档案", "添加", "删除", "修改"),
+        STUDIO("部门", "统计", "组织", "工作室"),
+        NOTICE("公告", "通知", "消息"),
+        ATTENDANCE("考勤", "签到", "出勤"),
+        TASK("任务", "作业", "项目"),
+        COURSE("课程", "培训", "上课"),
+        MATERIAL("资料", "材料", "文档", "文件"),
+        WEATHER("天气", "预报", "气温"),
+        NEWS("新闻", "资讯", "头条");
+
+        private final List<String> keywords;
+
+        ContextHint(String... keywords) {
+            this.keywords = Arrays.asList(keywords);
+        }
+
+        public List<String> getKeywords() { return keywords; }
+    }
+
+    @Autowired
+    private AIModelProperties aiModelProperties;
+
+    private KeywordAutomaton automaton;
+
+    // 问题类型按配置顺序匹配，先命中者优先
+    private List<String> questionTypeOrder;
+
+    // 同一条消息会被多个环节分类，短暂缓存扫描结果
+    private final Cache<String, KeywordAutomaton.Hits> recentScans = CacheBuilder.newBuilder()
+            .maximumSize(512)
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
+
+    @PostConstruct
+    public void initialize() {
+        KeywordAutomaton.Builder builder = KeywordAutomaton.builder();
+
+        Map<String, List<String>> questionKeywords = new LinkedHashMap<>();
+        if (aiModelProperties.getQuestionTypes() != null) {
+            for (Map.Entry<String, AIModelProperties.QuestionTypeConfig> entry : aiModelProperties.getQuestionTypes().entrySet()) {
+                if (entry.getValue() != null && entry.getValue().getKeywords() != null) {
+                    questionKeywords.put(entry.getKey(), entry.getValue().getKeywords());
+                }
+            }
+        }
+        if (questionKeywords.isEmpty()) {
+            questionKeywords = DEFAULT_QUESTION_KEYWORDS;
+        }
+        for (Map.Entry<String, List<String>> entry : questionKeywords.entrySet()) {
+            for (String keyword : entry.getValue()) {
+                // 自动机只做字面匹配，带通配符的旧正则写法跳过（如“制定.*计划”已被“计划”覆盖）
+                if (keyword.contains(".*")) {
+                    log.debug(" 跳过正则形式的问题类型关键词: {} -> {}", entry.getKey(), keyword);
+                    continue;
+                }
+                builder.add(QUESTION_GROUP + entry.getKey(), keyword);
+            }
+        }
+        questionTypeOrder = new ArrayList<>(questionKeywords.keySet());
+
+        for (ToolCategory category : ToolCategory.values()) {
+            builder.addAll(CATEGORY_GROUP + category.getCode(), category.getKeywords());
+        }
+        for (UsageScenario scenario : UsageScenario.values()) {
+            builder.addAll(SCENARIO_GROUP + scenario.name(), scenario.getKeywords());
+        }
+        for (Map.Entry<String, List<String>> entry : ToolClassificationService.SPECIAL_PATTERN_KEYWORDS.entrySet()) {
+            builder.addAll(PATTERN_GROUP + entry.getKey(), entry.getValue());
+        }
+        for (ContextHint hint : ContextHint.values()) {
+            builder.addAll(HINT_GROUP + hint.name(), hint.getKeywords());
+        }
+
+        automaton = builder.build();
+        log.info(" 关键词分类自动机构建完成: {} 个关键词, 问题类型优先级: {}", automaton.size(), questionTypeOrder);
+    }
+
+    /**
+     * 扫描消息，返回所有分组的命中结果
+     *
+     * @param message 用户消息
+     * @return 命中结果
+     */
+    public KeywordAutomaton.Hits scan(String message) {
+        if (message == null || message.isEmpty()) {
+            return automaton.scan(message);
+        }
+        try {
+            return recentScans.get(message, () -> automaton.scan(message));
+        } catch (ExecutionException e) {
+            return automaton.scan(message);
+        }
+    }
+
+    /**
+     * 问题类型：按配置顺序返回第一个命中的类型，均未命中为 CASUAL
+     */
+    public String classifyQuestion(String message) {
+        KeywordAutomaton.Hits hits = scan(message);
+        for (String questionType : questionTypeOrder) {
+            if (hits.contains(QUESTION_GROUP + questionType)) {
+                return questionType;
+            }
+        }
+        return DEFAULT_QUESTION_TYPE;
+    }
+}
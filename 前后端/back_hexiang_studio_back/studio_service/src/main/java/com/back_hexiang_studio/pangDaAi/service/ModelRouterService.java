@@ -2,12 +2,18 @@ package com.back_hexiang_studio.pangDaAi.service;
 
 import com.back_hexiang_studio.pangDaAi.config.AIModelProperties;
 import lombok.extern.slf4j.Slf4j;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 智能AI模型路由服务
@@ -19,16 +25,70 @@ import java.util.regex.Pattern;
 public class ModelRouterService {
 
     @Autowired
-    private JdbcTemplate jdbcTemplate;
+    private ModelSelectionLogWriter selectionLogWriter;
     
     @Autowired
     private AIModelProperties aiModelProperties;
     
-    // 关键词匹配规则缓存
-    private Map<Pattern, String> keywordPatterns;
+    // 共享关键词分类器（一次扫描完成问题类型匹配）
+    @Autowired
+    private KeywordClassifier keywordClassifier;
+    
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    
+    @Value("${pangda-ai.router.session.max-size:10000}")
+    private long sessionMaxSize;
+    
+    @Value("${pangda-ai.router.session.expire-minutes:30}")
+    private long sessionExpireMinutes;
     
-    // 会话状态缓存
-    private Map<String, SessionState> sessionStateCache = new HashMap<>();
+    // 开启后会话状态以Redis为准，重启和多节点部署时会话粘性不丢失
+    @Value("${pangda-ai.router.session.redis-enabled:false}")
+    private boolean sessionRedisEnabled;
+    
+    private static final String SESSION_REDIS_KEY_PREFIX = "ai:router:session:";
+    
+    // 其他节点并发修改同一会话时的重试次数
+    private static final int SESSION_SAVE_ATTEMPTS = 3;
+    
+    /**
+     * 按版本号比较后写入会话状态（乐观锁），写入和刷新过期时间在一次调用中完成
+     * KEYS: 会话状态Hash
+     * ARGV: 读取时的版本号、过期秒数、字段/值...
+     * 返回新版本号，版本已被其他节点修改时返回 0
+     */
+    private static final DefaultRedisScript<Long> SESSION_SAVE_SCRIPT = new DefaultRedisScript<>(
+            "local current = tonumber(redis.call('HGET', KEYS[1], 'version') or '0')\n" +
+            "if current ~= tonumber(ARGV[1]) then return 0 end\n" +
+            "redis.call('HSET', KEYS[1], 'version', current + 1, unpack(ARGV, 3))\n" +
+            "redis.call('EXPIRE', KEYS[1], ARGV[2])\n" +
+            "return current + 1",
+            Long.class);
+    
+    // 会话状态缓存：按条数上限淘汰 + 访问后过期，过期清理由缓存在读写时分摊完成，不在请求路径上全量扫描
+    private Cache<String, SessionState> sessionStateCache;
+    
+    // 近期活跃度统计窗口：替代对 ai_conversation_log 的 COUNT 查询
+    private static final long ACTIVITY_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final int ACTIVE_SESSION_THRESHOLD = 5;
+    
+    // 每个用户会话最近消息时间戳（滑动窗口），窗口内无消息后自动过期
+    private Cache<String, Deque<Long>> sessionActivityCache;
+    
+    @PostConstruct
+    public void initSessionStore() {
+        sessionStateCache = CacheBuilder.newBuilder()
+                .maximumSize(sessionMaxSize)
+                .expireAfterAccess(sessionExpireMinutes, TimeUnit.MINUTES)
+                .build();
+        sessionActivityCache = CacheBuilder.newBuilder()
+                .maximumSize(sessionMaxSize)
+                .expireAfterAccess(ACTIVITY_WINDOW_MILLIS, TimeUnit.MILLISECONDS)
+                .build();
+        log.info(" 会话状态存储初始化: 最大会话数={}, 过期={}分钟, Redis={}",
+                sessionMaxSize, sessionExpireMinutes, sessionRedisEnabled);
+    }
     
     /**
      * 会话状态类
@@ -41,6 +101,8 @@ public class ModelRouterService {
         private boolean modelLocked;
         private String lockReason;
         private List<String> recentQuestionTypes = new ArrayList<>();
+        // Redis 中的版本号，本地会话为 0
+        private long version;
         
         public SessionState(String model, String questionType) {
             this.currentModel = model;
@@ -78,6 +140,56 @@ public class ModelRouterService {
         }
         public String getLockReason() { return lockReason; }
         public List<String> getRecentQuestionTypes() { return new ArrayList<>(recentQuestionTypes); }
+        
+        /**
+         * 用另一份状态覆盖当前状态（同一会话在本地只保留一个实例）
+         */
+        void copyFrom(SessionState other) {
+            this.currentModel = other.currentModel;
+            this.currentQuestionType = other.currentQuestionType;
+            this.lastInteraction = other.lastInteraction;
+            this.turnCount = other.turnCount;
+            this.modelLocked = other.modelLocked;
+            this.lockReason = other.lockReason;
+            this.recentQuestionTypes = new ArrayList<>(other.recentQuestionTypes);
+            this.version = other.version;
+        }
+        
+        /**
+         * 转换为Redis Hash字段（不含版本号）
+         */
+        Map<String, String> toHash() {
+            Map<String, String> hash = new HashMap<>();
+            hash.put("currentModel", currentModel);
+            hash.put("currentQuestionType", currentQuestionType);
+            hash.put("lastInteraction", lastInteraction.toString());
+            hash.put("turnCount", String.valueOf(turnCount));
+            hash.put("modelLocked", String.valueOf(modelLocked));
+            hash.put("lockReason", lockReason != null ? lockReason : "");
+            hash.put("recentQuestionTypes", String.join(",", recentQuestionTypes));
+            return hash;
+        }
+        
+        /**
+         * 从Redis Hash恢复
+         */
+        static SessionState fromHash(Map<Object, Object> hash) {
+            SessionState state = new SessionState(String.valueOf(hash.get("currentModel")),
+                    String.valueOf(hash.get("currentQuestionType")));
+            state.lastInteraction = LocalDateTime.parse(String.valueOf(hash.get("lastInteraction")));
+            state.turnCount = Integer.parseInt(String.valueOf(hash.get("turnCount")));
+            state.modelLocked = Boolean.parseBoolean(String.valueOf(hash.get("modelLocked")));
+            String reason = String.valueOf(hash.get("lockReason"));
+            state.lockReason = reason.isEmpty() ? null : reason;
+            state.recentQuestionTypes.clear();
+            String types = String.valueOf(hash.get("recentQuestionTypes"));
+            if (!types.isEmpty()) {
+                state.recentQuestionTypes.addAll(Arrays.asList(types.split(",")));
+            }
+            Object version = hash.get("version");
+            state.version = version != null ? Long.parseLong(String.valueOf(version)) : 0L;
+            return state;
+        }
     }
     
     /**
@@ -116,13 +228,10 @@ public class ModelRouterService {
         try {
             log.info(" 智能模型选择开始 - 用户ID: {}, 会话: {}", userId, sessionId);
             
-            // 1. 获取或创建会话状态
+            // 1. 获取或创建会话状态（本地每个会话一个实例）
             SessionState sessionState = getSessionState(sessionId);
             
-            // 2. 清理过期会话状态
-            cleanExpiredSessions();
-            
-            // 3. 分析当前问题
+            // 2. 分析当前问题
             String currentQuestionType = classifyQuestion(userMessage);
             int messageLength = userMessage.length();
             int contextComplexity = analyzeContextComplexity(userMessage, userId, sessionId);
@@ -130,18 +239,18 @@ public class ModelRouterService {
             log.debug("  消息长度: {} 字符,   问题类型: {},  复杂度: {}", 
                      messageLength, currentQuestionType, contextComplexity);
             
-            // 4. 判断是否需要切换模型
-            String selectedModelName = selectModelWithStickiness(
-                sessionState, currentQuestionType, messageLength, contextComplexity, userMessage
-            );
-            
-            // 5. 更新会话状态
-            updateSessionState(sessionState, selectedModelName, currentQuestionType);
+            // 3. 判断是否需要切换模型并更新会话状态（本节点同一会话的并发请求串行修改状态）
+            String selectedModelName;
+            synchronized (sessionState) {
+                selectedModelName = selectAndUpdateSession(
+                    sessionId, sessionState, currentQuestionType, messageLength, contextComplexity, userMessage
+                );
+            }
             
-            // 6. 创建模型实例
+            // 4. 创建模型实例
             AIModel selectedModel = createAIModel(selectedModelName);
             
-            // 7. 记录选择结果
+            // 5. 记录选择结果
             recordModelSelection(userId, sessionId, userMessage, selectedModel, currentQuestionType, sessionState);
             
             log.info("  选择模型: {} ({}) - 会话轮次: {}, 模型锁定: {}", 
@@ -157,46 +266,121 @@ public class ModelRouterService {
     }
     
     /**
-     * 获取或创建会话状态
+     * 获取或创建本地会话状态
+     * 同一会话在本地只有一个实例，开启Redis时由 {@link #selectAndUpdateSession} 在锁内用Redis中的状态覆盖
      */
     private SessionState getSessionState(String sessionId) {
-        SessionState state = sessionStateCache.get(sessionId);
-        
-        if (state == null || isSessionExpired(state)) {
-            log.debug("  创建新的会话状态: {}", sessionId);
-            // 创建新会话状态，使用默认模型
-            state = new SessionState("qwen-plus", "CASUAL");
-            sessionStateCache.put(sessionId, state);
+        try {
+            return sessionStateCache.get(sessionId, () -> {
+                log.debug("  创建新的会话状态: {}", sessionId);
+                // 创建新会话状态，使用默认模型
+                return newSessionState();
+            });
+        } catch (ExecutionException e) {
+            return newSessionState();
         }
-        
-        return state;
     }
     
-    /**
-     * 检查会话是否过期（30分钟无活动）
-     */
-    private boolean isSessionExpired(SessionState state) {
-        return state.getLastInteraction().isBefore(LocalDateTime.now().minusMinutes(30));
+    private static SessionState newSessionState() {
+        return new SessionState("qwen-plus", "CASUAL");
     }
     
     /**
-     * 清理过期会话状态
+     * 选择模型并更新会话状态，调用方需持有会话状态的锁
+     * 开启Redis时以Redis为准（跨节点共享）：读取最新状态 → 选择 → 按版本号写回，
+     * 其他节点已修改时重新读取再选；Redis不可用时退回本地状态
      */
-    private void cleanExpiredSessions() {
-        Iterator<Map.Entry<String, SessionState>> iterator = sessionStateCache.entrySet().iterator();
-        int cleanedCount = 0;
-        
-        while (iterator.hasNext()) {
-            Map.Entry<String, SessionState> entry = iterator.next();
-            if (isSessionExpired(entry.getValue())) {
-                iterator.remove();
-                cleanedCount++;
+    private String selectAndUpdateSession(String sessionId, SessionState sessionState, String questionType,
+                                          int messageLength, int contextComplexity, String userMessage) {
+        String selectedModelName = null;
+        if (sessionRedisEnabled) {
+            String key = SESSION_REDIS_KEY_PREFIX + sessionId;
+            try {
+                for (int attempt = 1; ; attempt++) {
+                    long expectedVersion = loadSharedSessionState(key, sessionState);
+                    selectedModelName = selectModelWithStickiness(
+                        sessionState, questionType, messageLength, contextComplexity, userMessage
+                    );
+                    updateSessionState(sessionState, selectedModelName, questionType);
+                    if (saveSharedSessionState(key, sessionState, expectedVersion)) {
+                        return selectedModelName;
+                    }
+                    if (attempt >= SESSION_SAVE_ATTEMPTS) {
+                        log.warn("  会话 {} 状态被其他节点频繁修改，本轮只更新本地状态", sessionId);
+                        return selectedModelName;
+                    }
+                    log.debug("  会话 {} 状态已被其他节点修改，重新读取后选择", sessionId);
+                }
+            } catch (Exception e) {
+                log.warn("  同步Redis会话状态失败，使用本地状态: {}", e.getMessage());
+                // 本地状态已按本轮更新过，不再重复更新
+                if (selectedModelName != null) {
+                    return selectedModelName;
+                }
             }
         }
         
-        if (cleanedCount > 0) {
-            log.debug("  清理过期会话: {} 个", cleanedCount);
+        selectedModelName = selectModelWithStickiness(
+            sessionState, questionType, messageLength, contextComplexity, userMessage
+        );
+        updateSessionState(sessionState, selectedModelName, questionType);
+        return selectedModelName;
+    }
+    
+    /**
+     * 用Redis中的会话状态覆盖本地实例
+     * @return Redis中的版本号（不存在时为 0），写回时据此判断是否被其他节点修改
+     */
+    private long loadSharedSessionState(String key, SessionState sessionState) {
+        Map<Object, Object> hash = stringRedisTemplate.opsForHash().entries(key);
+        if (hash.isEmpty()) {
+            // Redis中已过期或被重置，本地曾同步过的状态同样作废
+            if (sessionState.version > 0) {
+                sessionState.copyFrom(newSessionState());
+            }
+            return 0L;
         }
+        SessionState remote;
+        try {
+            remote = SessionState.fromHash(hash);
+        } catch (RuntimeException e) {
+            // 无法解析（如旧格式）时按新会话处理，写回时整体覆盖
+            log.debug("  会话状态格式无法解析，重新创建: {}", e.getMessage());
+            Object version = hash.get("version");
+            sessionState.copyFrom(newSessionState());
+            return version != null ? Long.parseLong(String.valueOf(version)) : 0L;
+        }
+        long version = remote.version;
+        sessionState.copyFrom(isSessionExpired(remote) ? newSessionState() : remote);
+        return version;
+    }
+    
+    /**
+     * 版本号未变时写回会话状态并刷新过期时间
+     */
+    private boolean saveSharedSessionState(String key, SessionState sessionState, long expectedVersion) {
+        Map<String, String> hash = sessionState.toHash();
+        List<String> args = new ArrayList<>(hash.size() * 2 + 2);
+        args.add(String.valueOf(expectedVersion));
+        args.add(String.valueOf(TimeUnit.MINUTES.toSeconds(sessionExpireMinutes)));
+        for (Map.Entry<String, String> entry : hash.entrySet()) {
+            args.add(entry.getKey());
+            args.add(entry.getValue());
+        }
+        Long version = stringRedisTemplate.execute(SESSION_SAVE_SCRIPT,
+                Collections.singletonList(key), args.toArray());
+        if (version == null || version == 0L) {
+            return false;
+        }
+        sessionState.version = version;
+        return true;
+    }
+    
+    /**
+     * 检查会话是否过期（默认30分钟无活动）
+     */
+    private boolean isSessionExpired(SessionState state) {
+        return state.getLastInteraction().isBefore(LocalDateTime.now().minusMinutes(sessionExpireMinutes));
     }
     
     /**
@@ -390,50 +574,7 @@ public class ModelRouterService {
      * 问题类型分类
      */
     private String classifyQuestion(String message) {
-        // 初始化关键词模式（懒加载）
-        if (keywordPatterns == null) {
-            initKeywordPatterns();
-        }
-        
-        for (Map.Entry<Pattern, String> entry : keywordPatterns.entrySet()) {
-            if (entry.getKey().matcher(message).find()) {
-                return entry.getValue();
-            }
-        }
-        
-        // 默认为普通问题
-        return "CASUAL";
-    }
-    
-    /**
-     * 初始化关键词匹配模式
-     */
-    private void initKeywordPatterns() {
-        keywordPatterns = new HashMap<>();
-        
-        if (aiModelProperties.getQuestionTypes() != null) {
-            for (Map.Entry<String, AIModelProperties.QuestionTypeConfig> entry : 
-                 aiModelProperties.getQuestionTypes().entrySet()) {
-                
-                String questionType = entry.getKey();
-                AIModelProperties.QuestionTypeConfig config = entry.getValue();
-                
-                if (config.getKeywords() != null) {
-                    String keywordPattern = "(?i).*(" + String.join("|", config.getKeywords()) + ").*";
-                    keywordPatterns.put(Pattern.compile(keywordPattern), questionType);
-                }
-            }
-        }
-        
-        // 如果没有配置，使用默认模式
-        if (keywordPatterns.isEmpty()) {
-            keywordPatterns.put(Pattern.compile("(?i).*(你好|hello|hi|谢谢|再见|天气|新闻|时间).*"), "CASUAL");
-            keywordPatterns.put(Pattern.compile("(?i).*(查询|查看|显示|列表|谁是|我是谁|成员|人员|统计).*"), "STUDIO_QUERY");
-            keywordPatterns.put(Pattern.compile("(?i).*(任务|考勤|请假|审批|权限|角色|部门|管理|分配).*"), "STUDIO_MANAGEMENT");
-            keywordPatterns.put(Pattern.compile("(?i).*(分析|对比|建议|优化|决策|策略|评估|如何提高).*"), "COMPLEX_ANALYSIS");
-            keywordPatterns.put(Pattern.compile("(?i).*(计划|方案|总结|报告|详细说明|完整介绍|制定.*计划).*"), "LONG_CONTENT");
-            keywordPatterns.put(Pattern.compile("(?i).*(代码|编程|开发|bug|调试|系统设计|架构|算法|数据库|API).*"), "CODE_GENERATION");
-        }
+        return keywordClassifier.classifyQuestion(message);
     }
     
     /**
@@ -455,17 +596,9 @@ public class ModelRouterService {
         long questionCount = message.chars().filter(ch -> ch == '?' || ch == '？').count();
         complexity += (int) Math.min(questionCount, 3);
         
-        // 近期对话复杂度
-        try {
-            String sql = "SELECT COUNT(*) FROM ai_conversation_log " +
-                        "WHERE user_id = ? AND session_id = ? " +
-                        "AND create_time > DATE_SUB(NOW(), INTERVAL 10 MINUTE)";
-            Integer recentCount = jdbcTemplate.queryForObject(sql, Integer.class, userId, sessionId);
-            if (recentCount != null && recentCount > 5) {
-                complexity += 1;
-            }
-        } catch (Exception e) {
-            log.debug("分析会话复杂度失败: {}", e.getMessage());
+        // 近期对话复杂度：10分钟内消息数超过阈值视为高频对话
+        if (recordRecentActivity(userId, sessionId) > ACTIVE_SESSION_THRESHOLD) {
+            complexity += 1;
         }
         
         return Math.min(complexity, 10); // 最大复杂度10
@@ -523,32 +656,42 @@ public class ModelRouterService {
     }
     
     /**
-     * 记录模型选择
+     * 记录本次消息并返回窗口内此前的消息数
      */
-    private void recordModelSelection(Long userId, String sessionId, String message, 
-                                    AIModel model, String questionType, SessionState sessionState) {
+    private int recordRecentActivity(Long userId, String sessionId) {
+        String key = userId + ":" + sessionId;
+        long now = System.currentTimeMillis();
         try {
-            String sql = "INSERT INTO model_selection_log " +
-                        "(user_id, session_id, message_length, question_type, " +
-                        "selected_model, model_cost_rate, turn_count, model_locked, create_time) " +
-                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
-            
-            jdbcTemplate.update(sql, 
-                userId, sessionId, message.length(), questionType,
-                model.getModelName(), model.getCostRate(), 
-                sessionState.getTurnCount(), sessionState.isModelLocked(),
-                LocalDateTime.now());
-                
-        } catch (Exception e) {
-            log.error("记录模型选择失败: {}", e.getMessage());
+            Deque<Long> timestamps = sessionActivityCache.get(key, ArrayDeque::new);
+            synchronized (timestamps) {
+                while (!timestamps.isEmpty() && now - timestamps.peekFirst() > ACTIVITY_WINDOW_MILLIS) {
+                    timestamps.pollFirst();
+                }
+                int recentCount = timestamps.size();
+                timestamps.addLast(now);
+                return recentCount;
+            }
+        } catch (ExecutionException e) {
+            log.debug("统计会话活跃度失败: {}", e.getMessage());
+            return 0;
         }
     }
     
+    /**
+     * 记录模型选择（异步批量写入，不阻塞请求线程）
+     */
+    private void recordModelSelection(Long userId, String sessionId, String message, 
+                                    AIModel model, String questionType, SessionState sessionState) {
+        selectionLogWriter.record(userId, sessionId, message.length(), questionType,
+                model.getModelName(), model.getCostRate(),
+                sessionState.getTurnCount(), sessionState.isModelLocked());
+    }
+    
     /**
      * 获取会话状态信息（用于调试）
      */
     public Map<String, Object> getSessionInfo(String sessionId) {
-        SessionState state = sessionStateCache.get(sessionId);
+        SessionState state = sessionStateCache.getIfPresent(sessionId);
         Map<String, Object> info = new HashMap<>();
         
         if (state != null) {
@@ -570,7 +713,14 @@ public class ModelRouterService {
      * 手动重置会话状态
      */
     public void resetSession(String sessionId) {
-        SessionState oldState = sessionStateCache.remove(sessionId);
+        SessionState oldState = sessionStateCache.asMap().remove(sessionId);
+        if (sessionRedisEnabled) {
+            try {
+                stringRedisTemplate.delete(SESSION_REDIS_KEY_PREFIX + sessionId);
+            } catch (Exception e) {
+                log.warn("  删除Redis会话状态失败: {}", e.getMessage());
+            }
+        }
         log.info("手动重置会话状态: {} (之前模型: {})",
                 sessionId, oldState != null ? oldState.getCurrentModel() : "无");
     }
@@ -581,12 +731,14 @@ public class ModelRouterService {
     public Map<String, Object> getSessionStatistics() {
         Map<String, Object> stats = new HashMap<>();
         stats.put("totalActiveSessions", sessionStateCache.size());
+        stats.put("sessionStore", sessionRedisEnabled ? "redis" : "local");
+        stats.put("selectionLog", selectionLogWriter.getStats());
         
         Map<String, Integer> modelUsage = new HashMap<>();
         Map<String, Integer> questionTypeUsage = new HashMap<>();
         int lockedSessions = 0;
         
-        for (SessionState state : sessionStateCache.values()) {
+        for (SessionState state : sessionStateCache.asMap().values()) {
             // 统计模型使用情况
             modelUsage.merge(state.getCurrentModel(), 1, Integer::sum);
             
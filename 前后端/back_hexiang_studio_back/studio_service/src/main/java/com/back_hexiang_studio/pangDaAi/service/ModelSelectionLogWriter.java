@@ -0,0 +1,197 @@
+package com.back_hexiang_studio.pangDaAi.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 模型选择日志异步写入器
+ *
+ * 模型路由在请求线程上只把日志放入有界队列，不等待数据库：
+ * - 队列满时直接丢弃并计数，遥测数据不反压对话请求
+ * - 后台线程定时批量取出，合并为一条多行 INSERT 写入 model_selection_log
+ * - 应用关闭时把队列中剩余的日志刷完
+ *
+ * @author 胖达AI助手开发团队
+ */
+@Slf4j
+@Component
+public class ModelSelectionLogWriter {
+
+    private static final String INSERT_PREFIX = "INSERT INTO model_selection_log " +
+            "(user_id, session_id, message_length, question_type, " +
+            "selected_model, model_cost_rate, turn_count, model_locked, create_time) VALUES ";
+
+    private static final String ROW_PLACEHOLDER = "(?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    @Value("${pangda-ai.router.selection-log.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${pangda-ai.router.selection-log.batch-size:200}")
+    private int batchSize;
+
+    @Value("${pangda-ai.router.selection-log.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private BlockingQueue<SelectionRecord> queue;
+
+    private ScheduledExecutorService flushExecutor;
+
+    private final AtomicLong enqueuedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong writtenCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+
+    @PostConstruct
+    public void initialize() {
+        queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "model-selection-log-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flushExecutor.scheduleWithFixedDelay(this::flushSafely, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        log.info(" 模型选择日志异步写入器初始化完成: 队列容量={}, 批大小={}, 刷新间隔={}ms",
+                queueCapacity, batchSize, flushIntervalMs);
+    }
+
+    /**
+     * 记录一次模型选择（非阻塞，队列满时丢弃）
+     */
+    public void record(Long userId, String sessionId, int messageLength, String questionType,
+                       String modelName, double costRate, int turnCount, boolean modelLocked) {
+        SelectionRecord record = new SelectionRecord(userId, sessionId, messageLength, questionType,
+                modelName, costRate, turnCount, modelLocked, LocalDateTime.now());
+        if (queue.offer(record)) {
+            enqueuedCount.incrementAndGet();
+        } else {
+            // 只在首次和每1000次丢弃时告警，避免日志风暴
+            long dropped = droppedCount.incrementAndGet();
+            if (dropped == 1 || dropped % 1000 == 0) {
+                log.warn(" ️ 模型选择日志队列已满，累计丢弃 {} 条", dropped);
+            }
+        }
+    }
+
+    /**
+     * 写入统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueSize", queue.size());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("enqueued", enqueuedCount.get());
+        stats.put("written", writtenCount.get());
+        stats.put("dropped", droppedCount.get());
+        stats.put("failed", failedCount.get());
+        stats.put("batches", batchCount.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (flushExecutor != null) {
+            flushExecutor.shutdown();
+            try {
+                flushExecutor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // 刷完剩余日志
+        flushSafely();
+        log.info(" 模型选择日志写入器已关闭: {}", getStats());
+    }
+
+    /**
+     * 取空队列，按批大小分批写入
+     */
+    private void flushSafely() {
+        List<SelectionRecord> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(List<SelectionRecord> batch) {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX.length() + batch.size() * (ROW_PLACEHOLDER.length() + 2));
+        sql.append(INSERT_PREFIX);
+        List<Object> args = new ArrayList<>(batch.size() * 9);
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(ROW_PLACEHOLDER);
+            SelectionRecord record = batch.get(i);
+            args.add(record.userId);
+            args.add(record.sessionId);
+            args.add(record.messageLength);
+            args.add(record.questionType);
+            args.add(record.modelName);
+            args.add(record.costRate);
+            args.add(record.turnCount);
+            args.add(record.modelLocked);
+            args.add(record.createTime);
+        }
+
+        try {
+            jdbcTemplate.update(sql.toString(), args.toArray());
+            writtenCount.addAndGet(batch.size());
+            batchCount.incrementAndGet();
+            log.debug(" 批量写入模型选择日志 {} 条", batch.size());
+        } catch (Exception e) {
+            failedCount.addAndGet(batch.size());
+            log.error("批量写入模型选择日志失败，丢弃 {} 条: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * 待写入的模型选择记录
+     */
+    private static class SelectionRecord {
+        private final Long userId;
+        private final String sessionId;
+        private final int messageLength;
+        private final String questionType;
+        private final String modelName;
+        private final double costRate;
+        private final int turnCount;
+        private final boolean modelLocked;
+        private final LocalDateTime createTime;
+
+        SelectionRecord(Long userId, String sessionId, int messageLength, String questionType,
+                        String modelName, double costRate, int turnCount, boolean modelLocked,
+                        LocalDateTime createTime) {
+            this.userId = userId;
+            this.sessionId = sessionId;
+            this.messageLength = messageLength;
+            this.questionType = questionType;
+            this.modelName = modelName;
+            this.costRate = costRate;
+            this.turnCount = turnCount;
+            this.modelLocked = modelLocked;
+            this.createTime = createTime;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.back_hexiang_studio.pangDaAi.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 模型调用实时指标（内存）
+ *
+ * 最近1小时按分钟分桶的环形计数，供监控后台的实时状态接口直接读取，
+ * 不再对 model_usage_log 做近1小时的聚合扫描。
+ * 另外累计对话预处理各阶段（RAG检索、工具筛选、模型路由）的耗时与超时次数。
+ * 指标只反映本实例，重启后清零；历史统计以汇总表为准。
+ *
+ * @author 胖达AI助手开发团队
+ */
+@Slf4j
+@Component
+public class ModelUsageMetrics {
+
+    private static final int WINDOW_MINUTES = 60;
+
+    private final Map<String, ModelWindow> windows = new ConcurrentHashMap<>();
+
+    private final Map<String, StageStats> stages = new ConcurrentHashMap<>();
+
+    // 最近1小时内有调用的用户
+    private final Cache<Long, Boolean> activeUsers = CacheBuilder.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterWrite(WINDOW_MINUTES, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * 记录一次模型调用
+     *
+     * @param userId         用户ID，可为空
+     * @param modelName      模型名称
+     * @param responseTimeMs 响应耗时（毫秒）
+     * @param success        是否成功
+     */
+    public void recordUsage(Long userId, String modelName, long responseTimeMs, boolean success) {
+        if (modelName == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        windows.computeIfAbsent(modelName, name -> new ModelWindow()).record(now, responseTimeMs, success);
+        if (userId != null) {
+            activeUsers.put(userId, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * 各模型最近1小时的调用统计，按请求数降序
+     */
+    public List<Map<String, Object>> getRealtimeStats() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Map.Entry<String, ModelWindow> entry : windows.entrySet()) {
+            WindowSnapshot snapshot = entry.getValue().snapshot(now);
+            if (snapshot.requests == 0) {
+                continue;
+            }
+            Map<String, Object> row = new HashMap<>();
+            row.put("model_name", entry.getKey());
+            row.put("recent_requests", snapshot.requests);
+            row.put("avg_response_time", (double) snapshot.responseMs / snapshot.requests);
+            row.put("success_rate", snapshot.successes * 100.0 / snapshot.requests);
+            row.put("last_used", LocalDateTime.ofInstant(Instant.ofEpochMilli(snapshot.lastUsed), ZoneId.systemDefault()));
+            result.add(row);
+        }
+        result.sort((a, b) -> Long.compare((Long) b.get("recent_requests"), (Long) a.get("recent_requests")));
+        return result;
+    }
+
+    /**
+     * 最近1小时的整体健康状况
+     */
+    public Map<String, Object> getSystemHealth() {
+        long now = System.currentTimeMillis();
+        long requests = 0;
+        long successes = 0;
+        long responseMs = 0;
+        for (ModelWindow window : windows.values()) {
+            WindowSnapshot snapshot = window.snapshot(now);
+            requests += snapshot.requests;
+            successes += snapshot.successes;
+            responseMs += snapshot.responseMs;
+        }
+        activeUsers.cleanUp();
+
+        Map<String, Object> health = new HashMap<>();
+        health.put("total_requests_last_hour", requests);
+        health.put("overall_success_rate", requests == 0 ? null : successes * 100.0 / requests);
+        health.put("avg_response_time", requests == 0 ? null : (double) responseMs / requests);
+        health.put("active_users", activeUsers.size());
+        return health;
+    }
+
+    /**
+     * 记录一次预处理阶段耗时
+     *
+     * @param stage     阶段名称
+     * @param elapsedMs 耗时（毫秒），超时时为等待时长
+     * @param timedOut  是否超时降级
+     */
+    public void recordStage(String stage, long elapsedMs, boolean timedOut) {
+        stages.computeIfAbsent(stage, name -> new StageStats()).record(elapsedMs, timedOut);
+    }
+
+    /**
+     * 各预处理阶段的累计统计（本实例启动以来）
+     */
+    public Map<String, Object> getStageStats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (Map.Entry<String, StageStats> entry : stages.entrySet()) {
+            StageStats stats = entry.getValue();
+            long count = stats.count.sum();
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("count", count);
+            row.put("avg_ms", count == 0 ? 0.0 : (double) stats.totalMs.sum() / count);
+            row.put("max_ms", stats.maxMs.get());
+            row.put("timeouts", stats.timeouts.sum());
+            result.put(entry.getKey(), row);
+        }
+        return result;
+    }
+
+    private static class StageStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalMs = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final AtomicLong maxMs = new AtomicLong();
+
+        void record(long elapsedMs, boolean timedOut) {
+            count.increment();
+            totalMs.add(Math.max(0, elapsedMs));
+            if (timedOut) {
+                timeouts.increment();
+            }
+            maxMs.accumulateAndGet(elapsedMs, Math::max);
+        }
+    }
+
+    /**
+     * 单个模型的分钟环形窗口
+     */
+    private static class ModelWindow {
+        private final long[] minutes = new long[WINDOW_MINUTES];
+        private final long[] requests = new long[WINDOW_MINUTES];
+        private final long[] successes = new long[WINDOW_MINUTES];
+        private final long[] responseMs = new long[WINDOW_MINUTES];
+        private long lastUsed;
+
+        synchronized void record(long now, long elapsedMs, boolean success) {
+            long minute = now / 60_000L;
+            int slot = (int) (minute % WINDOW_MINUTES);
+            if (minutes[slot] != minute) {
+                // 槽位属于一小时前，复用前清零
+                minutes[slot] = minute;
+                requests[slot] = 0;
+                successes[slot] = 0;
+                responseMs[slot] = 0;
+            }
+            requests[slot]++;
+            if (success) {
+                successes[slot]++;
+            }
+            responseMs[slot] += Math.max(0, elapsedMs);
+            lastUsed = now;
+        }
+
+        synchronized WindowSnapshot snapshot(long now) {
+            long currentMinute = now / 60_000L;
+            WindowSnapshot snapshot = new WindowSnapshot();
+            for (int i = 0; i < WINDOW_MINUTES; i++) {
+                if (currentMinute - minutes[i] < WINDOW_MINUTES) {
+                    snapshot.requests += requests[i];
+                    snapshot.successes += successes[i];
+                    snapshot.responseMs += responseMs[i];
+                }
+            }
+            snapshot.lastUsed = lastUsed;
+            return snapshot;
+        }
+    }
+
+    private static class WindowSnapshot {
+        private long requests;
+        private long successes;
+        private long responseMs;
+        private long lastUsed;
+    }
+}
@@ -0,0 +1,221 @@
+package com.back_hexiang_studio.pangDaAi.service;
+
+import com.back_hexiang_studio.service.ScheduledJobCoordinator;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 模型使用汇总服务
+ *
+ * 把 model_usage_log / model_selection_log 的明细增量汇总到小时表和日表，
+ * 监控后台统计接口只读汇总表，查询耗时不再随日志量增长：
+ * - 小时表：按 (小时, 用户, 模型) / (小时, 用户, 问题类型, 模型) 聚合
+ * - 日表：由小时表再聚合
+ * - 每次重算水位线前一小时到当前小时的整小时数据，结果覆盖写入，可重复执行
+ * - 多实例部署时定时汇总经 ScheduledJobCoordinator 租约保证每轮只有一个节点执行
+ *
+ * @author 胖达AI助手开发团队
+ */
+@Slf4j
+@Service
+public class ModelUsageRollupService {
+
+    private static final String[] DDL = {
+        "CREATE TABLE IF NOT EXISTS model_usage_rollup_hourly (" +
+            "bucket_time DATETIME NOT NULL, user_id BIGINT NOT NULL, model_name VARCHAR(100) NOT NULL, " +
+            "request_count BIGINT NOT NULL DEFAULT 0, success_count BIGINT NOT NULL DEFAULT 0, " +
+            "total_cost DECIMAL(18,6) NOT NULL DEFAULT 0, total_response_time BIGINT NOT NULL DEFAULT 0, " +
+            "response_count BIGINT NOT NULL DEFAULT 0, " +
+            "PRIMARY KEY (bucket_time, user_id, model_name), KEY idx_user_bucket (user_id, bucket_time))",
+        "CREATE TABLE IF NOT EXISTS model_usage_rollup_daily (" +
+            "stat_date DATE NOT NULL, user_id BIGINT NOT NULL, model_name VARCHAR(100) NOT NULL, " +
+            "request_count BIGINT NOT NULL DEFAULT 0, success_count BIGINT NOT NULL DEFAULT 0, " +
+            "total_cost DECIMAL(18,6) NOT NULL DEFAULT 0, total_response_time BIGINT NOT NULL DEFAULT 0, " +
+            "response_count BIGINT NOT NULL DEFAULT 0, " +
+            "PRIMARY KEY (stat_date, user_id, model_name), KEY idx_user_date (user_id, stat_date))",
+        "CREATE TABLE IF NOT EXISTS model_selection_rollup_hourly (" +
+            "bucket_time DATETIME NOT NULL, user_id BIGINT NOT NULL, question_type VARCHAR(50) NOT NULL, " +
+            "selected_model VARCHAR(100) NOT NULL, selection_count BIGINT NOT NULL DEFAULT 0, " +
+            "PRIMARY KEY (bucket_time, user_id, question_type, selected_model))",
+        "CREATE TABLE IF NOT EXISTS model_selection_rollup_daily (" +
+            "stat_date DATE NOT NULL, user_id BIGINT NOT NULL, question_type VARCHAR(50) NOT NULL, " +
+            "selected_model VARCHAR(100) NOT NULL, selection_count BIGINT NOT NULL DEFAULT 0, " +
+            "PRIMARY KEY (stat_date, user_id, question_type, selected_model), KEY idx_user_date (user_id, stat_date))"
+    };
+
+    private static final String USAGE_HOURLY_SQL =
+        "INSERT INTO model_usage_rollup_hourly " +
+        "(bucket_time, user_id, model_name, request_count, success_count, total_cost, total_response_time, response_count) " +
+        "SELECT DATE_FORMAT(create_time, '%Y-%m-%d %H:00:00'), IFNULL(user_id, 0), IFNULL(model_name, ''), " +
+        "COUNT(*), IFNULL(SUM(success), 0), IFNULL(SUM(cost), 0), IFNULL(SUM(response_time), 0), COUNT(response_time) " +
+        "FROM model_usage_log WHERE create_time >= ? AND create_time < ? " +
+        "GROUP BY DATE_FORMAT(create_time, '%Y-%m-%d %H:00:00'), IFNULL(user_id, 0), IFNULL(model_name, '') " +
+        "ON DUPLICATE KEY UPDATE request_count = VALUES(request_count), success_count = VALUES(success_count), " +
+        "total_cost = VALUES(total_cost), total_response_time = VALUES(total_response_time), " +
+        "response_count = VALUES(response_count)";
+
+    private static final String USAGE_DAILY_SQL =
+        "INSERT INTO model_usage_rollup_daily " +
+        "(stat_date, user_id, model_name, request_count, success_count, total_cost, total_response_time, response_count) " +
+        "SELECT DATE(bucket_time), user_id, model_name, SUM(request_count), SUM(success_count), SUM(total_cost), " +
+        "SUM(total_response_time), SUM(response_count) " +
+        "FROM model_usage_rollup_hourly WHERE bucket_time >= ? AND bucket_time < ? " +
+        "GROUP BY DATE(bucket_time), user_id, model_name " +
+        "ON DUPLICATE KEY UPDATE request_count = VALUES(request_count), success_count = VALUES(success_count), " +
+        "total_cost = VALUES(total_cost), total_response_time = VALUES(total_response_time), " +
+        "response_count = VALUES(response_count)";
+
+    private static final String SELECTION_HOURLY_SQL =
+        "INSERT INTO model_selection_rollup_hourly " +
+        "(bucket_time, user_id, question_type, selected_model, selection_count) " +
+        "SELECT DATE_FORMAT(create_time, '%Y-%m-%d %H:00:00'), IFNULL(user_id, 0), IFNULL(question_type, ''), " +
+        "IFNULL(selected_model, ''), COUNT(*) " +
+        "FROM model_selection_log WHERE create_time >= ? AND create_time < ? " +
+        "GROUP BY DATE_FORMAT(create_time, '%Y-%m-%d %H:00:00'), IFNULL(user_id, 0), IFNULL(question_type, ''), " +
+        "IFNULL(selected_model, '') " +
+        "ON DUPLICATE KEY UPDATE selection_count = VALUES(selection_count)";
+
+    private static final String SELECTION_DAILY_SQL =
+        "INSERT INTO model_selection_rollup_daily " +
+        "(stat_date, user_id, question_type, selected_model, selection_count) " +
+        "SELECT DATE(bucket_time), user_id, question_type, selected_model, SUM(selection_count) " +
+        "FROM model_selection_rollup_hourly WHERE bucket_time >= ? AND bucket_time < ? " +
+        "GROUP BY DATE(bucket_time), user_id, question_type, selected_model " +
+        "ON DUPLICATE KEY UPDATE selection_count = VALUES(selection_count)";
+
+    @Value("${pangda-ai.monitor.rollup.enabled:true}")
+    private boolean rollupEnabled;
+
+    // 汇总表为空时，首次回填的天数
+    @Value("${pangda-ai.monitor.rollup.backfill-days:30}")
+    private int backfillDays;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ScheduledJobCoordinator jobCoordinator;
+
+    private final ReentrantLock rollupLock = new ReentrantLock();
+
+    // 已完整汇总到的小时（不含），首次运行时从汇总表恢复
+    private volatile LocalDateTime watermark;
+
+    @PostConstruct
+    public void initialize() {
+        if (!rollupEnabled) {
+            log.info(" 模型使用汇总已关闭");
+            return;
+        }
+        try {
+            for (String ddl : DDL) {
+                jdbcTemplate.execute(ddl);
+            }
+            log.info(" 模型使用汇总表检查完成");
+        } catch (Exception e) {
+            log.error("创建模型使用汇总表失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 定时增量汇总，每轮只由持有租约的节点执行
+     */
+    @Scheduled(fixedDelayString = "${pangda-ai.monitor.rollup.interval-ms:300000}",
+               initialDelayString = "${pangda-ai.monitor.rollup.initial-delay-ms:60000}")
+    public void scheduledRollup() {
+        if (rollupEnabled) {
+            jobCoordinator.runExclusive("modelUsageRollup", context -> Math.max(0, rollup()));
+        }
+    }
+
+    /**
+     * 汇总水位线之后的明细；已有任务在跑时直接跳过
+     *
+     * @return 本次重算的小时数，跳过或失败返回 -1
+     */
+    public int rollup() {
+        if (!rollupLock.tryLock()) {
+            log.debug("模型使用汇总正在进行，跳过本次");
+            return -1;
+        }
+        try {
+            long startTime = System.currentTimeMillis();
+            LocalDateTime currentHour = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS);
+            LocalDateTime end = currentHour.plusHours(1);
+            // 多算前一小时，兜住整点前后才落库的日志
+            LocalDateTime start = resolveWatermark().minusHours(1);
+
+            int hours = 0;
+            // 按天分段，避免首次回填时单条语句扫描过大范围
+            LocalDateTime segmentStart = start;
+            while (segmentStart.isBefore(end)) {
+                LocalDateTime segmentEnd = segmentStart.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+                if (segmentEnd.isAfter(end)) {
+                    segmentEnd = end;
+                }
+                rollupRange(segmentStart, segmentEnd);
+                hours += (int) ChronoUnit.HOURS.between(segmentStart, segmentEnd);
+                segmentStart = segmentEnd;
+            }
+
+            // 当前小时仍在写入，下次从当前小时继续
+            watermark = currentHour;
+            log.debug(" 模型使用汇总完成: {} ~ {}, {}小时, 耗时{}ms",
+                    start, end, hours, System.currentTimeMillis() - startTime);
+            return hours;
+        } catch (Exception e) {
+            log.error("模型使用汇总失败: {}", e.getMessage(), e);
+            return -1;
+        } finally {
+            rollupLock.unlock();
+        }
+    }
+
+    /**
+     * 重算 [start, end) 内的小时汇总，并刷新涉及日期的日汇总
+     */
+    private void rollupRange(LocalDateTime start, LocalDateTime end) {
+        Timestamp from = Timestamp.valueOf(start);
+        Timestamp to = Timestamp.valueOf(end);
+        jdbcTemplate.update(USAGE_HOURLY_SQL, from, to);
+        jdbcTemplate.update(SELECTION_HOURLY_SQL, from, to);
+
+        Timestamp dayFrom = Timestamp.valueOf(start.truncatedTo(ChronoUnit.DAYS));
+        Timestamp dayTo = Timestamp.valueOf(end.minusNanos(1).truncatedTo(ChronoUnit.DAYS).plusDays(1));
+        jdbcTemplate.update(USAGE_DAILY_SQL, dayFrom, dayTo);
+        jdbcTemplate.update(SELECTION_DAILY_SQL, dayFrom, dayTo);
+    }
+
+    /**
+     * 内存水位线为空时，从小时表最新的小时恢复；表为空则按回填天数开始
+     */
+    private LocalDateTime resolveWatermark() {
+        if (watermark != null) {
+            return watermark;
+        }
+        LocalDateTime latest = null;
+        try {
+            for (String table : new String[]{"model_usage_rollup_hourly", "model_selection_rollup_hourly"}) {
+                LocalDateTime tableLatest = jdbcTemplate.queryForObject(
+                        "SELECT MAX(bucket_time) FROM " + table, LocalDateTime.class);
+                if (tableLatest != null && (latest == null || tableLatest.isAfter(latest))) {
+                    latest = tableLatest;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("读取汇总水位线失败，按回填天数重算: {}", e.getMessage());
+        }
+        LocalDateTime backfillStart = LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).minusDays(backfillDays);
+        return latest == null || latest.isBefore(backfillStart) ? backfillStart : latest;
+    }
+}
@@ -0,0 +1,370 @@
+package com.back_hexiang_studio.pangDaAi.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+/**
+ * 流式对话并发隔离（舱壁）
+ *
+ * - 全局并发上限：超出时进入有界的先进先出等待队列，排队位置变化时通知调用方
+ * - 每用户上限：同一用户进行中 + 排队中的对话数，超出直接拒绝
+ * - 队列已满或等待超时：拒绝并给出建议的重试秒数
+ * - 每模型上限：路由到的模型并发已满时由调用方降级到默认模型
+ *
+ * @author 胖达AI助手开发团队
+ */
+@Slf4j
+@Component
+public class StreamBulkhead {
+
+    @Value("${pangda-ai.bulkhead.max-concurrent:40}")
+    private int maxConcurrent;
+
+    @Value("${pangda-ai.bulkhead.max-per-user:2}")
+    private int maxPerUser;
+
+    @Value("${pangda-ai.bulkhead.max-queue:100}")
+    private int maxQueue;
+
+    @Value("${pangda-ai.bulkhead.max-wait-ms:30000}")
+    private long maxWaitMs;
+
+    @Value("${pangda-ai.bulkhead.max-per-model:20}")
+    private int maxPerModel;
+
+    private final Object lock = new Object();
+    private int inFlight;
+    private final ArrayDeque<Ticket> waiting = new ArrayDeque<>();
+    // 用户 -> 进行中 + 排队中的对话数
+    private final Map<String, Integer> userCounts = new HashMap<>();
+
+    private final Map<String, Semaphore> modelPermits = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService timeoutScheduler;
+
+    private final AtomicLong admittedCount = new AtomicLong();
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong userRejectedCount = new AtomicLong();
+    private final AtomicLong queueRejectedCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong cancelledCount = new AtomicLong();
+    private final AtomicLong modelOverflowCount = new AtomicLong();
+    private final AtomicLong totalWaitMs = new AtomicLong();
+
+    @PostConstruct
+    public void initialize() {
+        timeoutScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stream-bulkhead-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info(" 流式对话并发隔离初始化完成: 全局={}, 每用户={}, 队列={}, 最长等待={}ms, 每模型={}",
+                maxConcurrent, maxPerUser, maxQueue, maxWaitMs, maxPerModel);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (timeoutScheduler != null) {
+            timeoutScheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 申请进入：立即放行、进入排队或被拒绝
+     *
+     * @param userKey 用户标识
+     * @return 申请结果，被拒绝时 ticket 为空
+     */
+    public Admission enter(String userKey) {
+        Ticket ticket;
+        synchronized (lock) {
+            int userCount = userCounts.getOrDefault(userKey, 0);
+            if (userCount >= maxPerUser) {
+                userRejectedCount.incrementAndGet();
+                return Admission.rejected(true, estimateRetryAfterSeconds());
+            }
+            ticket = new Ticket(userKey);
+            if (inFlight < maxConcurrent && waiting.isEmpty()) {
+                inFlight++;
+                userCounts.put(userKey, userCount + 1);
+                ticket.state = TicketState.ACTIVE;
+                admittedCount.incrementAndGet();
+                ticket.admitted.complete(null);
+                return Admission.admitted(ticket);
+            }
+            if (waiting.size() >= maxQueue) {
+                queueRejectedCount.incrementAndGet();
+                return Admission.rejected(false, estimateRetryAfterSeconds());
+            }
+            userCounts.put(userKey, userCount + 1);
+            waiting.addLast(ticket);
+            ticket.position = waiting.size();
+            queuedCount.incrementAndGet();
+        }
+        timeoutScheduler.schedule(() -> expire(ticket), maxWaitMs, TimeUnit.MILLISECONDS);
+        log.info(" 流式对话排队 - 用户: {}, 排队位置: {}", userKey, ticket.position);
+        return Admission.queued(ticket);
+    }
+
+    /**
+     * 申请模型并发名额；已满时返回 null
+     */
+    public ModelPermit tryAcquireModel(String modelName) {
+        Semaphore semaphore = modelPermits.computeIfAbsent(modelName, name -> new Semaphore(maxPerModel));
+        if (semaphore.tryAcquire()) {
+            return new ModelPermit(semaphore);
+        }
+        modelOverflowCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 实时指标
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (lock) {
+            stats.put("inFlight", inFlight);
+            stats.put("queued", waiting.size());
+            stats.put("activeUsers", userCounts.size());
+        }
+        stats.put("maxConcurrent", maxConcurrent);
+        stats.put("maxQueue", maxQueue);
+        stats.put("maxPerUser", maxPerUser);
+
+        Map<String, Integer> modelInFlight = new LinkedHashMap<>();
+        for (Map.Entry<String, Semaphore> entry : modelPermits.entrySet()) {
+            modelInFlight.put(entry.getKey(), maxPerModel - entry.getValue().availablePermits());
+        }
+        stats.put("modelInFlight", modelInFlight);
+        stats.put("maxPerModel", maxPerModel);
+
+        long admitted = admittedCount.get();
+        stats.put("admitted", admitted);
+        stats.put("queuedTotal", queuedCount.get());
+        stats.put("userRejected", userRejectedCount.get());
+        stats.put("queueRejected", queueRejectedCount.get());
+        stats.put("timedOut", timeoutCount.get());
+        stats.put("cancelled", cancelledCount.get());
+        stats.put("modelOverflow", modelOverflowCount.get());
+        stats.put("avgWaitMs", admitted == 0 ? 0.0 : (double) totalWaitMs.get() / admitted);
+        return stats;
+    }
+
+    // ===================================================================
+    // 队列调度
+    // ===================================================================
+
+    private void release(Ticket ticket) {
+        List<Ticket> admitted = new ArrayList<>();
+        List<Ticket> moved;
+        synchronized (lock) {
+            if (ticket.state == TicketState.ACTIVE) {
+                inFlight--;
+            } else if (ticket.state == TicketState.WAITING) {
+                waiting.remove(ticket);
+                cancelledCount.incrementAndGet();
+            } else {
+                return;
+            }
+            ticket.state = TicketState.DONE;
+            decrementUser(ticket.userKey);
+
+            while (inFlight < maxConcurrent && !waiting.isEmpty()) {
+                Ticket next = waiting.pollFirst();
+                next.state = TicketState.ACTIVE;
+                inFlight++;
+                admitted.add(next);
+            }
+            moved = refreshPositions();
+        }
+        for (Ticket next : admitted) {
+            long waitedMs = System.currentTimeMillis() - next.createdAt;
+            totalWaitMs.addAndGet(waitedMs);
+            admittedCount.incrementAndGet();
+            log.info(" 排队结束开始对话 - 用户: {}, 等待: {}ms", next.userKey, waitedMs);
+            next.admitted.complete(null);
+        }
+        notifyPositions(moved);
+    }
+
+    /**
+     * 排队超时：移出队列并通知调用方
+     */
+    private void expire(Ticket ticket) {
+        List<Ticket> moved;
+        synchronized (lock) {
+            if (ticket.state != TicketState.WAITING) {
+                return;
+            }
+            waiting.remove(ticket);
+            ticket.state = TicketState.DONE;
+            decrementUser(ticket.userKey);
+            moved = refreshPositions();
+        }
+        timeoutCount.incrementAndGet();
+        log.warn(" 流式对话排队超时 - 用户: {}, 等待上限: {}ms", ticket.userKey, maxWaitMs);
+        ticket.admitted.completeExceptionally(new TimeoutException("排队超时"));
+        notifyPositions(moved);
+    }
+
+    /**
+     * 重新编号，返回位置有变化的排队者（需持有锁）
+     */
+    private List<Ticket> refreshPositions() {
+        List<Ticket> moved = new ArrayList<>();
+        int position = 1;
+        for (Iterator<Ticket> iterator = waiting.iterator(); iterator.hasNext(); position++) {
+            Ticket next = iterator.next();
+            if (next.position != position) {
+                next.position = position;
+                moved.add(next);
+            }
+        }
+        return moved;
+    }
+
+    private void notifyPositions(List<Ticket> moved) {
+        for (Ticket ticket : moved) {
+            ticket.firePosition();
+        }
+    }
+
+    private void decrementUser(String userKey) {
+        userCounts.computeIfPresent(userKey, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * 建议重试秒数：按平均等待时长估算，至少1秒，最多为最长等待
+     */
+    private long estimateRetryAfterSeconds() {
+        long admitted = admittedCount.get();
+        long avgWaitMs = admitted == 0 ? 0 : totalWaitMs.get() / admitted;
+        long seconds = TimeUnit.MILLISECONDS.toSeconds(Math.max(avgWaitMs, 1000L));
+        return Math.min(Math.max(1L, seconds), Math.max(1L, TimeUnit.MILLISECONDS.toSeconds(maxWaitMs)));
+    }
+
+    // ===================================================================
+    // 数据结构
+    // ===================================================================
+
+    private enum TicketState { WAITING, ACTIVE, DONE }
+
+    /**
+     * 一次流式对话的名额，结束（完成、出错或客户端断开）时必须调用 release
+     */
+    public class Ticket {
+        private final String userKey;
+        private final long createdAt = System.currentTimeMillis();
+        private final CompletableFuture<Void> admitted = new CompletableFuture<>();
+        private final AtomicBoolean released = new AtomicBoolean();
+        // 以下字段在 lock 内修改
+        private TicketState state = TicketState.WAITING;
+        private volatile int position;
+        private volatile IntConsumer positionListener;
+
+        private Ticket(String userKey) {
+            this.userKey = userKey;
+        }
+
+        /**
+         * 获得名额时完成；排队超时以 TimeoutException 异常完成
+         */
+        public CompletableFuture<Void> admitted() {
+            return admitted;
+        }
+
+        /**
+         * 监听排队位置；注册时若仍在排队，立即回调当前位置
+         */
+        public void onPositionChanged(IntConsumer listener) {
+            this.positionListener = listener;
+            firePosition();
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                StreamBulkhead.this.release(this);
+            }
+        }
+
+        private void firePosition() {
+            IntConsumer listener = positionListener;
+            if (listener != null && !admitted.isDone() && position > 0) {
+                try {
+                    listener.accept(position);
+                } catch (Exception e) {
+                    log.debug("推送排队位置失败: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 模型并发名额，可重复释放
+     */
+    public static class ModelPermit {
+        private final Semaphore semaphore;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private ModelPermit(Semaphore semaphore) {
+            this.semaphore = semaphore;
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                semaphore.release();
+            }
+        }
+    }
+
+    /**
+     * 申请结果
+     */
+    public static class Admission {
+        private final Ticket ticket;
+        private final boolean queued;
+        private final boolean userLimited;
+        private final long retryAfterSeconds;
+
+        private Admission(Ticket ticket, boolean queued, boolean userLimited, long retryAfterSeconds) {
+            this.ticket = ticket;
+            this.queued = queued;
+            this.userLimited = userLimited;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        static Admission admitted(Ticket ticket) { return new Admission(ticket, false, false, 0); }
+        static Admission queued(Ticket ticket) { return new Admission(ticket, true, false, 0); }
+        static Admission rejected(boolean userLimited, long retryAfterSeconds) {
+            return new Admission(null, false, userLimited, retryAfterSeconds);
+        }
+
+        public boolean isRejected() { return ticket == null; }
+        public boolean isQueued() { return queued; }
+        public boolean isUserLimited() { return userLimited; }
+        public long getRetryAfterSeconds() { return retryAfterSeconds; }
+        public Ticket getTicket() { return ticket; }
+    }
+}
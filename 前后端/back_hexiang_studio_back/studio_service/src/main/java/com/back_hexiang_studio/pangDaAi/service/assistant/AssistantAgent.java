@@ -1,32 +1,54 @@
 package com.back_hexiang_studio.pangDaAi.service.assistant;
 
+import com.back_hexiang_studio.pangDaAi.service.KeywordClassifier;
+import com.back_hexiang_studio.pangDaAi.service.StreamBulkhead;
+import com.back_hexiang_studio.pangDaAi.service.memory.SessionChatMemoryManager;
+import com.back_hexiang_studio.pangDaAi.service.memory.SummarizingTokenWindowChatMemory;
+import com.back_hexiang_studio.pangDaAi.tool.api.ExternalApiSupport;
 import com.back_hexiang_studio.pangDaAi.tool.api.WeatherToolService;
+import com.back_hexiang_studio.pangDaAi.util.KeywordAutomaton;
 import com.back_hexiang_studio.service.ChatHistoryService;
 import com.back_hexiang_studio.context.UserContextHolder;
 import com.back_hexiang_studio.pangDaAi.tool.workflow.CourseManagementTools;
 import com.back_hexiang_studio.pangDaAi.tool.workflow.MaterialManagementTools;
 import com.back_hexiang_studio.pangDaAi.tool.workflow.NoticeManagementTools;
 import com.back_hexiang_studio.pangDaAi.tool.workflow.UserManagementTools;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.chat.StreamingChatModel;
-import dev.langchain4j.memory.ChatMemory;
-import dev.langchain4j.memory.chat.MessageWindowChatMemory;
 import dev.langchain4j.service.AiServices;
+import dev.langchain4j.service.Result;
 import dev.langchain4j.service.TokenStream;
 import dev.langchain4j.agent.tool.Tool;
 import dev.langchain4j.agent.tool.P;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 // RAG相关导入
 import com.back_hexiang_studio.pangDaAi.service.rag.RagRetriever;
+import com.back_hexiang_studio.pangDaAi.service.rag.SemanticAnswerCache;
 import com.back_hexiang_studio.pangDaAi.service.rag.VectorStoreService;
 
 /**
@@ -64,6 +86,20 @@ public class AssistantAgent {
         "- 不要提及具体的系统组件或内部逻辑\n" +
         "- 保持用户友好的语调，避免技术术语";
 
+    // 背景信息过滤：命中提示分类时追加的工具指导（按顺序输出）
+    private static final Map<KeywordClassifier.ContextHint, String> CONTEXT_HINT_GUIDES = new EnumMap<>(KeywordClassifier.ContextHint.class);
+    static {
+        CONTEXT_HINT_GUIDES.put(KeywordClassifier.ContextHint.USER, "用户管理工具：查询档案用getCurrentUserProfile，管理操作已集成权限验证\\n");
+        CONTEXT_HINT_GUIDES.put(KeywordClassifier.ContextHint.STUDIO, "工作室信息工具：成员统计用getStudioMemberStatistics，部门详情用getDepartmentDetails\\n");
+        CONTEXT_HINT_GUIDES.put(KeywordClassifier.ContextHint.NOTICE, "公告管理工具：查询用getLatestNotices，管理操作已集成权限验证\\n");
+        CONTEXT_HINT_GUIDES.put(KeywordClassifier.ContextHint.ATTENDANCE, "考勤管理工具：统计用getAttendanceStatistics\\n");
+        CONTEXT_HINT_GUIDES.put(KeywordClassifier.ContextHint.TASK, "任务管理工具：用户任务用getUserTasks，我的任务用getCurrentUserUncompletedTasks\\n");
+        CONTEXT_HINT_GUIDES.put(KeywordClassifier.ContextHint.COURSE, "课程管理工具：课程列表用getCourseList，管理操作需先检查权限\\n");
+        CONTEXT_HINT_GUIDES.put(KeywordClassifier.ContextHint.MATERIAL, "资料管理工具：分类查询用getAllMaterialCategories，管理操作需先检查权限\\n");
+        CONTEXT_HINT_GUIDES.put(KeywordClassifier.ContextHint.WEATHER, "天气查询工具：今日天气用getTodayWeather，预报用getWeatherForecast\\n");
+        CONTEXT_HINT_GUIDES.put(KeywordClassifier.ContextHint.NEWS, "新闻查询工具：今日新闻用getTodayNews，指定日期用getNewsByDate\\n");
+    }
+
     @Autowired
     private StreamingChatModel streamingChatModel;
     
@@ -75,21 +111,83 @@ public class AssistantAgent {
     
     @Autowired
     private com.back_hexiang_studio.pangDaAi.service.DynamicAIService dynamicAIService;
+    
+    @Autowired
+    private com.back_hexiang_studio.pangDaAi.service.ModelUsageMetrics modelUsageMetrics;
+    
+    @Autowired
+    private KeywordClassifier keywordClassifier;
+
+    @Autowired
+    private StreamBulkhead streamBulkhead;
+
+    @Autowired
+    private ExternalApiSupport externalApiSupport;
 
     // RAG相关服务注入
     @Autowired
     private RagRetriever ragRetriever;
 
+    // FAQ类问题的语义答案缓存（默认关闭）
+    @Autowired
+    private SemanticAnswerCache semanticAnswerCache;
+
+    // 回放缓存答案时每个分片的字符数
+    @Value("${pangda-ai.answer-cache.replay-chunk-chars:16}")
+    private int replayChunkChars;
+
     
     // 智能工具选择器
     @Autowired
     private SmartToolSelector smartToolSelector;
 
-    // 对话记忆存储
-    private final Map<String, ChatMemory> chatMemories = new ConcurrentHashMap<>();
+    // 对话记忆：按模型Token预算裁剪并摘要，空闲会话自动淘汰
+    @Autowired
+    private SessionChatMemoryManager chatMemoryManager;
     
     // Assistant实例 - 统一接口
     private Assistant assistant;
+
+    // 按 (模型名, 工具集签名) 缓存的Assistant，避免每轮对话重新反射扫描@Tool方法
+    private final Map<String, CachedAssistant> assistantCache = new ConcurrentHashMap<>();
+    private final AtomicLong assistantCacheHits = new AtomicLong();
+    private final AtomicLong assistantCacheMisses = new AtomicLong();
+    private final AtomicLong assistantBuildNanos = new AtomicLong();
+
+    // 预处理阶段线程池与各阶段截止时间（从预处理开始计时）
+    @Value("${pangda-ai.pipeline.threads:16}")
+    private int stageThreads;
+
+    @Value("${pangda-ai.pipeline.rag-timeout-ms:1500}")
+    private long ragTimeoutMs;
+
+    @Value("${pangda-ai.pipeline.tool-selection-timeout-ms:800}")
+    private long toolSelectionTimeoutMs;
+
+    @Value("${pangda-ai.pipeline.routing-timeout-ms:1000}")
+    private long routingTimeoutMs;
+
+    private ThreadPoolExecutor stageExecutor;
+
+    @PostConstruct
+    private void initStageExecutor() {
+        AtomicLong threadIndex = new AtomicLong();
+        // 队列满时由请求线程自己执行，退化为串行而不是拒绝请求
+        stageExecutor = new ThreadPoolExecutor(stageThreads, stageThreads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(stageThreads * 16), runnable -> {
+                    Thread thread = new Thread(runnable, "assistant-stage-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        stageExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    private void shutdownStageExecutor() {
+        if (stageExecutor != null) {
+            stageExecutor.shutdownNow();
+        }
+    }
     
     @PostConstruct
     private void initAssistant() {
@@ -103,10 +201,7 @@ public class AssistantAgent {
             this.assistant = AiServices.builder(Assistant.class)
                     .chatModel(chatModel)
                     .streamingChatModel(streamingChatModel)
-                    .chatMemoryProvider(memoryId -> chatMemories.computeIfAbsent(
-                        (String) memoryId, 
-                        id -> MessageWindowChatMemory.withMaxMessages(20)
-                    ))
+                    .chatMemoryProvider(memoryId -> chatMemoryManager.getOrCreate((String) memoryId, null))
                     .tools(allTools) // 传入所有扫描到的工具
                     .build();
                     
@@ -120,6 +215,79 @@ public class AssistantAgent {
 
 
 
+    /**
+     * 获取 (模型, 工具集) 对应的Assistant，不存在时构建并缓存
+     * 模型缓存被清理后实例会变化，此时重新构建
+     */
+    private Assistant getOrBuildAssistant(String modelName, StreamingChatModel model, List<Object> tools) {
+        String key = modelName + "|" + toolSignature(tools);
+        CachedAssistant cached = assistantCache.get(key);
+        if (cached != null && cached.model == model) {
+            assistantCacheHits.incrementAndGet();
+            return cached.assistant;
+        }
+        
+        CachedAssistant built = assistantCache.compute(key, (k, existing) -> {
+            if (existing != null && existing.model == model) {
+                return existing;
+            }
+            long startTime = System.nanoTime();
+            Assistant newAssistant = AiServices.builder(Assistant.class)
+                    .chatModel(chatModel)
+                    .streamingChatModel(model)
+                    .chatMemoryProvider(memoryId -> chatMemoryManager.getOrCreate((String) memoryId, modelName))
+                    .tools(tools)
+                    .build();
+            long elapsed = System.nanoTime() - startTime;
+            assistantCacheMisses.incrementAndGet();
+            assistantBuildNanos.addAndGet(elapsed);
+            log.info(" 构建Assistant [{}]，工具数: {}，耗时: {}ms", k, tools.size(),
+                    TimeUnit.NANOSECONDS.toMillis(elapsed));
+            return new CachedAssistant(model, newAssistant);
+        });
+        return built.assistant;
+    }
+
+    /**
+     * 工具集签名：按类名排序拼接，与工具顺序无关
+     */
+    private static String toolSignature(List<Object> tools) {
+        return tools.stream()
+                .map(tool -> tool.getClass().getName())
+                .sorted()
+                .collect(Collectors.joining(","));
+    }
+
+    /**
+     * 清空Assistant缓存（工具Bean或模型配置变更后调用）
+     */
+    public void clearAssistantCache() {
+        assistantCache.clear();
+        log.info(" Assistant缓存已清空");
+    }
+
+    /**
+     * Assistant缓存统计
+     */
+    public String getAssistantCacheStats() {
+        long hits = assistantCacheHits.get();
+        long misses = assistantCacheMisses.get();
+        long total = hits + misses;
+        return String.format("Assistant缓存: %d 个, 命中率: %.1f%% (%d/%d), 平均构建耗时: %.1fms",
+                assistantCache.size(), total == 0 ? 0.0 : hits * 100.0 / total, hits, total,
+                misses == 0 ? 0.0 : TimeUnit.NANOSECONDS.toMicros(assistantBuildNanos.get()) / 1000.0 / misses);
+    }
+
+    private static class CachedAssistant {
+        private final StreamingChatModel model;
+        private final Assistant assistant;
+
+        CachedAssistant(StreamingChatModel model, Assistant assistant) {
+            this.model = model;
+            this.assistant = assistant;
+        }
+    }
+
     /**
      * 统一的Assistant接口 - 支持流式和同步
      */
@@ -129,7 +297,7 @@ public class AssistantAgent {
                                 @dev.langchain4j.service.UserMessage String userMessage);
         
         @dev.langchain4j.service.SystemMessage(SYSTEM_PROMPT)  
-        String chatSync(@dev.langchain4j.service.MemoryId String sessionId,
+        Result<String> chatSync(@dev.langchain4j.service.MemoryId String sessionId,
                        @dev.langchain4j.service.UserMessage String userMessage);
     }
 
@@ -153,86 +321,119 @@ public class AssistantAgent {
         }
         
         try {
-            // 步骤1: RAG向量检索获取相关背景信息
-            String ragContext = "";
-            try {
-                log.info(" 开始RAG向量检索...");
-                Object retrievalResult = ragRetriever.retrieve(userMessage, 3, userId);
-                
-                if (retrievalResult != null) {
-                    ragContext = retrievalResult.toString();
-                    log.info(" RAG检索成功，获得背景信息: {}", ragContext.substring(0, Math.min(ragContext.length(), 100)) + "...");
-                } else {
-                    log.info(" RAG未找到相关背景信息");
+            // 步骤0: 语义答案缓存，FAQ类问题命中时直接回放已有答案，不再调用模型；
+            // 会话已有记忆时本轮答案可能依赖上下文，只查不存
+            SemanticAnswerCache.Probe answerProbe = semanticAnswerCache.probe(userMessage, userId,
+                    chatMemoryManager.hasHistory(sessionId));
+            if (answerProbe.getAnswer() != null) {
+                replayCachedAnswer(userMessage, sessionId, userId, answerProbe.getAnswer(), onChunk, onComplete);
+                if (needClearContext) {
+                    UserContextHolder.clear();
                 }
-            } catch (Exception e) {
-                log.warn(" RAG检索失败，继续使用工具调用: {}", e.getMessage());
+                return;
             }
             
-            // 步骤2: 构建精准的用户消息（只传递最相关的背景信息）
+            // 步骤1: 并行启动互不依赖的预处理阶段（RAG检索+背景筛选、工具筛选、模型路由），各阶段有独立截止时间
+            long pipelineStartTime = System.currentTimeMillis();
+            Future<StageResult<String>> contextFuture =
+                submitStage(userId, () -> retrieveFocusedContext(userMessage, userId));
+            Future<StageResult<List<Object>>> toolsFuture =
+                submitStage(userId, () -> smartToolSelector.selectRelevantTools(userMessage));
+            Future<StageResult<RoutedModel>> routeFuture = submitStage(userId, () -> {
+                String modelName = dynamicAIService.selectStreamingModelName(userMessage, userId, sessionId);
+                return new RoutedModel(modelName, dynamicAIService.getStreamingChatModelByName(modelName));
+            });
+            
+            //  预防性会话健康检查（与预处理阶段并行）
+            ensureSessionHealth(sessionId, userId);
+            
+            // 步骤2: 构建精准的用户消息（只传递最相关的背景信息），RAG超时则不带背景信息
+            String focusedContext = awaitStage("rag", contextFuture, pipelineStartTime, ragTimeoutMs, "");
             String enhancedMessage;
             String userInfo = userId != null ? String.format("\\n\\n currentUserId: %d (这是当前用户的ID，你在调用需要身份验证的工具时必须把它作为参数传入)", userId) : "";
             
-            //  精准背景信息筛选 - 避免信息过载
-            String focusedContext = filterRelevantContext(ragContext, userMessage);
-            
             if (!focusedContext.isEmpty()) {
                 enhancedMessage = String.format(
                     "相关提示：%s%s\\n\\n用户问题：%s\\n\\n重要提醒：对于任何管理操作，必须先调用相应的权限检查工具验证用户权限。",
                     focusedContext, userInfo, userMessage);
-                log.info(" 构建精准增强消息，筛选后背景信息长度: {} (原长度: {})", focusedContext.length(), ragContext.length());
+                log.info(" 构建精准增强消息，筛选后背景信息长度: {}", focusedContext.length());
             } else {
                 enhancedMessage = userMessage + userInfo + "\\n\\n重要提醒：对于任何管理操作，必须先调用相应的权限检查工具验证用户权限。";
             }
             
             if (assistant != null) {
-                //  智能工具选择 - 根据用户查询动态选择相关工具
-                List<Object> relevantTools = smartToolSelector.selectRelevantTools(userMessage);
+                //  智能工具选择 - 超时则使用全部工具
+                List<Object> relevantTools = awaitStage("toolSelection", toolsFuture, pipelineStartTime, toolSelectionTimeoutMs, null);
+                if (relevantTools == null) {
+                    relevantTools = smartToolSelector.getAllWorkflowTools();
+                }
                 log.info(" 为查询选择了 {} 个工具实例", relevantTools.size());
                 
+                //  智能路由选择的模型 - 超时则使用默认模型
+                RoutedModel routedModel = awaitStage("routing", routeFuture, pipelineStartTime, routingTimeoutMs, null);
+                log.info(" 预处理完成，总耗时: {}ms", System.currentTimeMillis() - pipelineStartTime);
+                
                 log.info(" 使用智能Assistant处理增强消息...");
                 
                 TokenStream tokenStream;
-                
-                //  预防性会话健康检查
-                ensureSessionHealth(sessionId, userId);
-                
-                //  使用智能路由选择最佳模型
-                try {
-                    dev.langchain4j.model.chat.StreamingChatModel dynamicModel = 
-                        dynamicAIService.getStreamingChatModel(userMessage, userId, sessionId);
-                    
-                    // 重新构建使用动态模型和智能工具选择的Assistant
-                    Assistant dynamicAssistant = AiServices.builder(Assistant.class)
-                            .chatModel(chatModel)
-                            .streamingChatModel(dynamicModel)
-                            .chatMemoryProvider(memoryId -> chatMemories.computeIfAbsent(
-                                (String) memoryId, 
-                                id -> MessageWindowChatMemory.withMaxMessages(20)
-                            ))
-                            .tools(relevantTools) // 传入选择的工具
-                            .build();
-                    
-                    tokenStream = dynamicAssistant.chatStreaming(sessionId, enhancedMessage);
-                    log.info("  使用动态模型+智能工具选择进行对话");
-                    
-                } catch (Exception e) {
-                    log.warn("  动态选择失败，使用原有方案: {}", e.getMessage());
+                String routedModelName = null;
+                long modelStartTime = System.currentTimeMillis();
+                // 路由到的模型并发已满时降级到默认模型，避免单个模型配额被打满
+                StreamBulkhead.ModelPermit modelPermit = routedModel != null
+                    ? streamBulkhead.tryAcquireModel(routedModel.modelName) : null;
+                if (routedModel != null && modelPermit == null) {
+                    log.warn("  模型 {} 并发已满，使用默认模型", routedModel.modelName);
+                }
+                if (modelPermit != null) {
+                    try {
+                        routedModelName = routedModel.modelName;
+                        
+                        // 按 (模型, 工具集) 复用已构建的Assistant
+                        Assistant dynamicAssistant = getOrBuildAssistant(routedModel.modelName, routedModel.model, relevantTools);
+                        
+                        tokenStream = dynamicAssistant.chatStreaming(sessionId, enhancedMessage);
+                        log.info("  使用动态模型+智能工具选择进行对话");
+                        
+                    } catch (Exception e) {
+                        log.warn("  动态选择失败，使用原有方案: {}", e.getMessage());
+                        modelPermit.release();
+                        modelPermit = null;
+                        routedModelName = null;
+                        tokenStream = assistant.chatStreaming(sessionId, enhancedMessage);
+                    }
+                } else {
+                    if (routedModel == null) {
+                        log.warn("  模型路由未完成，使用原有方案");
+                    }
                     tokenStream = assistant.chatStreaming(sessionId, enhancedMessage);
                 }
                 
+                // 实时监控指标：动态选择失败时记为默认模型
+                final String usageModelName = routedModelName != null ? routedModelName : "default";
+                final StreamBulkhead.ModelPermit activePermit = modelPermit;
                 StringBuilder fullResponse = new StringBuilder();
+                // 调用过工具的答案依赖实时数据，不进入语义答案缓存
+                AtomicBoolean toolExecuted = new AtomicBoolean();
                 
                 tokenStream.onPartialResponse(token -> {
                     fullResponse.append(token);
                     onChunk.accept(token);
                 });
                 
+                tokenStream.onToolExecuted(execution -> toolExecuted.set(true));
+                
                 tokenStream.onCompleteResponse(response -> {
+                    if (activePermit != null) {
+                        activePermit.release();
+                    }
+                    modelUsageMetrics.recordUsage(userId, usageModelName, System.currentTimeMillis() - modelStartTime, true);
                     try {
                         String finalResult = fullResponse.toString();
                         log.info(" 完整响应: {}", finalResult);
                         
+                        if (!toolExecuted.get()) {
+                            semanticAnswerCache.store(answerProbe, userMessage, finalResult);
+                        }
                     
                         if (userId != null && chatHistoryService != null) {
                             log.info(" 保存聊天记录...");
@@ -254,6 +455,10 @@ public class AssistantAgent {
                 });
                 
                 tokenStream.onError(error -> {
+                    if (activePermit != null) {
+                        activePermit.release();
+                    }
+                    modelUsageMetrics.recordUsage(userId, usageModelName, System.currentTimeMillis() - modelStartTime, false);
                     log.error("  流式处理失败: {}", error.getMessage(), error);
                     
                     //   特殊处理LangChain4j工具调用错误
@@ -263,31 +468,12 @@ public class AssistantAgent {
                         
                         try {
                             // 强制清理当前会话的ChatMemory
-                            if (sessionId != null && chatMemories.containsKey(sessionId)) {
-                                ChatMemory memory = chatMemories.get(sessionId);
-                                if (memory != null) {
-                                    memory.clear();
-                                    log.info("  已强制清理会话 {} 的ChatMemory", sessionId);
-                                }
-                                chatMemories.remove(sessionId);
+                            if (chatMemoryManager.evict(sessionId)) {
+                                log.info("  已强制清理会话 {} 的ChatMemory", sessionId);
                             }
                             
-                            
                             if (userId != null) {
-                                String userPrefix = userId + "_";
-                                chatMemories.entrySet().removeIf(entry -> {
-                                    if (entry.getKey().startsWith(userPrefix)) {
-                                        try {
-                                            if (entry.getValue() != null) {
-                                                entry.getValue().clear();
-                                            }
-                                        } catch (Exception e) {
-                                            log.warn("清理ChatMemory时出错: {}", e.getMessage());
-                                        }
-                                        return true;
-                                    }
-                                    return false;
-                                });
+                                chatMemoryManager.evictUser(userId);
                                 log.info("  已清理用户 {} 的所有ChatMemory", userId);
                             }
                             
@@ -305,7 +491,14 @@ public class AssistantAgent {
                     }
                 });
                 
-                tokenStream.start();
+                try {
+                    tokenStream.start();
+                } catch (RuntimeException e) {
+                    if (activePermit != null) {
+                        activePermit.release();
+                    }
+                    throw e;
+                }
                 
             } else {
                 log.error(" StreamingAssistant未初始化");
@@ -324,6 +517,135 @@ public class AssistantAgent {
         //   移除finally中的上下文清理，改为在回调中清理
     }
 
+    /**
+     * 以流式分片回放缓存答案，对话记忆和聊天记录照常写入
+     */
+    private void replayCachedAnswer(String userMessage, String sessionId, Long userId, String answer,
+                                    Consumer<String> onChunk, Runnable onComplete) {
+        rememberTurn(sessionId, userMessage, answer);
+        int chunkChars = Math.max(1, replayChunkChars);
+        int start = 0;
+        while (start < answer.length()) {
+            int end = Math.min(answer.length(), start + chunkChars);
+            // 不拆开代理对（如emoji）
+            if (end < answer.length() && Character.isHighSurrogate(answer.charAt(end - 1))) {
+                end++;
+            }
+            onChunk.accept(answer.substring(start, end));
+            start = end;
+        }
+        
+        if (userId != null && chatHistoryService != null) {
+            chatHistoryService.saveConversation(userId, sessionId, userMessage, answer);
+        }
+        log.info(" 已回放缓存答案 [会话: {}]，长度: {}", sessionId, answer.length());
+        onComplete.run();
+    }
+
+    /**
+     * 把未经模型的一轮问答写入会话记忆，保持后续对话上下文连贯
+     */
+    private void rememberTurn(String sessionId, String userMessage, String answer) {
+        if (sessionId == null) {
+            return;
+        }
+        ChatMemory memory = chatMemoryManager.getOrCreate(sessionId, null);
+        memory.add(UserMessage.from(userMessage));
+        memory.add(AiMessage.from(answer));
+    }
+
+    /**
+     * RAG检索 + 背景信息筛选（预处理阶段，在线程池中执行）
+     */
+    private String retrieveFocusedContext(String userMessage, Long userId) {
+        String ragContext = "";
+        try {
+            log.info(" 开始RAG向量检索...");
+            Object retrievalResult = ragRetriever.retrieve(userMessage, 3, userId);
+            
+            if (retrievalResult != null) {
+                ragContext = retrievalResult.toString();
+                log.info(" RAG检索成功，获得背景信息: {}", ragContext.substring(0, Math.min(ragContext.length(), 100)) + "...");
+            } else {
+                log.info(" RAG未找到相关背景信息");
+            }
+        } catch (Exception e) {
+            log.warn(" RAG检索失败，继续使用工具调用: {}", e.getMessage());
+        }
+        
+        //  精准背景信息筛选 - 避免信息过载
+        return filterRelevantContext(ragContext, userMessage);
+    }
+
+    /**
+     * 提交预处理阶段：在线程池线程上带上用户上下文，并记录阶段自身耗时
+     */
+    private <T> Future<StageResult<T>> submitStage(Long userId, Callable<T> stage) {
+        return stageExecutor.submit(() -> {
+            // 线程池满时由调用线程执行，需要恢复调用线程原有的用户上下文
+            Long previousUserId = UserContextHolder.getCurrentId();
+            if (userId != null) {
+                UserContextHolder.setCurrentId(userId);
+            }
+            long startTime = System.currentTimeMillis();
+            try {
+                return new StageResult<>(stage.call(), System.currentTimeMillis() - startTime);
+            } finally {
+                if (previousUserId != null) {
+                    UserContextHolder.setCurrentId(previousUserId);
+                } else {
+                    UserContextHolder.clear();
+                }
+            }
+        });
+    }
+
+    /**
+     * 等待预处理阶段，截止时间从预处理开始时计算；超时或失败时返回降级值
+     */
+    private <T> T awaitStage(String stageName, Future<StageResult<T>> future, long pipelineStartTime,
+                             long timeoutMs, T fallback) {
+        long remainingMs = pipelineStartTime + timeoutMs - System.currentTimeMillis();
+        try {
+            StageResult<T> result = future.get(Math.max(0, remainingMs), TimeUnit.MILLISECONDS);
+            modelUsageMetrics.recordStage(stageName, result.elapsedMs, false);
+            log.info(" 阶段 [{}] 完成，耗时: {}ms", stageName, result.elapsedMs);
+            return result.value != null ? result.value : fallback;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            modelUsageMetrics.recordStage(stageName, timeoutMs, true);
+            log.warn(" 阶段 [{}] 超过 {}ms 未完成，降级处理", stageName, timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+        } catch (ExecutionException e) {
+            modelUsageMetrics.recordStage(stageName, System.currentTimeMillis() - pipelineStartTime, false);
+            log.warn(" 阶段 [{}] 执行失败，降级处理: {}", stageName,
+                    e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        }
+        return fallback;
+    }
+
+    private static class StageResult<T> {
+        private final T value;
+        private final long elapsedMs;
+
+        StageResult(T value, long elapsedMs) {
+            this.value = value;
+            this.elapsedMs = elapsedMs;
+        }
+    }
+
+    private static class RoutedModel {
+        private final String modelName;
+        private final StreamingChatModel model;
+
+        RoutedModel(String modelName, StreamingChatModel model) {
+            this.modelName = modelName;
+            this.model = model;
+        }
+    }
+
     /**
      *  精准背景信息过滤 - 避免AI信息过载
      * 根据用户查询筛选最相关的背景信息，而不是传递所有信息
@@ -334,58 +656,19 @@ public class AssistantAgent {
         }
         
         try {
-            String lowerQuery = userMessage.toLowerCase();
             StringBuilder focusedContext = new StringBuilder();
             
-            //  根据用户查询关键词精准匹配相关信息
+            //  根据用户查询关键词精准匹配相关信息（共享关键词自动机，一次扫描）
             String[] contextLines = ragContext.split("\\n");
             int relevantLinesCount = 0;
-            int maxLines = 8; // 最多返回8行相关信息
             
             // 高优先级关键词 - 直接返回相关工具指导
-            if (containsAny(lowerQuery, "用户", "成员", "人员", "档案", "添加", "删除", "修改")) {
-                focusedContext.append("用户管理工具：查询档案用getCurrentUserProfile，管理操作已集成权限验证\\n");
-                relevantLinesCount++;
-            }
-            
-            if (containsAny(lowerQuery, "部门", "统计", "组织", "工作室")) {
-                focusedContext.append("工作室信息工具：成员统计用getStudioMemberStatistics，部门详情用getDepartmentDetails\\n");
-                relevantLinesCount++;
-            }
-            
-            if (containsAny(lowerQuery, "公告", "通知", "消息")) {
-                focusedContext.append("公告管理工具：查询用getLatestNotices，管理操作已集成权限验证\\n");
-                relevantLinesCount++;
-            }
-            
-            if (containsAny(lowerQuery, "考勤", "签到", "出勤")) {
-                focusedContext.append("考勤管理工具：统计用getAttendanceStatistics\\n");
-                relevantLinesCount++;
-            }
-            
-            if (containsAny(lowerQuery, "任务", "作业", "项目")) {
-                focusedContext.append("任务管理工具：用户任务用getUserTasks，我的任务用getCurrentUserUncompletedTasks\\n");
-                relevantLinesCount++;
-            }
-            
-            if (containsAny(lowerQuery, "课程", "培训", "上课")) {
-                focusedContext.append("课程管理工具：课程列表用getCourseList，管理操作需先检查权限\\n");
-                relevantLinesCount++;
-            }
-            
-            if (containsAny(lowerQuery, "资料", "材料", "文档", "文件")) {
-                focusedContext.append("资料管理工具：分类查询用getAllMaterialCategories，管理操作需先检查权限\\n");
-                relevantLinesCount++;
-            }
-            
-            if (containsAny(lowerQuery, "天气", "预报", "气温")) {
-                focusedContext.append("天气查询工具：今日天气用getTodayWeather，预报用getWeatherForecast\\n");
-                relevantLinesCount++;
-            }
-            
-            if (containsAny(lowerQuery, "新闻", "资讯", "头条")) {
-                focusedContext.append("新闻查询工具：今日新闻用getTodayNews，指定日期用getNewsByDate\\n");
-                relevantLinesCount++;
+            KeywordAutomaton.Hits hits = keywordClassifier.scan(userMessage);
+            for (Map.Entry<KeywordClassifier.ContextHint, String> entry : CONTEXT_HINT_GUIDES.entrySet()) {
+                if (hits.contains(KeywordClassifier.HINT_GROUP + entry.getKey().name())) {
+                    focusedContext.append(entry.getValue());
+                    relevantLinesCount++;
+                }
             }
             
             // 如果没有匹配到具体工具，返回通用指导（限制长度）
@@ -416,17 +699,6 @@ public class AssistantAgent {
         }
     }
     
-    /**
-     * 检查字符串是否包含任意一个关键词
-     */
-    private boolean containsAny(String text, String... keywords) {
-        for (String keyword : keywords) {
-            if (text.contains(keyword)) {
-                return true;
-            }
-        }
-        return false;
-    }
 
 
 
@@ -445,8 +717,28 @@ public class AssistantAgent {
         }
         
         try {
-            // 使用统一Assistant的同步方法
-            String response = assistant.chatSync(sessionId, userMessage);
+            String response;
+            SemanticAnswerCache.Probe answerProbe = semanticAnswerCache.probe(userMessage, userId,
+                    chatMemoryManager.hasHistory(sessionId));
+            if (answerProbe.getAnswer() != null) {
+                response = answerProbe.getAnswer();
+                rememberTurn(sessionId, userMessage, response);
+            } else {
+                // 使用统一Assistant的同步方法，与流式路径一样计入实时监控指标（统一Assistant记为默认模型）
+                long modelStartTime = System.currentTimeMillis();
+                Result<String> result;
+                try {
+                    result = assistant.chatSync(sessionId, userMessage);
+                } catch (RuntimeException e) {
+                    modelUsageMetrics.recordUsage(userId, "default", System.currentTimeMillis() - modelStartTime, false);
+                    throw e;
+                }
+                modelUsageMetrics.recordUsage(userId, "default", System.currentTimeMillis() - modelStartTime, true);
+                response = result.content();
+                if (result.toolExecutions() == null || result.toolExecutions().isEmpty()) {
+                    semanticAnswerCache.store(answerProbe, userMessage, response);
+                }
+            }
             
             // 保存聊天记录
             if (userId != null && chatHistoryService != null) {
@@ -469,8 +761,7 @@ public class AssistantAgent {
      *   清空指定用户的ChatMemory缓存
      */
     public void clearUserChatMemory(String sessionId) {
-        if (sessionId != null && chatMemories.containsKey(sessionId)) {
-            chatMemories.remove(sessionId);
+        if (chatMemoryManager.evict(sessionId)) {
             log.info("  已清空会话内存缓存: {}", sessionId);
         } else {
             log.warn("  会话内存缓存不存在或sessionId为空: {}", sessionId);
@@ -487,32 +778,7 @@ public class AssistantAgent {
         }
         
         // 清空该用户相关的所有会话缓存
-        String userPrefix = userId + "_";
-        int removedCount = 0;
-        
-        //   先统计要删除的数量
-        for (String sessionId : chatMemories.keySet()) {
-            if (sessionId.startsWith(userPrefix)) {
-                removedCount++;
-            }
-        }
-        
-        //   使用迭代器安全删除，并强制清理内存
-        chatMemories.entrySet().removeIf(entry -> {
-            if (entry.getKey().startsWith(userPrefix)) {
-                // 强制清理ChatMemory内部状态
-                try {
-                    ChatMemory memory = entry.getValue();
-                    if (memory != null) {
-                        memory.clear(); // 清空内存中的对话历史
-                    }
-                } catch (Exception e) {
-                    log.warn("  清理ChatMemory内部状态失败: {}", e.getMessage());
-                }
-                return true;
-            }
-            return false;
-        });
+        int removedCount = chatMemoryManager.evictUser(userId);
         
         log.info("  已清空用户 {} 的所有内存缓存，清空数量: {}", userId, removedCount);
     }
@@ -521,20 +787,7 @@ public class AssistantAgent {
      *   强制清空所有ChatMemory缓存（紧急情况使用）
      */
     public void clearAllChatMemories() {
-        int totalSize = chatMemories.size();
-        
-        // 强制清理所有ChatMemory内部状态
-        chatMemories.values().forEach(memory -> {
-            try {
-                if (memory != null) {
-                    memory.clear();
-                }
-            } catch (Exception e) {
-                log.warn("  清理ChatMemory状态失败: {}", e.getMessage());
-            }
-        });
-        
-        chatMemories.clear();
+        long totalSize = chatMemoryManager.evictAll();
         log.warn("  紧急清空所有ChatMemory缓存，总数: {}", totalSize);
     }
     
@@ -548,20 +801,19 @@ public class AssistantAgent {
                 return;
             }
             
-            ChatMemory memory = chatMemories.get(sessionId);
+            SummarizingTokenWindowChatMemory memory = chatMemoryManager.getIfPresent(sessionId);
             if (memory != null) {
-                // 检查ChatMemory的消息数量，只有在极端情况下才清理
-                int messageCount = memory.messages().size();
+                // 记忆已按Token预算裁剪，消息数仍异常（如单轮工具调用失控）时才清理
+                int messageCount = memory.size();
                 
                 //   调整阈值：只有超过100条消息才认为异常
                 if (messageCount > 100) {
                     log.warn("  会话 {} 消息数量过多 ({}), 清理重建", sessionId, messageCount);
-                    memory.clear();
-                    chatMemories.remove(sessionId);
-                    // 重新创建
-                    chatMemories.put(sessionId, MessageWindowChatMemory.withMaxMessages(30));
+                    // 下次对话时按需重新创建
+                    chatMemoryManager.evict(sessionId);
                 } else {
-                    log.debug("  会话 {} 健康状态良好，消息数量: {}", sessionId, messageCount);
+                    log.debug("  会话 {} 健康状态良好，消息数量: {}, 估算Token: {}/{}", sessionId, messageCount,
+                            memory.estimatedTokens(), memory.getMaxTokens());
                 }
                 
                 //   移除过于激进的工具调用检查，避免误判
@@ -575,10 +827,7 @@ public class AssistantAgent {
     
             if (e.getClass().equals(OutOfMemoryError.class)) {
                 log.error(" 内存不足，强制清理会话: {}", sessionId);
-                if (sessionId != null && chatMemories.containsKey(sessionId)) {
-                    chatMemories.remove(sessionId);
-                    chatMemories.put(sessionId, MessageWindowChatMemory.withMaxMessages(30));
-                }
+                chatMemoryManager.evict(sessionId);
             }
         }
     }
@@ -592,7 +841,12 @@ public class AssistantAgent {
                "  ChatModel: 已注入\n" +
                "  RAG向量检索: 已集成\n" +
                "  Assistant: " + (assistant != null ? "已初始化" : "未初始化") + "\n" +
-               " 当前ChatMemory缓存数: " + chatMemories.size();
+               " 当前ChatMemory缓存数: " + chatMemoryManager.size() + "\n" +
+               " 对话记忆: " + chatMemoryManager.getStats() + "\n" +
+               " 语义答案缓存: " + semanticAnswerCache.getStats() + "\n" +
+               " 外部API缓存: " + externalApiSupport.getStats() + "\n" +
+               " " + getAssistantCacheStats() + "\n" +
+               " 工具筛选: " + smartToolSelector.getSelectionStats();
     }
 } 
 
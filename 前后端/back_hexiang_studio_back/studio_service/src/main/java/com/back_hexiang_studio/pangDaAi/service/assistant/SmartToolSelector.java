@@ -10,38 +10,97 @@ import com.back_hexiang_studio.pangDaAi.tool.workflow.NoticeManagementTools;
 import com.back_hexiang_studio.pangDaAi.tool.workflow.StudioManagementTools;
 import com.back_hexiang_studio.pangDaAi.tool.workflow.TaskManagementTools;
 import com.back_hexiang_studio.pangDaAi.tool.workflow.UserManagementTools;
+import com.back_hexiang_studio.pangDaAi.service.rag.QueryEmbeddingCache;
+import com.back_hexiang_studio.pangDaAi.service.rag.ToolClassificationService;
+import com.back_hexiang_studio.pangDaAi.service.rag.ToolClassificationService.ToolCategory;
 import dev.langchain4j.agent.tool.Tool;
+import dev.langchain4j.agent.tool.ToolSpecification;
+import dev.langchain4j.agent.tool.ToolSpecifications;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.aop.framework.Advised;
 import org.springframework.aop.support.AopUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Component;
 
 
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *    智能工具选择器 -
  * 自动扫描、加载并根据用户查询动态选择相关的【工作流工具实例】。
+ *
+ * 启动后用 EmbeddingModel 为每个 @Tool 方法的描述建立向量索引，
+ * 每次查询按「工具类内最相似方法的得分 + 工具分类关键词加分」选出前 K 个工具类，
+ * 只把这些工具的 schema 发给模型；索引未就绪或没有工具达到阈值时回退为全部工具。
+ * AiServices 以对象为单位注册工具，因此筛选粒度是工具类而不是单个方法。
  */
 @Component
 @Slf4j
 public class SmartToolSelector {
 
+    // 粗略估算：中文为主的工具描述约每2个字符1个token
+    private static final int CHARS_PER_TOKEN = 2;
+
     @Autowired
     private ApplicationContext applicationContext;
 
+    @Autowired
+    private EmbeddingModel embeddingModel;
+
+    @Autowired
+    private QueryEmbeddingCache queryEmbeddingCache;
+
+    @Autowired
+    private ToolClassificationService toolClassificationService;
+
+    @Value("${pangda-ai.tool-selection.enabled:true}")
+    private boolean semanticSelectionEnabled;
+
+    @Value("${pangda-ai.tool-selection.top-k:3}")
+    private int topK;
+
+    @Value("${pangda-ai.tool-selection.min-score:0.3}")
+    private double minScore;
+
+    @Value("${pangda-ai.tool-selection.category-boost:0.15}")
+    private double categoryBoost;
+
     // 存储所有扫描到的工作流工具实例
     private List<Object> allWorkflowTools;
     // 缓存工具方法和其所属类的映射
     private Map<String, Object> toolMethodToInstanceMap;
 
+    // 工具类 -> 所属工具分类（用于关键词分类加分）
+    private final Map<Class<?>, ToolCategory> toolCategories = new HashMap<>();
+    // 每个工具类的方法数与估算schema token数
+    private final Map<Object, Integer> toolMethodCounts = new HashMap<>();
+    private final Map<Object, Integer> toolTokenEstimates = new HashMap<>();
+    private int allToolMethodCount;
+    private int allToolTokenEstimate;
+
+    // 工具描述向量索引，构建完成后一次性发布
+    private volatile List<ToolVector> toolIndex = Collections.emptyList();
+
+    private final AtomicLong selectionRequests = new AtomicLong();
+    private final AtomicLong fallbackRequests = new AtomicLong();
+    private final AtomicLong toolClassesSent = new AtomicLong();
+    private final AtomicLong toolMethodsSent = new AtomicLong();
+    private final AtomicLong estimatedTokensSent = new AtomicLong();
+    private final AtomicLong estimatedTokensFull = new AtomicLong();
+
     /**
      * 初始化时，自动扫描并加载所有的工作流工具
      */
@@ -72,6 +131,82 @@ public class SmartToolSelector {
             }
         }
         log.info("  智能工具选择器初始化完成，共加载 {} 个工作流工具类。", allWorkflowTools.size());
+
+        toolCategories.put(UserManagementTools.class, ToolCategory.USER_MANAGEMENT);
+        toolCategories.put(CourseManagementTools.class, ToolCategory.COURSE_MANAGEMENT);
+        toolCategories.put(MaterialManagementTools.class, ToolCategory.MATERIAL_MANAGEMENT);
+        toolCategories.put(ModelManagementTools.class, ToolCategory.AI_MODEL_MANAGEMENT);
+        toolCategories.put(NoticeManagementTools.class, ToolCategory.NOTICE_MANAGEMENT);
+        toolCategories.put(TaskManagementTools.class, ToolCategory.TASK_MANAGEMENT);
+        toolCategories.put(AttendanceManagementTools.class, ToolCategory.ATTENDANCE_MANAGEMENT);
+        toolCategories.put(StudioManagementTools.class, ToolCategory.STUDIO_INFO);
+        toolCategories.put(WeatherToolService.class, ToolCategory.EXTERNAL_API);
+        toolCategories.put(NewsApiToolService.class, ToolCategory.EXTERNAL_API);
+
+        estimateToolTokens();
+
+        if (semanticSelectionEnabled) {
+            // 向量化工具描述需要调用Embedding模型，放到后台线程，避免阻塞启动；就绪前回退为全部工具
+            Thread indexThread = new Thread(this::buildToolIndex, "tool-index-builder");
+            indexThread.setDaemon(true);
+            indexThread.start();
+        }
+    }
+
+    /**
+     * 为所有@Tool方法的描述生成向量索引
+     */
+    private void buildToolIndex() {
+        try {
+            long startTime = System.currentTimeMillis();
+            List<Object> owners = new ArrayList<>();
+            List<TextSegment> segments = new ArrayList<>();
+            for (Object toolInstance : allWorkflowTools) {
+                for (Method method : toolInstance.getClass().getDeclaredMethods()) {
+                    Tool tool = method.getAnnotation(Tool.class);
+                    if (tool == null) {
+                        continue;
+                    }
+                    String description = String.join(" ", tool.value());
+                    owners.add(toolInstance);
+                    segments.add(TextSegment.from(method.getName() + ": " + description));
+                }
+            }
+
+            List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+            List<ToolVector> index = new ArrayList<>(embeddings.size());
+            for (int i = 0; i < embeddings.size(); i++) {
+                index.add(new ToolVector(owners.get(i), normalize(embeddings.get(i).vector())));
+            }
+            toolIndex = index;
+            log.info("  工具描述向量索引构建完成：{} 个工具方法，耗时 {}ms", index.size(), System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            log.error("  工具描述向量索引构建失败，将始终提供全部工具: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 估算每个工具类的schema大小，用于统计节省的token
+     */
+    private void estimateToolTokens() {
+        for (Object toolInstance : allWorkflowTools) {
+            int methods = 0;
+            int chars = 0;
+            try {
+                for (ToolSpecification specification : ToolSpecifications.toolSpecificationsFrom(toolInstance)) {
+                    methods++;
+                    chars += specification.name().length();
+                    chars += specification.description() == null ? 0 : specification.description().length();
+                    chars += specification.parameters() == null ? 0 : specification.parameters().toString().length();
+                }
+            } catch (Exception e) {
+                log.debug("  估算工具schema大小失败: {}", toolInstance.getClass().getSimpleName());
+            }
+            toolMethodCounts.put(toolInstance, methods);
+            toolTokenEstimates.put(toolInstance, chars / CHARS_PER_TOKEN);
+            allToolMethodCount += methods;
+            allToolTokenEstimate += chars / CHARS_PER_TOKEN;
+        }
     }
 
     /**
@@ -87,16 +222,101 @@ public class SmartToolSelector {
 
 
 
-        // 我们可以暂时将所有工具都提供给AI，让AI自行选择。
-        // LangChain4j的内部机制会根据工具的描述（@Tool注解）来决定调用哪个。
-        // 这种方式在工具数量可控（例如少于20-30个）的情况下，效果非常好，
+        List<ToolVector> index = toolIndex;
+        if (!semanticSelectionEnabled || index.isEmpty()) {
+            return recordSelection(allWorkflowTools, true);
+        }
 
+        try {
+            float[] queryVector = normalize(queryEmbeddingCache.embed(userQuery).vector());
 
-        // 未来的优化方向：如果工具数量继续增长，我们可以重新引入基于关键词或语义的预筛选，
-        // 但筛选的对象将是整个工具类实例，而不是零散的方法名。
+            // 工具类得分：类内最相似方法的余弦相似度
+            Map<Object, Double> scores = new LinkedHashMap<>();
+            for (ToolVector toolVector : index) {
+                double similarity = dot(queryVector, toolVector.vector);
+                scores.merge(toolVector.owner, similarity, Math::max);
+            }
 
-        log.info("   为查询 '{}' 选择了所有 {} 个工作流工具。", userQuery, allWorkflowTools.size());
-        return allWorkflowTools;
+            // 关键词分类命中的工具类加分
+            Map<ToolCategory, Double> categoryScores = new HashMap<>();
+            for (ToolClassificationService.ToolClassificationResult result : toolClassificationService.classifyUserQuery(userQuery)) {
+                categoryScores.merge(result.getCategory(), result.getScore(), Math::max);
+            }
+            for (Map.Entry<Object, Double> entry : scores.entrySet()) {
+                ToolCategory category = toolCategories.get(entry.getKey().getClass());
+                Double categoryScore = category != null ? categoryScores.get(category) : null;
+                if (categoryScore != null) {
+                    entry.setValue(entry.getValue() + categoryBoost * Math.min(categoryScore, 1.0));
+                }
+            }
+
+            List<Map.Entry<Object, Double>> ranked = new ArrayList<>(scores.entrySet());
+            ranked.sort((a, b) -> Double.compare(b.getValue(), a.getValue()));
+
+            List<Object> selected = new ArrayList<>();
+            for (Map.Entry<Object, Double> entry : ranked) {
+                if (selected.size() >= topK || entry.getValue() < minScore) {
+                    break;
+                }
+                selected.add(entry.getKey());
+            }
+
+            if (selected.isEmpty()) {
+                log.info("   查询 '{}' 没有工具达到相关度阈值 {}，提供全部 {} 个工具类。", userQuery, minScore, allWorkflowTools.size());
+                return recordSelection(allWorkflowTools, true);
+            }
+
+            log.info("   为查询 '{}' 选择了 {} 个工具类: {}", userQuery, selected.size(),
+                    selected.stream().map(tool -> tool.getClass().getSimpleName()).toList());
+            return recordSelection(selected, false);
+
+        } catch (Exception e) {
+            log.warn("   语义工具筛选失败，提供全部工具: {}", e.getMessage());
+            return recordSelection(allWorkflowTools, true);
+        }
+    }
+
+    /**
+     * 累计筛选指标
+     */
+    private List<Object> recordSelection(List<Object> tools, boolean fallback) {
+        selectionRequests.incrementAndGet();
+        if (fallback) {
+            fallbackRequests.incrementAndGet();
+        }
+        int methods = 0;
+        int tokens = 0;
+        for (Object tool : tools) {
+            methods += toolMethodCounts.getOrDefault(tool, 0);
+            tokens += toolTokenEstimates.getOrDefault(tool, 0);
+        }
+        toolClassesSent.addAndGet(tools.size());
+        toolMethodsSent.addAndGet(methods);
+        estimatedTokensSent.addAndGet(tokens);
+        estimatedTokensFull.addAndGet(allToolTokenEstimate);
+        return tools;
+    }
+
+    /**
+     * 工具筛选统计：平均每次请求发送的工具数与估算节省的token
+     */
+    public Map<String, Object> getSelectionStats() {
+        long requests = selectionRequests.get();
+        long sentTokens = estimatedTokensSent.get();
+        long fullTokens = estimatedTokensFull.get();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("indexReady", !toolIndex.isEmpty());
+        stats.put("indexedMethods", toolIndex.size());
+        stats.put("requests", requests);
+        stats.put("fallbackRequests", fallbackRequests.get());
+        stats.put("avgToolClassesPerRequest", requests == 0 ? 0.0 : (double) toolClassesSent.get() / requests);
+        stats.put("avgToolMethodsPerRequest", requests == 0 ? 0.0 : (double) toolMethodsSent.get() / requests);
+        stats.put("allToolMethods", allToolMethodCount);
+        stats.put("estimatedTokensPerFullSet", allToolTokenEstimate);
+        stats.put("estimatedTokensSaved", fullTokens - sentTokens);
+        stats.put("estimatedTokenSavingRate", fullTokens == 0 ? 0.0 : (double) (fullTokens - sentTokens) / fullTokens);
+        return stats;
     }
 
     /**
@@ -131,4 +351,42 @@ public class SmartToolSelector {
         log.debug(" 工具 {} 不是AOP代理，直接使用。", bean.getClass().getSimpleName());
         return bean;
     }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        norm = Math.sqrt(norm);
+        float[] result = new float[vector.length];
+        if (norm == 0) {
+            return result;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = (float) (vector[i] / norm);
+        }
+        return result;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * 单个@Tool方法描述的向量（已归一化）及其所属工具实例
+     */
+    private static class ToolVector {
+        private final Object owner;
+        private final float[] vector;
+
+        ToolVector(Object owner, float[] vector) {
+            this.owner = owner;
+            this.vector = vector;
+        }
+    }
 } 
\ No newline at end of file
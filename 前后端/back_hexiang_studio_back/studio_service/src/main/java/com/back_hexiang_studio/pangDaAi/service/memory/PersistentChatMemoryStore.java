@@ -1,24 +1,42 @@
 package com.back_hexiang_studio.pangDaAi.service.memory;
 
 import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.ChatMessageDeserializer;
+import dev.langchain4j.data.message.ChatMessageSerializer;
 // 注释暂时不兼容的ChatMemoryStore接口，0.29.1版本中此接口可能不存在
 // import dev.langchain4j.store.memory.chat.ChatMemoryStore;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import dev.langchain4j.data.message.UserMessage;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 
-import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  * 持久化对话记忆存储
  * 兼容LangChain4j 0.29.1版本的独立聊天记忆管理类
- * 
+ *
+ * Redis 存储结构：
+ * - chat_memory:list:{memoryId}  每个会话一个 List，元素为单条消息的 JSON（LangChain4j 消息编解码）
+ *   追加时 RPUSH + 按轮次裁剪 + EXPIRE 在一个 Lua 脚本中执行，每轮写入量与历史长度无关；
+ *   超过保留条数时从第一条用户消息处截断，不会拆开工具调用请求与工具结果
+ * - chat_memory:user:{userId}    用户的会话索引 Set（memoryId 形如 "userId_xxx" 时维护）
+ * - 管理操作使用 SCAN 分批遍历，不使用阻塞的 KEYS
+ *
  * @author 胖达AI助手开发团队
- * @version 2.1 - 兼容0.29.1版本
+ * @version 3.0 - 改为按会话追加的 Redis List 存储
  * @since 2025-09-13
  */
 @Service
@@ -26,33 +44,77 @@ import java.util.concurrent.TimeUnit;
 public class PersistentChatMemoryStore {
 
     @Autowired(required = false)
-    private RedisTemplate<String, Object> redisTemplate;
-    
+    private StringRedisTemplate stringRedisTemplate;
+
     // 如果没有 Redis，使用内存存储作为降级
-    private final java.util.Map<Object, List<ChatMessage>> memoryFallback = 
-            new java.util.concurrent.ConcurrentHashMap<>();
-    
+    private final Map<Object, List<ChatMessage>> memoryFallback = new ConcurrentHashMap<>();
+
     /**
      * Redis key 前缀
      */
-    private static final String REDIS_KEY_PREFIX = "chat_memory:";
-    
+    private static final String REDIS_KEY_PREFIX = "chat_memory:list:";
+
+    /**
+     * 用户会话索引 key 前缀
+     */
+    private static final String USER_INDEX_PREFIX = "chat_memory:user:";
+
+    /**
+     * SCAN 每批数量
+     */
+    private static final int SCAN_BATCH_SIZE = 500;
+
+    /**
+     * 追加消息并按轮次裁剪
+     * KEYS: 会话消息列表、用户会话索引（可选）
+     * ARGV: 保留条数、过期秒数、是否整体替换、记忆ID、消息JSON...
+     * 超过保留条数时，从应保留区间内的第一条用户消息处截断；区间内没有用户消息（单轮过长）时暂不裁剪
+     */
+    private static final DefaultRedisScript<Long> APPEND_SCRIPT = new DefaultRedisScript<>(
+            "if ARGV[3] == '1' then redis.call('DEL', KEYS[1]) end\n" +
+            "if #ARGV > 4 then\n" +
+            "    local len = redis.call('RPUSH', KEYS[1], unpack(ARGV, 5))\n" +
+            "    local from = len - tonumber(ARGV[1])\n" +
+            "    if from > 0 then\n" +
+            "        for i = from, len - 1 do\n" +
+            "            if string.find(redis.call('LINDEX', KEYS[1], i), '\"type\":\"USER\"', 1, true) then\n" +
+            "                redis.call('LTRIM', KEYS[1], i, -1)\n" +
+            "                break\n" +
+            "            end\n" +
+            "        end\n" +
+            "    end\n" +
+            "    redis.call('EXPIRE', KEYS[1], ARGV[2])\n" +
+            "end\n" +
+            "if #KEYS > 1 then\n" +
+            "    redis.call('SADD', KEYS[2], ARGV[4])\n" +
+            "    redis.call('EXPIRE', KEYS[2], ARGV[2])\n" +
+            "end\n" +
+            "return redis.call('LLEN', KEYS[1])",
+            Long.class);
+
     /**
-     * 默认过期时间：7天
+     * 过期时间，默认7天，每次写入时刷新
      */
-    private static final Duration DEFAULT_TTL = Duration.ofDays(7);
+    @Value("${pangda-ai.memory.store.ttl-days:7}")
+    private long ttlDays;
+
+    /**
+     * 每个会话最多保留的消息数
+     */
+    @Value("${pangda-ai.memory.store.max-messages:100}")
+    private int maxMessages;
 
     /**
      * 获取指定记忆ID的聊天消息列表
-     * 
+     *
      * @param memoryId 记忆ID（通常是用户ID或会话ID）
      * @return 聊天消息列表
      */
     public List<ChatMessage> getMessages(Object memoryId) {
         log.debug("  获取对话记忆 - memoryId: {}", memoryId);
-        
+
         try {
-            if (redisTemplate != null) {
+            if (stringRedisTemplate != null) {
                 return getMessagesFromRedis(memoryId);
             } else {
                 return getMessagesFromMemory(memoryId);
@@ -64,23 +126,46 @@ public class PersistentChatMemoryStore {
     }
 
     /**
-     * 更新指定记忆ID的聊天消息列表
-     * 
+     * 追加聊天消息（每轮对话调用，只写入新增消息）
+     *
+     * @param memoryId 记忆ID
+     * @param messages 新增的聊天消息
+     */
+    public void appendMessages(Object memoryId, List<ChatMessage> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return;
+        }
+        log.debug("  追加对话记忆 - memoryId: {}, 新增消息数量: {}", memoryId, messages.size());
+
+        try {
+            if (stringRedisTemplate != null) {
+                appendMessagesToRedis(memoryId, messages, false);
+            } else {
+                appendMessagesToMemory(memoryId, messages, false);
+            }
+        } catch (Exception e) {
+            log.error("  追加对话记忆失败 - memoryId: {}, 错误: {}", memoryId, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 整体替换指定记忆ID的聊天消息列表（用于压缩、修复等低频场景，日常追加请用 appendMessages）
+     *
      * @param memoryId 记忆ID
      * @param messages 聊天消息列表
      */
     public void updateMessages(Object memoryId, List<ChatMessage> messages) {
         log.debug("  更新对话记忆 - memoryId: {}, 消息数量: {}", memoryId, messages.size());
-        
+
         try {
-            if (redisTemplate != null) {
-                updateMessagesInRedis(memoryId, messages);
+            if (stringRedisTemplate != null) {
+                appendMessagesToRedis(memoryId, messages, true);
             } else {
-                updateMessagesInMemory(memoryId, messages);
+                appendMessagesToMemory(memoryId, messages, true);
             }
-            
-            log.info("  对话记忆更新成功 - memoryId: {}", memoryId);
-            
+
+            log.debug("  对话记忆更新成功 - memoryId: {}", memoryId);
+
         } catch (Exception e) {
             log.error("  更新对话记忆失败 - memoryId: {}, 错误: {}", memoryId, e.getMessage(), e);
         }
@@ -88,21 +173,21 @@ public class PersistentChatMemoryStore {
 
     /**
      * 删除指定记忆ID的所有聊天消息
-     * 
+     *
      * @param memoryId 记忆ID
      */
     public void deleteMessages(Object memoryId) {
         log.info("  删除对话记忆 - memoryId: {}", memoryId);
-        
+
         try {
-            if (redisTemplate != null) {
+            if (stringRedisTemplate != null) {
                 deleteMessagesFromRedis(memoryId);
             } else {
                 deleteMessagesFromMemory(memoryId);
             }
-            
+
             log.info("  对话记忆删除成功 - memoryId: {}", memoryId);
-            
+
         } catch (Exception e) {
             log.error("  删除对话记忆失败 - memoryId: {}, 错误: {}", memoryId, e.getMessage(), e);
         }
@@ -115,32 +200,91 @@ public class PersistentChatMemoryStore {
     /**
      * 从 Redis 获取消息
      */
-    @SuppressWarnings("unchecked")
     private List<ChatMessage> getMessagesFromRedis(Object memoryId) {
-        String key = REDIS_KEY_PREFIX + memoryId;
-        Object messagesObj = redisTemplate.opsForValue().get(key);
-        
-        if (messagesObj instanceof List) {
-            return (List<ChatMessage>) messagesObj;
+        List<String> items = stringRedisTemplate.opsForList().range(REDIS_KEY_PREFIX + memoryId, 0, -1);
+        if (items == null || items.isEmpty()) {
+            return new ArrayList<>();
         }
-        
-        return new ArrayList<>();
+        List<ChatMessage> messages = new ArrayList<>(items.size());
+        for (String item : items) {
+            try {
+                messages.add(ChatMessageDeserializer.messageFromJson(item));
+            } catch (Exception e) {
+                log.warn("  跳过无法解析的对话消息 - memoryId: {}, 错误: {}", memoryId, e.getMessage());
+            }
+        }
+        return messages;
     }
 
     /**
-     * 向 Redis 更新消息
+     * 向 Redis 追加消息：RPUSH + 按轮次裁剪 + EXPIRE（及用户索引）一次脚本调用完成
+     *
+     * @param replace 是否先删除原列表（整体替换）
      */
-    private void updateMessagesInRedis(Object memoryId, List<ChatMessage> messages) {
-        String key = REDIS_KEY_PREFIX + memoryId;
-        redisTemplate.opsForValue().set(key, messages, DEFAULT_TTL.toMillis(), TimeUnit.MILLISECONDS);
+    private void appendMessagesToRedis(Object memoryId, List<ChatMessage> messages, boolean replace) {
+        List<String> keys = new ArrayList<>(2);
+        keys.add(REDIS_KEY_PREFIX + memoryId);
+        String userIndexKey = userIndexKey(memoryId);
+        if (userIndexKey != null) {
+            keys.add(userIndexKey);
+        }
+        Object[] args = new Object[messages.size() + 4];
+        args[0] = String.valueOf(maxMessages);
+        args[1] = String.valueOf(ttlDays * 24 * 3600);
+        args[2] = replace ? "1" : "0";
+        args[3] = String.valueOf(memoryId);
+        for (int i = 0; i < messages.size(); i++) {
+            args[i + 4] = ChatMessageSerializer.messageToJson(messages.get(i));
+        }
+        stringRedisTemplate.execute(APPEND_SCRIPT, keys, args);
     }
 
     /**
      * 从 Redis 删除消息
      */
     private void deleteMessagesFromRedis(Object memoryId) {
-        String key = REDIS_KEY_PREFIX + memoryId;
-        redisTemplate.delete(key);
+        stringRedisTemplate.delete(REDIS_KEY_PREFIX + memoryId);
+        String userIndexKey = userIndexKey(memoryId);
+        if (userIndexKey != null) {
+            stringRedisTemplate.opsForSet().remove(userIndexKey, String.valueOf(memoryId));
+        }
+    }
+
+    /**
+     * 用户会话索引 key：memoryId 以 "userId_" 开头时返回，否则为 null
+     */
+    private static String userIndexKey(Object memoryId) {
+        String id = String.valueOf(memoryId);
+        int separator = id.indexOf('_');
+        if (separator <= 0) {
+            return null;
+        }
+        for (int i = 0; i < separator; i++) {
+            if (!Character.isDigit(id.charAt(i))) {
+                return null;
+            }
+        }
+        return USER_INDEX_PREFIX + id.substring(0, separator);
+    }
+
+    /**
+     * SCAN 分批遍历匹配的 key
+     */
+    private void scanKeys(String pattern, Consumer<List<String>> batchConsumer) {
+        ScanOptions options = ScanOptions.scanOptions().match(pattern).count(SCAN_BATCH_SIZE).build();
+        List<String> batch = new ArrayList<>(SCAN_BATCH_SIZE);
+        try (Cursor<String> cursor = stringRedisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                batch.add(cursor.next());
+                if (batch.size() >= SCAN_BATCH_SIZE) {
+                    batchConsumer.accept(batch);
+                    batch = new ArrayList<>(SCAN_BATCH_SIZE);
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            batchConsumer.accept(batch);
+        }
     }
 
     // ===================================================================
@@ -151,14 +295,33 @@ public class PersistentChatMemoryStore {
      * 从内存获取消息
      */
     private List<ChatMessage> getMessagesFromMemory(Object memoryId) {
-        return memoryFallback.getOrDefault(memoryId, new ArrayList<>());
+        List<ChatMessage> messages = memoryFallback.get(memoryId);
+        if (messages == null) {
+            return new ArrayList<>();
+        }
+        synchronized (messages) {
+            return new ArrayList<>(messages);
+        }
     }
 
     /**
-     * 向内存更新消息
+     * 向内存追加消息
      */
-    private void updateMessagesInMemory(Object memoryId, List<ChatMessage> messages) {
-        memoryFallback.put(memoryId, new ArrayList<>(messages));
+    private void appendMessagesToMemory(Object memoryId, List<ChatMessage> messages, boolean replace) {
+        List<ChatMessage> stored = memoryFallback.computeIfAbsent(memoryId, id -> new ArrayList<>());
+        synchronized (stored) {
+            if (replace) {
+                stored.clear();
+            }
+            stored.addAll(messages);
+            // 与 Redis 一致：从应保留区间内的第一条用户消息处截断
+            for (int i = stored.size() - maxMessages; i > 0 && i < stored.size(); i++) {
+                if (stored.get(i) instanceof UserMessage) {
+                    stored.subList(0, i).clear();
+                    break;
+                }
+            }
+        }
     }
 
     /**
@@ -173,21 +336,24 @@ public class PersistentChatMemoryStore {
     // ===================================================================
 
     /**
-     * 获取所有记忆ID（仅内存模式支持）
-     * 
+     * 获取所有记忆ID
+     *
      * @return 记忆ID集合
      */
-    public java.util.Set<Object> getAllMemoryIds() {
-        if (redisTemplate != null) {
-            // Redis 模式：扫描所有 key
+    public Set<Object> getAllMemoryIds() {
+        if (stringRedisTemplate != null) {
+            // Redis 模式：SCAN 分批遍历
             try {
-                java.util.Set<String> keys = redisTemplate.keys(REDIS_KEY_PREFIX + "*");
-                return keys.stream()
-                    .map(key -> key.replace(REDIS_KEY_PREFIX, ""))
-                    .collect(java.util.stream.Collectors.toSet());
+                Set<Object> ids = new HashSet<>();
+                scanKeys(REDIS_KEY_PREFIX + "*", batch -> {
+                    for (String key : batch) {
+                        ids.add(key.substring(REDIS_KEY_PREFIX.length()));
+                    }
+                });
+                return ids;
             } catch (Exception e) {
                 log.warn("获取所有记忆ID失败: {}", e.getMessage());
-                return java.util.Collections.emptySet();
+                return Collections.emptySet();
             }
         } else {
             // 内存模式
@@ -195,19 +361,81 @@ public class PersistentChatMemoryStore {
         }
     }
 
+    /**
+     * 获取指定用户的所有记忆ID（读取用户会话索引）
+     *
+     * @param userId 用户ID
+     * @return 记忆ID集合
+     */
+    public Set<String> getUserMemoryIds(Long userId) {
+        if (userId == null) {
+            return Collections.emptySet();
+        }
+        if (stringRedisTemplate != null) {
+            try {
+                Set<String> ids = stringRedisTemplate.opsForSet().members(USER_INDEX_PREFIX + userId);
+                return ids != null ? ids : Collections.emptySet();
+            } catch (Exception e) {
+                log.warn("获取用户记忆ID失败 - userId: {}, 错误: {}", userId, e.getMessage());
+                return Collections.emptySet();
+            }
+        }
+        String prefix = userId + "_";
+        Set<String> ids = new HashSet<>();
+        for (Object memoryId : memoryFallback.keySet()) {
+            if (String.valueOf(memoryId).startsWith(prefix)) {
+                ids.add(String.valueOf(memoryId));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * 删除指定用户的所有对话记忆
+     *
+     * @param userId 用户ID
+     * @return 删除的会话数
+     */
+    public int deleteUserMemories(Long userId) {
+        Set<String> ids = getUserMemoryIds(userId);
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        if (stringRedisTemplate != null) {
+            try {
+                List<String> keys = new ArrayList<>(ids.size() + 1);
+                for (String id : ids) {
+                    keys.add(REDIS_KEY_PREFIX + id);
+                }
+                keys.add(USER_INDEX_PREFIX + userId);
+                stringRedisTemplate.delete(keys);
+            } catch (Exception e) {
+                log.error("删除用户对话记忆失败 - userId: {}, 错误: {}", userId, e.getMessage(), e);
+                return 0;
+            }
+        } else {
+            ids.forEach(memoryFallback::remove);
+        }
+        log.info("  已删除用户 {} 的对话记忆，共 {} 个会话", userId, ids.size());
+        return ids.size();
+    }
+
     /**
      * 清空所有对话记忆
      */
     public void clearAllMemories() {
         log.warn("🗑 清空所有对话记忆");
-        
-        if (redisTemplate != null) {
+
+        if (stringRedisTemplate != null) {
             try {
-                java.util.Set<String> keys = redisTemplate.keys(REDIS_KEY_PREFIX + "*");
-                if (keys != null && !keys.isEmpty()) {
-                    redisTemplate.delete(keys);
-                    log.info("️ Redis 中的对话记忆已清空，共删除 {} 个记忆", keys.size());
-                }
+                long[] deleted = {0};
+                Consumer<List<String>> unlinkBatch = batch -> {
+                    Long count = stringRedisTemplate.unlink(batch);
+                    deleted[0] += count != null ? count : 0;
+                };
+                scanKeys(REDIS_KEY_PREFIX + "*", unlinkBatch);
+                scanKeys(USER_INDEX_PREFIX + "*", unlinkBatch);
+                log.info("️ Redis 中的对话记忆已清空，共删除 {} 个 key", deleted[0]);
             } catch (Exception e) {
                 log.error("清空 Redis 对话记忆失败: {}", e.getMessage(), e);
             }
@@ -219,20 +447,21 @@ public class PersistentChatMemoryStore {
 
     /**
      * 获取对话记忆统计信息
-     * 
+     *
      * @return 统计信息字符串
      */
     public String getMemoryStatistics() {
         StringBuilder stats = new StringBuilder();
         stats.append("  对话记忆存储统计：\n\n");
-        
-        if (redisTemplate != null) {
-            stats.append(" 存储模式：Redis 持久化存储\n");
+
+        if (stringRedisTemplate != null) {
+            stats.append(" 存储模式：Redis 持久化存储（按会话 List）\n");
             try {
-                java.util.Set<String> keys = redisTemplate.keys(REDIS_KEY_PREFIX + "*");
-                int keyCount = keys != null ? keys.size() : 0;
-                stats.append(" 总记忆数量：").append(keyCount).append(" 个\n");
-                stats.append(" 默认过期时间：").append(DEFAULT_TTL.toDays()).append(" 天\n");
+                long[] keyCount = {0};
+                scanKeys(REDIS_KEY_PREFIX + "*", batch -> keyCount[0] += batch.size());
+                stats.append(" 总记忆数量：").append(keyCount[0]).append(" 个\n");
+                stats.append(" 单会话保留消息数：").append(maxMessages).append(" 条\n");
+                stats.append(" 默认过期时间：").append(ttlDays).append(" 天\n");
             } catch (Exception e) {
                 stats.append(" 获取统计信息失败：").append(e.getMessage()).append("\n");
             }
@@ -241,7 +470,7 @@ public class PersistentChatMemoryStore {
             stats.append(" 总记忆数量：").append(memoryFallback.size()).append(" 个\n");
             stats.append(" 注意：重启后数据将丢失\n");
         }
-        
+
         return stats.toString();
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,314 @@
+package com.back_hexiang_studio.pangDaAi.service.memory;
+
+import com.back_hexiang_studio.pangDaAi.config.AIModelProperties;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.memory.ChatMemory;
+import dev.langchain4j.model.chat.ChatModel;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 会话对话记忆管理
+ *
+ * 统一创建和回收 AssistantAgent 各会话的 {@link SummarizingTokenWindowChatMemory}：
+ * - 预算取当前模型 maxInputTokens 的一定比例，其余留给工具定义、RAG提示和模型输出
+ * - 会话空闲超时或数量超过上限时从堆中淘汰
+ * - 旧轮次摘要由后台线程调用模型生成，队列满或调用失败时保留摘录
+ * - 启用持久化时新增消息追加到 {@link PersistentChatMemoryStore}，会话被淘汰或重启后首次访问从中恢复；
+ *   主动清理会话时同时删除持久化的消息
+ *
+ * @author 胖达AI助手开发团队
+ */
+@Slf4j
+@Service
+public class SessionChatMemoryManager {
+
+    private static final String SUMMARY_PROMPT = "请将以下对话要点合并为一段简洁的中文摘要，" +
+            "保留用户身份、关注的事项、已确认的结论和未完成的请求，不要编造内容，不超过%d字。\n\n" +
+            "已有摘要：\n%s\n\n新增对话：\n%s";
+
+    @Value("${pangda-ai.memory.max-sessions:5000}")
+    private int maxSessions;
+
+    // 会话空闲多久后从内存淘汰
+    @Value("${pangda-ai.memory.expiration-hours:24}")
+    private int expirationHours;
+
+    // 记忆可占用模型 maxInputTokens 的比例
+    @Value("${pangda-ai.memory.budget-ratio:0.6}")
+    private double budgetRatio;
+
+    // 模型未配置 maxInputTokens 时的预算
+    @Value("${pangda-ai.memory.default-max-tokens:2000}")
+    private int defaultMaxTokens;
+
+    @Value("${pangda-ai.memory.summary.max-chars:600}")
+    private int summaryMaxChars;
+
+    @Value("${pangda-ai.memory.summary.use-model:true}")
+    private boolean summarizeWithModel;
+
+    @Value("${pangda-ai.memory.persistent:true}")
+    private boolean persistent;
+
+    @Autowired
+    private AIModelProperties aiModelProperties;
+
+    @Autowired
+    private ChatModel chatModel;
+
+    @Autowired
+    private PersistentChatMemoryStore chatMemoryStore;
+
+    private Cache<String, SummarizingTokenWindowChatMemory> memories;
+
+    private ThreadPoolExecutor summaryExecutor;
+
+    private final AtomicLong idleEvictions = new AtomicLong();
+    private final AtomicLong sizeEvictions = new AtomicLong();
+    private final AtomicLong summaryCount = new AtomicLong();
+    private final AtomicLong summaryFailures = new AtomicLong();
+    private final AtomicLong summaryRejected = new AtomicLong();
+    private final AtomicLong restoredSessions = new AtomicLong();
+
+    @PostConstruct
+    public void initialize() {
+        memories = CacheBuilder.newBuilder()
+                .maximumSize(maxSessions)
+                .expireAfterAccess(expirationHours, TimeUnit.HOURS)
+                .<String, SummarizingTokenWindowChatMemory>removalListener(notification -> {
+                    if (notification.getCause() == RemovalCause.EXPIRED) {
+                        idleEvictions.incrementAndGet();
+                    } else if (notification.getCause() == RemovalCause.SIZE) {
+                        sizeEvictions.incrementAndGet();
+                    }
+                })
+                .build();
+
+        summaryExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(200), runnable -> {
+                    Thread thread = new Thread(runnable, "chat-memory-summarizer");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        log.info(" 会话记忆管理初始化完成: 最大会话数={}, 空闲淘汰={}小时, 预算比例={}, 模型摘要={}, 持久化={}",
+                maxSessions, expirationHours, budgetRatio, summarizeWithModel, persistent);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (summaryExecutor != null) {
+            summaryExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * 获取会话记忆，不存在时创建；预算按本轮使用的模型调整
+     *
+     * @param sessionId 会话ID
+     * @param modelName 本轮使用的模型，为空时沿用会话已有的预算（新会话使用默认预算）
+     */
+    public ChatMemory getOrCreate(String sessionId, String modelName) {
+        int maxTokens = resolveMaxTokens(modelName);
+        SummarizingTokenWindowChatMemory memory = getOrLoad(sessionId, maxTokens);
+        // 未指定模型的调用（如记录轮次）不能把上次按模型设置的预算重置为默认值
+        if (modelName != null) {
+            memory.updateMaxTokens(maxTokens);
+        }
+        return memory;
+    }
+
+    /**
+     * 会话此前是否已有对话记忆；内存未命中时先从持久化存储恢复
+     */
+    public boolean hasHistory(String sessionId) {
+        return sessionId != null && getOrLoad(sessionId, defaultMaxTokens).hasHistory();
+    }
+
+    /**
+     * 获取已存在的会话记忆（不创建）
+     */
+    public SummarizingTokenWindowChatMemory getIfPresent(String sessionId) {
+        return sessionId == null ? null : memories.getIfPresent(sessionId);
+    }
+
+    /**
+     * 清空并移除单个会话（含持久化的消息）
+     *
+     * @return 会话是否在内存中
+     */
+    public boolean evict(String sessionId) {
+        if (sessionId == null) {
+            return false;
+        }
+        if (persistent) {
+            chatMemoryStore.deleteMessages(sessionId);
+        }
+        SummarizingTokenWindowChatMemory memory = memories.asMap().remove(sessionId);
+        if (memory != null) {
+            memory.clear();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 清空并移除用户的所有会话（含持久化的消息）
+     *
+     * @return 移除数量
+     */
+    public int evictUser(Long userId) {
+        int removed = evictByPrefix(userId + "_");
+        if (persistent) {
+            removed = Math.max(removed, chatMemoryStore.deleteUserMemories(userId));
+        }
+        return removed;
+    }
+
+    /**
+     * 清空并移除内存中指定前缀（如 "userId_"）的所有会话
+     *
+     * @return 移除数量
+     */
+    public int evictByPrefix(String prefix) {
+        int[] removed = {0};
+        memories.asMap().entrySet().removeIf(entry -> {
+            if (entry.getKey().startsWith(prefix)) {
+                entry.getValue().clear();
+                removed[0]++;
+                return true;
+            }
+            return false;
+        });
+        return removed[0];
+    }
+
+    /**
+     * 清空所有会话（含持久化的消息）
+     *
+     * @return 清空前内存中的会话数
+     */
+    public long evictAll() {
+        if (persistent) {
+            chatMemoryStore.clearAllMemories();
+        }
+        long size = memories.size();
+        memories.asMap().values().forEach(SummarizingTokenWindowChatMemory::clear);
+        memories.invalidateAll();
+        return size;
+    }
+
+    public long size() {
+        return memories.size();
+    }
+
+    /**
+     * 记忆统计
+     */
+    public Map<String, Object> getStats() {
+        long totalTokens = 0;
+        long compactedTurns = 0;
+        for (SummarizingTokenWindowChatMemory memory : memories.asMap().values()) {
+            totalTokens += memory.estimatedTokens();
+            compactedTurns += memory.getCompactedTurns();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sessions", memories.size());
+        stats.put("estimatedTokens", totalTokens);
+        stats.put("compactedTurns", compactedTurns);
+        stats.put("idleEvictions", idleEvictions.get());
+        stats.put("sizeEvictions", sizeEvictions.get());
+        stats.put("summaries", summaryCount.get());
+        stats.put("summaryFailures", summaryFailures.get());
+        stats.put("summaryRejected", summaryRejected.get());
+        stats.put("restoredSessions", restoredSessions.get());
+        return stats;
+    }
+
+    private SummarizingTokenWindowChatMemory getOrLoad(String sessionId, int maxTokens) {
+        try {
+            return memories.get(sessionId, () -> loadMemory(sessionId, maxTokens));
+        } catch (ExecutionException e) {
+            SummarizingTokenWindowChatMemory memory = newMemory(sessionId, maxTokens);
+            memories.put(sessionId, memory);
+            return memory;
+        }
+    }
+
+    private SummarizingTokenWindowChatMemory newMemory(String sessionId, int maxTokens) {
+        // 关闭模型摘要时只保留摘录
+        return new SummarizingTokenWindowChatMemory(sessionId, maxTokens, summaryMaxChars,
+                summarizeWithModel ? this::summarize : null,
+                persistent ? message -> chatMemoryStore.appendMessages(sessionId, List.of(message)) : null);
+    }
+
+    /**
+     * 内存未命中（新会话、已淘汰或重启后）时创建记忆，并从持久化存储恢复历史
+     */
+    private SummarizingTokenWindowChatMemory loadMemory(String sessionId, int maxTokens) {
+        SummarizingTokenWindowChatMemory memory = newMemory(sessionId, maxTokens);
+        if (persistent) {
+            List<ChatMessage> history = chatMemoryStore.getMessages(sessionId);
+            if (!history.isEmpty()) {
+                memory.restore(history);
+                restoredSessions.incrementAndGet();
+                log.debug(" 会话 {} 从持久化存储恢复 {} 条消息", sessionId, history.size());
+            }
+        }
+        return memory;
+    }
+
+    /**
+     * 模型记忆预算：maxInputTokens × 比例
+     */
+    private int resolveMaxTokens(String modelName) {
+        AIModelProperties.ModelConfig config = modelName != null ? aiModelProperties.getModelConfig(modelName) : null;
+        if (config == null || config.getMaxInputTokens() == null || config.getMaxInputTokens() <= 0) {
+            return defaultMaxTokens;
+        }
+        return (int) (config.getMaxInputTokens() * budgetRatio);
+    }
+
+    /**
+     * 后台调用模型合并摘要；队列已满时抛出拒绝异常，由记忆保留摘录
+     */
+    private void summarize(String summary, List<String> pendingTurns, Consumer<String> onSummary) {
+        try {
+            summaryExecutor.execute(() -> {
+                try {
+                    String prompt = String.format(SUMMARY_PROMPT, summaryMaxChars / 2,
+                            summary.isEmpty() ? "无" : summary, String.join("\n", pendingTurns));
+                    String result = chatModel.chat(prompt);
+                    summaryCount.incrementAndGet();
+                    onSummary.accept(result);
+                } catch (Exception e) {
+                    summaryFailures.incrementAndGet();
+                    log.warn(" 生成对话摘要失败，保留摘录: {}", e.getMessage());
+                    onSummary.accept(null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            summaryRejected.incrementAndGet();
+            throw e;
+        }
+    }
+}
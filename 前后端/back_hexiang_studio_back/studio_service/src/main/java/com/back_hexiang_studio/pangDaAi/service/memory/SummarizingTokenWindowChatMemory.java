@@ -0,0 +1,389 @@
+package com.back_hexiang_studio.pangDaAi.service.memory;
+
+import dev.langchain4j.agent.tool.ToolExecutionRequest;
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.SystemMessage;
+import dev.langchain4j.data.message.ToolExecutionResultMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.memory.ChatMemory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 按Token预算裁剪、旧轮次压缩为滚动摘要的对话记忆
+ *
+ * - 消息总估算Token超过预算时，从最早的完整轮次（用户消息及其后的助手/工具消息）开始移出，
+ *   按轮次整体移出，不会留下没有对应工具调用请求的工具结果
+ * - 被移出的轮次先以摘录形式追加到待压缩列表，再由摘要器（可选，异步调用模型）合并进滚动摘要
+ * - 摘要拼接在系统提示词之后输出，摘要本身也有长度上限
+ * - 预算随当前使用的模型调整（见 {@link #updateMaxTokens(int)}）
+ * - 新增的对话消息（系统提示词除外）回调给持久化监听器，淘汰后可用 {@link #restore(List)} 恢复
+ *
+ * @author 胖达AI助手开发团队
+ */
+@Slf4j
+public class SummarizingTokenWindowChatMemory implements ChatMemory {
+
+    // 中文为主的对话按约2字符/Token估算，与工具Token估算口径一致
+    private static final int CHARS_PER_TOKEN = 2;
+    // 每条消息的角色/格式开销
+    private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+
+    private static final String SUMMARY_HEADER = "\n\n【此前对话摘要】\n";
+
+    // 摘录单条消息时保留的字符数
+    private static final int EXCERPT_USER_CHARS = 60;
+    private static final int EXCERPT_AI_CHARS = 100;
+
+    /**
+     * 轮次摘要器：把已有摘要和新移出的轮次摘录合并为新摘要
+     */
+    public interface Summarizer {
+        /**
+         * 合并摘要（可异步），完成后调用 onSummary；失败时传入 null
+         *
+         * @param summary      已有摘要（可能为空）
+         * @param pendingTurns 待合并的轮次摘录
+         * @param onSummary    新摘要回调
+         */
+        void summarize(String summary, List<String> pendingTurns, Consumer<String> onSummary);
+    }
+
+    private final Object id;
+    private final int maxSummaryChars;
+    private final Summarizer summarizer;
+    private final Consumer<ChatMessage> messageListener;
+
+    private final List<ChatMessage> messages = new ArrayList<>();
+    private SystemMessage systemMessage;
+
+    // 滚动摘要与尚未合并进摘要的轮次摘录
+    private String summary = "";
+    private final LinkedList<String> pendingTurns = new LinkedList<>();
+    private boolean summarizing;
+    // 清空记忆后，之前提交的摘要结果作废
+    private int generation;
+
+    private volatile int maxTokens;
+    private long compactedTurns;
+
+    public SummarizingTokenWindowChatMemory(Object id, int maxTokens, int maxSummaryChars, Summarizer summarizer) {
+        this(id, maxTokens, maxSummaryChars, summarizer, null);
+    }
+
+    /**
+     * @param messageListener 新增对话消息回调（如追加到持久化存储），可为空
+     */
+    public SummarizingTokenWindowChatMemory(Object id, int maxTokens, int maxSummaryChars, Summarizer summarizer,
+                                            Consumer<ChatMessage> messageListener) {
+        this.id = id;
+        this.maxTokens = maxTokens;
+        this.maxSummaryChars = maxSummaryChars;
+        this.summarizer = summarizer;
+        this.messageListener = messageListener;
+    }
+
+    @Override
+    public Object id() {
+        return id;
+    }
+
+    @Override
+    public synchronized void add(ChatMessage message) {
+        if (message instanceof SystemMessage) {
+            // 系统提示词只保留最新一条，单独存放，不参与轮次裁剪
+            systemMessage = (SystemMessage) message;
+        } else {
+            messages.add(message);
+            // 在锁内回调，同一会话的消息按添加顺序写入
+            if (messageListener != null) {
+                messageListener.accept(message);
+            }
+        }
+        ensureCapacity();
+    }
+
+    /**
+     * 用持久化的历史消息恢复记忆（不回调监听器），超出预算的旧轮次照常压缩；
+     * 开头不完整的轮次（没有用户消息）跳过
+     */
+    public synchronized void restore(List<ChatMessage> history) {
+        boolean turnStarted = false;
+        for (ChatMessage message : history) {
+            if (message instanceof SystemMessage) {
+                continue;
+            }
+            if (!turnStarted && !(message instanceof UserMessage)) {
+                continue;
+            }
+            turnStarted = true;
+            messages.add(message);
+        }
+        ensureCapacity();
+    }
+
+    @Override
+    public synchronized List<ChatMessage> messages() {
+        List<ChatMessage> result = new ArrayList<>(messages.size() + 1);
+        String renderedSummary = renderSummary();
+        if (systemMessage != null) {
+            result.add(renderedSummary.isEmpty()
+                    ? systemMessage
+                    : SystemMessage.from(systemMessage.text() + SUMMARY_HEADER + renderedSummary));
+        } else if (!renderedSummary.isEmpty()) {
+            result.add(SystemMessage.from(SUMMARY_HEADER.trim() + "\n" + renderedSummary));
+        }
+        result.addAll(messages);
+        return result;
+    }
+
+    @Override
+    public synchronized void clear() {
+        messages.clear();
+        systemMessage = null;
+        summary = "";
+        pendingTurns.clear();
+        summarizing = false;
+        generation++;
+    }
+
+    /**
+     * 调整Token预算（会话切换模型时调用），变小时立即裁剪
+     */
+    public synchronized void updateMaxTokens(int maxTokens) {
+        if (this.maxTokens != maxTokens) {
+            this.maxTokens = maxTokens;
+            ensureCapacity();
+        }
+    }
+
+    /**
+     * 摘要器完成后写回：用新摘要替换旧摘要，并移除已合并的前 consumedTurns 条摘录
+     */
+    private synchronized void applySummary(int requestGeneration, String newSummary, int consumedTurns) {
+        if (requestGeneration != generation) {
+            return;
+        }
+        summarizing = false;
+        if (newSummary == null || newSummary.trim().isEmpty()) {
+            // 摘要失败时保留摘录，等下次移出轮次再重试
+            return;
+        }
+        summary = truncateHead(newSummary.trim(), maxSummaryChars);
+        for (int i = 0; i < consumedTurns && !pendingTurns.isEmpty(); i++) {
+            pendingTurns.removeFirst();
+        }
+        // 摘要期间又有新的轮次被移出
+        requestSummary();
+    }
+
+    public synchronized int size() {
+        return messages.size();
+    }
+
+    /**
+     * 是否已有对话内容（含已压缩进摘要的旧轮次）
+     */
+    public synchronized boolean hasHistory() {
+        return !messages.isEmpty() || !summary.isEmpty() || !pendingTurns.isEmpty();
+    }
+
+    public synchronized int estimatedTokens() {
+        return estimateMessagesTokens() + estimateTokens(renderSummary()) + estimateMessageTokens(systemMessage);
+    }
+
+    public synchronized long getCompactedTurns() {
+        return compactedTurns;
+    }
+
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    // ===================================================================
+    // 裁剪与摘要
+    // ===================================================================
+
+    private void ensureCapacity() {
+        int budget = maxTokens - estimateMessageTokens(systemMessage) - estimateTokens(renderSummary());
+        int total = estimateMessagesTokens();
+        boolean evicted = false;
+        while (total > budget) {
+            int turnEnd = firstTurnEnd();
+            // 只剩当前轮次时不再裁剪，超出部分由模型侧截断
+            if (turnEnd <= 0 || turnEnd >= messages.size()) {
+                break;
+            }
+            List<ChatMessage> turn = new ArrayList<>(messages.subList(0, turnEnd));
+            messages.subList(0, turnEnd).clear();
+            for (ChatMessage message : turn) {
+                total -= estimateMessageTokens(message);
+            }
+            String excerpt = excerptTurn(turn);
+            if (!excerpt.isEmpty()) {
+                pendingTurns.add(excerpt);
+            }
+            compactedTurns++;
+            evicted = true;
+            budget = maxTokens - estimateMessageTokens(systemMessage) - estimateTokens(renderSummary());
+        }
+        if (evicted) {
+            // 摘要进行中不丢弃摘录，保证写回时按条数移除的是已合并的部分
+            if (!summarizing) {
+                trimPendingTurns();
+            }
+            log.debug(" 会话 {} 超出Token预算({})，已压缩旧轮次，累计 {} 轮", id, maxTokens, compactedTurns);
+            requestSummary();
+        }
+    }
+
+    /**
+     * 第一轮结束的位置：从第一条用户消息之后找到下一条用户消息
+     */
+    private int firstTurnEnd() {
+        int start = 0;
+        // 开头残留的非用户消息（如旧版本遗留）与第一轮一起移出
+        while (start < messages.size() && !(messages.get(start) instanceof UserMessage)) {
+            start++;
+        }
+        for (int i = start + 1; i < messages.size(); i++) {
+            if (messages.get(i) instanceof UserMessage) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void requestSummary() {
+        if (summarizer == null || summarizing || pendingTurns.isEmpty()) {
+            return;
+        }
+        summarizing = true;
+        int requestGeneration = generation;
+        List<String> turns = new ArrayList<>(pendingTurns);
+        try {
+            summarizer.summarize(summary, turns,
+                    newSummary -> applySummary(requestGeneration, newSummary, turns.size()));
+        } catch (Exception e) {
+            summarizing = false;
+            log.warn(" 提交对话摘要失败，保留摘录: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 摘要 + 待合并摘录，超出上限时丢弃最早的内容
+     */
+    private String renderSummary() {
+        if (summary.isEmpty() && pendingTurns.isEmpty()) {
+            return "";
+        }
+        StringBuilder rendered = new StringBuilder(summary);
+        for (String turn : pendingTurns) {
+            if (rendered.length() > 0) {
+                rendered.append('\n');
+            }
+            rendered.append(turn);
+        }
+        return truncateHead(rendered.toString(), maxSummaryChars);
+    }
+
+    private void trimPendingTurns() {
+        int length = summary.length();
+        for (String turn : pendingTurns) {
+            length += turn.length() + 1;
+        }
+        while (length > maxSummaryChars && pendingTurns.size() > 1) {
+            length -= pendingTurns.removeFirst().length() + 1;
+        }
+    }
+
+    private static String excerptTurn(List<ChatMessage> turn) {
+        StringBuilder excerpt = new StringBuilder();
+        for (ChatMessage message : turn) {
+            if (message instanceof UserMessage) {
+                String text = ((UserMessage) message).hasSingleText() ? ((UserMessage) message).singleText() : "";
+                excerpt.append("用户：").append(truncate(stripInjectedContext(text), EXCERPT_USER_CHARS)).append("；");
+            } else if (message instanceof AiMessage) {
+                AiMessage aiMessage = (AiMessage) message;
+                if (aiMessage.hasToolExecutionRequests()) {
+                    excerpt.append("调用工具：");
+                    for (ToolExecutionRequest request : aiMessage.toolExecutionRequests()) {
+                        excerpt.append(request.name()).append(' ');
+                    }
+                    excerpt.append("；");
+                } else if (aiMessage.text() != null) {
+                    excerpt.append("助手：").append(truncate(aiMessage.text(), EXCERPT_AI_CHARS)).append("；");
+                }
+            }
+        }
+        return excerpt.toString();
+    }
+
+    /**
+     * 用户消息里拼接了RAG提示和用户ID，只摘录真正的问题
+     */
+    private static String stripInjectedContext(String text) {
+        int questionIndex = text.indexOf("用户问题：");
+        if (questionIndex >= 0) {
+            text = text.substring(questionIndex + "用户问题：".length());
+        }
+        int hintIndex = text.indexOf("\\n");
+        return hintIndex > 0 ? text.substring(0, hintIndex) : text;
+    }
+
+    private static String truncate(String text, int maxChars) {
+        String normalized = text.replace('\n', ' ').trim();
+        return normalized.length() <= maxChars ? normalized : normalized.substring(0, maxChars) + "…";
+    }
+
+    private static String truncateHead(String text, int maxChars) {
+        return text.length() <= maxChars ? text : text.substring(text.length() - maxChars);
+    }
+
+    // ===================================================================
+    // Token估算
+    // ===================================================================
+
+    private int estimateMessagesTokens() {
+        int total = 0;
+        for (ChatMessage message : messages) {
+            total += estimateMessageTokens(message);
+        }
+        return total;
+    }
+
+    static int estimateMessageTokens(ChatMessage message) {
+        if (message == null) {
+            return 0;
+        }
+        int chars = 0;
+        if (message instanceof SystemMessage) {
+            chars = ((SystemMessage) message).text().length();
+        } else if (message instanceof UserMessage) {
+            UserMessage userMessage = (UserMessage) message;
+            chars = userMessage.hasSingleText() ? userMessage.singleText().length() : userMessage.toString().length();
+        } else if (message instanceof AiMessage) {
+            AiMessage aiMessage = (AiMessage) message;
+            chars = aiMessage.text() != null ? aiMessage.text().length() : 0;
+            if (aiMessage.hasToolExecutionRequests()) {
+                for (ToolExecutionRequest request : aiMessage.toolExecutionRequests()) {
+                    chars += (request.name() != null ? request.name().length() : 0)
+                            + (request.arguments() != null ? request.arguments().length() : 0);
+                }
+            }
+        } else if (message instanceof ToolExecutionResultMessage) {
+            String text = ((ToolExecutionResultMessage) message).text();
+            chars = text != null ? text.length() : 0;
+        }
+        return chars / CHARS_PER_TOKEN + MESSAGE_OVERHEAD_TOKENS;
+    }
+
+    private static int estimateTokens(String text) {
+        return text == null || text.isEmpty() ? 0 : text.length() / CHARS_PER_TOKEN + MESSAGE_OVERHEAD_TOKENS;
+    }
+}
@@ -5,12 +5,19 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import cn.hutool.crypto.SecureUtil;
+
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * 全量同步服务
@@ -24,6 +31,8 @@ import java.util.*;
  * - 从MySQL批量提取数据并向量化
  * - 提供详细的同步进度和统计信息
  * - 启动时自动检查并初始化向量数据库
+ * - 增量同步：基于内容指纹只处理新增、变更、删除的数据
+ * - 多实例部署时通过 Redis 锁保证同一时刻只有一个节点执行同步
  * 
  * @author 胖达AI助手开发团队
  * @version 1.0 - 现代RAG架构
@@ -39,6 +48,12 @@ public class FullSyncService {
     @Autowired
     private VectorStoreService vectorStoreService;
 
+    @Autowired
+    private SemanticAnswerCache semanticAnswerCache;
+
+    @Autowired
+    private QueryEmbeddingCache queryEmbeddingCache;
+
     @Value("${pangda-ai.rag.sync.batch-size:50}")
     private int batchSize;
 
@@ -48,8 +63,42 @@ public class FullSyncService {
     @Value("${pangda-ai.rag.sync.auto-init:true}")
     private boolean autoInit;
 
+    @Value("${pangda-ai.rag.sync.auto-sync:true}")
+    private boolean autoSync;
+
+    // 集群同步锁的过期时间，需大于一次全量同步的耗时
+    @Value("${pangda-ai.rag.sync.lock-ttl-minutes:30}")
+    private long lockTtlMinutes;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    /**
+     * 内容指纹 Redis Hash：field 为 type_businessId，value 为内容 SHA-256
+     */
+    private static final String CONTENT_HASH_KEY = "rag:sync:content_hash";
+
+    /**
+     * 集群同步锁：各节点的定时增量同步都会触发，只允许一个节点执行，
+     * 避免重复向量化同一批数据并在共享的内容指纹和向量库上互相覆盖
+     */
+    private static final String SYNC_LOCK_KEY = "rag:sync:lock";
+
+    /**
+     * 释放集群同步锁，令牌一致时才删除，避免误删锁过期后其他节点取得的锁
+     * KEYS: 锁键；ARGV: 持有者令牌
+     */
+    private static final DefaultRedisScript<Long> RELEASE_LOCK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end\n" +
+            "return 0",
+            Long.class);
+
+    // 本节点内全量与增量同步互斥
+    private final ReentrantLock syncLock = new ReentrantLock();
+
     /**
      * 应用启动完成后自动检查并初始化向量数据库
+     * 已有数据时执行一次增量同步，补齐停机期间的变更
      */
     @EventListener(ApplicationReadyEvent.class)
     @Async
@@ -64,12 +113,13 @@ public class FullSyncService {
         try {
             // 检查向量数据库是否为空
             VectorStoreService.VectorStoreStats stats = vectorStoreService.getStats();
+            
+            // 延迟5秒启动，确保所有服务已准备就绪
+            Thread.sleep(5000);
+            
             if (stats.getDocumentCount() == 0) {
                 log.info("  向量数据库为空，开始自动初始化...");
                 
-                // 延迟5秒启动，确保所有服务已准备就绪
-                Thread.sleep(5000);
-                
                 SyncResult result = syncAll();
                 if (result.isSuccess()) {
                     log.info("  向量数据库自动初始化完成！同步了 {} 条数据", result.getTotalSynced());
@@ -77,7 +127,8 @@ public class FullSyncService {
                     log.warn(" 向量数据库自动初始化失败：{}", result.getErrorMessage());
                 }
             } else {
-                log.info("  向量数据库已存在 {} 条数据，跳过初始化", stats.getDocumentCount());
+                log.info("  向量数据库已存在 {} 条数据，执行增量同步", stats.getDocumentCount());
+                syncIncremental();
             }
             
         } catch (Exception e) {
@@ -85,44 +136,69 @@ public class FullSyncService {
         }
     }
 
+    /**
+     * 定时增量同步（pangda-ai.rag.sync.auto-sync 控制开关）
+     */
+    @Scheduled(fixedDelayString = "${pangda-ai.rag.sync.incremental-interval-ms:600000}",
+               initialDelayString = "${pangda-ai.rag.sync.incremental-interval-ms:600000}")
+    public void scheduledIncrementalSync() {
+        if (!autoSync) {
+            return;
+        }
+        syncIncremental();
+    }
+
     /**
      * 全量同步所有数据
      * 手动触发的完整重建过程
      */
     public SyncResult syncAll() {
+        SyncResult result = new SyncResult();
+        if (!syncLock.tryLock()) {
+            log.warn("  已有同步任务在执行，跳过本次全量同步");
+            result.setErrorMessage("同步任务正在执行中");
+            return result;
+        }
+        String lockToken = tryAcquireClusterLock();
+        if (lockToken == null) {
+            syncLock.unlock();
+            log.info("  其他节点正在同步知识库，跳过本次全量同步");
+            result.setErrorMessage("其他节点正在执行同步任务");
+            return result;
+        }
+        
         log.info("  开始全量数据同步（现代RAG架构）...");
         long startTime = System.currentTimeMillis();
         
-        SyncResult result = new SyncResult();
-        
         try {
             // 1. 清空现有向量数据
             vectorStoreService.clear();
             log.info("  已清空现有向量数据");
             
             // 2. 同步核心静态知识数据（减少AI工具调用压力）
-            log.info(" 开始同步核心静态知识数据...");
-            
-            // 2.1 工作室基本信息（静态知识）
-            result.addResult("studio_info", syncStudioInfo());
-            result.addResult("support_contact", syncSupportContacts());
+            List<SourceRecord> records = collectSourceRecords(result);
             
-            // 2.2 组织架构信息（较稳定的结构数据）
-            result.addResult("department", syncDepartments());
-            result.addResult("training_direction", syncTrainingDirections());
-            
-            // 2.3 工具使用指南（告诉AI何时用什么工具）
-            result.addResult("tool_guide", syncToolGuide());
+            // 3. 批量向量化并写入向量库
+            VectorStoreService.IngestStats ingestStats = ingestRecords(records, newSyncVersion());
+            result.setIngestStats(ingestStats);
+            result.setInsertedCount(records.size());
             
+            // 4. 重置内容指纹，作为后续增量同步的基线
+            redisTemplate.delete(CONTENT_HASH_KEY);
+            saveContentHashes(filterIngested(records, ingestStats));
             
             log.info("  核心静态知识同步完成");
             log.info("   人员信息、公告、任务、资料等动态数据通过工具实时查询，确保数据准确性");
             
             // 5. 如果是内存存储，则持久化到文件
-            if (vectorStoreService.getClass().getSimpleName().contains("InMemory")) {
+            if (vectorStoreService.isInMemoryStore()) {
                 vectorStoreService.persistToFile();
             }
             
+            // 6. 知识已重建，基于旧知识的缓存答案和查询向量作废
+            semanticAnswerCache.onKnowledgeUpdated();
+            queryEmbeddingCache.invalidateAll();
+            
             long duration = System.currentTimeMillis() - startTime;
             result.setDurationMs(duration);
             result.setSuccess(true);
@@ -136,17 +212,235 @@ public class FullSyncService {
             result.setSuccess(false);
             result.setErrorMessage(e.getMessage());
             return result;
+        } finally {
+            releaseClusterLock(lockToken);
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * 增量同步
+     * 按 type_businessId 比较内容指纹，只对新增、变更、删除的数据重新向量化，
+     * 不清空向量库，同步期间检索始终可用：
+     * - 新增和变更的数据以新的同步版本号入库，入库成功后才删除该数据的旧版本向量
+     * - 没有指纹的数据（首次增量同步、指纹丢失）同样会清理旧版本，不会重复入库
+     * - 入库失败的数据保留旧版本且不记录指纹，下次增量同步重试
+     */
+    public SyncResult syncIncremental() {
+        SyncResult result = new SyncResult();
+        if (!syncLock.tryLock()) {
+            log.warn("  已有同步任务在执行，跳过本次增量同步");
+            result.setErrorMessage("同步任务正在执行中");
+            return result;
+        }
+        String lockToken = tryAcquireClusterLock();
+        if (lockToken == null) {
+            syncLock.unlock();
+            log.info("  其他节点正在同步知识库，跳过本次增量同步");
+            result.setErrorMessage("其他节点正在执行同步任务");
+            return result;
+        }
+        
+        log.info("  开始增量数据同步...");
+        long startTime = System.currentTimeMillis();
+        
+        try {
+            // 1. 读取上次同步的内容指纹
+            Map<String, String> previousHashes = loadContentHashes();
+            
+            // 2. 读取当前数据
+            List<SourceRecord> records = collectSourceRecords(result);
+            
+            // 3. 对比指纹，区分新增/变更/未变
+            List<SourceRecord> changedRecords = new ArrayList<>();
+            Set<String> currentKeys = new HashSet<>();
+            for (SourceRecord record : records) {
+                String key = record.getDocumentKey();
+                currentKeys.add(key);
+                String previousHash = previousHashes.get(key);
+                
+                if (previousHash == null) {
+                    result.setInsertedCount(result.getInsertedCount() + 1);
+                    changedRecords.add(record);
+                } else if (!previousHash.equals(record.getContentHash())) {
+                    result.setUpdatedCount(result.getUpdatedCount() + 1);
+                    changedRecords.add(record);
+                } else {
+                    result.setSkippedCount(result.getSkippedCount() + 1);
+                }
+            }
+            
+            // 4. 源数据已删除的文档
+            List<String> deletedKeys = new ArrayList<>();
+            for (String key : previousHashes.keySet()) {
+                if (currentKeys.contains(key)) {
+                    continue;
+                }
+                int separator = key.lastIndexOf('_');
+                try {
+                    vectorStoreService.delete(key.substring(0, separator), Long.valueOf(key.substring(separator + 1)));
+                    deletedKeys.add(key);
+                } catch (Exception e) {
+                    log.warn(" 删除失效文档失败 [{}]: {}", key, e.getMessage());
+                }
+            }
+            result.setDeletedCount(deletedKeys.size());
+            
+            // 5. 只对变更的数据重新向量化，入库成功后再删除旧版本向量
+            String syncVersion = newSyncVersion();
+            VectorStoreService.IngestStats ingestStats = ingestRecords(changedRecords, syncVersion);
+            result.setIngestStats(ingestStats);
+            List<SourceRecord> ingestedRecords = filterIngested(changedRecords, ingestStats);
+            for (SourceRecord record : ingestedRecords) {
+                vectorStoreService.deleteStaleVersions(record.getType(), record.getBusinessId(), syncVersion);
+            }
+            
+            // 6. 更新指纹
+            saveContentHashes(ingestedRecords);
+            if (!deletedKeys.isEmpty()) {
+                redisTemplate.opsForHash().delete(CONTENT_HASH_KEY, deletedKeys.toArray());
+            }
+            
+            // 7. 有替换或删除时压缩向量库，清理失效向量
+            if (!ingestedRecords.isEmpty() || !deletedKeys.isEmpty()) {
+                vectorStoreService.compact();
+            }
+            
+            if (!changedRecords.isEmpty() || !deletedKeys.isEmpty()) {
+                if (vectorStoreService.isInMemoryStore()) {
+                    vectorStoreService.persistToFile();
+                }
+                // 知识有变更，基于旧知识的缓存答案作废
+                semanticAnswerCache.onKnowledgeUpdated();
+            }
+            
+            long duration = System.currentTimeMillis() - startTime;
+            result.setDurationMs(duration);
+            result.setSuccess(true);
+            
+            log.info("  增量同步完成！耗时: {}ms, 新增: {}, 更新: {}, 跳过: {}, 删除: {}",
+                    duration, result.getInsertedCount(), result.getUpdatedCount(),
+                    result.getSkippedCount(), result.getDeletedCount());
+            
+            return result;
+            
+        } catch (Exception e) {
+            log.error("  增量同步失败: {}", e.getMessage(), e);
+            result.setSuccess(false);
+            result.setErrorMessage(e.getMessage());
+            return result;
+        } finally {
+            releaseClusterLock(lockToken);
+            syncLock.unlock();
         }
     }
 
+    /**
+     * 从MySQL读取所有需要进入知识库的数据
+     */
+    private List<SourceRecord> collectSourceRecords(SyncResult result) {
+        log.info(" 开始读取核心静态知识数据...");
+        List<SourceRecord> records = new ArrayList<>();
+        
+        // 工作室基本信息（静态知识）
+        result.addResult("studio_info", syncStudioInfo(records));
+        result.addResult("support_contact", syncSupportContacts(records));
+        
+        // 组织架构信息（较稳定的结构数据）
+        result.addResult("department", syncDepartments(records));
+        result.addResult("training_direction", syncTrainingDirections(records));
+        
+        // 工具使用指南（告诉AI何时用什么工具）
+        result.addResult("tool_guide", syncToolGuide(records));
+        
+        return records;
+    }
 
+    /**
+     * 将数据切分为文档并批量入库
+     */
+    private VectorStoreService.IngestStats ingestRecords(List<SourceRecord> records, String syncVersion) {
+        List<VectorStoreService.DocumentData> pending = new ArrayList<>();
+        for (SourceRecord record : records) {
+            pending.addAll(vectorStoreService.prepareDocuments(
+                    record.getType(), record.getBusinessId(), record.getContent(), syncVersion));
+        }
+        return vectorStoreService.addDocuments(pending);
+    }
 
+    /**
+     * 本次同步的版本号，写入向量ID与元数据，用于区分同一数据的新旧向量
+     */
+    /**
+     * 获取集群同步锁（SET NX PX），成功返回持有者令牌；锁被占用或 Redis 不可用时返回 null
+     */
+    private String tryAcquireClusterLock() {
+        String token = UUID.randomUUID().toString();
+        try {
+            Boolean acquired = redisTemplate.opsForValue()
+                    .setIfAbsent(SYNC_LOCK_KEY, token, Duration.ofMinutes(lockTtlMinutes));
+            return Boolean.TRUE.equals(acquired) ? token : null;
+        } catch (Exception e) {
+            log.warn(" 获取知识库同步锁失败，跳过本次同步: {}", e.getMessage());
+            return null;
+        }
+    }
 
+    private void releaseClusterLock(String token) {
+        try {
+            redisTemplate.execute(RELEASE_LOCK_SCRIPT, Collections.singletonList(SYNC_LOCK_KEY), token);
+        } catch (Exception e) {
+            log.warn(" 释放知识库同步锁失败，等待过期: {}", e.getMessage());
+        }
+    }
+
+    private String newSyncVersion() {
+        return Long.toString(System.currentTimeMillis(), 36);
+    }
+
+    /**
+     * 筛选全部文档（含所有切片）都入库成功的数据
+     */
+    private List<SourceRecord> filterIngested(List<SourceRecord> records, VectorStoreService.IngestStats ingestStats) {
+        Set<String> failedIds = ingestStats.getFailedIds();
+        List<SourceRecord> ingested = new ArrayList<>(records.size());
+        for (SourceRecord record : records) {
+            String key = record.getDocumentKey();
+            boolean failed = failedIds.stream().anyMatch(id -> VectorStoreService.belongsTo(id, key));
+            if (!failed) {
+                ingested.add(record);
+            }
+        }
+        return ingested;
+    }
+
+    /**
+     * 读取上次同步的内容指纹
+     */
+    private Map<String, String> loadContentHashes() {
+        Map<String, String> hashes = new HashMap<>();
+        redisTemplate.opsForHash().entries(CONTENT_HASH_KEY)
+                .forEach((key, value) -> hashes.put(String.valueOf(key), String.valueOf(value)));
+        return hashes;
+    }
+
+    /**
+     * 记录入库成功的数据指纹；入库失败的数据不记录，下次增量同步会重试
+     */
+    private void saveContentHashes(List<SourceRecord> ingestedRecords) {
+        Map<String, String> hashes = new HashMap<>();
+        for (SourceRecord record : ingestedRecords) {
+            hashes.put(record.getDocumentKey(), record.getContentHash());
+        }
+        if (!hashes.isEmpty()) {
+            redisTemplate.opsForHash().putAll(CONTENT_HASH_KEY, hashes);
+        }
+    }
 
     /**
      * 同步工作室信息
      */
-    private int syncStudioInfo() {
+    private int syncStudioInfo(List<SourceRecord> records) {
         log.info(" 同步工作室信息...");
         
         String sql = "SELECT id, name, establish_time, director, member_count, project_count, awards, " +
@@ -186,7 +480,7 @@ public class FullSyncService {
                 String content = buildStudioInfoContent(mutableStudioInfo);
                 Long businessId = ((Number) mutableStudioInfo.get("id")).longValue();
                 
-                vectorStoreService.upsert("studio_info", businessId, content);
+                records.add(new SourceRecord("studio_info", businessId, content));
                 
                 syncedCount++;
                 
@@ -202,7 +496,7 @@ public class FullSyncService {
     /**
      * 同步技术支持联系人
      */
-    private int syncSupportContacts() {
+    private int syncSupportContacts(List<SourceRecord> records) {
         log.info(" 同步技术支持联系人...");
         
         String sql = "SELECT id, name, phone, email, position " +
@@ -218,7 +512,7 @@ public class FullSyncService {
                 String content = buildSupportContactContent(supportContact);
                 Long businessId = ((Number) supportContact.get("id")).longValue();
                 
-                vectorStoreService.upsert("support_contact", businessId, content);
+                records.add(new SourceRecord("support_contact", businessId, content));
                 
                 syncedCount++;
                 
@@ -234,7 +528,7 @@ public class FullSyncService {
     /**
      * 同步工具使用说明 - RAG核心价值：减少AI工具调用时的困惑
      */
-    private int syncToolGuide() {
+    private int syncToolGuide(List<SourceRecord> records) {
         log.info(" 同步工具使用说明...");
         
         try {
@@ -286,7 +580,7 @@ public class FullSyncService {
             toolGuide.append("- 优先使用工具获取实时数据，而不是依赖RAG中的静态信息\n");
             toolGuide.append("- 工具调用失败时可以基于RAG背景信息回答");
             
-            vectorStoreService.upsert("tool_guide", 1L, toolGuide.toString());
+            records.add(new SourceRecord("tool_guide", 1L, toolGuide.toString()));
             
             log.info("  工具使用说明同步完成");
             return 1;
@@ -302,7 +596,7 @@ public class FullSyncService {
     /**
      * 同步部门信息
      */
-    private int syncDepartments() {
+    private int syncDepartments(List<SourceRecord> records) {
         log.info(" 同步部门信息...");
         
         String sql = "SELECT department_id as id, department_name, create_time " +
@@ -317,7 +611,7 @@ public class FullSyncService {
                 String content = buildDepartmentContent(department);
                 Long businessId = ((Number) department.get("id")).longValue();
                 
-                vectorStoreService.upsert("department", businessId, content);
+                records.add(new SourceRecord("department", businessId, content));
                 
                 syncedCount++;
                 
@@ -787,6 +1081,11 @@ public class FullSyncService {
         private String errorMessage;
         private long durationMs;
         private Map<String, Integer> results = new HashMap<>();
+        private VectorStoreService.IngestStats ingestStats;
+        private int insertedCount;
+        private int updatedCount;
+        private int skippedCount;
+        private int deletedCount;
         
         public void addResult(String type, int count) {
             results.put(type, count);
@@ -807,6 +1106,44 @@ public class FullSyncService {
         public void setDurationMs(long durationMs) { this.durationMs = durationMs; }
         
         public Map<String, Integer> getResults() { return results; }
+        
+        public VectorStoreService.IngestStats getIngestStats() { return ingestStats; }
+        public void setIngestStats(VectorStoreService.IngestStats ingestStats) { this.ingestStats = ingestStats; }
+        
+        public int getInsertedCount() { return insertedCount; }
+        public void setInsertedCount(int insertedCount) { this.insertedCount = insertedCount; }
+        
+        public int getUpdatedCount() { return updatedCount; }
+        public void setUpdatedCount(int updatedCount) { this.updatedCount = updatedCount; }
+        
+        public int getSkippedCount() { return skippedCount; }
+        public void setSkippedCount(int skippedCount) { this.skippedCount = skippedCount; }
+        
+        public int getDeletedCount() { return deletedCount; }
+        public void setDeletedCount(int deletedCount) { this.deletedCount = deletedCount; }
+    }
+    
+    /**
+     * 一条待同步的源数据（type + businessId 唯一）
+     */
+    private static class SourceRecord {
+        private final String type;
+        private final Long businessId;
+        private final String content;
+        private final String contentHash;
+        
+        SourceRecord(String type, Long businessId, String content) {
+            this.type = type;
+            this.businessId = businessId;
+            this.content = content;
+            this.contentHash = SecureUtil.sha256(content);
+        }
+        
+        String getType() { return type; }
+        Long getBusinessId() { return businessId; }
+        String getContent() { return content; }
+        String getContentHash() { return contentHash; }
+        String getDocumentKey() { return type + "_" + businessId; }
     }
 
     
@@ -988,7 +1325,7 @@ public class FullSyncService {
     /**
      * 🎯 同步培训方向数据
      */
-    private int syncTrainingDirections() {
+    private int syncTrainingDirections(List<SourceRecord> records) {
         log.info("🎯 同步培训方向数据...");
         
         String sql = "SELECT direction_id as id, direction_name, description, create_time " +
@@ -1003,7 +1340,7 @@ public class FullSyncService {
                 String content = buildTrainingDirectionContent(direction);
                 Long businessId = ((Number) direction.get("id")).longValue();
                 
-                vectorStoreService.upsert("training_direction", businessId, content);
+                records.add(new SourceRecord("training_direction", businessId, content));
                 syncedCount++;
                 
             } catch (Exception e) {
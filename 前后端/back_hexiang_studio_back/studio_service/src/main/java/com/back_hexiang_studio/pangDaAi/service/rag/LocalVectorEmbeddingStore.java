@@ -0,0 +1,692 @@
+package com.back_hexiang_studio.pangDaAi.service.rag;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 本地向量存储（单机 / 离线部署，无需 Milvus 容器）
+ *
+ * - 向量归一化后按槽位连续存放在一个 float[] 中，余弦相似度退化为点积，
+ *   内层循环是简单的数组遍历，由 JIT 自动向量化
+ * - 文档数低于阈值时暴力扫描；达到阈值后构建 HNSW 图，检索复杂度随文档数亚线性增长
+ * - 元数据过滤与 InMemoryEmbeddingStore 一致（Filter.test(metadata)），
+ *   HNSW 检索时不满足条件的节点只参与导航不进入结果，结果不足时退回暴力扫描
+ * - 删除只打墓碑标记，墓碑超过比例时整体压缩并重建索引
+ *
+ * 相似度分数与 InMemoryEmbeddingStore 相同，使用 RelevanceScore.fromCosineSimilarity。
+ *
+ * @author 胖达AI助手开发团队
+ * @since 2025-09-14
+ */
+@Slf4j
+public class LocalVectorEmbeddingStore implements EmbeddingStore<TextSegment> {
+
+    // 墓碑占比超过该值时自动压缩
+    private static final double COMPACT_DELETED_RATIO = 0.3;
+
+    private final int dimension;
+    private final int hnswThreshold;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final int efSearch;
+    private final double levelMultiplier;
+    // 节点层数的随机源，写锁内使用
+    private final Random levelRandom;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // 连续存储：第 slot 个向量位于 vectors[slot * dimension, (slot + 1) * dimension)
+    private float[] vectors;
+    private String[] ids;
+    private TextSegment[] segments;
+    private boolean[] deleted;
+    private int size;
+    private int deletedCount;
+    private final Map<String, Integer> slotById = new HashMap<>();
+
+    // HNSW 图：links[slot][level] 为邻居槽位，linkCounts[slot][level] 为有效邻居数
+    private int[][][] links;
+    private int[][] linkCounts;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private boolean indexBuilt;
+
+    public LocalVectorEmbeddingStore(int dimension, int hnswThreshold, int m, int efConstruction, int efSearch) {
+        this(dimension, hnswThreshold, m, efConstruction, efSearch, new Random());
+    }
+
+    /**
+     * 指定层数随机源，测试中固定种子使图结构可复现
+     */
+    LocalVectorEmbeddingStore(int dimension, int hnswThreshold, int m, int efConstruction, int efSearch, Random levelRandom) {
+        this.dimension = dimension;
+        this.hnswThreshold = hnswThreshold;
+        this.m = m;
+        this.maxM0 = m * 2;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.levelMultiplier = 1.0 / Math.log(Math.max(2, m));
+        this.levelRandom = levelRandom;
+        allocate(1024);
+    }
+
+    // ===================================================================
+    // EmbeddingStore 接口
+    // ===================================================================
+
+    @Override
+    public String add(Embedding embedding) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding, null);
+        return id;
+    }
+
+    @Override
+    public void add(String id, Embedding embedding) {
+        add(id, embedding, null);
+    }
+
+    @Override
+    public String add(Embedding embedding, TextSegment textSegment) {
+        String id = UUID.randomUUID().toString();
+        add(id, embedding, textSegment);
+        return id;
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings) {
+        return addAll(embeddings, null);
+    }
+
+    @Override
+    public List<String> addAll(List<Embedding> embeddings, List<TextSegment> embedded) {
+        List<String> newIds = generateIds(embeddings.size());
+        addAll(newIds, embeddings, embedded);
+        return newIds;
+    }
+
+    @Override
+    public void addAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> embedded) {
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                insert(ids.get(i), embeddings.get(i).vector(), embedded != null ? embedded.get(i) : null);
+            }
+            maybeBuildIndex();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void add(String id, Embedding embedding, TextSegment textSegment) {
+        addAll(Collections.singletonList(id), Collections.singletonList(embedding),
+                Collections.singletonList(textSegment));
+    }
+
+    @Override
+    public void remove(String id) {
+        removeAll(Collections.singletonList(id));
+    }
+
+    @Override
+    public void removeAll(Collection<String> idsToRemove) {
+        lock.writeLock().lock();
+        try {
+            for (String id : idsToRemove) {
+                markDeleted(id);
+            }
+            maybeCompact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll(Filter filter) {
+        lock.writeLock().lock();
+        try {
+            for (int slot = 0; slot < size; slot++) {
+                if (!deleted[slot] && segments[slot] != null && filter.test(segments[slot].metadata())) {
+                    markDeleted(ids[slot]);
+                }
+            }
+            maybeCompact();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeAll() {
+        lock.writeLock().lock();
+        try {
+            slotById.clear();
+            size = 0;
+            deletedCount = 0;
+            allocate(1024);
+            resetIndex();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+        float[] query = normalize(request.queryEmbedding().vector());
+        int k = request.maxResults();
+        double minScore = request.minScore();
+        Filter filter = request.filter();
+
+        lock.readLock().lock();
+        try {
+            PriorityQueue<ScoredSlot> topK;
+            if (indexBuilt) {
+                topK = searchIndex(query, k, minScore, filter);
+                if (filter != null && topK.size() < k) {
+                    // 过滤条件过于严格导致图检索结果不足时，退回暴力扫描
+                    topK = bruteForce(query, k, minScore, filter);
+                }
+            } else {
+                topK = bruteForce(query, k, minScore, filter);
+            }
+
+            List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(topK.size());
+            while (!topK.isEmpty()) {
+                ScoredSlot scored = topK.poll();
+                matches.add(new EmbeddingMatch<>(toScore(scored.similarity), ids[scored.slot],
+                        Embedding.from(copyVector(scored.slot)), segments[scored.slot]));
+            }
+            Collections.reverse(matches);
+            return new EmbeddingSearchResult<>(matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ===================================================================
+    // 快照与统计
+    // ===================================================================
+
+    /**
+     * 导出全部有效向量（用于本地快照）
+     */
+    public List<StoredVector> snapshot() {
+        lock.readLock().lock();
+        try {
+            List<StoredVector> result = new ArrayList<>(size - deletedCount);
+            for (int slot = 0; slot < size; slot++) {
+                if (!deleted[slot]) {
+                    result.add(new StoredVector(ids[slot], Embedding.from(copyVector(slot)), segments[slot]));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 物理清理墓碑并重建索引
+     *
+     * @return 清理的墓碑数
+     */
+    public int compact() {
+        lock.writeLock().lock();
+        try {
+            return compactInternal();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isIndexBuilt() {
+        return indexBuilt;
+    }
+
+    // ===================================================================
+    // 存储
+    // ===================================================================
+
+    private void insert(String id, float[] vector, TextSegment segment) {
+        if (vector.length != dimension) {
+            throw new IllegalArgumentException("向量维度不匹配: 期望 " + dimension + "，实际 " + vector.length);
+        }
+        // 同ID覆盖写入
+        markDeleted(id);
+
+        ensureCapacity(size + 1);
+        int slot = size++;
+        System.arraycopy(normalize(vector), 0, vectors, slot * dimension, dimension);
+        ids[slot] = id;
+        segments[slot] = segment;
+        deleted[slot] = false;
+        slotById.put(id, slot);
+
+        if (indexBuilt) {
+            insertIntoGraph(slot);
+        }
+    }
+
+    private void markDeleted(String id) {
+        Integer slot = slotById.remove(id);
+        if (slot != null && !deleted[slot]) {
+            deleted[slot] = true;
+            deletedCount++;
+        }
+    }
+
+    private void maybeBuildIndex() {
+        if (!indexBuilt && size - deletedCount >= hnswThreshold) {
+            long startTime = System.currentTimeMillis();
+            rebuildIndex();
+            log.info(" 本地向量库达到 {} 条，HNSW 索引构建完成，耗时 {}ms", size - deletedCount,
+                    System.currentTimeMillis() - startTime);
+        }
+    }
+
+    private void maybeCompact() {
+        if (deletedCount > 0 && deletedCount >= Math.max(1, size) * COMPACT_DELETED_RATIO) {
+            int removed = compactInternal();
+            log.debug(" 本地向量库自动压缩: 清理墓碑 {} 个", removed);
+        }
+    }
+
+    private int compactInternal() {
+        int removed = deletedCount;
+        if (removed == 0) {
+            return 0;
+        }
+        int live = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if (deleted[slot]) {
+                continue;
+            }
+            if (live != slot) {
+                System.arraycopy(vectors, slot * dimension, vectors, live * dimension, dimension);
+                ids[live] = ids[slot];
+                segments[live] = segments[slot];
+            }
+            deleted[live] = false;
+            slotById.put(ids[live], live);
+            live++;
+        }
+        for (int slot = live; slot < size; slot++) {
+            ids[slot] = null;
+            segments[slot] = null;
+            deleted[slot] = false;
+        }
+        size = live;
+        deletedCount = 0;
+
+        resetIndex();
+        if (size >= hnswThreshold) {
+            rebuildIndex();
+        }
+        return removed;
+    }
+
+    private void allocate(int capacity) {
+        vectors = new float[capacity * dimension];
+        ids = new String[capacity];
+        segments = new TextSegment[capacity];
+        deleted = new boolean[capacity];
+        links = new int[capacity][][];
+        linkCounts = new int[capacity][];
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= ids.length) {
+            return;
+        }
+        int capacity = Math.max(required, ids.length * 2);
+        vectors = Arrays.copyOf(vectors, capacity * dimension);
+        ids = Arrays.copyOf(ids, capacity);
+        segments = Arrays.copyOf(segments, capacity);
+        deleted = Arrays.copyOf(deleted, capacity);
+        links = Arrays.copyOf(links, capacity);
+        linkCounts = Arrays.copyOf(linkCounts, capacity);
+    }
+
+    // ===================================================================
+    // 暴力扫描
+    // ===================================================================
+
+    private PriorityQueue<ScoredSlot> bruteForce(float[] query, int k, double minScore, Filter filter) {
+        PriorityQueue<ScoredSlot> topK = new PriorityQueue<>(Math.max(1, k) + 1);
+        for (int slot = 0; slot < size; slot++) {
+            if (!accept(slot, filter)) {
+                continue;
+            }
+            float similarity = dot(query, slot);
+            if (toScore(similarity) < minScore) {
+                continue;
+            }
+            offer(topK, new ScoredSlot(slot, similarity), k);
+        }
+        return topK;
+    }
+
+    // ===================================================================
+    // HNSW
+    // ===================================================================
+
+    private void resetIndex() {
+        Arrays.fill(links, null);
+        Arrays.fill(linkCounts, null);
+        entryPoint = -1;
+        maxLevel = -1;
+        indexBuilt = false;
+    }
+
+    private void rebuildIndex() {
+        resetIndex();
+        indexBuilt = true;
+        for (int slot = 0; slot < size; slot++) {
+            if (!deleted[slot]) {
+                insertIntoGraph(slot);
+            }
+        }
+    }
+
+    private void insertIntoGraph(int slot) {
+        int level = (int) (-Math.log(1.0 - levelRandom.nextDouble()) * levelMultiplier);
+        links[slot] = new int[level + 1][];
+        linkCounts[slot] = new int[level + 1];
+        for (int l = 0; l <= level; l++) {
+            links[slot][l] = new int[(l == 0 ? maxM0 : m) + 1];
+        }
+
+        if (entryPoint < 0) {
+            entryPoint = slot;
+            maxLevel = level;
+            return;
+        }
+
+        float[] query = Arrays.copyOfRange(vectors, slot * dimension, (slot + 1) * dimension);
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedySearch(query, current, l);
+        }
+
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            PriorityQueue<ScoredSlot> candidates = searchLayer(query, current, efConstruction, l, null);
+            List<ScoredSlot> sorted = new ArrayList<>(candidates);
+            sorted.sort(Collections.reverseOrder());
+
+            for (int neighbor : selectNeighbors(sorted, l == 0 ? maxM0 : m)) {
+                addLink(slot, neighbor, l);
+                addLink(neighbor, slot, l);
+            }
+            if (!sorted.isEmpty()) {
+                current = sorted.get(0).slot;
+            }
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = slot;
+        }
+    }
+
+    /**
+     * 添加一条单向边，超出上限时按启发式重新挑选邻居
+     */
+    private void addLink(int from, int to, int level) {
+        int[] neighbors = links[from][level];
+        int count = linkCounts[from][level];
+        neighbors[count++] = to;
+        int maxLinks = level == 0 ? maxM0 : m;
+        if (count > maxLinks) {
+            List<ScoredSlot> sorted = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                sorted.add(new ScoredSlot(neighbors[i], dot(from, neighbors[i])));
+            }
+            sorted.sort(Collections.reverseOrder());
+            List<Integer> selected = selectNeighbors(sorted, maxLinks);
+            count = selected.size();
+            for (int i = 0; i < count; i++) {
+                neighbors[i] = selected.get(i);
+            }
+        }
+        linkCounts[from][level] = count;
+    }
+
+    /**
+     * HNSW 邻居选择启发式：候选按相似度降序，只保留与基准点比与已选邻居更近的候选，
+     * 使邻居分布在不同方向上；名额未满时再用被淘汰的候选补齐
+     */
+    private List<Integer> selectNeighbors(List<ScoredSlot> sortedCandidates, int maxLinks) {
+        List<Integer> selected = new ArrayList<>(maxLinks);
+        List<Integer> pruned = new ArrayList<>();
+        for (ScoredSlot candidate : sortedCandidates) {
+            if (selected.size() >= maxLinks) {
+                break;
+            }
+            boolean diverse = true;
+            for (int chosen : selected) {
+                if (dot(candidate.slot, chosen) > candidate.similarity) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) {
+                selected.add(candidate.slot);
+            } else {
+                pruned.add(candidate.slot);
+            }
+        }
+        for (int i = 0; i < pruned.size() && selected.size() < maxLinks; i++) {
+            selected.add(pruned.get(i));
+        }
+        return selected;
+    }
+
+    private int greedySearch(float[] query, int start, int level) {
+        int current = start;
+        float currentSimilarity = dot(query, current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] neighbors = links[current][level];
+            int count = linkCounts[current][level];
+            for (int i = 0; i < count; i++) {
+                float similarity = dot(query, neighbors[i]);
+                if (similarity > currentSimilarity) {
+                    currentSimilarity = similarity;
+                    current = neighbors[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 单层 beam 搜索，返回最相似的 ef 个节点（小顶堆）
+     * 墓碑与不满足过滤条件的节点仍参与图遍历，但不进入结果集
+     *
+     * @param filter 为 null 时用于构图，所有节点（含墓碑）都可作为结果
+     */
+    private PriorityQueue<ScoredSlot> searchLayer(float[] query, int start, int ef, int level, SlotPredicate filter) {
+        BitSet visited = new BitSet(size);
+        visited.set(start);
+
+        ScoredSlot first = new ScoredSlot(start, dot(query, start));
+        PriorityQueue<ScoredSlot> candidates = new PriorityQueue<>(Collections.reverseOrder());
+        PriorityQueue<ScoredSlot> results = new PriorityQueue<>();
+        candidates.add(first);
+        if (filter == null || filter.test(start)) {
+            results.add(first);
+        }
+
+        while (!candidates.isEmpty()) {
+            ScoredSlot closest = candidates.poll();
+            if (results.size() >= ef && closest.similarity < results.peek().similarity) {
+                break;
+            }
+            int[] neighbors = links[closest.slot][level];
+            int count = linkCounts[closest.slot][level];
+            for (int i = 0; i < count; i++) {
+                int neighbor = neighbors[i];
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float similarity = dot(query, neighbor);
+                if (results.size() < ef || similarity > results.peek().similarity) {
+                    ScoredSlot scored = new ScoredSlot(neighbor, similarity);
+                    candidates.add(scored);
+                    if (filter == null || filter.test(neighbor)) {
+                        results.add(scored);
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private PriorityQueue<ScoredSlot> searchIndex(float[] query, int k, double minScore, Filter filter) {
+        int current = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            current = greedySearch(query, current, l);
+        }
+        PriorityQueue<ScoredSlot> candidates = searchLayer(query, current, Math.max(efSearch, k), 0,
+                slot -> accept(slot, filter));
+
+        PriorityQueue<ScoredSlot> topK = new PriorityQueue<>(Math.max(1, k) + 1);
+        for (ScoredSlot scored : candidates) {
+            if (toScore(scored.similarity) >= minScore) {
+                offer(topK, scored, k);
+            }
+        }
+        return topK;
+    }
+
+    @FunctionalInterface
+    private interface SlotPredicate {
+        boolean test(int slot);
+    }
+
+    // ===================================================================
+    // 工具方法
+    // ===================================================================
+
+    private boolean accept(int slot, Filter filter) {
+        if (deleted[slot]) {
+            return false;
+        }
+        return filter == null || (segments[slot] != null && filter.test(segments[slot].metadata()));
+    }
+
+    private static void offer(PriorityQueue<ScoredSlot> topK, ScoredSlot scored, int k) {
+        if (topK.size() < k) {
+            topK.add(scored);
+        } else if (k > 0 && scored.similarity > topK.peek().similarity) {
+            topK.poll();
+            topK.add(scored);
+        }
+    }
+
+    private float dot(float[] query, int slot) {
+        int offset = slot * dimension;
+        float sum = 0f;
+        for (int i = 0; i < dimension; i++) {
+            sum += query[i] * vectors[offset + i];
+        }
+        return sum;
+    }
+
+    private float dot(int slotA, int slotB) {
+        int offsetA = slotA * dimension;
+        int offsetB = slotB * dimension;
+        float sum = 0f;
+        for (int i = 0; i < dimension; i++) {
+            sum += vectors[offsetA + i] * vectors[offsetB + i];
+        }
+        return sum;
+    }
+
+    private float[] copyVector(int slot) {
+        return Arrays.copyOfRange(vectors, slot * dimension, (slot + 1) * dimension);
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        float[] result = new float[vector.length];
+        if (norm == 0) {
+            return result;
+        }
+        float scale = (float) (1.0 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = vector[i] * scale;
+        }
+        return result;
+    }
+
+    private static double toScore(float cosineSimilarity) {
+        return RelevanceScore.fromCosineSimilarity(cosineSimilarity);
+    }
+
+    /**
+     * 槽位与相似度，自然顺序为相似度升序
+     */
+    private static class ScoredSlot implements Comparable<ScoredSlot> {
+        private final int slot;
+        private final float similarity;
+
+        ScoredSlot(int slot, float similarity) {
+            this.slot = slot;
+            this.similarity = similarity;
+        }
+
+        @Override
+        public int compareTo(ScoredSlot other) {
+            return Float.compare(similarity, other.similarity);
+        }
+    }
+
+    /**
+     * 导出的向量条目
+     */
+    public static class StoredVector {
+        private final String id;
+        private final Embedding embedding;
+        private final TextSegment segment;
+
+        public StoredVector(String id, Embedding embedding, TextSegment segment) {
+            this.id = id;
+            this.embedding = embedding;
+            this.segment = segment;
+        }
+
+        public String getId() { return id; }
+        public Embedding getEmbedding() { return embedding; }
+        public TextSegment getSegment() { return segment; }
+    }
+}
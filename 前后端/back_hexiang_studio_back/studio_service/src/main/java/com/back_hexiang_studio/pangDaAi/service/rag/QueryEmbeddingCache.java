@@ -0,0 +1,185 @@
+package com.back_hexiang_studio.pangDaAi.service.rag;
+
+import cn.hutool.crypto.SecureUtil;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 查询向量缓存
+ *
+ * 同一轮对话中检索链路会多次对相同（或仅空白、大小写不同）的查询调用 Embedding 模型，
+ * 这里按规范化文本缓存查询向量（向量也由规范化文本生成，保证同一缓存键只对应一个向量）：
+ * - 一级：本地 Guava Cache，按条数 LRU 淘汰 + 写入后过期
+ * - 二级（可选）：Redis，多实例共享，命中后回填本地；键中带模型名与维度，切换模型后不会读到旧向量
+ *
+ * 仅用于查询向量；文档入库仍走批量 embedAll。
+ *
+ * @author 胖达AI助手开发团队
+ * @since 2025-09-14
+ */
+@Slf4j
+@Service
+public class QueryEmbeddingCache {
+
+    private static final String REDIS_KEY_PREFIX = "rag:query_embedding:";
+
+    @Value("${pangda-ai.rag.query-cache.max-size:2000}")
+    private long maxSize;
+
+    @Value("${pangda-ai.rag.query-cache.ttl-minutes:60}")
+    private long ttlMinutes;
+
+    @Value("${pangda-ai.rag.query-cache.redis-enabled:false}")
+    private boolean redisEnabled;
+
+    @Value("${pangda-ai.rag.query-cache.redis-ttl-hours:24}")
+    private long redisTtlHours;
+
+    @Value("${langchain4j.embedding-model.model-name:text-embedding-v2}")
+    private String embeddingModelName;
+
+    @Value("${langchain4j.embedding-store.dimension:1536}")
+    private int embeddingDimension;
+
+    @Autowired
+    private EmbeddingModel embeddingModel;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    private Cache<String, Embedding> localCache;
+
+    private final AtomicLong redisHitCount = new AtomicLong();
+    private final AtomicLong modelCallCount = new AtomicLong();
+
+    @PostConstruct
+    public void initialize() {
+        localCache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+        log.info(" 查询向量缓存初始化完成: 最大条数={}, 过期={}分钟, Redis二级缓存={}", maxSize, ttlMinutes, redisEnabled);
+    }
+
+    /**
+     * 获取查询文本的向量，未命中时调用 Embedding 模型
+     *
+     * @param query 查询文本
+     * @return 查询向量
+     */
+    public Embedding embed(String query) {
+        String key = normalize(query);
+        try {
+            // 并发的相同查询只会触发一次加载
+            return localCache.get(key, () -> loadEmbedding(key));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            // 模型抛出的运行时异常被包装为 UncheckedExecutionException，解包后交给调用方的降级逻辑
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * 本地未命中：先查 Redis，再调用模型
+     */
+    private Embedding loadEmbedding(String key) {
+        String redisKey = redisEnabled
+                ? REDIS_KEY_PREFIX + embeddingModelName + ":" + embeddingDimension + ":" + SecureUtil.md5(key)
+                : null;
+
+        if (redisKey != null) {
+            try {
+                Object cached = redisTemplate.opsForValue().get(redisKey);
+                if (cached instanceof String) {
+                    redisHitCount.incrementAndGet();
+                    return Embedding.from(decode((String) cached));
+                }
+            } catch (Exception e) {
+                log.warn(" ️ 读取Redis查询向量缓存失败，直接调用模型: {}", e.getMessage());
+            }
+        }
+
+        modelCallCount.incrementAndGet();
+        Embedding embedding = embeddingModel.embed(key).content();
+
+        if (redisKey != null) {
+            try {
+                redisTemplate.opsForValue().set(redisKey, encode(embedding.vector()), redisTtlHours, TimeUnit.HOURS);
+            } catch (Exception e) {
+                log.warn(" ️ 写入Redis查询向量缓存失败: {}", e.getMessage());
+            }
+        }
+        return embedding;
+    }
+
+    /**
+     * 清空缓存（切换 Embedding 模型或重建索引后调用）
+     */
+    public void invalidateAll() {
+        localCache.invalidateAll();
+        log.info(" 查询向量本地缓存已清空");
+    }
+
+    /**
+     * 缓存命中统计
+     */
+    public Map<String, Object> getStats() {
+        CacheStats stats = localCache.stats();
+        long requests = stats.requestCount();
+        long redisHits = redisHitCount.get();
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", localCache.size());
+        result.put("requestCount", requests);
+        result.put("localHitCount", stats.hitCount());
+        result.put("localHitRate", stats.hitRate());
+        result.put("redisHitCount", redisHits);
+        result.put("overallHitRate", requests == 0 ? 0.0 : (double) (stats.hitCount() + redisHits) / requests);
+        result.put("modelCallCount", modelCallCount.get());
+        result.put("evictionCount", stats.evictionCount());
+        result.put("averageLoadMs", stats.averageLoadPenalty() / 1_000_000.0);
+        return result;
+    }
+
+    /**
+     * 规范化：去首尾空白、合并连续空白、转小写
+     */
+    private static String normalize(String query) {
+        return query == null ? "" : query.trim().replaceAll("\\s+", " ").toLowerCase();
+    }
+
+    private static String encode(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES);
+        buffer.asFloatBuffer().put(vector);
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    private static float[] decode(String value) {
+        ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(value));
+        float[] vector = new float[buffer.remaining() / Float.BYTES];
+        buffer.asFloatBuffer().get(vector);
+        return vector;
+    }
+}
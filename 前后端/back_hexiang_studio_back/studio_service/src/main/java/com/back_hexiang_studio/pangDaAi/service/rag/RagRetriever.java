@@ -1,5 +1,6 @@
 package com.back_hexiang_studio.pangDaAi.service.rag;
 
+import com.back_hexiang_studio.pangDaAi.util.KeywordAutomaton;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.data.document.Metadata;
 import dev.langchain4j.store.embedding.EmbeddingMatch;
@@ -576,33 +577,10 @@ public class RagRetriever {
         
         log.info("🔄 多类别检索: {}", categories);
         
-        // 按优先级逐个检索类别
-        List<EmbeddingMatch<TextSegment>> allResults = new ArrayList<>();
-        Set<String> seenTexts = new HashSet<>();
-        
-        for (String category : categories) {
-            if (allResults.size() >= maxResults) break;
-            
-            log.debug("🔍 检索类别: {}", category);
-            
-            VectorStoreService.ClassifiedSearchResult categoryResult = 
-                vectorStoreService.searchByCategories(enhancedQuery, Collections.singletonList(category), 
-                                                   maxResults - allResults.size());
-            
-            // 添加不重复的结果
-            for (EmbeddingMatch<TextSegment> match : categoryResult.getMatches()) {
-                String text = match.embedded().text();
-                if (!seenTexts.contains(text)) {
-                    allResults.add(match);
-                    seenTexts.add(text);
-                    
-                    if (allResults.size() >= maxResults) break;
-                }
-            }
-        }
-        
-        // 按分数重新排序
-        allResults.sort((a, b) -> Double.compare(b.score(), a.score()));
+        // 所有类别合并为一次元数据过滤检索，统一按分数取 top-K
+        VectorStoreService.ClassifiedSearchResult classifiedResult = 
+            vectorStoreService.searchByCategories(enhancedQuery, categories, maxResults);
+        List<EmbeddingMatch<TextSegment>> allResults = new ArrayList<>(classifiedResult.getMatches());
         
         return allResults;
     }
@@ -775,6 +753,10 @@ public class RagRetriever {
         
         log.debug(" 开始简化质量过滤 - 原始结果数: {}, 查询: '{}'", results.size(), query);
         
+        // 查询词只编译一次，每条结果只做一次线性扫描
+        boolean basicInfoQuery = isBasicInfoQuery(query.toLowerCase());
+        KeywordAutomaton queryKeywords = buildQueryKeywords(query);
+        
         return results.stream()
                 .filter(match -> {
                     // 基本相似度过滤
@@ -789,35 +771,30 @@ public class RagRetriever {
                     }
                     
                     // 基础信息查询使用宽松匹配
-                    if (isBasicInfoQuery(query.toLowerCase())) {
+                    if (basicInfoQuery) {
                         return true; // 基础查询直接通过
                     }
                     
-                    // 其他查询使用简单关键词匹配
-                    return containsKeywords(content, query);
+                    // 其他查询使用简单关键词匹配：只要有任何关键词匹配就通过
+                    return queryKeywords.containsAny(content);
                 })
                 .collect(Collectors.toList());
     }
 
     /**
-     * 简单关键词匹配
+     * 简单关键词匹配：把查询词编译为多模式匹配自动机
      */
-    private boolean containsKeywords(String content, String query) {
-        String lowerContent = content.toLowerCase();
-        String lowerQuery = query.toLowerCase();
-        
-        // 移除标点符号后分割
-        String[] queryWords = lowerQuery.replaceAll("[，。！？、]", " ").split("\\s+");
+    private KeywordAutomaton buildQueryKeywords(String query) {
+        // 移除标点符号后分割，单字词不参与匹配
+        String[] queryWords = query.toLowerCase().replaceAll("[，。！？、]", " ").split("\\s+");
         
-        int matchCount = 0;
+        KeywordAutomaton.Builder builder = KeywordAutomaton.builder();
         for (String word : queryWords) {
-            if (word.length() > 1 && lowerContent.contains(word)) {
-                matchCount++;
+            if (word.length() > 1) {
+                builder.add("query", word);
             }
         }
-        
-        // 只要有任何关键词匹配就通过
-        return matchCount > 0;
+        return builder.build();
     }
 
     /**
@@ -0,0 +1,396 @@
+package com.back_hexiang_studio.pangDaAi.service.rag;
+
+import com.back_hexiang_studio.pangDaAi.service.KeywordClassifier;
+import com.back_hexiang_studio.pangDaAi.service.PermissionService;
+import com.back_hexiang_studio.pangDaAi.util.KeywordAutomaton;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 语义答案缓存（默认关闭）
+ *
+ * 工作室介绍、联系方式、工具指南等FAQ类问题的答案来自 FullSyncService 同步的静态知识，
+ * 重复提问时按查询向量相似度直接返回已有答案，不再调用大模型：
+ * - 缓存维度：权限范围（用户角色）+ 知识版本，不同角色、不同知识版本的答案互不复用
+ * - 只缓存会话第一轮（此前没有对话记忆）且没有调用任何工具的答案；用到上下文的答案不可复用
+ * - 答案中出现提问者姓名、职位等身份信息时不缓存
+ * - 涉及个人、实时、管理操作的问题不查也不存
+ * - 知识版本保存在 Redis，任一节点同步有变更时递增，各节点按版本丢弃旧答案
+ *
+ * @author 胖达AI助手开发团队
+ */
+@Slf4j
+@Service
+public class SemanticAnswerCache {
+
+    private static final String ANONYMOUS_SCOPE = "anonymous";
+
+    private static final UserScope ANONYMOUS = new UserScope(ANONYMOUS_SCOPE, Collections.emptyList());
+
+    // 知识版本，集群共享
+    private static final String KNOWLEDGE_VERSION_KEY = "rag:answer_cache:knowledge_version";
+
+    // 命中即不走缓存的分类：管理操作、统计、时效性、实时数据
+    private static final String[] UNCACHEABLE_GROUPS = {
+        KeywordClassifier.PATTERN_GROUP + "management",
+        KeywordClassifier.PATTERN_GROUP + "statistics",
+        KeywordClassifier.PATTERN_GROUP + "time",
+        KeywordClassifier.HINT_GROUP + KeywordClassifier.ContextHint.ATTENDANCE.name(),
+        KeywordClassifier.HINT_GROUP + KeywordClassifier.ContextHint.TASK.name(),
+        KeywordClassifier.HINT_GROUP + KeywordClassifier.ContextHint.WEATHER.name(),
+        KeywordClassifier.HINT_GROUP + KeywordClassifier.ContextHint.NEWS.name()
+    };
+
+    // 与提问者本人相关的问题，答案因人而异
+    private static final KeywordAutomaton PERSONAL_KEYWORDS = KeywordAutomaton.builder()
+            .add("personal", "我")
+            .add("personal", "本人")
+            .add("personal", "自己")
+            .build();
+
+    @Value("${pangda-ai.answer-cache.enabled:false}")
+    private boolean enabled;
+
+    @Value("${pangda-ai.answer-cache.similarity-threshold:0.92}")
+    private double similarityThreshold;
+
+    @Value("${pangda-ai.answer-cache.max-entries-per-scope:200}")
+    private int maxEntriesPerScope;
+
+    @Value("${pangda-ai.answer-cache.ttl-minutes:720}")
+    private long ttlMinutes;
+
+    @Autowired
+    private QueryEmbeddingCache queryEmbeddingCache;
+
+    @Autowired
+    private KeywordClassifier keywordClassifier;
+
+    @Autowired
+    private PermissionService permissionService;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    // 权限范围 -> 答案（最早写入的在队首）
+    private final Map<String, Deque<CachedAnswer>> answers = new ConcurrentHashMap<>();
+
+    // 用户角色与身份信息短暂缓存，避免每次提问查库
+    private final Cache<Long, UserScope> userScopes = CacheBuilder.newBuilder()
+            .maximumSize(10_000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong ineligibleCount = new AtomicLong();
+    private final AtomicLong storeCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * 查询缓存
+     *
+     * @param question   用户原始问题
+     * @param userId     当前用户ID，可为空
+     * @param hasHistory 会话此前是否已有对话记忆；有记忆时本轮答案可能依赖上下文，只查不存
+     * @return 查询结果；未启用或问题不可缓存时返回不可缓存的结果
+     */
+    public Probe probe(String question, Long userId, boolean hasHistory) {
+        if (!enabled || question == null || question.trim().isEmpty()) {
+            return Probe.NOT_CACHEABLE;
+        }
+        if (!isCacheableQuestion(question)) {
+            ineligibleCount.incrementAndGet();
+            return Probe.NOT_CACHEABLE;
+        }
+
+        try {
+            UserScope userScope = resolveScope(userId);
+            String scope = userScope.scope;
+            long version = currentVersion();
+            float[] vector = normalize(queryEmbeddingCache.embed(question).vector());
+
+            CachedAnswer best = null;
+            double bestScore = similarityThreshold;
+            Deque<CachedAnswer> scoped = answers.get(scope);
+            if (scoped != null) {
+                long expireBefore = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(ttlMinutes);
+                synchronized (scoped) {
+                    Iterator<CachedAnswer> iterator = scoped.iterator();
+                    while (iterator.hasNext()) {
+                        CachedAnswer entry = iterator.next();
+                        if (entry.version != version || entry.createdAt < expireBefore) {
+                            iterator.remove();
+                            continue;
+                        }
+                        double score = dot(vector, entry.vector);
+                        if (score >= bestScore) {
+                            bestScore = score;
+                            best = entry;
+                        }
+                    }
+                }
+            }
+
+            if (best != null) {
+                hitCount.incrementAndGet();
+                log.info(" 语义答案缓存命中 - 相似度: {}, 原问题: {}", String.format("%.3f", bestScore), best.question);
+                return new Probe(true, !hasHistory, scope, version, vector, userScope.identityTerms, best.answer);
+            }
+            missCount.incrementAndGet();
+            return new Probe(true, !hasHistory, scope, version, vector, userScope.identityTerms, null);
+
+        } catch (Exception e) {
+            log.warn(" 语义答案缓存查询失败，按未命中处理: {}", e.getMessage());
+            return Probe.NOT_CACHEABLE;
+        }
+    }
+
+    /**
+     * 写入答案；调用方需保证本轮对话没有调用工具
+     *
+     * @param probe    本轮的查询结果
+     * @param question 用户原始问题
+     * @param answer   模型答案
+     */
+    public void store(Probe probe, String question, String answer) {
+        if (probe == null || !probe.cacheable || probe.answer != null || answer == null || answer.trim().isEmpty()) {
+            return;
+        }
+        // 非会话首轮的答案可能引用了此前的对话，含提问者身份的答案不能给其他人
+        if (!probe.firstTurn || mentionsIdentity(answer, probe.identityTerms)) {
+            rejectedCount.incrementAndGet();
+            return;
+        }
+        try {
+            // 查询后知识已更新，答案可能基于旧知识
+            if (probe.version != currentVersion()) {
+                return;
+            }
+        } catch (Exception e) {
+            log.warn(" 读取知识版本失败，答案不缓存: {}", e.getMessage());
+            return;
+        }
+        Deque<CachedAnswer> scoped = answers.computeIfAbsent(probe.scope, s -> new ArrayDeque<>());
+        synchronized (scoped) {
+            scoped.addLast(new CachedAnswer(question, answer, probe.vector, probe.version, System.currentTimeMillis()));
+            while (scoped.size() > maxEntriesPerScope) {
+                scoped.removeFirst();
+            }
+        }
+        storeCount.incrementAndGet();
+        log.debug(" 语义答案已缓存 - 范围: {}, 问题: {}", probe.scope, question);
+    }
+
+    /**
+     * 知识库同步有变更时调用：Redis 中的知识版本递增，清空本节点的答案；
+     * 其他节点在下次查询时发现版本变化，丢弃旧版本的答案
+     */
+    public void onKnowledgeUpdated() {
+        answers.clear();
+        invalidationCount.incrementAndGet();
+        try {
+            Long version = redisTemplate.opsForValue().increment(KNOWLEDGE_VERSION_KEY);
+            if (enabled) {
+                log.info(" 知识库已更新，语义答案缓存已清空，知识版本: {}", version);
+            }
+        } catch (Exception e) {
+            log.error(" 递增知识版本失败，其他节点的语义答案缓存可能未失效: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 缓存统计
+     */
+    public Map<String, Object> getStats() {
+        int size = 0;
+        for (Deque<CachedAnswer> scoped : answers.values()) {
+            size += scoped.size();
+        }
+        long lookups = hitCount.get() + missCount.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("size", size);
+        stats.put("scopes", answers.size());
+        try {
+            stats.put("knowledgeVersion", currentVersion());
+        } catch (Exception e) {
+            stats.put("knowledgeVersion", "unavailable");
+        }
+        stats.put("hits", hitCount.get());
+        stats.put("misses", missCount.get());
+        stats.put("hitRate", lookups == 0 ? 0.0 : hitCount.get() * 1.0 / lookups);
+        stats.put("ineligible", ineligibleCount.get());
+        stats.put("stored", storeCount.get());
+        stats.put("rejected", rejectedCount.get());
+        stats.put("invalidations", invalidationCount.get());
+        return stats;
+    }
+
+    /**
+     * 个人、实时、管理类问题不走缓存
+     */
+    private boolean isCacheableQuestion(String question) {
+        if (PERSONAL_KEYWORDS.containsAny(question)) {
+            return false;
+        }
+        KeywordAutomaton.Hits hits = keywordClassifier.scan(question);
+        for (String group : UNCACHEABLE_GROUPS) {
+            if (hits.contains(group)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 当前知识版本，未同步过时为 0
+     */
+    private long currentVersion() {
+        Object version = redisTemplate.opsForValue().get(KNOWLEDGE_VERSION_KEY);
+        if (version instanceof Number) {
+            return ((Number) version).longValue();
+        }
+        return version != null ? Long.parseLong(version.toString()) : 0L;
+    }
+
+    /**
+     * 权限范围：按用户角色划分，匿名用户单独一组；同时取出用于过滤答案的身份信息
+     */
+    private UserScope resolveScope(Long userId) {
+        if (userId == null) {
+            return ANONYMOUS;
+        }
+        try {
+            return userScopes.get(userId, () -> {
+                Map<String, Object> userInfo = permissionService.getUserInfo(userId);
+                if (userInfo == null) {
+                    return ANONYMOUS;
+                }
+                Object roleId = userInfo.get("role_id");
+                List<String> identityTerms = new ArrayList<>(2);
+                for (String field : new String[]{"name", "position_name"}) {
+                    Object value = userInfo.get(field);
+                    if (value != null && value.toString().trim().length() >= 2) {
+                        identityTerms.add(value.toString().trim());
+                    }
+                }
+                return new UserScope(roleId != null ? "role:" + roleId : ANONYMOUS_SCOPE, identityTerms);
+            });
+        } catch (ExecutionException e) {
+            return ANONYMOUS;
+        }
+    }
+
+    private static boolean mentionsIdentity(String answer, List<String> identityTerms) {
+        for (String term : identityTerms) {
+            if (answer.contains(term)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        float[] normalized = new float[vector.length];
+        if (norm == 0) {
+            return normalized;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = (float) (vector[i] / norm);
+        }
+        return normalized;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return 0;
+        }
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * 单次查询结果，命中时 answer 非空；未命中时用于本轮结束后写入
+     */
+    public static class Probe {
+        static final Probe NOT_CACHEABLE = new Probe(false, false, null, -1, null, Collections.emptyList(), null);
+
+        private final boolean cacheable;
+        // 会话首轮（此前没有对话记忆），只有首轮的答案可以写入
+        private final boolean firstTurn;
+        private final String scope;
+        private final long version;
+        private final float[] vector;
+        private final List<String> identityTerms;
+        private final String answer;
+
+        Probe(boolean cacheable, boolean firstTurn, String scope, long version, float[] vector,
+              List<String> identityTerms, String answer) {
+            this.cacheable = cacheable;
+            this.firstTurn = firstTurn;
+            this.scope = scope;
+            this.version = version;
+            this.vector = vector;
+            this.identityTerms = identityTerms;
+            this.answer = answer;
+        }
+
+        public boolean isCacheable() { return cacheable; }
+        public String getAnswer() { return answer; }
+    }
+
+    private static class UserScope {
+        private final String scope;
+        // 提问者姓名、职位，答案中出现时不缓存
+        private final List<String> identityTerms;
+
+        UserScope(String scope, List<String> identityTerms) {
+            this.scope = scope;
+            this.identityTerms = identityTerms;
+        }
+    }
+
+    private static class CachedAnswer {
+        private final String question;
+        private final String answer;
+        private final float[] vector;
+        private final long version;
+        private final long createdAt;
+
+        CachedAnswer(String question, String answer, float[] vector, long version, long createdAt) {
+            this.question = question;
+            this.answer = answer;
+            this.vector = vector;
+            this.version = version;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -1,10 +1,12 @@
 package com.back_hexiang_studio.pangDaAi.service.rag;
 
+import com.back_hexiang_studio.pangDaAi.service.KeywordClassifier;
+import com.back_hexiang_studio.pangDaAi.util.KeywordAutomaton;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
-import java.util.regex.Pattern;
 
 /**
  * 工具分类服务 - 实现智能工具路由和分类存储
@@ -22,6 +24,20 @@ import java.util.regex.Pattern;
 @Slf4j
 public class ToolClassificationService {
 
+    /**
+     * 特殊查询模式关键词，编入共享关键词自动机
+     */
+    public static final Map<String, List<String>> SPECIAL_PATTERN_KEYWORDS = new LinkedHashMap<>();
+    static {
+        SPECIAL_PATTERN_KEYWORDS.put("identity", Arrays.asList("我", "你", "他", "她", "它"));
+        SPECIAL_PATTERN_KEYWORDS.put("statistics", Arrays.asList("统计", "多少", "几个"));
+        SPECIAL_PATTERN_KEYWORDS.put("management", Arrays.asList("添加", "删除", "修改"));
+        SPECIAL_PATTERN_KEYWORDS.put("time", Arrays.asList("今天", "最新", "最近"));
+    }
+
+    @Autowired
+    private KeywordClassifier keywordClassifier;
+
     /**
      * 工具分类枚举 - 基于AssistantAgent的38个工具方法
      */
@@ -109,12 +125,13 @@ public class ToolClassificationService {
     public List<ToolClassificationResult> classifyUserQuery(String userQuery) {
         log.debug(" 开始工具分类分析: {}", userQuery);
         
-        String normalizedQuery = userQuery.toLowerCase();
+        // 一次扫描得到所有分类、场景、模式的命中关键词
+        KeywordAutomaton.Hits hits = keywordClassifier.scan(userQuery);
         List<ToolClassificationResult> results = new ArrayList<>();
         
         // 1. 功能模块匹配
         for (ToolCategory category : ToolCategory.values()) {
-            double score = calculateCategoryScore(normalizedQuery, category);
+            double score = calculateCategoryScore(hits, category);
             if (score > 0.1) { // 置信度阈值
                 results.add(new ToolClassificationResult(category, null, score, "功能匹配"));
             }
@@ -122,7 +139,7 @@ public class ToolClassificationService {
         
         // 2. 使用场景匹配
         for (ToolClassificationResult result : results) {
-            UsageScenario bestScenario = findBestScenario(normalizedQuery);
+            UsageScenario bestScenario = findBestScenario(hits);
             if (bestScenario != null) {
                 result.setUsageScenario(bestScenario);
                 result.setScore(result.getScore() * 1.2); // 场景匹配加权
@@ -130,7 +147,7 @@ public class ToolClassificationService {
         }
         
         // 3. 特殊查询模式识别
-        enhanceWithSpecialPatterns(normalizedQuery, results);
+        enhanceWithSpecialPatterns(hits, results);
         
         // 4. 排序并返回
         results.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
@@ -146,17 +163,15 @@ public class ToolClassificationService {
     /**
      * 计算类别匹配分数
      */
-    private double calculateCategoryScore(String query, ToolCategory category) {
+    private double calculateCategoryScore(KeywordAutomaton.Hits hits, ToolCategory category) {
         double score = 0.0;
         int totalKeywords = category.getKeywords().size();
-        int matchedKeywords = 0;
+        Set<String> matched = hits.matched(KeywordClassifier.CATEGORY_GROUP + category.getCode());
+        int matchedKeywords = matched.size();
         
-        for (String keyword : category.getKeywords()) {
-            if (query.contains(keyword)) {
-                matchedKeywords++;
-                // 关键词长度权重
-                score += keyword.length() > 2 ? 0.3 : 0.2;
-            }
+        for (String keyword : matched) {
+            // 关键词长度权重
+            score += keyword.length() > 2 ? 0.3 : 0.2;
         }
         
         // 覆盖率加权
@@ -169,17 +184,12 @@ public class ToolClassificationService {
     /**
      * 查找最佳使用场景
      */
-    private UsageScenario findBestScenario(String query) {
+    private UsageScenario findBestScenario(KeywordAutomaton.Hits hits) {
         double maxScore = 0.0;
         UsageScenario bestScenario = null;
         
         for (UsageScenario scenario : UsageScenario.values()) {
-            double score = 0.0;
-            for (String keyword : scenario.getKeywords()) {
-                if (query.contains(keyword)) {
-                    score += 0.3;
-                }
-            }
+            double score = 0.3 * hits.matched(KeywordClassifier.SCENARIO_GROUP + scenario.name()).size();
             
             if (score > maxScore) {
                 maxScore = score;
@@ -193,20 +203,20 @@ public class ToolClassificationService {
     /**
      * 特殊查询模式增强
      */
-    private void enhanceWithSpecialPatterns(String query, List<ToolClassificationResult> results) {
+    private void enhanceWithSpecialPatterns(KeywordAutomaton.Hits hits, List<ToolClassificationResult> results) {
         // 身份查询模式
-        if (Pattern.matches(".*[我你他她它].*", query)) {
+        if (hits.contains(KeywordClassifier.PATTERN_GROUP + "identity")) {
             enhanceCategory(results, ToolCategory.USER_MANAGEMENT, 0.3, "身份查询");
         }
         
         // 统计查询模式
-        if (query.contains("统计") || query.contains("多少") || query.contains("几个")) {
+        if (hits.contains(KeywordClassifier.PATTERN_GROUP + "statistics")) {
             enhanceCategory(results, ToolCategory.STUDIO_INFO, 0.2, "统计查询");
             enhanceCategory(results, ToolCategory.ATTENDANCE_MANAGEMENT, 0.2, "统计查询");
         }
         
         // 管理操作模式
-        if (query.contains("添加") || query.contains("删除") || query.contains("修改")) {
+        if (hits.contains(KeywordClassifier.PATTERN_GROUP + "management")) {
             results.forEach(result -> {
                 if (result.getUsageScenario() == UsageScenario.MANAGEMENT) {
                     result.setScore(result.getScore() * 1.5);
@@ -215,7 +225,7 @@ public class ToolClassificationService {
         }
         
         // 时间相关查询
-        if (query.contains("今天") || query.contains("最新") || query.contains("最近")) {
+        if (hits.contains(KeywordClassifier.PATTERN_GROUP + "time")) {
             enhanceCategory(results, ToolCategory.NOTICE_MANAGEMENT, 0.2, "时间查询");
             enhanceCategory(results, ToolCategory.ATTENDANCE_MANAGEMENT, 0.2, "时间查询");
             enhanceCategory(results, ToolCategory.EXTERNAL_API, 0.3, "时间查询");
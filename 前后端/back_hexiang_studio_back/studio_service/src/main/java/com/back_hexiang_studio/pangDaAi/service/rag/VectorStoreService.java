@@ -8,6 +8,7 @@ import dev.langchain4j.store.embedding.EmbeddingMatch;
 import dev.langchain4j.store.embedding.EmbeddingStore;
 import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
 import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.filter.Filter;
 import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.annotation.PostConstruct;
@@ -18,10 +19,31 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.annotation.Autowired;
 
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.util.*;
 import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
 
 
 /**
@@ -56,6 +78,14 @@ public class VectorStoreService {
     @Value("${pangda-ai.rag.chunk-overlap:50}")
     private int defaultChunkOverlap;
 
+    // 批量入库：每批文档数（DashScope text-embedding-v3 单次最多10条）
+    @Value("${pangda-ai.rag.ingest.batch-size:10}")
+    private int ingestBatchSize;
+
+    // 批量入库：同时执行的批次数
+    @Value("${pangda-ai.rag.ingest.parallelism:4}")
+    private int ingestParallelism;
+
     // 免费本地 Embedding 模型
     @Autowired
     private EmbeddingModel embeddingModel;
@@ -63,14 +93,42 @@ public class VectorStoreService {
     // 内存向量存储
     @Autowired
     private EmbeddingStore<TextSegment> embeddingStore;
+
+    @Autowired
+    private QueryEmbeddingCache queryEmbeddingCache;
+
+    @Value("${langchain4j.embedding-store.dimension:1536}")
+    private int embeddingDimension;
     
     // JSON序列化
     private final ObjectMapper objectMapper = new ObjectMapper()
             .findAndRegisterModules()  // 自动注册JSR310模块
             .disable(com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
     
-    // 向量数据缓存（用于持久化）
-    private Map<String, VectorData> vectorCache = new HashMap<>();
+    // 向量数据缓存（用于持久化），批量入库时会被多个线程写入
+    private Map<String, VectorData> vectorCache = new ConcurrentHashMap<>();
+
+    // 批量入库线程池，限制同时向 Embedding 模型和向量库发起的请求数
+    private ExecutorService ingestExecutor;
+
+    // InMemoryEmbeddingStore 未公开条目列表，写入时同步记录 ID -> (向量, 文本段)，供压缩与快照使用
+    private final Map<String, StoredEntry> inMemoryIndex = new ConcurrentHashMap<>();
+
+    // 已入库的文档类型（分类检索时把类别解析为具体 type 做元数据过滤）
+    private final Set<String> knownTypes = ConcurrentHashMap.newKeySet();
+
+    // 同步服务会写入的文档类型；外部向量库重启后缓存为空，以此作为初始类型集合
+    private static final List<String> SYNCED_TYPES = Arrays.asList(
+            "studio_info", "support_contact", "department", "training_direction", "tool_guide");
+
+    // 本地向量快照（仅内存存储使用）
+    private static final String SNAPSHOT_FILE = "vectors.bin";
+    private static final String LEGACY_JSON_FILE = "vectors.json";
+    private static final int SNAPSHOT_MAGIC = 0x50445653; // "PDVS"
+    private static final int SNAPSHOT_VERSION = 1;
+
+    // 上次压缩以来删除的向量数
+    private final AtomicLong deletedVectorCount = new AtomicLong();
 
     /**
      * 初始化向量存储服务
@@ -93,9 +151,18 @@ public class VectorStoreService {
             
             // 创建存储目录（仅用于日志等本地文件）
             createStorageDirectory();
+            knownTypes.addAll(SYNCED_TYPES);
+
+            // 创建批量入库线程池
+            AtomicInteger threadIndex = new AtomicInteger();
+            ingestExecutor = Executors.newFixedThreadPool(Math.max(1, ingestParallelism), runnable -> {
+                Thread thread = new Thread(runnable, "rag-ingest-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
             
             // 注意：不再加载本地持久化向量，因为 Milvus 等外部存储会自己管理持久化
-            if (embeddingStore instanceof InMemoryEmbeddingStore) {
+            if (isInMemoryStore()) {
                 log.info(" 使用内存存储，尝试加载本地持久化数据...");
                 loadPersistedVectors();
             } else {
@@ -103,8 +170,8 @@ public class VectorStoreService {
             }
             
             log.info(" 向量存储服务初始化完成！");
-            log.info(" 配置信息：存储路径={}, 最大结果数={}, 最小相似度={}", 
-                    storagePath, maxResults, minScore);
+            log.info(" 配置信息：存储路径={}, 最大结果数={}, 最小相似度={}, 入库批大小={}, 入库并发={}", 
+                    storagePath, maxResults, minScore, ingestBatchSize, ingestParallelism);
                     
         } catch (Exception e) {
             log.error(" 向量存储服务初始化失败", e);
@@ -118,8 +185,9 @@ public class VectorStoreService {
      * @param id 文档唯一标识
      * @param text 文档文本内容
      * @param metadata 文档元数据
+     * @return 是否添加成功
      */
-    public void addDocument(String id, String text, Map<String, Object> metadata) {
+    public boolean addDocument(String id, String text, Map<String, Object> metadata) {
         try {
             log.debug(" 添加文档到向量存储: ID={}, 文本长度={}", id, text.length());
             
@@ -130,12 +198,14 @@ public class VectorStoreService {
             // 2. 生成向量
             Embedding embedding = embeddingModel.embed(text).content();
             
-            // 3. 存储到内存向量库
-            embeddingStore.add(embedding, textSegment);
+            // 3. 以确定性ID写入向量库，便于后续按ID删除
+            storeAll(Collections.singletonList(id),
+                    Collections.singletonList(embedding), Collections.singletonList(textSegment));
             
             // 4. 缓存用于持久化
             VectorData vectorData = new VectorData(id, text, metadata, LocalDateTime.now());
             vectorCache.put(id, vectorData);
+            rememberType(metadata);
             
             // 审计日志：明确写入了什么
             if (log.isInfoEnabled()) {
@@ -145,31 +215,98 @@ public class VectorStoreService {
             }
             
             log.debug(" 文档添加成功: ID={}", id);
+            return true;
             
         } catch (Exception e) {
             log.error(" 添加文档失败: ID={}, 错误: {}", id, e.getMessage(), e);
+            return false;
         }
     }
 
     /**
      * 批量添加文档
+     * 按 batch-size 分批调用 embedAll + addAll，最多 parallelism 个批次同时执行
      * 
      * @param documents 文档列表
+     * @return 入库统计（各阶段耗时与吞吐量）
      */
-    public void addDocuments(List<DocumentData> documents) {
-        log.info(" 批量添加 {} 个文档到向量存储", documents.size());
-        
-        int successCount = 0;
-        for (DocumentData doc : documents) {
-            try {
-                addDocument(doc.getId(), doc.getText(), doc.getMetadata());
-                successCount++;
-            } catch (Exception e) {
-                log.warn(" 批量添加文档失败: ID={}, 错误: {}", doc.getId(), e.getMessage());
+    public IngestStats addDocuments(List<DocumentData> documents) {
+        IngestStats stats = new IngestStats(documents.size());
+        if (documents.isEmpty()) {
+            return stats;
+        }
+
+        int batchSize = Math.max(1, ingestBatchSize);
+        List<List<DocumentData>> batches = new ArrayList<>();
+        for (int i = 0; i < documents.size(); i += batchSize) {
+            batches.add(documents.subList(i, Math.min(i + batchSize, documents.size())));
+        }
+        log.info(" 批量添加 {} 个文档到向量存储：{} 批，每批最多 {} 个，并发 {}",
+                documents.size(), batches.size(), batchSize, ingestParallelism);
+
+        long startTime = System.nanoTime();
+        List<CompletableFuture<Void>> futures = new ArrayList<>(batches.size());
+        for (List<DocumentData> batch : batches) {
+            futures.add(CompletableFuture.runAsync(() -> addBatch(batch, stats), ingestExecutor));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        stats.setWallTimeMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+
+        log.info(" 批量添加完成：成功 {}/{} 个文档，耗时 {}ms，整体 {} 个/秒，向量化 {} 个/秒，写入 {} 个/秒",
+                stats.getSuccessCount(), stats.getTotalCount(), stats.getWallTimeMs(),
+                String.format("%.1f", stats.getOverallThroughput()),
+                String.format("%.1f", stats.getEmbedThroughput()),
+                String.format("%.1f", stats.getStoreThroughput()));
+        return stats;
+    }
+
+    /**
+     * 处理单个批次：一次 embedAll + 一次 addAll，失败时退回逐条写入
+     */
+    private void addBatch(List<DocumentData> batch, IngestStats stats) {
+        List<String> ids = new ArrayList<>(batch.size());
+        List<TextSegment> segments = new ArrayList<>(batch.size());
+        for (DocumentData doc : batch) {
+            ids.add(doc.getId());
+            segments.add(TextSegment.from(doc.getText(), Metadata.from(doc.getMetadata())));
+        }
+
+        try {
+            long embedStart = System.nanoTime();
+            List<Embedding> embeddings = embeddingModel.embedAll(segments).content();
+            long storeStart = System.nanoTime();
+            storeAll(ids, embeddings, segments);
+            long storeEnd = System.nanoTime();
+
+            LocalDateTime now = LocalDateTime.now();
+            for (DocumentData doc : batch) {
+                vectorCache.put(doc.getId(), new VectorData(doc.getId(), doc.getText(), doc.getMetadata(), now));
+                rememberType(doc.getMetadata());
+            }
+            stats.recordBatch(batch.size(), storeStart - embedStart, storeEnd - storeStart);
+            log.debug(" 批次入库完成: 文档数={}, 向量化{}ms, 写入{}ms", batch.size(),
+                    TimeUnit.NANOSECONDS.toMillis(storeStart - embedStart),
+                    TimeUnit.NANOSECONDS.toMillis(storeEnd - storeStart));
+
+        } catch (Exception e) {
+            log.warn(" 批次入库失败，退回逐条写入: 文档数={}, 错误: {}", batch.size(), e.getMessage());
+            for (DocumentData doc : batch) {
+                if (addDocument(doc.getId(), doc.getText(), doc.getMetadata())) {
+                    stats.recordSuccess(1);
+                } else {
+                    stats.recordFailure(doc.getId());
+                }
             }
         }
-        
-        log.info(" 批量添加完成：成功 {}/{} 个文档", successCount, documents.size());
+    }
+
+    /**
+     * 记录文档类型
+     */
+    private void rememberType(Map<String, Object> metadata) {
+        if (metadata != null && metadata.get("type") != null) {
+            knownTypes.add(metadata.get("type").toString());
+        }
     }
 
     /**
@@ -194,7 +331,7 @@ public class VectorStoreService {
             log.debug(" 执行语义搜索: 查询=\"{}\", 最大结果数={}", query, maxResults);
             
             // 1. 查询向量化
-            Embedding queryEmbedding = embeddingModel.embed(query).content();
+            Embedding queryEmbedding = queryEmbeddingCache.embed(query);
             
             // 2. 向量相似度搜索 
             try {
@@ -223,7 +360,7 @@ public class VectorStoreService {
 
     /**
      *  分类检索 - 根据工具类别进行优化检索
-     * 这是性能优化的核心方法，可以显著减少向量比对次数
+     * 类别先解析为具体文档类型，以元数据过滤下推到向量库，每次查询只检索一次
      * 
      * @param query 查询文本
      * @param categories 优先检索的类别列表
@@ -235,54 +372,74 @@ public class VectorStoreService {
             log.info(" 执行分类检索: 查询=\"{}\", 类别={}, 最大结果数={}", query, categories, maxResults);
             
             // 1. 查询向量化
-            Embedding queryEmbedding = embeddingModel.embed(query).content();
+            Embedding queryEmbedding = queryEmbeddingCache.embed(query);
             
             ClassifiedSearchResult result = new ClassifiedSearchResult();
             result.setOriginalQuery(query);
             result.setSearchedCategories(categories);
             
-            // 2. 按类别优先级检索
-            List<EmbeddingMatch<TextSegment>> allMatches = new ArrayList<>();
-            Map<String, Integer> categoryMatchCounts = new HashMap<>();
+            // 2. 将类别解析为具体文档类型，下推为元数据过滤条件，一次检索完成
+            Set<String> types = resolveCategoryTypes(categories);
+            if (types.isEmpty()) {
+                log.info(" 类别 {} 未匹配到任何文档类型，返回空结果", categories);
+                result.setMatches(Collections.emptyList());
+                result.setCategoryMatchCounts(Collections.emptyMap());
+                return result;
+            }
             
-            for (String category : categories) {
-                log.debug(" 检索类别: {}", category);
-                
-                // 执行向量搜索
+            List<EmbeddingMatch<TextSegment>> candidates;
+            try {
                 EmbeddingSearchRequest searchRequest = EmbeddingSearchRequest.builder()
                         .queryEmbedding(queryEmbedding)
-                        .maxResults(maxResults * 3)  // 每个类别获取更多候选结果
+                        .maxResults(maxResults * 2)  // 预留去重余量
                         .minScore(0.0)
+                        .filter(metadataKey("type").isIn(types))
                         .build();
-                
-                EmbeddingSearchResult<TextSegment> searchResult = embeddingStore.search(searchRequest);
-                List<EmbeddingMatch<TextSegment>> categoryMatches = searchResult.matches();
-                
-                // 按类别过滤结果
-                List<EmbeddingMatch<TextSegment>> filteredMatches = categoryMatches.stream()
-                    .filter(match -> isMatchInCategory(match, category))
-                    .collect(java.util.stream.Collectors.toList());
-                
-                allMatches.addAll(filteredMatches);
-                categoryMatchCounts.put(category, filteredMatches.size());
-                
-                log.debug(" 类别 {} 检索完成：原始={}, 过滤后={}", 
-                    category, categoryMatches.size(), filteredMatches.size());
+                candidates = embeddingStore.search(searchRequest).matches();
+            } catch (UnsupportedOperationException e) {
+                // 存储不支持元数据过滤时，退回单次检索后在内存中过滤
+                log.debug(" 向量存储不支持元数据过滤，改为内存过滤: {}", e.getMessage());
+                EmbeddingSearchRequest searchRequest = EmbeddingSearchRequest.builder()
+                        .queryEmbedding(queryEmbedding)
+                        .maxResults(maxResults * 3)
+                        .minScore(0.0)
+                        .build();
+                candidates = embeddingStore.search(searchRequest).matches().stream()
+                        .filter(match -> types.contains(match.embedded().metadata().getString("type")))
+                        .collect(java.util.stream.Collectors.toList());
             }
             
-            // 3. 去重和排序
+            // 3. 去重后用大小为 maxResults 的小顶堆合并出 top-K
             Map<String, EmbeddingMatch<TextSegment>> uniqueMatches = new HashMap<>();
-            for (EmbeddingMatch<TextSegment> match : allMatches) {
+            for (EmbeddingMatch<TextSegment> match : candidates) {
                 String key = match.embedded().text();
                 if (!uniqueMatches.containsKey(key) || uniqueMatches.get(key).score() < match.score()) {
                     uniqueMatches.put(key, match);
                 }
             }
             
-            List<EmbeddingMatch<TextSegment>> finalMatches = uniqueMatches.values().stream()
-                .sorted((a, b) -> Double.compare(b.score(), a.score()))
-                .limit(maxResults)
-                .collect(java.util.stream.Collectors.toList());
+            PriorityQueue<EmbeddingMatch<TextSegment>> topK = new PriorityQueue<>(
+                    Math.max(1, maxResults), Comparator.comparingDouble(EmbeddingMatch::score));
+            for (EmbeddingMatch<TextSegment> match : uniqueMatches.values()) {
+                topK.offer(match);
+                if (topK.size() > maxResults) {
+                    topK.poll();
+                }
+            }
+            List<EmbeddingMatch<TextSegment>> finalMatches = new ArrayList<>(topK);
+            finalMatches.sort((a, b) -> Double.compare(b.score(), a.score()));
+            
+            // 4. 按类别统计命中数
+            Map<String, Integer> categoryMatchCounts = new HashMap<>();
+            for (String category : categories) {
+                int count = 0;
+                for (EmbeddingMatch<TextSegment> match : finalMatches) {
+                    if (isMatchInCategory(match, category)) {
+                        count++;
+                    }
+                }
+                categoryMatchCounts.put(category, count);
+            }
             
             result.setMatches(finalMatches);
             result.setCategoryMatchCounts(categoryMatchCounts);
@@ -310,6 +467,22 @@ public class VectorStoreService {
         }
     }
 
+    /**
+     * 将检索类别解析为向量库中实际存在的文档类型集合
+     */
+    private Set<String> resolveCategoryTypes(List<String> categories) {
+        Set<String> types = new HashSet<>();
+        for (String type : knownTypes) {
+            for (String category : categories) {
+                if (isCategoryMatch(type, category)) {
+                    types.add(type);
+                    break;
+                }
+            }
+        }
+        return types;
+    }
+
     /**
      * 判断检索结果是否属于指定类别
      */
@@ -420,27 +593,36 @@ public class VectorStoreService {
         log.info("️ 清空向量存储");
         try {
             // 如果底层存储支持清空，优先调用其清空逻辑
-            // 兼容不同实现：尝试反射调用 clear()/deleteAll()/reset()
+            // 优先使用 EmbeddingStore.removeAll()，不支持时尝试反射调用 clear()/deleteAll()/reset()
             boolean cleared = false;
             try {
-                java.lang.reflect.Method m = embeddingStore.getClass().getMethod("clear");
-                m.invoke(embeddingStore);
+                embeddingStore.removeAll();
                 cleared = true;
-                log.info("  通过 embeddingStore.clear() 清空成功");
-            } catch (NoSuchMethodException ignore) {
+                log.info("  通过 embeddingStore.removeAll() 清空成功");
+            } catch (UnsupportedOperationException ignore) {
+                // 回退到实现类自带的清空方法
+            }
+            if (!cleared) {
                 try {
-                    java.lang.reflect.Method m = embeddingStore.getClass().getMethod("deleteAll");
+                    java.lang.reflect.Method m = embeddingStore.getClass().getMethod("clear");
                     m.invoke(embeddingStore);
                     cleared = true;
-                    log.info("  通过 embeddingStore.deleteAll() 清空成功");
-                } catch (NoSuchMethodException ignore2) {
+                    log.info("  通过 embeddingStore.clear() 清空成功");
+                } catch (NoSuchMethodException ignore) {
                     try {
-                        java.lang.reflect.Method m = embeddingStore.getClass().getMethod("reset");
+                        java.lang.reflect.Method m = embeddingStore.getClass().getMethod("deleteAll");
                         m.invoke(embeddingStore);
                         cleared = true;
-                        log.info("  通过 embeddingStore.reset() 清空成功");
-                    } catch (NoSuchMethodException ignore3) {
-                        // 无可用API，跳过
+                        log.info("  通过 embeddingStore.deleteAll() 清空成功");
+                    } catch (NoSuchMethodException ignore2) {
+                        try {
+                            java.lang.reflect.Method m = embeddingStore.getClass().getMethod("reset");
+                            m.invoke(embeddingStore);
+                            cleared = true;
+                            log.info("  通过 embeddingStore.reset() 清空成功");
+                        } catch (NoSuchMethodException ignore3) {
+                            // 无可用API，跳过
+                        }
                     }
                 }
             }
@@ -448,7 +630,7 @@ public class VectorStoreService {
             if (!cleared) {
                 // 若无清空API，则根据当前类型做保守处理
                 if (embeddingStore instanceof InMemoryEmbeddingStore) {
-        embeddingStore = new InMemoryEmbeddingStore<>();
+                    embeddingStore = new InMemoryEmbeddingStore<>();
                     log.info("  已重建 InMemoryEmbeddingStore");
                 } else {
                     log.warn(" ️ 当前向量存储不支持直接清空API，将继续在原集合上追加重建数据");
@@ -458,6 +640,7 @@ public class VectorStoreService {
             log.warn(" ️ 清空向量存储时出现问题: {}", e.getMessage());
         }
         vectorCache.clear();
+        inMemoryIndex.clear();
     }
     
     /**
@@ -469,17 +652,19 @@ public class VectorStoreService {
         
         try {
             // 清理缓存中以 "user_" 开头的所有用户相关数据
-            int removedFromCache = 0;
-            Iterator<Map.Entry<String, VectorData>> iterator = vectorCache.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Map.Entry<String, VectorData> entry = iterator.next();
-                if (entry.getKey().startsWith("user_")) {
-                    iterator.remove();
-                    removedFromCache++;
+            List<String> userIds = new ArrayList<>();
+            for (String id : vectorCache.keySet()) {
+                if (id.startsWith("user_")) {
+                    userIds.add(id);
                 }
             }
+            if (!userIds.isEmpty()) {
+                removeFromStore(userIds);
+                userIds.forEach(vectorCache::remove);
+            }
+            int removedFromCache = userIds.size();
             
-            log.warn("  已从缓存中清理 {} 条用户敏感数据", removedFromCache);
+            log.warn("  已从向量库和缓存中清理 {} 条用户敏感数据", removedFromCache);
             log.warn(" ️ 注意：已存储在持久化向量数据库中的用户数据需要重建整个向量数据库才能完全清理");
             log.warn("建议：执行完整的向量数据库重建操作，确保用户隐私安全");
             
@@ -499,16 +684,12 @@ public class VectorStoreService {
         try {
             log.debug(" Upsert文档到向量存储: 类型={}, ID={}, 文本长度={}", type, businessId, text.length());
             
-            //  智能选择处理策略
-            String strategy = detectOptimalStrategy(text, type);
+            List<DocumentData> documents = prepareDocuments(type, businessId, text);
             
-            if (shouldUseChunking(text, type)) {
-                // 使用文档切分向量化
-                upsertWithChunking(type, businessId, text, strategy);
-            } else {
-                // 使用原有的整体向量化（适用于短文档）
-                upsertWhole(type, businessId, text, strategy);
-            }
+            // 删除旧的chunks（如果存在），避免切片数变化后残留过期向量
+            delete(type, businessId);
+            
+            addDocuments(documents);
             
         } catch (Exception e) {
             log.error(" Upsert操作失败: 类型={}, ID={}, 错误: {}", type, businessId, e.getMessage(), e);
@@ -516,15 +697,58 @@ public class VectorStoreService {
     }
 
     /**
-     * 🔪 文档切分向量化（标准RAG实现）
+     * 将业务数据转换为待入库文档（切分、文本优化、元数据），不调用 Embedding 模型
+     * 全量同步时先收集所有文档，再通过 addDocuments 批量入库
+     * 
+     * @param type 实体类型
+     * @param businessId 业务主键ID
+     * @param text 文档文本内容
+     * @return 待入库文档列表
+     */
+    public List<DocumentData> prepareDocuments(String type, Long businessId, String text) {
+        //  智能选择处理策略
+        String strategy = detectOptimalStrategy(text, type);
+        
+        if (shouldUseChunking(text, type)) {
+            // 使用文档切分向量化
+            return buildChunkDocuments(type, businessId, text, strategy);
+        }
+        // 使用原有的整体向量化（适用于短文档）
+        return Collections.singletonList(buildWholeDocument(type, businessId, text, strategy));
+    }
+
+    /**
+     * 带同步版本号的待入库文档：ID 追加 "@版本号"、元数据写入 sync_version，
+     * 新旧版本可以同时存在，新版本入库成功后再用 deleteStaleVersions 删除旧版本
+     * 
+     * @param version 同步版本号
+     */
+    public List<DocumentData> prepareDocuments(String type, Long businessId, String text, String version) {
+        List<DocumentData> documents = prepareDocuments(type, businessId, text);
+        for (DocumentData document : documents) {
+            document.setId(document.getId() + "@" + version);
+            document.getMetadata().put("sync_version", version);
+        }
+        return documents;
+    }
+
+    /**
+     * 向量ID是否属于文档 type_businessId（整体文档、切片及带版本号的ID）
+     */
+    public static boolean belongsTo(String id, String documentKey) {
+        return id.equals(documentKey) || id.startsWith(documentKey + "@") || id.startsWith(documentKey + "_chunk_");
+    }
+
+    /**
+     * 🔪 文档切分（标准RAG实现）
      * 
      * @param type 实体类型
      * @param businessId 业务主键ID
      * @param text 文档文本内容
      * @param strategy 处理策略
      */
-    private void upsertWithChunking(String type, Long businessId, String text, String strategy) {
-        log.info(" 开始文档切分向量化: 类型={}, ID={}, 文本长度={}", type, businessId, text.length());
+    private List<DocumentData> buildChunkDocuments(String type, Long businessId, String text, String strategy) {
+        log.info(" 开始文档切分: 类型={}, ID={}, 文本长度={}", type, businessId, text.length());
         
         // 1. 智能文本预处理
         String optimizedText = optimizeTextForEmbedding(text, type);
@@ -532,54 +756,37 @@ public class VectorStoreService {
         // 2. 文档切分
         List<TextChunk> chunks = splitDocument(optimizedText, type);
         
-        log.info(" 文档切分完成: 原文长度={}, 切片数={}", text.length(), chunks.size());
-        
-        // 3. 删除旧的chunks（如果存在）
-        deleteExistingChunks(type, businessId);
+        log.info(" 文档切分完成: 原文长度={}, 切片数={}, 策略={}", text.length(), chunks.size(), strategy);
         
-        // 4. 逐片向量化并存储
-        int successCount = 0;
+        // 3. 构建每个chunk的文档
+        List<DocumentData> documents = new ArrayList<>(chunks.size());
         for (int i = 0; i < chunks.size(); i++) {
-            try {
-                TextChunk chunk = chunks.get(i);
-                String chunkId = String.format("%s_%d_chunk_%d", type, businessId, i);
-                
-                // 构建chunk元数据
-                Map<String, Object> chunkMetadata = new HashMap<>();
-                chunkMetadata.put("type", type);
-                chunkMetadata.put("business_id", String.valueOf(businessId));
-                chunkMetadata.put("chunk_index", i);
-                chunkMetadata.put("total_chunks", chunks.size());
-                chunkMetadata.put("chunk_start", chunk.getStartPosition());
-                chunkMetadata.put("chunk_end", chunk.getEndPosition());
-                chunkMetadata.put("chunk_length", chunk.getText().length());
-                chunkMetadata.put("chunk_strategy", strategy);
-                chunkMetadata.put("updated_at", java.time.LocalDateTime.now().toString());
-                chunkMetadata.put("is_chunked", "true");
-                
-                // 单独向量化每个chunk
-                addDocument(chunkId, chunk.getText(), chunkMetadata);
-                successCount++;
-                
-                if (log.isDebugEnabled()) {
-                    log.debug(" Chunk向量化完成: {} (长度: {}, 位置: {}-{})",
-                             chunkId, chunk.getText().length(), chunk.getStartPosition(), chunk.getEndPosition());
-                }
-                
-            } catch (Exception e) {
-                log.warn(" ️ Chunk向量化失败: 类型={}, ID={}, chunk={}, 错误: {}", 
-                        type, businessId, i, e.getMessage());
-            }
+            TextChunk chunk = chunks.get(i);
+            String chunkId = String.format("%s_%d_chunk_%d", type, businessId, i);
+            
+            // 构建chunk元数据
+            Map<String, Object> chunkMetadata = new HashMap<>();
+            chunkMetadata.put("type", type);
+            chunkMetadata.put("business_id", String.valueOf(businessId));
+            chunkMetadata.put("chunk_index", i);
+            chunkMetadata.put("total_chunks", chunks.size());
+            chunkMetadata.put("chunk_start", chunk.getStartPosition());
+            chunkMetadata.put("chunk_end", chunk.getEndPosition());
+            chunkMetadata.put("chunk_length", chunk.getText().length());
+            chunkMetadata.put("chunk_strategy", strategy);
+            chunkMetadata.put("updated_at", java.time.LocalDateTime.now().toString());
+            chunkMetadata.put("is_chunked", "true");
+            
+            documents.add(new DocumentData(chunkId, chunk.getText(), chunkMetadata));
         }
         
-        log.info("  文档切分向量化完成: 类型={}, ID={}, 成功={}/{}, 策略={}", 
-                type, businessId, successCount, chunks.size(), strategy);
+        return documents;
     }
 
     /**
-     * 📄 整体文档向量化（适用于短文档）
+     * 📄 整体文档（适用于短文档）
      */
-    private void upsertWhole(String type, Long businessId, String text, String strategy) {
+    private DocumentData buildWholeDocument(String type, Long businessId, String text, String strategy) {
         log.debug("📄 使用整体向量化: 类型={}, ID={}", type, businessId);
         
         String documentId = type + "_" + businessId;
@@ -593,9 +800,7 @@ public class VectorStoreService {
         metadata.put("is_chunked", "false");
         
         String optimizedText = optimizeTextForEmbedding(text, type);
-        addDocument(documentId, optimizedText, metadata);
-        
-        log.debug("  整体向量化完成: {} (策略: {})", documentId, strategy);
+        return new DocumentData(documentId, optimizedText, metadata);
     }
 
     /**
@@ -825,18 +1030,6 @@ public class VectorStoreService {
         return overlap.trim();
     }
 
-    /**
-     * 删除已存在的chunks
-     */
-    private void deleteExistingChunks(String type, Long businessId) {
-        try {
-            // TODO: 实现删除逻辑，根据向量数据库的具体实现
-            log.debug("🗑️ 删除已存在的chunks: type={}, businessId={}", type, businessId);
-        } catch (Exception e) {
-            log.warn(" ️ 删除chunks失败: type={}, businessId={}, error={}", type, businessId, e.getMessage());
-        }
-    }
-
     /**
      * 是否应该使用句子切分
      */
@@ -964,28 +1157,205 @@ public class VectorStoreService {
     
     /**
      * 删除文档（现代RAG架构的核心方法）
+     * 同时删除整体文档 type_businessId 与其全部切片 type_businessId_chunk_N
      * 
      * @param type 实体类型
      * @param businessId 业务主键ID
+     * @return 删除的向量ID数量（按元数据过滤删除时无法得知外部存储中的确切数量，仅统计本地已知ID）
      */
-    public void delete(String type, Long businessId) {
+    public int delete(String type, Long businessId) {
         try {
             log.debug("🗑️ 删除向量存储中的文档: 类型={}, ID={}", type, businessId);
             
             // 构建文档ID
             String documentId = type + "_" + businessId;
             
-            // 从缓存中删除
-            vectorCache.remove(documentId);
+            // 1. 收集本地已知的文档与切片ID
+            List<String> documentIds = new ArrayList<>();
+            for (String id : vectorCache.keySet()) {
+                if (belongsTo(id, documentId)) {
+                    documentIds.add(id);
+                }
+            }
             
-            // 注意：当前的InMemoryEmbeddingStore不支持按ID删除
-            // 在切换到Milvus后，这里需要调用相应的删除API
-
+            // 2. 从向量库真正删除：优先按元数据过滤（覆盖重启后未进入缓存的旧切片），不支持时按ID删除
+            Filter filter = metadataKey("type").isEqualTo(type)
+                    .and(metadataKey("business_id").isEqualTo(String.valueOf(businessId)));
+            try {
+                removeFromStore(filter);
+            } catch (UnsupportedOperationException e) {
+                if (!documentIds.isEmpty()) {
+                    removeFromStore(documentIds);
+                }
+            }
             
-            log.debug("  删除操作完成: {}", documentId);
+            // 3. 从缓存中删除
+            documentIds.forEach(vectorCache::remove);
+            deletedVectorCount.addAndGet(documentIds.size());
+            
+            log.debug("  删除操作完成: {}, 删除向量 {} 个", documentId, documentIds.size());
+            return documentIds.size();
             
         } catch (Exception e) {
             log.error(" 删除操作失败: 类型={}, ID={}, 错误: {}", type, businessId, e.getMessage(), e);
+            return 0;
+        }
+    }
+
+    /**
+     * 删除文档 type_businessId 中同步版本号不等于 version 的向量（含未带版本号的旧数据），
+     * 在新版本入库成功后调用，替换过程中检索始终能命中其中一个版本
+     * 
+     * @param type 实体类型
+     * @param businessId 业务主键ID
+     * @param version 需要保留的同步版本号
+     * @return 删除的本地已知向量ID数量
+     */
+    public int deleteStaleVersions(String type, Long businessId, String version) {
+        try {
+            String documentId = type + "_" + businessId;
+            
+            List<String> staleIds = new ArrayList<>();
+            for (Map.Entry<String, VectorData> entry : vectorCache.entrySet()) {
+                Map<String, Object> metadata = entry.getValue().getMetadata();
+                Object entryVersion = metadata != null ? metadata.get("sync_version") : null;
+                if (belongsTo(entry.getKey(), documentId) && !version.equals(entryVersion)) {
+                    staleIds.add(entry.getKey());
+                }
+            }
+            
+            Filter filter = metadataKey("type").isEqualTo(type)
+                    .and(metadataKey("business_id").isEqualTo(String.valueOf(businessId)))
+                    .and(Filter.not(metadataKey("sync_version").isEqualTo(version)));
+            try {
+                removeFromStore(filter);
+            } catch (UnsupportedOperationException e) {
+                if (!staleIds.isEmpty()) {
+                    removeFromStore(staleIds);
+                }
+            }
+            
+            staleIds.forEach(vectorCache::remove);
+            deletedVectorCount.addAndGet(staleIds.size());
+            return staleIds.size();
+            
+        } catch (Exception e) {
+            log.error(" 删除旧版本向量失败: 类型={}, ID={}, 错误: {}", type, businessId, e.getMessage(), e);
+            return 0;
+        }
+    }
+
+    /**
+     * 压缩向量存储：清理向量库中已不在缓存里的失效向量，并返回压缩报告
+     * 内存存储直接比对条目ID；外部向量数据库（Milvus）的删除已在服务端落盘，由其自身完成段压缩
+     */
+    public CompactionReport compact() {
+        long startTime = System.currentTimeMillis();
+        CompactionReport report = new CompactionReport();
+        report.setLiveDocumentCount(vectorCache.size());
+        report.setDeletedSinceLastCompaction(deletedVectorCount.getAndSet(0));
+        report.setStoreType(embeddingStore.getClass().getSimpleName());
+        
+        if (!isInMemoryStore()) {
+            report.setStoredVectorCount(-1);
+            report.setDurationMs(System.currentTimeMillis() - startTime);
+            log.info(" 外部向量数据库无需本地压缩，删除已通过 removeAll 提交: {}", report.getStoreType());
+            return report;
+        }
+        
+        try {
+            List<String> storedIds = listInMemoryIds();
+            List<String> deadIds = new ArrayList<>();
+            for (String id : storedIds) {
+                if (!vectorCache.containsKey(id)) {
+                    deadIds.add(id);
+                }
+            }
+            if (!deadIds.isEmpty()) {
+                removeFromStore(deadIds);
+            }
+            if (embeddingStore instanceof LocalVectorEmbeddingStore) {
+                // 本地存储删除只打墓碑，这里物理清理并重建索引
+                ((LocalVectorEmbeddingStore) embeddingStore).compact();
+            }
+            report.setStoredVectorCount(storedIds.size());
+            report.setRemovedVectorCount(deadIds.size());
+            
+            log.info(" 向量存储压缩完成: 存储向量 {} 个, 有效文档 {} 个, 清理失效向量 {} 个",
+                    storedIds.size(), vectorCache.size(), deadIds.size());
+        } catch (Exception e) {
+            log.warn(" ️ 向量存储压缩失败: {}", e.getMessage());
+            report.setStoredVectorCount(-1);
+        }
+        report.setDurationMs(System.currentTimeMillis() - startTime);
+        return report;
+    }
+
+    /**
+     * 读取内存存储中全部条目ID
+     */
+    private List<String> listInMemoryIds() {
+        List<String> ids = new ArrayList<>();
+        for (StoredEntry entry : listInMemoryEntries()) {
+            ids.add(entry.id);
+        }
+        return ids;
+    }
+
+    /**
+     * 读取内存存储中的全部条目：本地存储取其快照，InMemoryEmbeddingStore 取写入时记录的索引
+     */
+    private List<StoredEntry> listInMemoryEntries() {
+        if (embeddingStore instanceof LocalVectorEmbeddingStore) {
+            List<StoredEntry> entries = new ArrayList<>();
+            for (LocalVectorEmbeddingStore.StoredVector stored : ((LocalVectorEmbeddingStore) embeddingStore).snapshot()) {
+                entries.add(new StoredEntry(stored.getId(), stored.getEmbedding(), stored.getSegment()));
+            }
+            return entries;
+        }
+        return new ArrayList<>(inMemoryIndex.values());
+    }
+
+    /**
+     * 写入向量库，InMemoryEmbeddingStore 同步记录条目
+     */
+    private void storeAll(List<String> ids, List<Embedding> embeddings, List<TextSegment> segments) {
+        embeddingStore.addAll(ids, embeddings, segments);
+        if (embeddingStore instanceof InMemoryEmbeddingStore) {
+            for (int i = 0; i < ids.size(); i++) {
+                inMemoryIndex.put(ids.get(i), new StoredEntry(ids.get(i), embeddings.get(i), segments.get(i)));
+            }
+        }
+    }
+
+    /**
+     * 按ID删除向量
+     */
+    private void removeFromStore(Collection<String> ids) {
+        embeddingStore.removeAll(ids);
+        ids.forEach(inMemoryIndex::remove);
+    }
+
+    /**
+     * 按元数据过滤删除向量，索引按同一过滤条件清理
+     */
+    private void removeFromStore(Filter filter) {
+        embeddingStore.removeAll(filter);
+        inMemoryIndex.values().removeIf(entry -> filter.test(entry.segment.metadata()));
+    }
+
+    /**
+     * 内存存储条目
+     */
+    private static class StoredEntry {
+        private final String id;
+        private final Embedding embedding;
+        private final TextSegment segment;
+
+        StoredEntry(String id, Embedding embedding, TextSegment segment) {
+            this.id = id;
+            this.embedding = embedding;
+            this.segment = segment;
         }
     }
 
@@ -1015,21 +1385,25 @@ public class VectorStoreService {
      */
     private int getActualDocumentCount() {
         try {
-            if (embeddingStore instanceof InMemoryEmbeddingStore) {
+            if (isInMemoryStore()) {
                 // 内存存储使用缓存大小
                 return vectorCache.size();
             }
             
-            // 对于外部向量数据库，尝试通过搜索来估算数量
-            // 这是一个权宜之计，因为LangChain4j的EmbeddingStore接口没有提供统计方法
+            // 对于外部向量数据库，用一个固定的探测向量检索来判断是否为空
+            // LangChain4j 的 EmbeddingStore 接口没有统计方法；探测向量不经过 Embedding 模型，避免无谓的远程调用
             try {
-                                 // 执行一个简单的搜索来检查是否有数据
-                 List<EmbeddingMatch<TextSegment>> testResult = search("test", 1);
-                if (!testResult.isEmpty()) {
-                    // 如果能搜索到结果，说明有数据，返回一个非零值
-                    // 这里我们无法获得确切数量，但至少知道不是空的
+                float[] probe = new float[embeddingDimension];
+                probe[0] = 1.0f;
+                EmbeddingSearchRequest probeRequest = EmbeddingSearchRequest.builder()
+                        .queryEmbedding(Embedding.from(probe))
+                        .maxResults(1)
+                        .minScore(0.0)
+                        .build();
+                if (!embeddingStore.search(probeRequest).matches().isEmpty()) {
+                    // 能检索到结果说明有数据，无法获得确切数量，至少知道不是空的
                     log.debug(" 外部向量数据库检测到数据存在");
-                    return 1; // 表示非空
+                    return Math.max(1, vectorCache.size());
                 } else {
                     log.debug(" 外部向量数据库未检测到数据");
                     return 0;
@@ -1046,24 +1420,79 @@ public class VectorStoreService {
     }
 
     /**
-     * 持久化向量数据到本地文件
+     * 是否为进程内向量存储（InMemory 或本地 HNSW，需要本地快照）
+     */
+    public boolean isInMemoryStore() {
+        return embeddingStore instanceof InMemoryEmbeddingStore || embeddingStore instanceof LocalVectorEmbeddingStore;
+    }
+
+    /**
+     * 持久化向量数据到本地二进制快照
+     * 外部向量数据库自行管理持久化，无需本地快照
+     * 
+     * 快照格式（大端序）：
+     * header: magic(int) version(int) dimension(int) count(int)
+     * entry:  id(int长度+UTF-8) text(int长度+UTF-8) metadata(int长度+JSON) createTime(long epochMilli) vector(float32 * dimension)
      */
     public void persistToFile() {
+        if (!isInMemoryStore()) {
+            return;
+        }
+        File file = new File(storagePath + "/" + SNAPSHOT_FILE);
+        File tempFile = new File(storagePath + "/" + SNAPSHOT_FILE + ".tmp");
+        long startTime = System.currentTimeMillis();
         try {
-            File file = new File(storagePath + "/vectors.json");
-            objectMapper.writeValue(file, vectorCache);
-            log.info(" 向量数据已持久化到文件: {}", file.getAbsolutePath());
-        } catch (IOException e) {
+            List<StoredEntry> entries = listInMemoryEntries();
+            int dimension = entries.isEmpty() ? 0 : entries.get(0).embedding.dimension();
+            
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile), 1 << 16))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(SNAPSHOT_VERSION);
+                out.writeInt(dimension);
+                out.writeInt(entries.size());
+                
+                for (StoredEntry entry : entries) {
+                    VectorData cached = vectorCache.get(entry.id);
+                    long createTime = cached != null && cached.getCreateTime() != null
+                            ? cached.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                            : System.currentTimeMillis();
+                    
+                    writeBytes(out, entry.id.getBytes(StandardCharsets.UTF_8));
+                    writeBytes(out, entry.segment.text().getBytes(StandardCharsets.UTF_8));
+                    writeBytes(out, objectMapper.writeValueAsBytes(entry.segment.metadata().toMap()));
+                    out.writeLong(createTime);
+                    for (float value : entry.embedding.vector()) {
+                        out.writeFloat(value);
+                    }
+                }
+            }
+            
+            // 先写临时文件再替换，避免进程中断时留下半个快照
+            Files.move(tempFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info(" 向量快照已保存: {}, 向量数={}, 维度={}, 大小={}KB, 耗时={}ms", file.getAbsolutePath(),
+                    entries.size(), dimension, file.length() / 1024, System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
             log.error(" 持久化向量数据失败", e);
+            tempFile.delete();
         }
     }
 
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
     /**
      * 应用关闭时持久化数据
      */
     @PreDestroy
     public void shutdown() {
         log.info(" 向量存储服务关闭中...");
+        if (ingestExecutor != null) {
+            ingestExecutor.shutdown();
+        }
         persistToFile();
         log.info("  向量存储服务已关闭");
     }
@@ -1089,21 +1518,96 @@ public class VectorStoreService {
 
     /**
      * 加载已持久化的向量数据
+     * 优先通过内存映射读取二进制快照，直接恢复向量，不调用 Embedding 模型；
+     * 仅存在旧版 vectors.json 时退回批量重新向量化，并在完成后写出二进制快照
      */
-    @SuppressWarnings("unchecked")
     private void loadPersistedVectors() {
+        File snapshot = new File(storagePath + "/" + SNAPSHOT_FILE);
+        if (snapshot.exists()) {
+            try {
+                loadSnapshot(snapshot);
+                return;
+            } catch (Exception e) {
+                log.warn(" ️ 读取向量快照失败，尝试旧版JSON数据: {}", e.getMessage());
+            }
+        }
+        loadLegacyJson();
+    }
+
+    /**
+     * 内存映射读取二进制快照
+     */
+    @SuppressWarnings("unchecked")
+    private void loadSnapshot(File snapshot) throws IOException {
+        long startTime = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            
+            if (buffer.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("不是有效的向量快照文件");
+            }
+            int version = buffer.getInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("不支持的快照版本: " + version);
+            }
+            int dimension = buffer.getInt();
+            int count = buffer.getInt();
+            
+            List<String> ids = new ArrayList<>(count);
+            List<Embedding> embeddings = new ArrayList<>(count);
+            List<TextSegment> segments = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String id = readString(buffer);
+                String text = readString(buffer);
+                byte[] metadataBytes = new byte[buffer.getInt()];
+                buffer.get(metadataBytes);
+                Map<String, Object> metadata = objectMapper.readValue(metadataBytes, Map.class);
+                LocalDateTime createTime = LocalDateTime.ofInstant(
+                        Instant.ofEpochMilli(buffer.getLong()), ZoneId.systemDefault());
+                float[] vector = new float[dimension];
+                buffer.asFloatBuffer().get(vector);
+                buffer.position(buffer.position() + dimension * Float.BYTES);
+                
+                ids.add(id);
+                embeddings.add(Embedding.from(vector));
+                segments.add(TextSegment.from(text, Metadata.from(metadata)));
+                vectorCache.put(id, new VectorData(id, text, metadata, createTime));
+                rememberType(metadata);
+            }
+            
+            if (!ids.isEmpty()) {
+                storeAll(ids, embeddings, segments);
+            }
+            log.info(" 已从快照恢复 {} 个向量（维度={}），耗时 {}ms，未调用Embedding模型",
+                    count, dimension, System.currentTimeMillis() - startTime);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 旧版 vectors.json 只保存文本，需重新向量化
+     */
+    private void loadLegacyJson() {
         try {
-            File file = new File(storagePath + "/vectors.json");
+            File file = new File(storagePath + "/" + LEGACY_JSON_FILE);
             if (file.exists()) {
-                Map<String, VectorData> persistedData = objectMapper.readValue(file, Map.class);
+                Map<String, VectorData> persistedData = objectMapper.readValue(file,
+                        objectMapper.getTypeFactory().constructMapType(Map.class, String.class, VectorData.class));
                 
-                // 重新生成向量并加载到内存存储
-                for (Map.Entry<String, VectorData> entry : persistedData.entrySet()) {
-                    VectorData data = entry.getValue();
-                    addDocument(data.getId(), data.getText(), data.getMetadata());
+                // 重新生成向量并批量加载到内存存储
+                List<DocumentData> documents = new ArrayList<>(persistedData.size());
+                for (VectorData data : persistedData.values()) {
+                    documents.add(new DocumentData(data.getId(), data.getText(), data.getMetadata()));
                 }
+                addDocuments(documents);
                 
-                log.info(" 已加载 {} 个持久化向量", persistedData.size());
+                log.info(" 已加载 {} 个旧版持久化向量，转换为二进制快照", persistedData.size());
+                persistToFile();
             }
         } catch (Exception e) {
             log.warn(" ️ 加载持久化向量数据失败: {}", e.getMessage());
@@ -1173,6 +1677,86 @@ public class VectorStoreService {
         public void setCreateTime(LocalDateTime createTime) { this.createTime = createTime; }
     }
 
+    /**
+     * 批量入库统计（各阶段累计耗时与吞吐量）
+     */
+    public static class IngestStats {
+        private final int totalCount;
+        private final AtomicInteger successCount = new AtomicInteger();
+        private final Set<String> failedIds = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger batchCount = new AtomicInteger();
+        private final AtomicLong embedNanos = new AtomicLong();
+        private final AtomicLong storeNanos = new AtomicLong();
+        private volatile long wallTimeMs;
+
+        public IngestStats(int totalCount) {
+            this.totalCount = totalCount;
+        }
+
+        void recordBatch(int size, long embedTime, long storeTime) {
+            successCount.addAndGet(size);
+            batchCount.incrementAndGet();
+            embedNanos.addAndGet(embedTime);
+            storeNanos.addAndGet(storeTime);
+        }
+
+        void recordSuccess(int size) { successCount.addAndGet(size); }
+        void recordFailure(String documentId) { failedIds.add(documentId); }
+        void setWallTimeMs(long wallTimeMs) { this.wallTimeMs = wallTimeMs; }
+
+        // Getters
+        public int getTotalCount() { return totalCount; }
+        public int getSuccessCount() { return successCount.get(); }
+        public int getFailedCount() { return failedIds.size(); }
+        public Set<String> getFailedIds() { return Collections.unmodifiableSet(failedIds); }
+        public int getBatchCount() { return batchCount.get(); }
+        public long getEmbedTimeMs() { return TimeUnit.NANOSECONDS.toMillis(embedNanos.get()); }
+        public long getStoreTimeMs() { return TimeUnit.NANOSECONDS.toMillis(storeNanos.get()); }
+        public long getWallTimeMs() { return wallTimeMs; }
+
+        /** 整体吞吐量（个/秒，按墙钟时间） */
+        public double getOverallThroughput() { return perSecond(getSuccessCount(), wallTimeMs); }
+        /** 向量化阶段吞吐量（个/秒，按该阶段累计耗时） */
+        public double getEmbedThroughput() { return perSecond(getSuccessCount(), getEmbedTimeMs()); }
+        /** 写入阶段吞吐量（个/秒，按该阶段累计耗时） */
+        public double getStoreThroughput() { return perSecond(getSuccessCount(), getStoreTimeMs()); }
+
+        private static double perSecond(int count, long millis) {
+            return millis > 0 ? count * 1000.0 / millis : 0.0;
+        }
+    }
+
+    /**
+     * 向量存储压缩报告
+     */
+    public static class CompactionReport {
+        private String storeType;
+        private int liveDocumentCount;
+        private int storedVectorCount;
+        private int removedVectorCount;
+        private long deletedSinceLastCompaction;
+        private long durationMs;
+        
+        public String getStoreType() { return storeType; }
+        public void setStoreType(String storeType) { this.storeType = storeType; }
+        
+        public int getLiveDocumentCount() { return liveDocumentCount; }
+        public void setLiveDocumentCount(int liveDocumentCount) { this.liveDocumentCount = liveDocumentCount; }
+        
+        /** 压缩前向量库中的向量数，-1 表示外部存储无法统计 */
+        public int getStoredVectorCount() { return storedVectorCount; }
+        public void setStoredVectorCount(int storedVectorCount) { this.storedVectorCount = storedVectorCount; }
+        
+        public int getRemovedVectorCount() { return removedVectorCount; }
+        public void setRemovedVectorCount(int removedVectorCount) { this.removedVectorCount = removedVectorCount; }
+        
+        public long getDeletedSinceLastCompaction() { return deletedSinceLastCompaction; }
+        public void setDeletedSinceLastCompaction(long deletedSinceLastCompaction) { this.deletedSinceLastCompaction = deletedSinceLastCompaction; }
+        
+        public long getDurationMs() { return durationMs; }
+        public void setDurationMs(long durationMs) { this.durationMs = durationMs; }
+    }
+
     /**
      * 向量存储统计信息
      */
@@ -0,0 +1,171 @@
+package com.back_hexiang_studio.pangDaAi.tool.api;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 外部API工具公共支持（天气、新闻）
+ *
+ * - 共享的 RestTemplate：底层为带连接复用的 JDK HttpClient，统一连接/读取超时
+ * - 响应缓存：按查询参数缓存上游结果，同一键的并发请求只触发一次上游调用
+ * - 过期后仍可用（stale-while-revalidate）：超过TTL后先返回旧结果，后台刷新，刷新失败保留旧结果
+ *
+ * @author 胖达AI助手开发团队
+ */
+@Slf4j
+@Component
+public class ExternalApiSupport {
+
+    @Value("${pangda-ai.tools.http.connect-timeout-ms:2000}")
+    private long connectTimeoutMs;
+
+    @Value("${pangda-ai.tools.http.read-timeout-ms:5000}")
+    private long readTimeoutMs;
+
+    @Value("${pangda-ai.tools.cache.max-entries:200}")
+    private int maxEntries;
+
+    @Value("${pangda-ai.tools.cache.stale-while-revalidate:true}")
+    private boolean staleWhileRevalidate;
+
+    // 超过TTL后旧结果最多还能使用多久
+    @Value("${pangda-ai.tools.cache.max-stale-minutes:60}")
+    private long maxStaleMinutes;
+
+    private RestTemplate restTemplate;
+
+    private ThreadPoolExecutor refreshExecutor;
+
+    private final Map<String, LoadingCache<?, ?>> caches = new ConcurrentHashMap<>();
+
+    /**
+     * 上游数据加载，失败时抛出异常（失败结果不缓存）
+     */
+    public interface Fetcher<K, V> {
+        V fetch(K key) throws Exception;
+    }
+
+    /**
+     * 上游返回了业务错误（非200），message 为上游提示
+     */
+    public static class UpstreamException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        public UpstreamException(String message) {
+            super(message);
+        }
+    }
+
+    @PostConstruct
+    public void initialize() {
+        HttpClient httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .build();
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(Duration.ofMillis(readTimeoutMs));
+        restTemplate = new RestTemplate(requestFactory);
+
+        // 队列满时拒绝并抛出异常：Guava 据此结束本次刷新、保留旧值，下次访问再刷新；
+        // 静默丢弃会让刷新 future 永不完成，旧值过期后读取该键的请求一直等待
+        refreshExecutor = new ThreadPoolExecutor(1, 2, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(50), runnable -> {
+                    Thread thread = new Thread(runnable, "tool-api-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+
+        log.info(" 外部API工具支持初始化完成: 连接超时={}ms, 读取超时={}ms, 过期后后台刷新={}",
+                connectTimeoutMs, readTimeoutMs, staleWhileRevalidate);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (refreshExecutor != null) {
+            refreshExecutor.shutdownNow();
+        }
+    }
+
+    public RestTemplate getRestTemplate() {
+        return restTemplate;
+    }
+
+    /**
+     * 创建响应缓存
+     *
+     * @param name       缓存名称（用于统计）
+     * @param ttlMinutes 结果有效期
+     * @param fetcher    上游加载
+     */
+    public <K, V> LoadingCache<K, V> newCache(String name, long ttlMinutes, Fetcher<K, V> fetcher) {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .recordStats();
+        if (staleWhileRevalidate) {
+            builder.refreshAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+                    .expireAfterWrite(ttlMinutes + maxStaleMinutes, TimeUnit.MINUTES);
+        } else {
+            builder.expireAfterWrite(ttlMinutes, TimeUnit.MINUTES);
+        }
+        CacheLoader<K, V> loader = new CacheLoader<K, V>() {
+            @Override
+            public V load(K key) throws Exception {
+                return fetcher.fetch(key);
+            }
+        };
+        LoadingCache<K, V> cache = builder.build(CacheLoader.asyncReloading(loader, refreshExecutor));
+        caches.put(name, cache);
+        return cache;
+    }
+
+    /**
+     * 读取缓存，未命中时加载；并发的相同请求共用一次加载
+     *
+     * @throws Exception 加载失败的原始异常
+     */
+    public <K, V> V get(LoadingCache<K, V> cache, K key) throws Exception {
+        try {
+            return cache.get(key);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * 各缓存命中统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Map.Entry<String, LoadingCache<?, ?>> entry : caches.entrySet()) {
+            CacheStats cacheStats = entry.getValue().stats();
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("size", entry.getValue().size());
+            item.put("hitRate", String.format("%.2f", cacheStats.hitRate()));
+            item.put("loads", cacheStats.loadCount());
+            item.put("loadFailures", cacheStats.loadExceptionCount());
+            item.put("avgLoadMs", TimeUnit.NANOSECONDS.toMillis((long) cacheStats.averageLoadPenalty()));
+            stats.put(entry.getKey(), item);
+        }
+        return stats;
+    }
+}
@@ -1,22 +1,26 @@
 package com.back_hexiang_studio.pangDaAi.tool.api;
 
 import com.back_hexiang_studio.pangDaAi.util.Result;
+import com.google.common.cache.LoadingCache;
 import dev.langchain4j.agent.tool.Tool;
 import dev.langchain4j.agent.tool.P;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.client.RestClientException;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.JsonNode;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.Objects;
 
 /**
  * 新闻API工具服务 - 每天60秒读懂世界
  * 为AI助手提供实时新闻信息
+ * 上游结果按日期缓存，同一天的重复提问不再调用新闻API
  */
 @Service
 @Slf4j
@@ -25,59 +29,51 @@ public class NewsApiToolService {
     @Value("${weather.api.base-url:http://localhost:4399}")
     private String baseUrl;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    @Value("${pangda-ai.tools.cache.news-ttl-minutes:60}")
+    private long newsTtlMinutes;
+
+    @Autowired
+    private ExternalApiSupport externalApiSupport;
+
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    // (日期, 是否最新一期) -> 新闻API的 data 节点
+    private LoadingCache<NewsKey, JsonNode> newsCache;
+
+    @PostConstruct
+    public void initialize() {
+        newsCache = externalApiSupport.newCache("news", newsTtlMinutes, this::fetchNews);
+    }
+
     @Tool("获取今日新闻 - 每天60秒读懂世界，包含15条重要新闻")
     public String getTodayNews() {
         log.info(" AI Tool: 获取今日新闻 - 每天60秒读懂世界");
         
         try {
-            // 调用60s API获取今日新闻
-            String url = String.format("%s/v2/60s?encoding=json", baseUrl);
-            log.info(" 调用60s新闻API: {}", url);
+            JsonNode data = externalApiSupport.get(newsCache, new NewsKey(LocalDate.now().toString(), true));
+            
+            String date = data.get("date").asText();
+            String dayOfWeek = data.get("day_of_week").asText();
+            String lunarDate = data.get("lunar_date").asText();
+            String tip = data.get("tip").asText();
+            JsonNode newsArray = data.get("news");
             
-            String response = restTemplate.getForObject(url, String.class);
-            log.info(" 60s新闻API响应长度: {}", response != null ? response.length() : "null");
+            // 构建新闻内容
+            StringBuilder newsContent = new StringBuilder();
+            newsContent.append(String.format(" %s %s（农历：%s）\n", date, dayOfWeek, lunarDate));
+            newsContent.append(" 【每天60秒读懂世界】\n\n");
             
-            if (response != null) {
-                JsonNode root = objectMapper.readTree(response);
-                
-                // 检查60s API响应状态
-                if (root.has("code") && root.get("code").asInt() == 200 && root.has("data")) {
-                    JsonNode data = root.get("data");
-                    
-                    String date = data.get("date").asText();
-                    String dayOfWeek = data.get("day_of_week").asText();
-                    String lunarDate = data.get("lunar_date").asText();
-                    String tip = data.get("tip").asText();
-                    JsonNode newsArray = data.get("news");
-                    
-                    // 构建新闻内容
-                    StringBuilder newsContent = new StringBuilder();
-                    newsContent.append(String.format(" %s %s（农历：%s）\n", date, dayOfWeek, lunarDate));
-                    newsContent.append(" 【每天60秒读懂世界】\n\n");
-                    
-                    // 添加新闻条目
-                    int index = 1;
-                    for (JsonNode newsItem : newsArray) {
-                        newsContent.append(String.format("%d. %s\n\n", index++, newsItem.asText()));
-                    }
-                    
-                    // 添加每日金句
-                    newsContent.append(String.format("每日金句：%s", tip));
-                    
-                    return newsContent.toString();
-                } else {
-                    String errorMsg = root.has("message") ? root.get("message").asText() : "API调用失败";
-                    log.warn("️ 60s新闻API调用失败");
-                    return "获取新闻失败";
-                }
-            } else {
-                log.warn("️ 60s新闻API调用失败");
-                return "获取新闻失败";
+            // 添加新闻条目
+            int index = 1;
+            for (JsonNode newsItem : newsArray) {
+                newsContent.append(String.format("%d. %s\n\n", index++, newsItem.asText()));
             }
             
+            // 添加每日金句
+            newsContent.append(String.format("每日金句：%s", tip));
+            
+            return newsContent.toString();
+            
         } catch (RestClientException e) {
             log.warn("️ 60s新闻API调用失败");
             return "获取新闻失败";
@@ -95,46 +91,32 @@ public class NewsApiToolService {
             // 验证日期格式
             LocalDate.parse(date, DateTimeFormatter.ofPattern("yyyy-MM-dd"));
             
-            // 调用60s API获取指定日期新闻
-            String url = String.format("%s/v2/60s?date=%s&encoding=json", baseUrl, date);
-            log.info(" 调用60s新闻API: {}", url);
+            JsonNode data = externalApiSupport.get(newsCache, new NewsKey(date, false));
             
-            String response = restTemplate.getForObject(url, String.class);
+            String queryDate = data.get("date").asText();
+            String dayOfWeek = data.get("day_of_week").asText();
+            String lunarDate = data.get("lunar_date").asText();
+            String tip = data.get("tip").asText();
+            JsonNode newsArray = data.get("news");
             
-            if (response != null) {
-                JsonNode root = objectMapper.readTree(response);
-                
-                if (root.has("code") && root.get("code").asInt() == 200 && root.has("data")) {
-                    JsonNode data = root.get("data");
-                    
-                    String queryDate = data.get("date").asText();
-                    String dayOfWeek = data.get("day_of_week").asText();
-                    String lunarDate = data.get("lunar_date").asText();
-                    String tip = data.get("tip").asText();
-                    JsonNode newsArray = data.get("news");
-                    
-                    // 构建新闻内容
-                    StringBuilder newsContent = new StringBuilder();
-                    newsContent.append(String.format("📅 %s %s（农历：%s）\n", queryDate, dayOfWeek, lunarDate));
-                    newsContent.append("📰 【每天60秒读懂世界】\n\n");
-                    
-                    // 添加新闻条目
-                    int index = 1;
-                    for (JsonNode newsItem : newsArray) {
-                        newsContent.append(String.format("%d. %s\n\n", index++, newsItem.asText()));
-                    }
-                    
-                    // 添加每日金句
-                    newsContent.append(String.format("💭 每日金句：%s", tip));
-                    
-                    return newsContent.toString();
-                } else {
-                    return String.format("未找到 %s 的新闻数据，可能该日期的数据尚未更新或不存在", date);
-                }
-            } else {
-                return String.format("获取 %s 的新闻失败，请稍后再试", date);
+            // 构建新闻内容
+            StringBuilder newsContent = new StringBuilder();
+            newsContent.append(String.format("📅 %s %s（农历：%s）\n", queryDate, dayOfWeek, lunarDate));
+            newsContent.append("📰 【每天60秒读懂世界】\n\n");
+            
+            // 添加新闻条目
+            int index = 1;
+            for (JsonNode newsItem : newsArray) {
+                newsContent.append(String.format("%d. %s\n\n", index++, newsItem.asText()));
             }
             
+            // 添加每日金句
+            newsContent.append(String.format("💭 每日金句：%s", tip));
+            
+            return newsContent.toString();
+            
+        } catch (ExternalApiSupport.UpstreamException e) {
+            return String.format("未找到 %s 的新闻数据，可能该日期的数据尚未更新或不存在", date);
         } catch (Exception e) {
             log.error(" 获取指定日期新闻失败: {}", e.getMessage(), e);
             return String.format("获取 %s 的新闻失败：%s", date, e.getMessage());
@@ -143,6 +125,55 @@ public class NewsApiToolService {
 
 
 
+    /**
+     * 调用60s API获取新闻，非200响应抛出 UpstreamException（不缓存）
+     */
+    private JsonNode fetchNews(NewsKey key) throws Exception {
+        String url = key.latest
+            ? String.format("%s/v2/60s?encoding=json", baseUrl)
+            : String.format("%s/v2/60s?date=%s&encoding=json", baseUrl, key.date);
+        log.info(" 调用60s新闻API: {}", url);
+        
+        String response = externalApiSupport.getRestTemplate().getForObject(url, String.class);
+        if (response == null) {
+            throw new RestClientException("60s新闻API无响应");
+        }
+        log.info(" 60s新闻API响应长度: {}", response.length());
+        
+        JsonNode root = objectMapper.readTree(response);
+        // 检查60s API响应状态
+        if (root.has("code") && root.get("code").asInt() == 200 && root.has("data")) {
+            return root.get("data");
+        }
+        throw new ExternalApiSupport.UpstreamException(root.has("message") ? root.get("message").asText() : "API调用失败");
+    }
+
+    /**
+     * 新闻缓存键：latest 为今日最新一期（不带日期参数请求），日期变化后自然失效
+     */
+    private static class NewsKey {
+        private final String date;
+        private final boolean latest;
+
+        NewsKey(String date, boolean latest) {
+            this.date = date;
+            this.latest = latest;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof NewsKey)) return false;
+            NewsKey that = (NewsKey) o;
+            return latest == that.latest && date.equals(that.date);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(date, latest);
+        }
+    }
+
     /**
      * 获取中文星期
      */
@@ -1,21 +1,25 @@
 package com.back_hexiang_studio.pangDaAi.tool.api;
 
+import com.google.common.cache.LoadingCache;
 import dev.langchain4j.agent.tool.Tool;
 import dev.langchain4j.agent.tool.P;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.client.RestClientException;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.JsonNode;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.Objects;
 
 /**
  * 天气查询AI工具服务
  * 为AI助手提供实时天气信息
+ * 上游结果按 (城市, 天数, 日期) 缓存，几分钟内的重复提问不再调用天气API
  */
 @Service
 @Slf4j
@@ -30,67 +34,62 @@ public class WeatherToolService {
     @Value("${weather.api.key:}")
     private String apiKey;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    @Value("${pangda-ai.tools.cache.weather-ttl-minutes:30}")
+    private long weatherTtlMinutes;
+
+    @Autowired
+    private ExternalApiSupport externalApiSupport;
+
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    // (城市, 天数, 日期) -> 天气API的 data 节点
+    private LoadingCache<WeatherKey, JsonNode> weatherCache;
+
+    @PostConstruct
+    public void initialize() {
+        weatherCache = externalApiSupport.newCache("weather", weatherTtlMinutes, this::fetchWeather);
+    }
+
     @Tool("查询今天的天气情况，包括温度、湿度、天气状况、AQI等信息")
     public String getTodayWeather() {
         log.info("🌤 AI Tool: 查询今天天气，城市: {}", defaultCity);
         
         try {
-            // 调用60s API获取实时天气信息
-            String url = String.format("%s/v2/weather/forecast?query=%s&days=1", baseUrl, defaultCity);
-            log.info(" 调用60s天气API: {}", url);
+            JsonNode data = externalApiSupport.get(weatherCache, new WeatherKey(defaultCity, 1, LocalDate.now()));
+            JsonNode location = data.get("location");
+            JsonNode realtime = data.get("realtime");
             
-            String response = restTemplate.getForObject(url, String.class);
-            log.info(" 60s天气API响应: {}", response);
+            String city = location.has("formatted") ? location.get("formatted").asText() : defaultCity;
+            String temperature = String.valueOf(realtime.get("temperature").asInt());
+            String weather = realtime.get("weather").asText();
+            String humidity = String.valueOf(realtime.get("humidity").asInt());
+            String windDirection = realtime.get("wind_direction").asText();
+            String windStrength = realtime.get("wind_strength").asText();
+            String aqi = String.valueOf(realtime.get("aqi").asInt());
             
-            if (response != null) {
-                JsonNode root = objectMapper.readTree(response);
-                
-                // 检查60s API响应状态
-                if (root.has("code") && root.get("code").asInt() == 200 && root.has("data")) {
-                    JsonNode data = root.get("data");
-                    JsonNode location = data.get("location");
-                    JsonNode realtime = data.get("realtime");
-                    
-                    String city = location.has("formatted") ? location.get("formatted").asText() : defaultCity;
-                    String temperature = String.valueOf(realtime.get("temperature").asInt());
-                    String weather = realtime.get("weather").asText();
-                    String humidity = String.valueOf(realtime.get("humidity").asInt());
-                    String windDirection = realtime.get("wind_direction").asText();
-                    String windStrength = realtime.get("wind_strength").asText();
-                    String aqi = String.valueOf(realtime.get("aqi").asInt());
-                    
-                    // 返回结构化的天气信息，让AI来组织友好的回复
-                    return String.format(
-                        "城市：%s\n" +
-                        "今天日期：%s\n" +
-                        "实时温度：%s°C\n" +
-                        "天气状况：%s\n" +
-                        "湿度：%s%%\n" +
-                        "风向：%s\n" +
-                        "风力：%s\n" +
-                        "空气质量指数：%s",
-                        city,
-                        LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy年MM月dd日")),
-                        temperature,
-                        weather,
-                        humidity,
-                        windDirection,
-                        windStrength,
-                        aqi
-                    );
-                } else {
-                    String errorMsg = root.has("message") ? root.get("message").asText() : "API调用失败";
-                    log.warn("️ 60s天气API调用失败");
-                    return errorMsg;
-                }
-            } else {
-                log.warn(" 60s天气API无响应");
-                return "无法获取天气信息";
-            }
+            // 返回结构化的天气信息，让AI来组织友好的回复
+            return String.format(
+                "城市：%s\n" +
+                "今天日期：%s\n" +
+                "实时温度：%s°C\n" +
+                "天气状况：%s\n" +
+                "湿度：%s%%\n" +
+                "风向：%s\n" +
+                "风力：%s\n" +
+                "空气质量指数：%s",
+                city,
+                LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy年MM月dd日")),
+                temperature,
+                weather,
+                humidity,
+                windDirection,
+                windStrength,
+                aqi
+            );
             
+        } catch (ExternalApiSupport.UpstreamException e) {
+            log.warn("️ 60s天气API调用失败");
+            return e.getMessage();
         } catch (RestClientException e) {
             log.warn(" 60s天气API无响应");
             return "无法获取天气信息";
@@ -109,65 +108,96 @@ public class WeatherToolService {
         log.info("🌤 AI Tool: 查询{}天天气预报，城市: {}", days, defaultCity);
         
         try {
-            // 调用60s API获取指定天数的天气预报
-            String url = String.format("%s/v2/weather/forecast?query=%s&days=%d", baseUrl, defaultCity, days);
-            String response = restTemplate.getForObject(url, String.class);
+            JsonNode data = externalApiSupport.get(weatherCache, new WeatherKey(defaultCity, days, LocalDate.now()));
+            JsonNode location = data.get("location");
             
-            if (response != null) {
-                JsonNode root = objectMapper.readTree(response);
-                
-                // 检查60s API响应状态
-                if (root.has("code") && root.get("code").asInt() == 200 && root.has("data")) {
-                    JsonNode data = root.get("data");
-                    JsonNode location = data.get("location");
-                    
-                    StringBuilder forecast = new StringBuilder();
-                    forecast.append(String.format("【%s】未来%d天天气预报：\n", 
-                        location.has("formatted") ? location.get("formatted").asText() : defaultCity, days));
-                    
-                    // 如果有forecast数组，使用它；否则至少返回今天的信息
-                    if (data.has("forecast") && data.get("forecast").isArray()) {
-                        JsonNode forecastArray = data.get("forecast");
-                        for (JsonNode day : forecastArray) {
-                            String date = day.get("date").asText();
-                            String weather = day.get("weather").asText();
-                            String tempHigh = String.valueOf(day.get("temp_high").asInt());
-                            String tempLow = String.valueOf(day.get("temp_low").asInt());
-                            String windDirection = day.get("wind_direction").asText();
-                            
-                            forecast.append(String.format(
-                                "%s：%s，%s-%s°C，%s\n",
-                                date, weather, tempLow, tempHigh, windDirection
-                            ));
-                        }
-                    } else {
-                        // 如果没有预报数据，返回当前天气信息
-                        JsonNode realtime = data.get("realtime");
-                        String today = LocalDate.now().format(DateTimeFormatter.ofPattern("MM-dd"));
-                        forecast.append(String.format(
-                            "%s：%s，%s°C，%s\n",
-                            today, 
-                            realtime.get("weather").asText(),
-                            realtime.get("temperature").asInt(),
-                            realtime.get("wind_direction").asText()
-                        ));
-                    }
+            StringBuilder forecast = new StringBuilder();
+            forecast.append(String.format("【%s】未来%d天天气预报：\n", 
+                location.has("formatted") ? location.get("formatted").asText() : defaultCity, days));
+            
+            // 如果有forecast数组，使用它；否则至少返回今天的信息
+            if (data.has("forecast") && data.get("forecast").isArray()) {
+                JsonNode forecastArray = data.get("forecast");
+                for (JsonNode day : forecastArray) {
+                    String date = day.get("date").asText();
+                    String weather = day.get("weather").asText();
+                    String tempHigh = String.valueOf(day.get("temp_high").asInt());
+                    String tempLow = String.valueOf(day.get("temp_low").asInt());
+                    String windDirection = day.get("wind_direction").asText();
                     
-                    return forecast.toString().trim();
-                } else {
-                    String errorMsg = root.has("message") ? root.get("message").asText() : "API调用失败";
-                    log.warn(" 60s天气API无响应");
-                    return "无法获取天气信息";
+                    forecast.append(String.format(
+                        "%s：%s，%s-%s°C，%s\n",
+                        date, weather, tempLow, tempHigh, windDirection
+                    ));
                 }
             } else {
-                log.warn(" 60s天气API无响应");
-                return "无法获取天气信息";
+                // 如果没有预报数据，返回当前天气信息
+                JsonNode realtime = data.get("realtime");
+                String today = LocalDate.now().format(DateTimeFormatter.ofPattern("MM-dd"));
+                forecast.append(String.format(
+                    "%s：%s，%s°C，%s\n",
+                    today, 
+                    realtime.get("weather").asText(),
+                    realtime.get("temperature").asInt(),
+                    realtime.get("wind_direction").asText()
+                ));
             }
             
+            return forecast.toString().trim();
+            
         } catch (Exception e) {
             log.warn(" 60s天气API无响应");
             return "无法获取天气信息";
         }
     }
 
+    /**
+     * 调用60s API获取天气，非200响应抛出 UpstreamException（不缓存）
+     */
+    private JsonNode fetchWeather(WeatherKey key) throws Exception {
+        String url = String.format("%s/v2/weather/forecast?query=%s&days=%d", baseUrl, key.city, key.days);
+        log.info(" 调用60s天气API: {}", url);
+        
+        String response = externalApiSupport.getRestTemplate().getForObject(url, String.class);
+        if (response == null) {
+            throw new RestClientException("60s天气API无响应");
+        }
+        log.debug(" 60s天气API响应: {}", response);
+        
+        JsonNode root = objectMapper.readTree(response);
+        // 检查60s API响应状态
+        if (root.has("code") && root.get("code").asInt() == 200 && root.has("data")) {
+            return root.get("data");
+        }
+        throw new ExternalApiSupport.UpstreamException(root.has("message") ? root.get("message").asText() : "API调用失败");
+    }
+
+    /**
+     * 天气缓存键，日期变化后自然失效
+     */
+    private static class WeatherKey {
+        private final String city;
+        private final int days;
+        private final LocalDate date;
+
+        WeatherKey(String city, int days, LocalDate date) {
+            this.city = city;
+            this.days = days;
+            this.date = date;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof WeatherKey)) return false;
+            WeatherKey that = (WeatherKey) o;
+            return days == that.days && city.equals(that.city) && date.equals(that.date);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(city, days, date);
+        }
+    }
+
 } 
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.back_hexiang_studio.pangDaAi.tool.workflow;
 
+import com.back_hexiang_studio.constants.CacheConstants;
 import com.back_hexiang_studio.context.UserContextHolder;
 import com.back_hexiang_studio.pangDaAi.service.PermissionService;
 import dev.langchain4j.agent.tool.P;
@@ -70,6 +71,13 @@ public class UserManagementTools {
         keysToDelete.add("login:user:" + userId);
 
         redisTemplate.delete(keysToDelete);
+
+        // 通知各实例失效本地认证缓存（与 userServiceimpl.clearUserCache 一致）
+        try {
+            redisTemplate.convertAndSend(CacheConstants.AUTH_PRINCIPAL_INVALIDATE_CHANNEL, String.valueOf(userId));
+        } catch (Exception e) {
+            log.warn("  发布认证缓存失效通知失败，用户ID: {}, 原因: {}", userId, e.getMessage());
+        }
         log.info("  清理用户缓存，用户ID: {}, 键数量: {}", userId, keysToDelete.size());
     }
 
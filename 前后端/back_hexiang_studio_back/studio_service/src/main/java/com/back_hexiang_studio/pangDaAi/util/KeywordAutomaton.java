@@ -0,0 +1,225 @@
+package com.back_hexiang_studio.pangDaAi.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 多模式关键词匹配自动机（Aho-Corasick）
+ *
+ * 一次构建，之后对任意文本只做一次线性扫描即可找出所有命中的关键词，
+ * 代替对每个关键词分别 contains / 对每个分类分别跑正则。
+ * 关键词按分组登记，扫描结果按分组返回命中的关键词；匹配忽略大小写。
+ * 构建完成后只读，可被多线程共享。
+ *
+ * @author 胖达AI助手开发团队
+ */
+public final class KeywordAutomaton {
+
+    private static final int ROOT = 0;
+
+    // 每个状态的转移表
+    private final List<Map<Character, Integer>> transitions;
+    // 失败指针
+    private final int[] failure;
+    // 状态直接对应的关键词下标（-1 表示非关键词结尾）
+    private final int[] terminal;
+    // 沿失败链最近的关键词结尾状态（-1 表示没有），用于在线性时间内输出所有后缀命中
+    private final int[] outputLink;
+
+    private final List<String> keywords;
+    private final List<List<String>> keywordGroups;
+
+    private KeywordAutomaton(Builder builder) {
+        this.keywords = new ArrayList<>(builder.keywordGroups.keySet());
+        this.keywordGroups = new ArrayList<>(keywords.size());
+        for (String keyword : keywords) {
+            keywordGroups.add(new ArrayList<>(builder.keywordGroups.get(keyword)));
+        }
+
+        // 1. 构建字典树
+        transitions = new ArrayList<>();
+        transitions.add(new HashMap<>());
+        List<Integer> terminals = new ArrayList<>();
+        terminals.add(-1);
+        for (int k = 0; k < keywords.size(); k++) {
+            String keyword = keywords.get(k);
+            int state = ROOT;
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = keyword.charAt(i);
+                Integer next = transitions.get(state).get(c);
+                if (next == null) {
+                    next = transitions.size();
+                    transitions.add(new HashMap<>());
+                    terminals.add(-1);
+                    transitions.get(state).put(c, next);
+                }
+                state = next;
+            }
+            terminals.set(state, k);
+        }
+
+        int size = transitions.size();
+        terminal = new int[size];
+        for (int i = 0; i < size; i++) {
+            terminal[i] = terminals.get(i);
+        }
+
+        // 2. 按层次遍历计算失败指针与输出链
+        failure = new int[size];
+        outputLink = new int[size];
+        outputLink[ROOT] = -1;
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int child : transitions.get(ROOT).values()) {
+            failure[child] = ROOT;
+            outputLink[child] = -1;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (Map.Entry<Character, Integer> entry : transitions.get(state).entrySet()) {
+                char c = entry.getKey();
+                int child = entry.getValue();
+                int fallback = failure[state];
+                while (fallback != ROOT && !transitions.get(fallback).containsKey(c)) {
+                    fallback = failure[fallback];
+                }
+                Integer target = transitions.get(fallback).get(c);
+                failure[child] = target != null && target != child ? target : ROOT;
+                outputLink[child] = terminal[failure[child]] >= 0 ? failure[child] : outputLink[failure[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 扫描文本，返回按分组归类的命中关键词
+     *
+     * @param text 待匹配文本
+     * @return 命中结果，文本为空时返回空结果
+     */
+    public Hits scan(String text) {
+        Hits hits = new Hits();
+        if (text == null || text.isEmpty() || keywords.isEmpty()) {
+            return hits;
+        }
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            state = step(state, c);
+            for (int output = terminal[state] >= 0 ? state : outputLink[state]; output >= 0; output = outputLink[output]) {
+                int keywordIndex = terminal[output];
+                String keyword = keywords.get(keywordIndex);
+                for (String group : keywordGroups.get(keywordIndex)) {
+                    hits.add(group, keyword);
+                }
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * 文本是否包含任一关键词（找到第一个即返回）
+     */
+    public boolean containsAny(String text) {
+        if (text == null || text.isEmpty() || keywords.isEmpty()) {
+            return false;
+        }
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            state = step(state, Character.toLowerCase(text.charAt(i)));
+            if (terminal[state] >= 0 || outputLink[state] >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return keywords.size();
+    }
+
+    private int step(int state, char c) {
+        while (true) {
+            Integer next = transitions.get(state).get(c);
+            if (next != null) {
+                return next;
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = failure[state];
+        }
+    }
+
+    /**
+     * 构建器：按分组登记关键词
+     */
+    public static final class Builder {
+        // 关键词（小写） -> 所属分组，同一关键词可属于多个分组
+        private final Map<String, Set<String>> keywordGroups = new LinkedHashMap<>();
+
+        private Builder() {
+        }
+
+        public Builder add(String group, String keyword) {
+            if (keyword == null || keyword.trim().isEmpty()) {
+                return this;
+            }
+            keywordGroups.computeIfAbsent(keyword.trim().toLowerCase(), k -> new LinkedHashSet<>()).add(group);
+            return this;
+        }
+
+        public Builder addAll(String group, Iterable<String> keywords) {
+            if (keywords != null) {
+                for (String keyword : keywords) {
+                    add(group, keyword);
+                }
+            }
+            return this;
+        }
+
+        public KeywordAutomaton build() {
+            return new KeywordAutomaton(this);
+        }
+    }
+
+    /**
+     * 扫描结果：分组 -> 命中的关键词（去重，按首次出现顺序）
+     */
+    public static final class Hits {
+        private final Map<String, Set<String>> matches = new HashMap<>();
+
+        private void add(String group, String keyword) {
+            matches.computeIfAbsent(group, g -> new LinkedHashSet<>()).add(keyword);
+        }
+
+        public boolean contains(String group) {
+            return matches.containsKey(group);
+        }
+
+        public Set<String> matched(String group) {
+            Set<String> matched = matches.get(group);
+            return matched == null ? Collections.emptySet() : Collections.unmodifiableSet(matched);
+        }
+
+        public Set<String> groups() {
+            return Collections.unmodifiableSet(matches.keySet());
+        }
+
+        public boolean isEmpty() {
+            return matches.isEmpty();
+        }
+    }
+}
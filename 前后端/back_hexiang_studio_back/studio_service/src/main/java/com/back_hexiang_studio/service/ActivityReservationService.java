@@ -20,15 +20,26 @@ public interface ActivityReservationService {
     
     /**
      * 学生预约活动
+     * 名额已满且开启候补时进入候补名单
      * @param planId 活动计划ID
      * @param studentId 学生ID
      * @param remark 备注
+     * @param idempotencyKey 幂等键（可选），同一学生重复提交相同的键时返回首次的预约结果
      * @return 预约结果
      */
-    Map<String, Object> reserveActivity(Long planId, Long studentId, String remark);
+    Map<String, Object> reserveActivity(Long planId, Long studentId, String remark, String idempotencyKey);
+    
+    /**
+     * 设置活动名额，名额增加时按顺序递补候补名单
+     * @param planId 活动计划ID
+     * @param capacity 名额上限，为空时保持原设置，小于等于0表示不限
+     * @param waitlistEnabled 名额已满时是否进入候补，为空时保持原设置
+     */
+    void saveCapacity(Long planId, Integer capacity, Boolean waitlistEnabled);
     
     /**
      * 取消预约
+     * 取消已占用的名额时按顺序递补候补名单
      * @param reservationId 预约ID
      * @param studentId 学生ID（用于权限验证）
      * @return 取消结果
@@ -0,0 +1,43 @@
+package com.back_hexiang_studio.service;
+
+import com.back_hexiang_studio.enumeration.AttendanceStatus;
+
+import java.util.Map;
+
+/**
+ * 考勤签到快速通道
+ * 签到窗口内由 Redis 原子脚本受理签到，签到记录异步批量落库
+ */
+public interface AttendanceCheckInService {
+
+    /**
+     * 快速签到
+     * @param planId 考勤计划ID
+     * @param userId 用户ID
+     * @param latitude 签到纬度
+     * @param longitude 签到经度
+     * @param location 签到位置描述
+     * @return 签到结果；返回 null 表示快速通道不可用，需走 AttendanceService.studentCheckIn
+     */
+    Map<String, Object> tryFastCheckIn(Long planId, Long userId, Double latitude, Double longitude, String location);
+
+    /**
+     * 同步学生在快速通道中的考勤状态（当前事务提交后生效）
+     * @param planId 考勤计划ID
+     * @param studentId 学生ID
+     * @param status 考勤状态，待签到或缺勤表示可以重新签到
+     */
+    void syncRecordStatus(Long planId, Long studentId, AttendanceStatus status);
+
+    /**
+     * 考勤计划或参与名单变更后清除预热数据（当前事务提交后生效），下次预热时重建
+     * @param planId 考勤计划ID
+     */
+    void invalidatePlan(Long planId);
+
+    /**
+     * 快速通道运行统计
+     * @return 统计信息
+     */
+    Map<String, Object> getStats();
+}
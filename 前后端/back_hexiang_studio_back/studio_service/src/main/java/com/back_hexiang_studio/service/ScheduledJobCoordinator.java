@@ -0,0 +1,70 @@
+package com.back_hexiang_studio.service;
+
+/**
+ * 定时任务集群协调
+ * 多实例部署时，同一任务在同一轮调度中只由持有租约的节点执行；
+ * 租约带单调递增的防护令牌（fencing token），业务事务内校验令牌，过期的持有者无法再写入
+ */
+public interface ScheduledJobCoordinator {
+
+    /**
+     * 任务主体
+     */
+    interface JobBody {
+        /**
+         * @param context 本次执行的租约上下文
+         * @return 影响的行数，记入执行历史
+         */
+        int run(JobContext context) throws Exception;
+    }
+
+    /**
+     * 租约上下文
+     */
+    interface JobContext {
+
+        /** 防护令牌 */
+        long getFencingToken();
+
+        /** 当前分片序号，非分片任务为 0 */
+        int getShardIndex();
+
+        /** 分片总数，非分片任务为 1 */
+        int getShardCount();
+
+        /**
+         * 校验租约仍由本节点持有，须在业务事务内调用；
+         * 会锁定租约行直到事务结束，期间其他节点无法接管
+         * @throws LeaseLostException 租约已被其他节点接管
+         */
+        void fence();
+    }
+
+    /**
+     * 租约已被其他节点接管，本节点应停止写入
+     */
+    class LeaseLostException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public LeaseLostException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 获取租约后执行任务；租约被占用或本轮已由其他节点执行成功时直接跳过
+     * @param jobName 任务名称
+     * @param body 任务主体
+     * @return 是否在本节点执行
+     */
+    boolean runExclusive(String jobName, JobBody body);
+
+    /**
+     * 按分片执行任务：每个分片单独持有租约，各节点从不同分片开始争抢，
+     * 未被领取的分片（如其他节点宕机）由其他节点补上
+     * @param jobName 任务名称
+     * @param body 任务主体，查询时带上分片条件（ID % 分片总数 = 分片序号）只取本分片的数据
+     * @return 本节点执行的分片数
+     */
+    int runSharded(String jobName, JobBody body);
+}
@@ -1,9 +1,12 @@
 package com.back_hexiang_studio.service.impl;
 
 import com.back_hexiang_studio.service.ActivityReservationService;
+import com.back_hexiang_studio.service.AttendanceCheckInService;
 import com.back_hexiang_studio.mapper.ActivityReservationMapper;
 import com.back_hexiang_studio.mapper.StudentMapper;
 import com.back_hexiang_studio.mapper.AttendancePlanMapper;
+import com.back_hexiang_studio.mapper.ActivityCapacityMapper;
+import com.back_hexiang_studio.entity.ActivityCapacity;
 import com.back_hexiang_studio.entity.ActivityReservation;
 import com.back_hexiang_studio.entity.AttendancePlan;
 import com.back_hexiang_studio.dv.dto.ActivityReservationDto;
@@ -14,18 +17,31 @@ import com.back_hexiang_studio.GlobalException.ParamException;
 import com.back_hexiang_studio.GlobalException.ErrorCode;
 import com.github.pagehelper.PageHelper;
 import com.github.pagehelper.PageInfo;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.StringUtils;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * 活动预约服务实现类
  * 
+ * 预约、取消、名额调整先锁定活动的名额设置行（lockSeats），同一活动的这些操作串行执行。
+ * 这些事务使用 READ_COMMITTED：MySQL 默认的 REPEATABLE READ 下，锁之前的普通查询已经确定了快照，
+ * 拿到锁后的名额统计和重复预约检查仍读旧快照，会漏掉刚提交的预约而超卖
+ * 
  * @author Hexiang
  * @date 2024/09/27
  */
@@ -33,6 +49,28 @@ import java.util.*;
 @Service
 public class ActivityReservationServiceImpl implements ActivityReservationService {
     
+    private static final String STATUS_RESERVED = "reserved";
+    private static final String STATUS_WAITLISTED = "waitlisted";
+    
+    private static final String IDEMPOTENCY_KEY_PREFIX = "activity:reservation:idempotency:";
+    private static final String IDEMPOTENCY_PROCESSING = "processing";
+    // 处理中标记的有效期，防止进程中断后键一直被占用
+    private static final Duration IDEMPOTENCY_PROCESSING_TTL = Duration.ofSeconds(30);
+    
+    private static final String CAPACITY_DDL =
+        "CREATE TABLE IF NOT EXISTS activity_capacity (" +
+            "plan_id BIGINT NOT NULL PRIMARY KEY, capacity INT NULL, " +
+            "waitlist_enabled TINYINT(1) NOT NULL DEFAULT 0, " +
+            "create_time DATETIME NULL, update_time DATETIME NULL)";
+    
+    // 已有活动补齐不限名额的设置行，避免首批并发预约时才创建
+    private static final String CAPACITY_BACKFILL_SQL =
+        "INSERT IGNORE INTO activity_capacity (plan_id, capacity, waitlist_enabled, create_time, update_time) " +
+        "SELECT plan_id, NULL, 0, NOW(), NOW() FROM attendance_plan WHERE type = 'activity'";
+    
+    @Value("${attendance.reservation.idempotency-ttl-hours:24}")
+    private long idempotencyTtlHours;
+    
     @Autowired
     private ActivityReservationMapper activityReservationMapper;
     
@@ -42,8 +80,31 @@ public class ActivityReservationServiceImpl implements ActivityReservationServic
     @Autowired
     private AttendancePlanMapper attendancePlanMapper;
     
+    @Autowired
+    private AttendanceCheckInService attendanceCheckInService;
+    
+    @Autowired
+    private ActivityCapacityMapper activityCapacityMapper;
+    
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @PostConstruct
+    public void initialize() {
+        try {
+            jdbcTemplate.execute(CAPACITY_DDL);
+            int backfilled = jdbcTemplate.update(CAPACITY_BACKFILL_SQL);
+            log.info("活动名额表检查完成，补齐名额设置: {}", backfilled);
+        } catch (Exception e) {
+            log.error("创建活动名额表失败: {}", e.getMessage());
+        }
+    }
+    
     @Override
-    @Transactional(rollbackFor = Exception.class)
+    @Transactional(rollbackFor = Exception.class, isolation = Isolation.READ_COMMITTED)
     public Map<String, Object> batchCreateReservation(ActivityReservationDto reservationDto) {
         try {
             log.info("批量创建活动预约，计划ID: {}, 学生数量: {}", 
@@ -63,12 +124,25 @@ public class ActivityReservationServiceImpl implements ActivityReservationServic
             }
             
             List<Long> studentIds = reservationDto.getStudentIds();
+            List<Long> distinctStudentIds = new ArrayList<>(new LinkedHashSet<>(studentIds));
+            
+            // 锁定名额后一次查出已有预约，名额与重复检查在锁内完成
+            ActivityCapacity capacity = lockSeats(plan.getPlanId());
+            Set<Long> activeStudentIds = new HashSet<>();
+            for (ActivityReservation existing : activityReservationMapper.selectActiveByPlanIdAndStudentIds(plan.getPlanId(), distinctStudentIds)) {
+                activeStudentIds.add(existing.getStudentId());
+            }
+            int remainingSeats = capacity.isLimited()
+                    ? Math.max(0, capacity.getCapacity() - activityReservationMapper.countOccupiedSeats(plan.getPlanId()))
+                    : Integer.MAX_VALUE;
             
             // 准备批量插入的预约记录
             List<ActivityReservation> reservations = new ArrayList<>();
             List<String> conflictStudents = new ArrayList<>();
+            List<String> waitlistedStudents = new ArrayList<>();
+            List<String> fullStudents = new ArrayList<>();
             
-            for (Long studentId : studentIds) {
+            for (Long studentId : distinctStudentIds) {
                 try {
                     // 检查学生是否存在
                     Boolean studentExists = studentMapper.selectById(studentId);
@@ -77,17 +151,30 @@ public class ActivityReservationServiceImpl implements ActivityReservationServic
                         continue;
                     }
                     
-                    // 检查是否已预约
-                    if (activityReservationMapper.isStudentReserved(reservationDto.getPlanId(), studentId)) {
+                    // 检查是否已预约（含候补）
+                    if (activeStudentIds.contains(studentId)) {
                         conflictStudents.add(studentId.toString());
                         log.debug("学生{}已预约此活动，跳过", studentId);
                         continue;
                     }
                     
+                    // 分配名额，名额已满时进入候补或跳过
+                    String status;
+                    if (remainingSeats > 0) {
+                        status = STATUS_RESERVED;
+                        remainingSeats--;
+                    } else if (Boolean.TRUE.equals(capacity.getWaitlistEnabled())) {
+                        status = STATUS_WAITLISTED;
+                        waitlistedStudents.add(studentId.toString());
+                    } else {
+                        fullStudents.add(studentId.toString());
+                        continue;
+                    }
+                    
                     ActivityReservation reservation = new ActivityReservation();
                     reservation.setPlanId(reservationDto.getPlanId());
                     reservation.setStudentId(studentId);
-                    reservation.setStatus("reserved");
+                    reservation.setStatus(status);
                     reservation.setReservationTime(LocalDateTime.now());
                     reservation.setRemark(reservationDto.getRemark());
                     reservations.add(reservation);
@@ -108,10 +195,12 @@ public class ActivityReservationServiceImpl implements ActivityReservationServic
             result.put("successCount", successCount);
             result.put("totalCount", studentIds.size());
             result.put("conflictStudents", conflictStudents);
+            result.put("waitlistedStudents", waitlistedStudents);
+            result.put("fullStudents", fullStudents);
             result.put("activityName", plan.getName());
             
-            log.info("批量创建活动预约完成，成功: {}, 总数: {}, 冲突: {}", 
-                    successCount, studentIds.size(), conflictStudents.size());
+            log.info("批量创建活动预约完成，成功: {}, 总数: {}, 冲突: {}, 候补: {}, 名额不足: {}", 
+                    successCount, studentIds.size(), conflictStudents.size(), waitlistedStudents.size(), fullStudents.size());
             
             return result;
             
@@ -124,14 +213,21 @@ public class ActivityReservationServiceImpl implements ActivityReservationServic
     }
     
     @Override
-    @Transactional(rollbackFor = Exception.class)
-    public Map<String, Object> reserveActivity(Long planId, Long studentId, String remark) {
+    @Transactional(rollbackFor = Exception.class, isolation = Isolation.READ_COMMITTED)
+    public Map<String, Object> reserveActivity(Long planId, Long studentId, String remark, String idempotencyKey) {
         try {
             log.info("学生预约活动，计划ID: {}, 学生ID: {}", planId, studentId);
             
             // 参数校验
             validateReserveParams(planId, studentId);
             
+            // 幂等：相同的键已处理成功时直接返回首次结果
+            AtomicReference<Long> createdReservationId = new AtomicReference<>();
+            Map<String, Object> replayed = claimIdempotencyKey(studentId, idempotencyKey, createdReservationId);
+            if (replayed != null) {
+                return replayed;
+            }
+            
             // 验证活动计划
             AttendancePlan plan = validateAndGetActivityPlan(planId);
             
@@ -148,17 +244,34 @@ public class ActivityReservationServiceImpl implements ActivityReservationServic
                 throw new NotFoundException(ErrorCode.USER_NOT_FOUND, "学生不存在");
             }
             
-            // 检查是否已预约
-            if (activityReservationMapper.isStudentReserved(planId, studentId)) {
-                log.warn("学生已预约此活动，计划ID: {}, 学生ID: {}", planId, studentId);
-                throw new BusinessException(ErrorCode.DATA_CONFLICT, "您已预约此活动");
+            // 锁定名额，同一活动的并发预约在此排队，之后的重复检查与名额分配不会交错
+            ActivityCapacity capacity = lockSeats(planId);
+            
+            // 检查是否已预约（含候补）
+            ActivityReservation existing = activityReservationMapper.selectActiveByPlanIdAndStudentId(planId, studentId);
+            if (existing != null) {
+                log.warn("学生已预约此活动，计划ID: {}, 学生ID: {}, 状态: {}", planId, studentId, existing.getStatus());
+                throw new BusinessException(ErrorCode.DATA_CONFLICT,
+                        STATUS_WAITLISTED.equals(existing.getStatus()) ? "您已在此活动的候补名单中" : "您已预约此活动");
+            }
+            
+            // 分配名额
+            int occupiedSeats = activityReservationMapper.countOccupiedSeats(planId);
+            String status;
+            if (!capacity.isLimited() || occupiedSeats < capacity.getCapacity()) {
+                status = STATUS_RESERVED;
+            } else if (Boolean.TRUE.equals(capacity.getWaitlistEnabled())) {
+                status = STATUS_WAITLISTED;
+            } else {
+                log.warn("活动名额已满，计划ID: {}, 名额: {}", planId, capacity.getCapacity());
+                throw new BusinessException(ErrorCode.OPERATION_NOT_ALLOWED, "活动名额已满");
             }
             
             // 创建预约记录
             ActivityReservation reservation = new ActivityReservation();
             reservation.setPlanId(planId);
             reservation.setStudentId(studentId);
-            reservation.setStatus("reserved");
+            reservation.setStatus(status);
             reservation.setReservationTime(LocalDateTime.now());
             reservation.setRemark(remark);
             
@@ -167,13 +280,18 @@ public class ActivityReservationServiceImpl implements ActivityReservationServic
                 log.error("插入预约记录失败，计划ID: {}, 学生ID: {}", planId, studentId);
                 throw new BusinessException(ErrorCode.SYSTEM_ERROR, "预约失败");
             }
+            createdReservationId.set(reservation.getReservationId());
             
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("activityName", plan.getName());
-            response.put("reservationTime", reservation.getReservationTime());
+            Map<String, Object> response = buildReservationResponse(plan, reservation);
+            if (capacity.isLimited()) {
+                int occupiedAfter = STATUS_RESERVED.equals(status) ? occupiedSeats + 1 : occupiedSeats;
+                response.put("remainingSeats", Math.max(0, capacity.getCapacity() - occupiedAfter));
+            }
+            if (STATUS_WAITLISTED.equals(status)) {
+                response.put("waitlistPosition", activityReservationMapper.countWaitlisted(planId));
+            }
             
-            log.info("学生预约活动成功，计划ID: {}, 学生ID: {}", planId, studentId);
+            log.info("学生预约活动成功，计划ID: {}, 学生ID: {}, 状态: {}", planId, studentId, status);
             return response;
             
         } catch (ParamException | BusinessException | NotFoundException e) {
@@ -185,7 +303,32 @@ public class ActivityReservationServiceImpl implements ActivityReservationServic
     }
     
     @Override
-    @Transactional(rollbackFor = Exception.class)
+    @Transactional(rollbackFor = Exception.class, isolation = Isolation.READ_COMMITTED)
+    public void saveCapacity(Long planId, Integer capacity, Boolean waitlistEnabled) {
+        if (planId == null || planId <= 0) {
+            throw new ParamException(ErrorCode.PARAM_ERROR, "计划ID不能为空且必须大于0");
+        }
+        
+        ActivityCapacity current = lockSeats(planId);
+        if (capacity == null && waitlistEnabled == null) {
+            return;
+        }
+        if (capacity != null) {
+            current.setCapacity(capacity > 0 ? capacity : null);
+        }
+        if (waitlistEnabled != null) {
+            current.setWaitlistEnabled(waitlistEnabled);
+        }
+        activityCapacityMapper.upsert(current);
+        
+        // 名额增加或取消限制时递补候补名单
+        int promotedCount = promoteWaitlist(planId, current);
+        log.info("设置活动名额，计划ID: {}, 名额: {}, 候补: {}, 递补人数: {}",
+                planId, current.getCapacity(), current.getWaitlistEnabled(), promotedCount);
+    }
+    
+    @Override
+    @Transactional(rollbackFor = Exception.class, isolation = Isolation.READ_COMMITTED)
     public Map<String, Object> cancelReservation(Long reservationId, Long studentId) {
         try {
             log.info("取消活动预约，预约ID: {}, 学生ID: {}", reservationId, studentId);
@@ -223,15 +366,28 @@ public class ActivityReservationServiceImpl implements ActivityReservationServic
                 throw new BusinessException(ErrorCode.OPERATION_NOT_ALLOWED, "活动已开始，无法取消预约");
             }
             
+            // 锁定名额后重新读取，避免与并发的取消、递补交错
+            ActivityCapacity capacity = lockSeats(reservation.getPlanId());
+            reservation = activityReservationMapper.selectById(reservationId);
+            if (reservation == null || "cancelled".equals(reservation.getStatus())) {
+                throw new BusinessException(ErrorCode.BUSINESS_STATE_ERROR, "预约已取消");
+            }
+            boolean releasedSeat = !STATUS_WAITLISTED.equals(reservation.getStatus());
+            
             int result = activityReservationMapper.cancelReservation(reservationId);
             if (result <= 0) {
                 log.error("取消预约失败，预约ID: {}", reservationId);
                 throw new BusinessException(ErrorCode.SYSTEM_ERROR, "取消预约失败");
             }
+            attendanceCheckInService.invalidatePlan(reservation.getPlanId());
+            
+            // 释放了名额时递补候补名单
+            int promotedCount = releasedSeat ? promoteWaitlist(reservation.getPlanId(), capacity) : 0;
             
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
             response.put("activityName", plan != null ? plan.getName() : "");
+            response.put("promotedCount", promotedCount);
             
             log.info("取消活动预约成功，预约ID: {}, 学生ID: {}", reservationId, studentId);
             return response;
@@ -245,7 +401,7 @@ public class ActivityReservationServiceImpl implements ActivityReservationServic
     }
     
     @Override
-    @Transactional(rollbackFor = Exception.class)
+    @Transactional(rollbackFor = Exception.class, isolation = Isolation.READ_COMMITTED)
     public Map<String, Object> batchCancelReservation(Long planId, List<Long> studentIds) {
         try {
             log.info("批量取消预约，计划ID: {}, 学生数量: {}", planId, 
@@ -259,11 +415,15 @@ public class ActivityReservationServiceImpl implements ActivityReservationServic
                 throw new ParamException(ErrorCode.PARAM_MISSING, "请选择要取消预约的学生");
             }
             
+            ActivityCapacity capacity = lockSeats(planId);
             int result = activityReservationMapper.batchCancelReservation(planId, studentIds);
+            attendanceCheckInService.invalidatePlan(planId);
+            int promotedCount = promoteWaitlist(planId, capacity);
             
             Map<String, Object> response = new HashMap<>();
             response.put("successCount", result);
             response.put("totalCount", studentIds.size());
+            response.put("promotedCount", promotedCount);
             
             log.info("批量取消预约完成，成功: {}, 总数: {}", result, studentIds.size());
             return response;
@@ -356,8 +516,19 @@ public class ActivityReservationServiceImpl implements ActivityReservationServic
                 statistics.put("totalReservations", 0);
                 statistics.put("activeReservations", 0);
                 statistics.put("cancelledReservations", 0);
+            } else {
+                statistics = new HashMap<>(statistics);
             }
             
+            // 名额信息
+            ActivityCapacity capacity = activityCapacityMapper.selectByPlanId(planId);
+            boolean limited = capacity != null && capacity.isLimited();
+            statistics.put("capacity", limited ? capacity.getCapacity() : null);
+            statistics.put("waitlistEnabled", capacity != null && Boolean.TRUE.equals(capacity.getWaitlistEnabled()));
+            statistics.put("remainingSeats", limited
+                    ? Math.max(0, capacity.getCapacity() - activityReservationMapper.countOccupiedSeats(planId))
+                    : null);
+            
             log.info("获取预约统计成功，计划ID: {}", planId);
             return statistics;
             
@@ -493,6 +664,133 @@ public class ActivityReservationServiceImpl implements ActivityReservationServic
         }
     }
 
+    /**
+     * 锁定活动的名额设置行，同一活动的预约、取消、名额调整在此串行；
+     * 调用方事务须为 READ_COMMITTED，锁后的查询才能读到其他事务刚提交的预约
+     * 
+     * @param planId 计划ID
+     * @return 名额设置
+     */
+    private ActivityCapacity lockSeats(Long planId) {
+        ActivityCapacity capacity = activityCapacityMapper.selectByPlanIdForUpdate(planId);
+        if (capacity == null) {
+            activityCapacityMapper.insertIfAbsent(planId);
+            capacity = activityCapacityMapper.selectByPlanIdForUpdate(planId);
+        }
+        return capacity;
+    }
+
+    /**
+     * 按预约先后把候补转为已预约，直到名额用完；调用前需已锁定名额
+     * 
+     * @param planId 计划ID
+     * @param capacity 名额设置
+     * @return 递补人数
+     */
+    private int promoteWaitlist(Long planId, ActivityCapacity capacity) {
+        Integer limit = null;
+        if (capacity.isLimited()) {
+            int freeSeats = capacity.getCapacity() - activityReservationMapper.countOccupiedSeats(planId);
+            if (freeSeats <= 0) {
+                return 0;
+            }
+            limit = freeSeats;
+        }
+        
+        List<ActivityReservation> waitlisted = activityReservationMapper.selectWaitlisted(planId, limit);
+        if (waitlisted.isEmpty()) {
+            return 0;
+        }
+        List<Long> reservationIds = new ArrayList<>();
+        List<Long> studentIds = new ArrayList<>();
+        for (ActivityReservation reservation : waitlisted) {
+            reservationIds.add(reservation.getReservationId());
+            studentIds.add(reservation.getStudentId());
+        }
+        int promoted = activityReservationMapper.promoteWaitlisted(reservationIds);
+        log.info("候补递补成功，计划ID: {}, 递补人数: {}, 学生ID: {}", planId, promoted, studentIds);
+        return promoted;
+    }
+
+    /**
+     * 占用幂等键；键已对应成功的预约时返回该预约的结果
+     * 事务提交后键记录预约ID，回滚时释放，Redis 不可用时不做幂等处理（重复预约仍由名额锁拦截）
+     * 
+     * @param studentId 学生ID
+     * @param idempotencyKey 幂等键
+     * @param createdReservationId 本次创建的预约ID
+     * @return 首次预约结果，没有时返回null
+     */
+    private Map<String, Object> claimIdempotencyKey(Long studentId, String idempotencyKey, AtomicReference<Long> createdReservationId) {
+        if (!StringUtils.hasText(idempotencyKey)) {
+            return null;
+        }
+        String redisKey = IDEMPOTENCY_KEY_PREFIX + studentId + ":" + idempotencyKey.trim();
+        try {
+            String previous = stringRedisTemplate.opsForValue().get(redisKey);
+            if (IDEMPOTENCY_PROCESSING.equals(previous)) {
+                throw new BusinessException(ErrorCode.DATA_CONFLICT, "预约请求正在处理中，请勿重复提交");
+            }
+            if (previous != null) {
+                ActivityReservation reservation = activityReservationMapper.selectById(Long.valueOf(previous));
+                if (reservation != null) {
+                    log.info("重复的预约请求，返回首次结果，学生ID: {}, 预约ID: {}", studentId, previous);
+                    Map<String, Object> response = buildReservationResponse(
+                            attendancePlanMapper.selectById(reservation.getPlanId()), reservation);
+                    response.put("replayed", true);
+                    return response;
+                }
+                stringRedisTemplate.opsForValue().set(redisKey, IDEMPOTENCY_PROCESSING, IDEMPOTENCY_PROCESSING_TTL);
+            } else if (!Boolean.TRUE.equals(stringRedisTemplate.opsForValue()
+                    .setIfAbsent(redisKey, IDEMPOTENCY_PROCESSING, IDEMPOTENCY_PROCESSING_TTL))) {
+                throw new BusinessException(ErrorCode.DATA_CONFLICT, "预约请求正在处理中，请勿重复提交");
+            }
+        } catch (BusinessException e) {
+            throw e;
+        } catch (Exception e) {
+            log.warn("幂等键处理失败，按普通请求处理，学生ID: {}, 原因: {}", studentId, e.getMessage());
+            return null;
+        }
+        
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    try {
+                        Long reservationId = createdReservationId.get();
+                        if (status == STATUS_COMMITTED && reservationId != null) {
+                            stringRedisTemplate.opsForValue().set(redisKey, reservationId.toString(),
+                                    Duration.ofHours(idempotencyTtlHours));
+                        } else {
+                            stringRedisTemplate.delete(redisKey);
+                        }
+                    } catch (Exception e) {
+                        log.warn("保存幂等键结果失败，键: {}, 原因: {}", redisKey, e.getMessage());
+                    }
+                }
+            });
+        }
+        return null;
+    }
+
+    /**
+     * 构建预约结果
+     * 
+     * @param plan 活动计划
+     * @param reservation 预约记录
+     * @return 预约结果
+     */
+    private Map<String, Object> buildReservationResponse(AttendancePlan plan, ActivityReservation reservation) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("activityName", plan != null ? plan.getName() : "");
+        response.put("reservationId", reservation.getReservationId());
+        response.put("reservationTime", reservation.getReservationTime());
+        response.put("status", reservation.getStatus());
+        response.put("waitlisted", STATUS_WAITLISTED.equals(reservation.getStatus()));
+        return response;
+    }
+
     /**
      * 校验预约DTO参数
      * 
@@ -0,0 +1,729 @@
+package com.back_hexiang_studio.service.impl;
+
+import com.back_hexiang_studio.GlobalException.BusinessException;
+import com.back_hexiang_studio.entity.AttendancePlan;
+import com.back_hexiang_studio.entity.AttendanceRecord;
+import com.back_hexiang_studio.enumeration.AttendanceStatus;
+import com.back_hexiang_studio.mapper.ActivityReservationMapper;
+import com.back_hexiang_studio.mapper.AttendancePlanMapper;
+import com.back_hexiang_studio.mapper.AttendanceRecordMapper;
+import com.back_hexiang_studio.mapper.StudentMapper;
+import com.back_hexiang_studio.service.AttendanceCheckInService;
+import com.back_hexiang_studio.utils.LocationVerificationService;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.connection.stream.StringRecord;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 考勤签到快速通道实现
+ *
+ * 考勤窗口开放时整班学生同时签到，原流程每次签到都要查学生、查计划、查选课/预约/值班名单，
+ * 再在事务里对考勤记录加锁。快速通道把这些工作挪到签到之前和之后：
+ * - 预热：计划开始前把参与名单写入 Redis 位图（按学生ID置位），已签到/请假的学生写入已签到哈希
+ * - 受理：计划的时间窗口、签到范围缓存在本机内存中校验；资格判断、防重复、记录签到事件由一个 Lua 脚本原子完成
+ * - 落库：后台按批读取签到事件流（消费者组），在一个事务内按 (计划ID, 学生ID) 加锁后插入或更新，提交后再确认事件；
+ *   进程中断时未确认的事件会被重新投递，已签到的记录不会被覆盖，保证每个学生只落库一次；
+ *   每轮都读取新事件，失败的事件单独重试，投递次数达到上限后转入死信流，不阻塞后续签到落库
+ *
+ * 计划未预热、学生不在名单内、Redis 不可用时返回 null，由原有签到流程处理。
+ * 脚本同时操作计划键和全局事件流，要求单节点 Redis。
+ */
+@Service
+@Slf4j
+public class AttendanceCheckInServiceImpl implements AttendanceCheckInService {
+
+    private static final String KEY_PREFIX = "attendance:checkin:";
+    private static final String STREAM_KEY = KEY_PREFIX + "stream";
+    private static final String CONSUMER_GROUP = "attendance-persist";
+    private static final String DEAD_LETTER_KEY = KEY_PREFIX + "dead-letter";
+
+    // 死信流保留的最大条数（近似裁剪）
+    private static final long DEAD_LETTER_MAX_LENGTH = 10_000;
+
+    // 预热数据在计划结束后保留的时间
+    private static final Duration KEY_RETENTION = Duration.ofHours(1);
+
+    private static final String RESULT_OK = "OK";
+    private static final String RESULT_DUPLICATE_PREFIX = "DUP:";
+
+    /**
+     * KEYS: 就绪标记、参与名单位图、已签到哈希、事件流
+     * ARGV: 学生ID、签到状态、计划ID、考勤类型、签到时间、纬度、经度、位置描述（已去除控制字符并截断）
+     */
+    private static final DefaultRedisScript<String> CHECK_IN_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[1]) == 0 then return 'NOT_READY' end\n" +
+            "if redis.call('GETBIT', KEYS[2], ARGV[1]) == 0 then return 'NOT_ELIGIBLE' end\n" +
+            "local settled = redis.call('HGET', KEYS[3], ARGV[1])\n" +
+            "if settled then return 'DUP:' .. settled end\n" +
+            "redis.call('HSET', KEYS[3], ARGV[1], ARGV[2])\n" +
+            "redis.call('PEXPIRE', KEYS[3], redis.call('PTTL', KEYS[1]))\n" +
+            "redis.call('XADD', KEYS[4], '*', 'planId', ARGV[3], 'studentId', ARGV[1], 'status', ARGV[2],\n" +
+            "    'type', ARGV[4], 'signInTime', ARGV[5], 'lat', ARGV[6], 'lng', ARGV[7], 'location', ARGV[8])\n" +
+            "return 'OK'",
+            String.class);
+
+    /**
+     * 仅在计划已预热时同步单个学生的状态；ARGV[2] 为空表示清除
+     * KEYS: 就绪标记、已签到哈希
+     */
+    private static final DefaultRedisScript<Long> SYNC_STATUS_SCRIPT = new DefaultRedisScript<>(
+            "local ttl = redis.call('PTTL', KEYS[1])\n" +
+            "if ttl <= 0 then return 0 end\n" +
+            "if ARGV[2] == '' then\n" +
+            "    redis.call('HDEL', KEYS[2], ARGV[1])\n" +
+            "else\n" +
+            "    redis.call('HSET', KEYS[2], ARGV[1], ARGV[2])\n" +
+            "    redis.call('PEXPIRE', KEYS[2], ttl)\n" +
+            "end\n" +
+            "return 1",
+            Long.class);
+
+    @Value("${attendance.check-in.hot-path-enabled:true}")
+    private boolean enabled;
+
+    // 计划开始前多久预热
+    @Value("${attendance.check-in.warm-lead-minutes:10}")
+    private long warmLeadMinutes;
+
+    @Value("${attendance.check-in.flush-batch-size:200}")
+    private int flushBatchSize;
+
+    // 其他实例的事件超过该时长未确认则接管
+    @Value("${attendance.check-in.claim-idle-ms:60000}")
+    private long claimIdleMs;
+
+    // 本消费者未确认事件的重试间隔
+    @Value("${attendance.check-in.retry-interval-ms:5000}")
+    private long retryIntervalMs;
+
+    // 事件累计投递达到该次数仍未落库则转入死信流
+    @Value("${attendance.check-in.max-deliveries:5}")
+    private int maxDeliveries;
+
+    // 位置描述最大字符数，不超过 attendance_record.location 字段长度
+    @Value("${attendance.check-in.location-max-length:255}")
+    private int locationMaxLength;
+
+    @Value("${attendance.check-in.plan-cache-seconds:60}")
+    private long planCacheSeconds;
+
+    @Value("${attendance.check-in.consumer-name:}")
+    private String consumerName;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private AttendancePlanMapper attendancePlanMapper;
+
+    @Autowired
+    private AttendanceRecordMapper attendanceRecordMapper;
+
+    @Autowired
+    private StudentMapper studentMapper;
+
+    @Autowired
+    private ActivityReservationMapper activityReservationMapper;
+
+    @Autowired
+    private LocationVerificationService locationVerificationService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    // 计划快照：时间窗口、签到范围、考勤类型
+    private Cache<Long, Optional<AttendancePlan>> planSnapshots;
+
+    // 用户ID -> 学生ID
+    private final Cache<Long, Optional<Long>> studentIds = CacheBuilder.newBuilder()
+            .maximumSize(20_000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    private volatile boolean groupReady;
+    private volatile long lastRetryAt;
+
+    private final AtomicLong acceptedCount = new AtomicLong();
+    private final AtomicLong duplicateCount = new AtomicLong();
+    private final AtomicLong fallbackCount = new AtomicLong();
+    private final AtomicLong persistedCount = new AtomicLong();
+    private final AtomicLong skippedCount = new AtomicLong();
+    private final AtomicLong persistFailureCount = new AtomicLong();
+    private final AtomicLong deadLetterCount = new AtomicLong();
+    private final AtomicLong warmedPlanCount = new AtomicLong();
+
+    @PostConstruct
+    public void initialize() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        planSnapshots = CacheBuilder.newBuilder()
+                .maximumSize(1_000)
+                .expireAfterWrite(planCacheSeconds, TimeUnit.SECONDS)
+                .build();
+        if (consumerName == null || consumerName.isEmpty()) {
+            consumerName = resolveConsumerName();
+        }
+        log.info(" 考勤签到快速通道初始化完成: 启用={}, 预热提前={}分钟, 落库批量={}, 消费者={}",
+                enabled, warmLeadMinutes, flushBatchSize, consumerName);
+    }
+
+    @Override
+    public Map<String, Object> tryFastCheckIn(Long planId, Long userId, Double latitude, Double longitude, String location) {
+        if (!enabled || planId == null || userId == null) {
+            return null;
+        }
+        try {
+            Long studentId = studentIds.get(userId,
+                    () -> Optional.ofNullable(studentMapper.getStudentIdByUserId(userId))).orElse(null);
+            AttendancePlan plan = planSnapshots.get(planId,
+                    () -> Optional.ofNullable(attendancePlanMapper.selectById(planId))).orElse(null);
+            if (studentId == null || plan == null) {
+                fallbackCount.incrementAndGet();
+                return null;
+            }
+
+            // 时间与位置校验与原流程一致
+            LocalDateTime now = LocalDateTime.now();
+            if (now.isBefore(plan.getStartTime())) {
+                throw new BusinessException("考勤尚未开始");
+            }
+            if (now.isAfter(plan.getEndTime())) {
+                throw new BusinessException("考勤已结束");
+            }
+            boolean locationValid = locationVerificationService.isLocationValid(
+                    latitude, longitude, plan.getLocationLat(), plan.getLocationLng(), plan.getRadius());
+            if (!locationValid) {
+                throw new BusinessException("不在有效签到范围内");
+            }
+
+            AttendanceStatus status = AttendanceServiceImpl.resolveCheckInStatus(plan, now);
+            String result = stringRedisTemplate.execute(CHECK_IN_SCRIPT,
+                    Arrays.asList(readyKey(planId), eligibleKey(planId), settledKey(planId), STREAM_KEY),
+                    studentId.toString(), status.name(), planId.toString(), plan.getType(), now.toString(),
+                    latitude.toString(), longitude.toString(), sanitizeLocation(location));
+
+            if (RESULT_OK.equals(result)) {
+                acceptedCount.incrementAndGet();
+                Map<String, Object> response = new HashMap<>();
+                response.put("recordId", null);
+                response.put("status", status.name());
+                response.put("message", status == AttendanceStatus.present ? "签到成功" : "签到成功，但您已迟到");
+                return response;
+            }
+            if (result != null && result.startsWith(RESULT_DUPLICATE_PREFIX)) {
+                duplicateCount.incrementAndGet();
+                AttendanceStatus settled = AttendanceStatus.valueOf(result.substring(RESULT_DUPLICATE_PREFIX.length()));
+                throw new BusinessException("无法重复签到，当前状态：" + AttendanceServiceImpl.getStatusMessage(settled));
+            }
+
+            // 未预热或不在名单内：交给原流程给出准确结果
+            fallbackCount.incrementAndGet();
+            return null;
+
+        } catch (BusinessException e) {
+            throw e;
+        } catch (Exception e) {
+            fallbackCount.incrementAndGet();
+            log.warn(" 快速签到不可用，转原流程处理 - 计划ID: {}, 用户ID: {}, 原因: {}", planId, userId, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void syncRecordStatus(Long planId, Long studentId, AttendanceStatus status) {
+        if (!enabled || planId == null || studentId == null) {
+            return;
+        }
+        boolean settled = status != null && status != AttendanceStatus.pending && status != AttendanceStatus.absent;
+        afterCommit(() -> stringRedisTemplate.execute(SYNC_STATUS_SCRIPT,
+                Arrays.asList(readyKey(planId), settledKey(planId)),
+                studentId.toString(), settled ? status.name() : ""));
+    }
+
+    @Override
+    public void invalidatePlan(Long planId) {
+        if (planId == null) {
+            return;
+        }
+        planSnapshots.invalidate(planId);
+        if (!enabled) {
+            return;
+        }
+        afterCommit(() -> {
+            stringRedisTemplate.delete(Arrays.asList(readyKey(planId), eligibleKey(planId), settledKey(planId)));
+            planSnapshots.invalidate(planId);
+            log.info(" 考勤计划 {} 的签到预热数据已清除，下次预热时重建", planId);
+        });
+    }
+
+    /**
+     * 预热签到窗口内的考勤计划
+     */
+    @Scheduled(fixedDelayString = "${attendance.check-in.warm-interval-ms:60000}",
+            initialDelayString = "${attendance.check-in.warm-initial-delay-ms:10000}")
+    public void warmUpcomingPlans() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            List<AttendancePlan> plans = attendancePlanMapper.findPlansInCheckInWindow(now, now.plusMinutes(warmLeadMinutes));
+            for (AttendancePlan plan : plans) {
+                if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(readyKey(plan.getPlanId())))) {
+                    continue;
+                }
+                warmPlan(plan, now);
+            }
+        } catch (Exception e) {
+            log.warn(" 考勤签到预热失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 批量落库签到事件
+     */
+    @Scheduled(fixedDelayString = "${attendance.check-in.flush-interval-ms:500}",
+            initialDelayString = "${attendance.check-in.warm-initial-delay-ms:10000}")
+    public void flushCheckIns() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            ensureConsumerGroup();
+            // 每轮都读取新事件；未确认的事件按间隔单独重试，个别失败事件不会阻塞后续签到落库
+            List<StringRecord> records = readNewEvents();
+            if (!records.isEmpty()) {
+                persist(records);
+            }
+            retryPendingEvents();
+        } catch (Exception e) {
+            log.warn(" 签到事件落库失败，稍后重试: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("accepted", acceptedCount.get());
+        stats.put("duplicates", duplicateCount.get());
+        stats.put("fallbacks", fallbackCount.get());
+        stats.put("persisted", persistedCount.get());
+        stats.put("skipped", skippedCount.get());
+        stats.put("persistFailures", persistFailureCount.get());
+        stats.put("deadLettered", deadLetterCount.get());
+        stats.put("warmedPlans", warmedPlanCount.get());
+        stats.put("planSnapshots", planSnapshots.size());
+        return stats;
+    }
+
+    /**
+     * 写入参与名单位图与已签到哈希，最后写入就绪标记
+     */
+    private void warmPlan(AttendancePlan plan, LocalDateTime now) {
+        Long planId = plan.getPlanId();
+        long ttlSeconds = Duration.between(now, plan.getEndTime()).plus(KEY_RETENTION).getSeconds();
+        if (ttlSeconds <= 0) {
+            return;
+        }
+
+        List<Long> eligibleIds = attendancePlanMapper.selectEligibleStudentIds(planId);
+        List<AttendanceRecord> records = attendanceRecordMapper.findByPlanId(planId);
+
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection redis = (StringRedisConnection) connection;
+            redis.del(eligibleKey(planId));
+            for (Long studentId : eligibleIds) {
+                if (studentId != null) {
+                    redis.setBit(eligibleKey(planId), studentId, true);
+                }
+            }
+            for (AttendanceRecord record : records) {
+                AttendanceStatus status = record.getStatus();
+                if (status != null && status != AttendanceStatus.pending && status != AttendanceStatus.absent) {
+                    redis.hSetNX(settledKey(planId), record.getStudentId().toString(), status.name());
+                }
+            }
+            redis.expire(eligibleKey(planId), ttlSeconds);
+            redis.expire(settledKey(planId), ttlSeconds);
+            redis.setEx(readyKey(planId), ttlSeconds, "1");
+            return null;
+        });
+
+        planSnapshots.put(planId, Optional.of(plan));
+        warmedPlanCount.incrementAndGet();
+        log.info(" 考勤计划 {} 签到预热完成 - 参与人数: {}, 已有记录: {}", planId, eligibleIds.size(), records.size());
+    }
+
+    /**
+     * 一批事件在一个事务内落库，提交后确认；整批失败时逐条重试，仍失败的事件保留待下次处理
+     */
+    private void persist(List<StringRecord> records) {
+        List<CheckInEvent> events = new ArrayList<>();
+        List<StringRecord> malformed = new ArrayList<>();
+        for (StringRecord record : records) {
+            CheckInEvent event = CheckInEvent.from(record);
+            if (event == null) {
+                malformed.add(record);
+            } else {
+                events.add(event);
+            }
+        }
+        if (!malformed.isEmpty()) {
+            deadLetter(malformed, "无法解析");
+        }
+        if (events.isEmpty()) {
+            return;
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> saveEvents(events));
+            acknowledge(events.stream().map(CheckInEvent::getId).toList());
+            return;
+        } catch (Exception e) {
+            log.warn(" 签到事件批量落库失败，改为逐条落库 - 事件数: {}, 原因: {}", events.size(), e.getMessage());
+        }
+
+        for (CheckInEvent event : events) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> saveEvents(List.of(event)));
+                acknowledge(List.of(event.getId()));
+            } catch (Exception e) {
+                persistFailureCount.incrementAndGet();
+                log.error(" 签到事件落库失败 - 计划ID: {}, 学生ID: {}, 原因: {}",
+                        event.getPlanId(), event.getStudentId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 按 (计划ID, 学生ID) 加锁后插入或更新；已签到、请假的记录保持不变
+     */
+    private void saveEvents(List<CheckInEvent> events) {
+        List<AttendanceRecord> keys = new ArrayList<>(events.size());
+        for (CheckInEvent event : events) {
+            AttendanceRecord key = new AttendanceRecord();
+            key.setPlanId(event.getPlanId());
+            key.setStudentId(event.getStudentId());
+            keys.add(key);
+        }
+        Map<String, AttendanceRecord> existing = new HashMap<>();
+        for (AttendanceRecord record : attendanceRecordMapper.findByPlanStudentPairsForUpdate(keys)) {
+            existing.putIfAbsent(record.getPlanId() + ":" + record.getStudentId(), record);
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        Set<String> handled = new HashSet<>();
+        List<AttendanceRecord> inserts = new ArrayList<>();
+        List<CheckInEvent> saved = new ArrayList<>();
+        int skipped = 0;
+        for (CheckInEvent event : events) {
+            String key = event.getPlanId() + ":" + event.getStudentId();
+            if (!handled.add(key)) {
+                skipped++;
+                continue;
+            }
+            AttendanceRecord record = existing.get(key);
+            if (record != null && record.getStatus() != AttendanceStatus.pending && record.getStatus() != AttendanceStatus.absent) {
+                skipped++;
+                continue;
+            }
+            if (record == null) {
+                record = new AttendanceRecord();
+                record.setPlanId(event.getPlanId());
+                record.setStudentId(event.getStudentId());
+                record.setCreateTime(now);
+            }
+            record.setStatus(event.getStatus());
+            record.setSignInTime(event.getSignInTime());
+            record.setLocation(event.getLocation());
+            record.setLocationLat(event.getLatitude());
+            record.setLocationLng(event.getLongitude());
+            record.setUpdateTime(now);
+            if (record.getRecordId() != null) {
+                attendanceRecordMapper.update(record);
+            } else {
+                inserts.add(record);
+            }
+            saved.add(event);
+        }
+        if (!inserts.isEmpty()) {
+            attendanceRecordMapper.batchInsert(inserts);
+        }
+
+        // 活动签到同步更新预约状态
+        for (CheckInEvent event : saved) {
+            if ("activity".equals(event.getType())) {
+                activityReservationMapper.updateReservationStatus(event.getPlanId(), event.getStudentId(), "checked_in");
+            }
+        }
+
+        persistedCount.addAndGet(saved.size());
+        skippedCount.addAndGet(skipped);
+        if (skipped > 0) {
+            log.info(" 签到事件落库 - 写入: {}, 已存在跳过: {}", saved.size(), skipped);
+        }
+    }
+
+    /**
+     * 读取本消费者组尚未投递的新事件（XREADGROUP >）
+     */
+    private List<StringRecord> readNewEvents() {
+        Consumer consumer = Consumer.from(CONSUMER_GROUP, consumerName);
+        StreamReadOptions options = StreamReadOptions.empty().count(flushBatchSize);
+        List<StringRecord> records = stringRedisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+                ((StringRedisConnection) connection).xReadGroupAsString(consumer, options,
+                        StreamOffset.create(STREAM_KEY, ReadOffset.lastConsumed())));
+        return records != null ? records : List.of();
+    }
+
+    /**
+     * 重试未确认的事件：本消费者的事件按重试间隔重新领取，其他消费者的事件超过 claimIdleMs 才接管
+     * （实例宕机或重启后消费者名变化）；累计投递达到上限的事件转入死信流并确认
+     */
+    private void retryPendingEvents() {
+        long nowMillis = System.currentTimeMillis();
+        if (nowMillis - lastRetryAt < retryIntervalMs) {
+            return;
+        }
+        lastRetryAt = nowMillis;
+
+        PendingMessages pending = stringRedisTemplate.opsForStream()
+                .pending(STREAM_KEY, CONSUMER_GROUP, Range.unbounded(), flushBatchSize);
+        List<RecordId> due = new ArrayList<>();
+        Set<RecordId> exhausted = new HashSet<>();
+        for (PendingMessage message : pending) {
+            long minIdleMs = consumerName.equals(message.getConsumerName()) ? retryIntervalMs : claimIdleMs;
+            if (message.getElapsedTimeSinceLastDelivery().toMillis() < minIdleMs) {
+                continue;
+            }
+            due.add(message.getId());
+            if (message.getTotalDeliveryCount() >= maxDeliveries) {
+                exhausted.add(message.getId());
+            }
+        }
+        if (due.isEmpty()) {
+            return;
+        }
+
+        // XCLAIM 带最小空闲时间：多个实例同时领取同一事件时只有一个成功，领取会累加投递次数
+        List<StringRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+                ((StringRedisConnection) connection).xClaim(STREAM_KEY, CONSUMER_GROUP, consumerName,
+                        Duration.ofMillis(retryIntervalMs), due.toArray(new RecordId[0])));
+        if (claimed == null || claimed.isEmpty()) {
+            return;
+        }
+        List<StringRecord> retry = new ArrayList<>();
+        List<StringRecord> deadLetters = new ArrayList<>();
+        for (StringRecord record : claimed) {
+            (exhausted.contains(record.getId()) ? deadLetters : retry).add(record);
+        }
+        if (!deadLetters.isEmpty()) {
+            deadLetter(deadLetters, "投递 " + maxDeliveries + " 次仍未落库");
+        }
+        if (!retry.isEmpty()) {
+            log.info(" 重试未确认的签到事件: {} 条", retry.size());
+            persist(retry);
+        }
+    }
+
+    /**
+     * 事件连同来源ID和原因写入死信流后确认，排查后可人工重新投递
+     */
+    private void deadLetter(List<StringRecord> records, String reason) {
+        RedisStreamCommands.XAddOptions options = RedisStreamCommands.XAddOptions
+                .maxlen(DEAD_LETTER_MAX_LENGTH).approximateTrimming(true);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection redis = (StringRedisConnection) connection;
+            for (StringRecord record : records) {
+                Map<String, String> fields = new LinkedHashMap<>(record.getValue());
+                fields.put("sourceId", record.getId().getValue());
+                fields.put("reason", reason);
+                redis.xAdd(StreamRecords.string(fields).withStreamKey(DEAD_LETTER_KEY), options);
+            }
+            return null;
+        });
+        List<RecordId> ids = records.stream().map(StringRecord::getId).toList();
+        acknowledge(ids);
+        deadLetterCount.addAndGet(ids.size());
+        log.error(" 签到事件转入死信流 {} - 原因: {}, 事件: {}", DEAD_LETTER_KEY, reason, ids);
+    }
+
+    private void acknowledge(List<RecordId> ids) {
+        RecordId[] idArray = ids.toArray(new RecordId[0]);
+        stringRedisTemplate.opsForStream().acknowledge(STREAM_KEY, CONSUMER_GROUP, idArray);
+        stringRedisTemplate.opsForStream().delete(STREAM_KEY, idArray);
+    }
+
+    private void ensureConsumerGroup() {
+        if (groupReady) {
+            return;
+        }
+        try {
+            stringRedisTemplate.opsForStream().createGroup(STREAM_KEY, ReadOffset.from("0"), CONSUMER_GROUP);
+        } catch (Exception e) {
+            // 消费者组已存在（BUSYGROUP）
+            if (!String.valueOf(e.getMessage()).contains("BUSYGROUP")
+                    && (e.getCause() == null || !String.valueOf(e.getCause().getMessage()).contains("BUSYGROUP"))) {
+                throw e;
+            }
+        }
+        groupReady = true;
+    }
+
+    /**
+     * 有事务时在提交后执行，避免回滚的修改进入 Redis；Redis 异常不影响业务
+     */
+    private void afterCommit(Runnable action) {
+        Runnable safeAction = () -> {
+            try {
+                action.run();
+            } catch (Exception e) {
+                log.warn(" 同步签到快速通道数据失败: {}", e.getMessage());
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    safeAction.run();
+                }
+            });
+        } else {
+            safeAction.run();
+        }
+    }
+
+    private static String resolveConsumerName() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        return host + ":" + ProcessHandle.current().pid();
+    }
+
+    /**
+     * 位置描述来自客户端：去掉控制字符并按字符数截断，避免异常内容写入事件流后无法落库
+     */
+    private String sanitizeLocation(String location) {
+        if (location == null) {
+            return "";
+        }
+        StringBuilder sanitized = new StringBuilder();
+        location.strip().codePoints()
+                .filter(codePoint -> !Character.isISOControl(codePoint))
+                .limit(locationMaxLength)
+                .forEach(sanitized::appendCodePoint);
+        return sanitized.toString();
+    }
+
+    private static String readyKey(Long planId) {
+        return KEY_PREFIX + planId + ":ready";
+    }
+
+    private static String eligibleKey(Long planId) {
+        return KEY_PREFIX + planId + ":eligible";
+    }
+
+    private static String settledKey(Long planId) {
+        return KEY_PREFIX + planId + ":settled";
+    }
+
+    /**
+     * 签到事件
+     */
+    private static class CheckInEvent {
+        private final RecordId id;
+        private final Long planId;
+        private final Long studentId;
+        private final AttendanceStatus status;
+        private final String type;
+        private final LocalDateTime signInTime;
+        private final Double latitude;
+        private final Double longitude;
+        private final String location;
+
+        private CheckInEvent(RecordId id, Long planId, Long studentId, AttendanceStatus status, String type,
+                             LocalDateTime signInTime, Double latitude, Double longitude, String location) {
+            this.id = id;
+            this.planId = planId;
+            this.studentId = studentId;
+            this.status = status;
+            this.type = type;
+            this.signInTime = signInTime;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.location = location;
+        }
+
+        static CheckInEvent from(StringRecord record) {
+            try {
+                Map<String, String> fields = record.getValue();
+                String location = fields.get("location");
+                return new CheckInEvent(record.getId(),
+                        Long.valueOf(fields.get("planId")),
+                        Long.valueOf(fields.get("studentId")),
+                        AttendanceStatus.valueOf(fields.get("status")),
+                        fields.get("type"),
+                        LocalDateTime.parse(fields.get("signInTime")),
+                        Double.valueOf(fields.get("lat")),
+                        Double.valueOf(fields.get("lng")),
+                        location == null || location.isEmpty() ? null : location);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        public RecordId getId() { return id; }
+        public Long getPlanId() { return planId; }
+        public Long getStudentId() { return studentId; }
+        public AttendanceStatus getStatus() { return status; }
+        public String getType() { return type; }
+        public LocalDateTime getSignInTime() { return signInTime; }
+        public Double getLatitude() { return latitude; }
+        public Double getLongitude() { return longitude; }
+        public String getLocation() { return location; }
+    }
+}
@@ -10,21 +10,32 @@ import com.back_hexiang_studio.mapper.DutyScheduleStudentMapper;
 import com.back_hexiang_studio.service.AttendanceSchedulingTasks;
 import com.back_hexiang_studio.service.AttendanceService;
 import com.back_hexiang_studio.service.DutyScheduleService;
+import com.back_hexiang_studio.service.ScheduledJobCoordinator;
+import com.back_hexiang_studio.service.ScheduledJobCoordinator.JobContext;
 import com.back_hexiang_studio.utils.NotificationUtils;
 import com.back_hexiang_studio.GlobalException.BusinessException;
 import com.back_hexiang_studio.GlobalException.SystemException;
 import com.back_hexiang_studio.GlobalException.ErrorCode;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.sql.Date;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.time.DayOfWeek;
 import com.back_hexiang_studio.entity.DutySchedule;
 import com.back_hexiang_studio.entity.DutyScheduleStudent;
@@ -42,6 +53,11 @@ import com.back_hexiang_studio.mapper.UserMapper;
  * 4. 通知提醒：值班提醒、任务状态通知
  * 5. 数据维护：备份、报表生成
  * 
+ * 多实例部署时，考勤统计、缺席标记、值班提醒、逾期任务等会写数据的任务
+ * 通过 ScheduledJobCoordinator 获取租约后执行，同一轮调度只在一个节点上生效；
+ * 缺席标记按考勤计划ID分片，由各节点分担；
+ * 分片在同一事务内把涉及的统计维度写入 attendance_statistics_pending，统计重算只处理这些维度
+ * 
  * @author Hexiang
  * @date 2024/09/27
  */
@@ -66,6 +82,21 @@ public class AttendanceSchedulingTasksimpl implements AttendanceSchedulingTasks
     /** 系统默认用户ID */
     private static final Long SYSTEM_USER_ID = 1L;
     
+    /** 待重算考勤统计的维度 (考勤类型, 日期)，由缺席标记写入、统计重算消费 */
+    private static final String PENDING_STATISTICS_DDL =
+        "CREATE TABLE IF NOT EXISTS attendance_statistics_pending (" +
+            "stat_type VARCHAR(20) NOT NULL, stat_date DATE NOT NULL, create_time DATETIME NOT NULL, " +
+            "PRIMARY KEY (stat_type, stat_date))";
+
+    private static final String INSERT_PENDING_STATISTICS_SQL =
+        "INSERT IGNORE INTO attendance_statistics_pending (stat_type, stat_date, create_time) VALUES (?, ?, NOW())";
+
+    private static final String SELECT_PENDING_STATISTICS_SQL =
+        "SELECT stat_type, stat_date FROM attendance_statistics_pending ORDER BY stat_date";
+
+    private static final String DELETE_PENDING_STATISTICS_SQL =
+        "DELETE FROM attendance_statistics_pending WHERE stat_type = ? AND stat_date = ?";
+
     /** 重要通知级别 */
     private static final int NOTIFICATION_IMPORTANT = 1;
     
@@ -117,6 +148,28 @@ public class AttendanceSchedulingTasksimpl implements AttendanceSchedulingTasks
     @Autowired
     private UserMapper userMapper;
 
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ScheduledJobCoordinator jobCoordinator;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /** 批量标记缺席时每个事务处理的考勤计划数 */
+    @Value("${attendance.absent-job.batch-size:200}")
+    private int absentBatchSize;
+
+    @PostConstruct
+    public void initialize() {
+        try {
+            jdbcTemplate.execute(PENDING_STATISTICS_DDL);
+        } catch (Exception e) {
+            log.error("创建待重算考勤统计表失败: {}", e.getMessage());
+        }
+    }
+
     /**
      * 每日值班调度任务编排器
      * 
@@ -324,8 +377,11 @@ public class AttendanceSchedulingTasksimpl implements AttendanceSchedulingTasks
      * - 每天(*) 每月(*) 每周的任意一天(?)
      */
     @Scheduled(cron = "0 0 2 * * ?")
-    @Transactional(rollbackFor = Exception.class)
     public void dailyAttendanceStatistics() {
+        jobCoordinator.runExclusive("dailyAttendanceStatistics", this::generateDailyStatistics);
+    }
+
+    private int generateDailyStatistics(JobContext context) {
         log.info("===== 每日考勤统计数据更新开始 =====");
         
         try {
@@ -338,7 +394,10 @@ public class AttendanceSchedulingTasksimpl implements AttendanceSchedulingTasks
             }
 
             // 生成指定日期的考勤统计数据
-            attendanceService.generateAttendanceStatistics(yesterday);
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                context.fence();
+                attendanceService.generateAttendanceStatistics(yesterday);
+            });
 
             log.info("✅ 每日考勤统计数据更新完成，统计日期: {}", yesterday);
             
@@ -350,6 +409,7 @@ public class AttendanceSchedulingTasksimpl implements AttendanceSchedulingTasks
         }
         
         log.info("===== 每日考勤统计数据更新任务完毕 =====");
+        return 0;
     }
 
     /**
@@ -366,85 +426,146 @@ public class AttendanceSchedulingTasksimpl implements AttendanceSchedulingTasks
      * - 值班考勤：开始时间 + 签到限制时间
      * - 课程考勤：结束时间 + 签到限制时间  
      * - 活动考勤：结束时间 + 签到限制时间
+     * 
+     * 按考勤计划ID分片，各节点分别领取分片处理；统计数据随后在独占租约下统一重算
      */
-    @Transactional(rollbackFor = Exception.class)
     @Scheduled(cron = "0 */5 * * * ?")
     public void updateAttendanceStatus() {
         log.info("===== 考勤状态定时更新开始 =====");
         
+        int shards = jobCoordinator.runSharded("updateAttendanceStatus", this::updateExpiredPlansInShard);
+        recomputeAbsentStatistics();
+        
+        log.info("===== 考勤状态定时更新完毕，本节点处理分片 {} 个 =====", shards);
+    }
+
+    /**
+     * 处理当前分片内已过期但未处理的考勤计划
+     * 
+     * @param context 租约上下文
+     * @return 标记为缺席的记录数
+     */
+    private int updateExpiredPlansInShard(JobContext context) {
         try {
-            // 查找已过期但未处理的考勤计划
-            List<AttendancePlan> expiredPlans = attendancePlanMapper.findExpiredUnprocessedCoursePlans();
+            // 查找本分片已过期但未处理的考勤计划
+            List<AttendancePlan> expiredPlans = attendancePlanMapper.findExpiredUnprocessedCoursePlans(
+                    context.getShardIndex(), context.getShardCount());
             
             if (expiredPlans.isEmpty()) {
-                log.debug("没有发现需要处理的过期考勤计划");
-                return;
+                log.debug("分片 {}/{} 没有需要处理的过期考勤计划", context.getShardIndex(), context.getShardCount());
+                return 0;
             }
 
-            log.info("发现 {} 个过期但未处理的考勤计划，开始处理...", expiredPlans.size());
+            log.info("分片 {}/{} 发现 {} 个过期但未处理的考勤计划，开始处理...",
+                    context.getShardIndex(), context.getShardCount(), expiredPlans.size());
             
-            int processedCount = 0;
-            for (AttendancePlan plan : expiredPlans) {
-                try {
-                    processExpiredAttendancePlan(plan);
-                    processedCount++;
-                } catch (Exception e) {
-                    log.error("处理过期考勤计划 {} 时发生异常", plan.getPlanId(), e);
-                    // 继续处理其他计划
-                }
-            }
+            int updatedRecords = markPendingRecordsAbsent(expiredPlans, context);
 
-            log.info("✅ 成功处理了 {}/{} 个过期考勤计划", processedCount, expiredPlans.size());
+            log.info("✅ 分片 {}/{} 处理完成，共标记缺席 {} 条",
+                    context.getShardIndex(), context.getShardCount(), updatedRecords);
+            return updatedRecords;
 
         } catch (Exception e) {
             log.error("❌ 考勤状态定时更新失败", e);
             throw new SystemException(ErrorCode.SYSTEM_ERROR, "考勤状态更新失败");
         }
-        
-        log.info("===== 考勤状态定时更新完毕 =====");
     }
 
     /**
-     * 处理单个过期的考勤计划
+     * 批量将过期考勤计划中未签到的记录标记为缺席
      * 
-     * @param plan 过期的考勤计划
+     * 处理方式：
+     * - 按批次拆分事务，每批一条 UPDATE，避免积压时长时间持有大量行锁
+     * - 某一批失败不影响其他批次，未处理的记录下次执行时仍会被查出
+     * - 每批事务先校验租约令牌，租约被其他节点接管后立即停止
+     * - 不在分片内重算统计数据，只在同一事务内登记涉及的 (类型, 日期)，由 recomputeAbsentStatistics 在独占租约下统一重算
+     * 
+     * @param plans 过期的考勤计划
+     * @param context 租约上下文
+     * @return 标记为缺席的记录数
      */
-    private void processExpiredAttendancePlan(AttendancePlan plan) {
-        try {
-            // 参数校验
-            if (plan == null || plan.getPlanId() == null) {
-                throw new BusinessException(ErrorCode.PARAM_ERROR, "考勤计划信息不完整");
+    private int markPendingRecordsAbsent(List<AttendancePlan> plans, JobContext context) {
+        long startNanos = System.nanoTime();
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        int batchSize = Math.max(1, absentBatchSize);
+
+        int processedPlans = 0;
+        int updatedRecords = 0;
+        int failedBatches = 0;
+
+        for (int from = 0; from < plans.size(); from += batchSize) {
+            List<AttendancePlan> batch = plans.subList(from, Math.min(from + batchSize, plans.size()));
+            List<Long> planIds = new ArrayList<>(batch.size());
+            Set<List<Object>> statisticsKeys = new LinkedHashSet<>();
+            for (AttendancePlan plan : batch) {
+                planIds.add(plan.getPlanId());
+                statisticsKeys.add(List.of(plan.getType(), Date.valueOf(plan.getStartTime().toLocalDate())));
             }
-
-            // 查找所有未签到的记录
-            List<AttendanceRecord> pendingRecords = attendanceRecordMapper.findByPlanAndStatus(
-                    plan.getPlanId(), AttendanceStatus.pending);
-
-            // 更新为缺席状态
-            int updatedRecords = 0;
-            for (AttendanceRecord record : pendingRecords) {
-                record.setStatus(AttendanceStatus.absent);
-                record.setUpdateTime(LocalDateTime.now());
-                attendanceRecordMapper.update(record);
-                updatedRecords++;
+            try {
+                Integer updated = transactionTemplate.execute(status -> {
+                    context.fence();
+                    int marked = attendanceRecordMapper.markPendingAsAbsentByPlanIds(planIds, LocalDateTime.now());
+                    if (marked > 0) {
+                        List<Object[]> rows = new ArrayList<>(statisticsKeys.size());
+                        for (List<Object> key : statisticsKeys) {
+                            rows.add(key.toArray());
+                        }
+                        jdbcTemplate.batchUpdate(INSERT_PENDING_STATISTICS_SQL, rows);
+                    }
+                    return marked;
+                });
+                updatedRecords += updated != null ? updated : 0;
+                processedPlans += batch.size();
+            } catch (ScheduledJobCoordinator.LeaseLostException e) {
+                throw e;
+            } catch (Exception e) {
+                failedBatches++;
+                log.error("批量标记缺席失败，考勤计划ID: {}", planIds, e);
             }
+        }
 
-            // 标记考勤计划为已处理
-            plan.setProcessed(true);
-            attendancePlanMapper.update(plan);
-
-            // 更新考勤统计数据
-            attendanceService.updateAttendanceStatistics(plan.getType(), plan.getStartTime().toLocalDate());
+        long elapsedMs = Math.max(1, (System.nanoTime() - startNanos) / 1_000_000);
+        log.info("批量标记缺席完成：计划 {} 个，缺席记录 {} 条，失败批次 {}，耗时 {} ms，{} 条/秒",
+                processedPlans, updatedRecords, failedBatches, elapsedMs,
+                String.format("%.1f", updatedRecords * 1000.0 / elapsedMs));
+        return updatedRecords;
+    }
 
-            log.info("处理过期考勤计划 {} 完成，更新了 {} 条记录为缺席状态", 
-                    plan.getPlanId(), updatedRecords);
+    /**
+     * 重算缺席标记登记的考勤统计
+     * 
+     * 统计数据先查后写，多个分片涉及同一 (类型, 日期) 时不能各自并发重算，
+     * 因此在独占租约下统一执行，每项在事务内先校验租约令牌，删除登记后重算。
+     * 重算失败时事务回滚、登记保留，下一轮重试；本轮之后才提交的分片登记由下一轮处理；
+     * 重算是全量计数，同一项重复重算不影响结果
+     */
+    private void recomputeAbsentStatistics() {
+        jobCoordinator.runExclusive("recomputeAbsentStatistics", this::recomputePendingStatistics);
+    }
 
-        } catch (BusinessException e) {
-            throw e;
-        } catch (Exception e) {
-            log.error("处理过期考勤计划时发生异常", e);
-            throw new SystemException(ErrorCode.SYSTEM_ERROR, "处理过期考勤计划失败");
+    private int recomputePendingStatistics(JobContext context) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        int recomputed = 0;
+        for (Map<String, Object> key : jdbcTemplate.queryForList(SELECT_PENDING_STATISTICS_SQL)) {
+            String type = String.valueOf(key.get("stat_type"));
+            LocalDate date = LocalDate.parse(String.valueOf(key.get("stat_date")));
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    context.fence();
+                    jdbcTemplate.update(DELETE_PENDING_STATISTICS_SQL, type, Date.valueOf(date));
+                    attendanceService.updateAttendanceStatistics(type, date);
+                });
+                recomputed++;
+            } catch (ScheduledJobCoordinator.LeaseLostException e) {
+                throw e;
+            } catch (Exception e) {
+                log.error("更新考勤统计失败，类型: {}, 日期: {}", type, date, e);
+            }
+        }
+        if (recomputed > 0) {
+            log.info("考勤统计重算完成：{} 项", recomputed);
         }
+        return recomputed;
     }
 
     /**
@@ -459,9 +580,10 @@ public class AttendanceSchedulingTasksimpl implements AttendanceSchedulingTasks
      * - 14:00-15:30 (15:05处理)
      * - 15:50-17:20 (17:05处理)
      * - 18:30-20:00 (需要添加20:05的处理)
+     * 
+     * 与考勤状态更新任务一样按考勤计划ID分片执行
      */
     @Scheduled(cron = "0 5 10,12,15,17 * * ?")
-    @Transactional(rollbackFor = Exception.class)
     public void updateDutyAttendanceStatus() {
         log.info("===== 值班考勤状态特殊处理开始 =====");
         
@@ -479,7 +601,9 @@ public class AttendanceSchedulingTasksimpl implements AttendanceSchedulingTasks
 
             log.info("开始处理 {}-{} 时间段的值班考勤", timeRange.startTime, timeRange.endTime);
             
-            processDutyAttendanceForPeriod(timeRange, now.toLocalDate());
+            jobCoordinator.runSharded("updateDutyAttendanceStatus",
+                    context -> processDutyAttendanceForPeriod(timeRange, now.toLocalDate(), context));
+            recomputeAbsentStatistics();
 
         } catch (Exception e) {
             log.error("❌ 值班考勤状态特殊处理失败", e);
@@ -517,38 +641,39 @@ public class AttendanceSchedulingTasksimpl implements AttendanceSchedulingTasks
      * 
      * @param timeRange 时间段
      * @param date 日期
+     * @param context 租约上下文，只处理当前分片的考勤计划
+     * @return 标记为缺席的记录数
      */
-    private void processDutyAttendanceForPeriod(DutyTimeRange timeRange, LocalDate date) {
+    private int processDutyAttendanceForPeriod(DutyTimeRange timeRange, LocalDate date, JobContext context) {
         try {
             // 构建完整的时间范围
             LocalDateTime periodStart = LocalDateTime.of(date, timeRange.startTime);
             LocalDateTime periodEnd = LocalDateTime.of(date, timeRange.endTime);
 
-            // 查找这个时间段的值班考勤计划
-                List<AttendancePlan> dutyPlans = attendancePlanMapper.findDutyPlanByTimeRange(periodStart, periodEnd);
+            // 查找这个时间段本分片的值班考勤计划
+            List<AttendancePlan> dutyPlans = attendancePlanMapper.findDutyPlanByTimeRange(periodStart, periodEnd,
+                    context.getShardIndex(), context.getShardCount());
 
             if (dutyPlans.isEmpty()) {
                 log.info("时间段 {}-{} 没有值班考勤计划", timeRange.startTime, timeRange.endTime);
-                return;
+                return 0;
             }
 
-                int processedCount = 0;
-                for (AttendancePlan plan : dutyPlans) {
-                    if (plan.getProcessed()) {
+            List<AttendancePlan> pendingPlans = new ArrayList<>();
+            for (AttendancePlan plan : dutyPlans) {
+                if (Boolean.TRUE.equals(plan.getProcessed())) {
                     log.debug("考勤计划 {} 已处理，跳过", plan.getPlanId());
-                        continue;
-                }
-
-                try {
-                    processExpiredAttendancePlan(plan);
-                    processedCount++;
-                } catch (Exception e) {
-                    log.error("处理值班考勤计划 {} 时发生异常", plan.getPlanId(), e);
+                    continue;
                 }
+                pendingPlans.add(plan);
             }
 
-            log.info("✅ 时间段 {}-{} 成功处理了 {} 个值班考勤计划", 
-                    timeRange.startTime, timeRange.endTime, processedCount);
+            int updatedRecords = markPendingRecordsAbsent(pendingPlans, context);
+
+            log.info("✅ 时间段 {}-{} 分片 {}/{} 处理了 {} 个值班考勤计划，标记缺席 {} 条", 
+                    timeRange.startTime, timeRange.endTime, context.getShardIndex(), context.getShardCount(),
+                    pendingPlans.size(), updatedRecords);
+            return updatedRecords;
 
         } catch (Exception e) {
             log.error("处理时间段 {}-{} 的值班考勤时发生异常", timeRange.startTime, timeRange.endTime, e);
@@ -650,10 +775,14 @@ public void backupData() {
      * 功能说明：提醒明天有值班安排的相关人员
  */
 @Scheduled(cron = "0 0 22 ? * *")
-    @Transactional(rollbackFor = Exception.class)
 public void remindDutyPlan() {
+        jobCoordinator.runExclusive("remindDutyPlan", this::sendDutyReminders);
+    }
+
+    private int sendDutyReminders(JobContext context) {
         log.info("===== 开始值班安排提醒任务 =====");
         
+        int notificationCount;
     try {
         LocalDate tomorrow = LocalDate.now().plusDays(1);
 
@@ -662,20 +791,25 @@ public void remindDutyPlan() {
 
             if (dutyPlans.isEmpty()) {
                 log.info("明天({})没有值班安排", tomorrow);
-                return;
+                return 0;
             }
 
             log.info("明天({})有 {} 个值班安排，开始发送提醒", tomorrow, dutyPlans.size());
 
-        int notificationCount = 0;
-        for (AttendancePlan plan : dutyPlans) {
-            try {
-                    sendDutyReminder(plan, tomorrow);
-                    notificationCount++;
-                } catch (Exception e) {
-                    log.error("为值班计划 {} 发送提醒失败", plan.getPlanId(), e);
+            Integer created = new TransactionTemplate(transactionManager).execute(status -> {
+                context.fence();
+                int count = 0;
+                for (AttendancePlan plan : dutyPlans) {
+                    try {
+                        sendDutyReminder(plan, tomorrow);
+                        count++;
+                    } catch (Exception e) {
+                        log.error("为值班计划 {} 发送提醒失败", plan.getPlanId(), e);
+                    }
                 }
-            }
+                return count;
+            });
+            notificationCount = created != null ? created : 0;
 
             log.info("✅ 值班提醒发送完成，共创建了 {} 条通知", notificationCount);
 
@@ -685,6 +819,7 @@ public void remindDutyPlan() {
         }
         
         log.info("===== 值班安排提醒任务完毕 =====");
+        return notificationCount;
     }
 
     /**
@@ -748,17 +883,26 @@ public void remindDutyPlan() {
      * 功能说明：将所有未完成且已过截止时间的任务状态更新为"OVERDUE"
      */
     @Scheduled(cron = "0 0 1 * * ?")
-    @Transactional(rollbackFor = Exception.class)
     public void updateOverdueTasks() {
+        jobCoordinator.runExclusive("updateOverdueTasks", this::markOverdueTasks);
+    }
+
+    private int markOverdueTasks(JobContext context) {
         log.info("===== 开始更新逾期任务状态任务 =====");
         
+        Integer updated;
         try {
-            // 更新逾期任务状态
-            taskMapper.updateOverdueTasksStatus();
-            log.info("✅ 成功更新逾期任务状态");
+            updated = new TransactionTemplate(transactionManager).execute(status -> {
+                context.fence();
+
+                // 更新逾期任务状态
+                int count = taskMapper.updateOverdueTasksStatus();
+                log.info("✅ 成功更新逾期任务状态，共 {} 条", count);
 
-            // 发送系统通知
-            sendOverdueTaskNotification();
+                // 发送系统通知
+                sendOverdueTaskNotification();
+                return count;
+            });
 
         } catch (Exception e) {
             log.error("❌ 更新逾期任务状态时发生错误", e);
@@ -766,6 +910,7 @@ public void remindDutyPlan() {
         }
         
         log.info("===== 更新逾期任务状态任务完毕 =====");
+        return updated != null ? updated : 0;
     }
 
     /**
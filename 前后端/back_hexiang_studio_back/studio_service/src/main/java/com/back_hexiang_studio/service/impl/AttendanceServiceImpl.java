@@ -14,6 +14,7 @@ import com.back_hexiang_studio.enumeration.AttendanceStatusTransition;
 import com.back_hexiang_studio.enumeration.OperationType;
 import com.back_hexiang_studio.mapper.*;
 import com.back_hexiang_studio.result.PageResult;
+import com.back_hexiang_studio.service.AttendanceCheckInService;
 import com.back_hexiang_studio.service.AttendanceService;
 import com.back_hexiang_studio.service.ActivityReservationService;
 import com.back_hexiang_studio.utils.LocationVerificationService;
@@ -24,6 +25,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 import com.back_hexiang_studio.context.UserContextHolder;
 
@@ -78,6 +80,12 @@ public class AttendanceServiceImpl implements AttendanceService {
     @Autowired
     private ActivityReservationMapper activityReservationMapper;
 
+    @Autowired
+    private ActivityCapacityMapper activityCapacityMapper;
+
+    @Autowired
+    private AttendanceCheckInService attendanceCheckInService;
+
     /**
      * 创建基础的考勤计划
      * 根据类型创建不同的考勤计划：课程考勤、活动考勤、值班考勤
@@ -226,6 +234,9 @@ public class AttendanceServiceImpl implements AttendanceService {
         // 保存考勤计划
         attendancePlanMapper.insert(plan);
 
+        // 保存活动名额设置
+        activityReservationService.saveCapacity(plan.getPlanId(), planDto.getCapacity(), planDto.getWaitlistEnabled());
+
         // 返回创建结果
         Map<String, Object> result = new HashMap<>();
         result.put("planId", plan.getPlanId());
@@ -490,6 +501,38 @@ public class AttendanceServiceImpl implements AttendanceService {
             recordToSave.setCreateTime(LocalDateTime.now());
         }
 
+        // 判断是否迟到
+        AttendanceStatus status = resolveCheckInStatus(plan, now);
+        recordToSave.setStatus(status);
+        recordToSave.setSignInTime(now);
+        recordToSave.setLocation(location);
+        recordToSave.setLocationLat(latitude);
+        recordToSave.setLocationLng(longitude);
+        recordToSave.setUpdateTime(LocalDateTime.now());
+
+        // 保存或更新签到记录
+        if (recordToSave.getRecordId() != null) {
+            attendanceRecordMapper.update(recordToSave);
+        } else {
+            attendanceRecordMapper.insert(recordToSave);
+        }
+
+        // 事务提交后同步签到快速通道的已签到状态
+        attendanceCheckInService.syncRecordStatus(plan.getPlanId(), studentId, status);
+
+        // 返回签到结果
+        Map<String, Object> result = new HashMap<>();
+        result.put("recordId", recordToSave.getRecordId());
+        result.put("status", status.name());
+        result.put("message", status == AttendanceStatus.present ? "签到成功" : "签到成功，但您已迟到");
+        return result;
+    }
+
+    /**
+     * 根据签到时间判断出勤或迟到
+     * 迟到时间限制：值班、日常、活动20分钟，课程15分钟；考勤总时长过短时取总时长的一半
+     */
+    static AttendanceStatus resolveCheckInStatus(AttendancePlan plan, LocalDateTime now) {
         // 根据考勤类型设置迟到时间限制
         int checkInLimit;
         switch (plan.getType()) {
@@ -513,36 +556,15 @@ public class AttendanceServiceImpl implements AttendanceService {
             checkInLimit = (int) (totalMinutes / 2);
         }
 
-        // 判断是否迟到
-        AttendanceStatus status = now.isAfter(plan.getStartTime().plusMinutes(checkInLimit))
+        return now.isAfter(plan.getStartTime().plusMinutes(checkInLimit))
                 ? AttendanceStatus.late
                 : AttendanceStatus.present;
-        recordToSave.setStatus(status);
-        recordToSave.setSignInTime(now);
-        recordToSave.setLocation(location);
-        recordToSave.setLocationLat(latitude);
-        recordToSave.setLocationLng(longitude);
-        recordToSave.setUpdateTime(LocalDateTime.now());
-
-        // 保存或更新签到记录
-        if (recordToSave.getRecordId() != null) {
-            attendanceRecordMapper.update(recordToSave);
-        } else {
-            attendanceRecordMapper.insert(recordToSave);
-        }
-
-        // 返回签到结果
-        Map<String, Object> result = new HashMap<>();
-        result.put("recordId", recordToSave.getRecordId());
-        result.put("status", status.name());
-        result.put("message", status == AttendanceStatus.present ? "签到成功" : "签到成功，但您已迟到");
-        return result;
     }
 
     /**
      * 获取状态对应的中文说明
      */
-    private String getStatusMessage(AttendanceStatus status) {
+    static String getStatusMessage(AttendanceStatus status) {
         switch (status) {
             case pending: return "待签到";
             case present: return "已签到";
@@ -669,6 +691,14 @@ public class AttendanceServiceImpl implements AttendanceService {
      */
     @Override
     public PageResult getAttendancePlanList(AttendanceQueryDto queryDto) {
+        PageInfo<Map<String, Object>> pageInfo = selectPlanPage(queryDto);
+        return new PageResult(pageInfo.getTotal(), pageInfo.getList());
+    }
+
+    /**
+     * 分页查询考勤计划并附加统计数据
+     */
+    private PageInfo<Map<String, Object>> selectPlanPage(AttendanceQueryDto queryDto) {
         // 准备查询参数
         Map<String, Object> params = new HashMap<>();
         Map<String, Object> queryParams = new HashMap<>();
@@ -688,7 +718,16 @@ public class AttendanceServiceImpl implements AttendanceService {
         List<Map<String, Object>> list = attendancePlanMapper.selectByPage(params);
 
         // 为每条记录添加格式化的统计数据
-        for (Map<String, Object> plan : list) {
+        attachRecordStats(list);
+
+        return new PageInfo<>(list);
+    }
+
+    /**
+     * 将查询结果中的统计列整理为 recordStats
+     */
+    private void attachRecordStats(List<Map<String, Object>> plans) {
+        for (Map<String, Object> plan : plans) {
             Map<String, Object> recordStats = new HashMap<>();
             // 从数据库返回的结果中获取统计数据，并处理null值
             recordStats.put("total", plan.get("totalStudents") != null ? plan.get("totalStudents") : 0);
@@ -699,10 +738,6 @@ public class AttendanceServiceImpl implements AttendanceService {
 
             plan.put("recordStats", recordStats);
         }
-
-        PageInfo<Map<String, Object>> pageInfo = new PageInfo<>(list);
-
-        return new PageResult(pageInfo.getTotal(), pageInfo.getList());
     }
 
     /**
@@ -880,10 +915,10 @@ public class AttendanceServiceImpl implements AttendanceService {
 
     /**
      * 更新考勤计划
-     * 修改考勤计划信息
+     * 修改考勤计划信息；活动名额调整会在本事务内递补候补，因此同样使用 READ_COMMITTED
      */
     @Override
-    @Transactional
+    @Transactional(isolation = Isolation.READ_COMMITTED)
     @AutoFill(value = OperationType.UPDATE)
     public boolean updateAttendancePlan(AttendancePlanDto planDto) {
         // 查询考勤计划
@@ -899,7 +934,12 @@ public class AttendanceServiceImpl implements AttendanceService {
         BeanUtils.copyProperties(planDto, plan);
 
         // 如果更新成功（影响的行数大于 0 行）就返回 true，否则返回 false。
-        return attendancePlanMapper.update(plan) > 0;
+        boolean updated = attendancePlanMapper.update(plan) > 0;
+        if ("activity".equals(plan.getType())) {
+            activityReservationService.saveCapacity(plan.getPlanId(), planDto.getCapacity(), planDto.getWaitlistEnabled());
+        }
+        attendanceCheckInService.invalidatePlan(plan.getPlanId());
+        return updated;
     }
 
     @Override
@@ -911,7 +951,9 @@ public class AttendanceServiceImpl implements AttendanceService {
         }
         plan.setStatus(status ? 1 : 0); // 将布尔值转换为整数
         plan.setUpdateTime(LocalDateTime.now());
-        return attendancePlanMapper.update(plan) > 0;
+        boolean updated = attendancePlanMapper.update(plan) > 0;
+        attendanceCheckInService.invalidatePlan(planId);
+        return updated;
     }
 
     /**
@@ -929,6 +971,7 @@ public class AttendanceServiceImpl implements AttendanceService {
 
         // 先删除关联的活动预约记录
         int deletedReservations = activityReservationMapper.deleteByPlanId(planId);
+        activityCapacityMapper.deleteByPlanId(planId);
         log.info("删除考勤计划 {} 的活动预约记录数: {}", planId, deletedReservations);
 
         // 删除关联的考勤记录
@@ -938,6 +981,7 @@ public class AttendanceServiceImpl implements AttendanceService {
         // 删除考勤计划
         boolean result = attendancePlanMapper.deleteById(planId) > 0;
         log.info("删除考勤计划 {} 结果: {}", planId, result ? "成功" : "失败");
+        attendanceCheckInService.invalidatePlan(planId);
 
         return result;
     }
@@ -986,8 +1030,7 @@ public class AttendanceServiceImpl implements AttendanceService {
         log.info("发送给Mapper的完整参数: {}", paramMap);
 
         // 在查询前再次验证参数
-        Object planIdParam = paramMap.get("params") != null ?
-                ((Map<String, Object>)paramMap.get("params")).get("planId") : null;
+        Object planIdParam = queryParams.get("planId");
         log.info("最终传递给MyBatis的planId参数: {} (是否为null: {})",
                 planIdParam, planIdParam == null);
 
@@ -1325,6 +1368,13 @@ public class AttendanceServiceImpl implements AttendanceService {
             throw new BusinessException("考勤记录不存在");
         }
         attendanceRecordMapper.updateStatusAndRemark(recordId, AttendanceStatus.valueOf(status), remark);
+        attendanceCheckInService.syncRecordStatus(record.getPlanId(), record.getStudentId(), AttendanceStatus.valueOf(status));
+
+        // 同步当天的考勤统计
+        AttendancePlan plan = attendancePlanMapper.selectById(record.getPlanId());
+        if (plan != null) {
+            updateAttendanceStatistics(plan.getType(), plan.getStartTime().toLocalDate());
+        }
     }
 
     @Override
@@ -1340,6 +1390,7 @@ public class AttendanceServiceImpl implements AttendanceService {
         int result = attendanceRecordMapper.deleteById(recordId);
 
         if (result > 0) {
+            attendanceCheckInService.syncRecordStatus(record.getPlanId(), record.getStudentId(), null);
             log.info("成功删除考勤记录: {}", recordId);
             return true;
         } else {
@@ -1348,102 +1399,41 @@ public class AttendanceServiceImpl implements AttendanceService {
         }
     }
 
+    /**
+     * 获取用户可参与的考勤计划
+     * 时间窗口（开始前1天至结束）、参与资格（课程选修/活动预约/值班名单）和本人签到状态
+     * 都在 selectVisiblePlansForStudent 一次查询中完成，不再逐个计划检查权限
+     */
     @Override
     public List<Map<String, Object>> getCurrentUserAvailablePlans(Long userId) {
         try {
             log.info("获取用户可参与的考勤计划列表: userId={}", userId);
 
-            // 查询所有有效的考勤计划
-            AttendanceQueryDto queryDto = new AttendanceQueryDto();
-            queryDto.setStatus("1"); // 只查询有效的
-            queryDto.setPage(1);
-            queryDto.setPageSize(100);
+            // 管理员可以查看所有考勤计划：超级管理员(8), 主任(6), 副主任(7)
+            User user = userMapper.getUserById(userId);
+            boolean admin = user != null && user.getPositionId() != null
+                    && (user.getPositionId() == 8L || user.getPositionId() == 6L || user.getPositionId() == 7L);
 
-            PageResult planResult = getAttendancePlanList(queryDto);
-            List<Map<String, Object>> allPlans = (List<Map<String, Object>>) planResult.getRecords();
+            Long studentId = studentMapper.getStudentIdByUserId(userId);
+            if (studentId == null && !admin) {
+                log.info("用户不是学生，没有可参与的考勤计划: userId={}", userId);
+                return new ArrayList<>();
+            }
 
-            // 筛选出符合时间条件和用户权限的计划
             LocalDateTime now = LocalDateTime.now();
-            List<Map<String, Object>> availablePlans = new ArrayList<>();
-
-            for (Map<String, Object> plan : allPlans) {
-                try {
-                    Object startTimeObj = plan.get("startTime");
-                    Object endTimeObj = plan.get("endTime");
-                    String type = (String) plan.get("type");
-                    Long planId = (Long) plan.get("planId");
-
-                    log.debug("处理考勤计划: planId={}, type={}, startTime={}, endTime={}",
-                            planId, type, startTimeObj, endTimeObj);
-
-                    if (startTimeObj != null && endTimeObj != null) {
-                        LocalDateTime startTime = DateTimeUtils.parseDateTime(startTimeObj.toString());
-                        LocalDateTime endTime = DateTimeUtils.parseDateTime(endTimeObj.toString());
-
-                        if (startTime != null && endTime != null) {
-                            // 🔧 修复：添加时间窗口检查，避免显示已结束的考勤
-                            // 考勤开始前1天可以显示，考勤结束后就不再显示
-                            LocalDateTime showTime = startTime.minusDays(1);
-
-                            log.debug("时间判断: planId={}, type={}, startTime={}, endTime={}, now={}",
-                                    planId, type, startTime, endTime, now);
-
-                            // 🔧 恢复时间窗口限制：只显示未结束的考勤计划
-                            if (now.isAfter(showTime) && now.isBefore(endTime)) {
-                                log.info("考勤计划在有效时间窗口内: planId={}, type={}", planId, type);
-                                // 检查用户权限
-                                if (hasAttendancePermission(userId, plan)) {
-                                    log.info("用户有权限参与考勤: userId={}, planId={}", userId, planId);
-
-                                    // 🔧 修复：检查学生是否已签到，已签到的不显示在可请假列表
-                                    Long studentId = studentMapper.getStudentIdByUserId(userId);
-                                    if (studentId != null) {
-                                        AttendanceRecord existingRecord = attendanceRecordMapper.findByPlanIdAndStudentId(planId, studentId);
-                                        if (existingRecord != null &&
-                                                (existingRecord.getStatus() == AttendanceStatus.present || existingRecord.getStatus() == AttendanceStatus.late)) {
-                                            log.info("学生已签到，不显示在可请假列表: userId={}, planId={}, status={}",
-                                                    userId, planId, existingRecord.getStatus());
-                                            continue; // 跳过已签到的考勤计划
-                                        }
-                                    }
-
-                                    // 添加额外信息
-                                    plan.put("timeStatus", getTimeStatus(now, startTime, endTime));
-                                    plan.put("canCheckIn", now.isAfter(startTime) && now.isBefore(endTime));
-                                    availablePlans.add(plan);
-                                } else {
-                                    log.info("用户无权限参与考勤: userId={}, planId={}", userId, planId);
-                                }
-                            } else {
-                                log.debug("考勤计划不在有效时间窗口内，已过滤: planId={}, now={}, showTime(开始前1天)={}, endTime={}",
-                                        planId, now, showTime, endTime);
-                            }
-                        } else {
-                            log.warn("时间解析失败: planId={}, startTimeObj={}, endTimeObj={}",
-                                    planId, startTimeObj, endTimeObj);
-                        }
-                    } else {
-                        log.warn("考勤计划缺少时间信息: planId={}, startTime={}, endTime={}",
-                                planId, startTimeObj, endTimeObj);
-                    }
-                } catch (Exception e) {
-                    log.warn("处理考勤计划失败: planId={}, error={}", plan.get("planId"), e.getMessage());
-                    continue;
-                }
+            List<Map<String, Object>> availablePlans =
+                    attendancePlanMapper.selectVisiblePlansForStudent(studentId, admin, now, now.plusDays(1));
+            attachRecordStats(availablePlans);
+
+            for (Map<String, Object> plan : availablePlans) {
+                LocalDateTime startTime = DateTimeUtils.parseDateTime(plan.get("startTime").toString());
+                LocalDateTime endTime = DateTimeUtils.parseDateTime(plan.get("endTime").toString());
+                // 添加额外信息
+                plan.put("timeStatus", getTimeStatus(now, startTime, endTime));
+                plan.put("canCheckIn", now.isAfter(startTime) && now.isBefore(endTime));
             }
 
-            // 按开始时间排序
-            availablePlans.sort((p1, p2) -> {
-                try {
-                    LocalDateTime time1 = DateTimeUtils.parseDateTime(p1.get("startTime").toString());
-                    LocalDateTime time2 = DateTimeUtils.parseDateTime(p2.get("startTime").toString());
-                    return time1.compareTo(time2);
-                } catch (Exception e) {
-                    return 0;
-                }
-            });
-
-            log.info("返回 {} 个可用考勤计划", availablePlans.size());
+            log.info("返回 {} 个可用考勤计划: userId={}, admin={}", availablePlans.size(), userId, admin);
             return availablePlans;
         } catch (Exception e) {
             log.error("获取用户可参与的考勤计划列表失败: userId={}, error={}", userId, e.getMessage());
@@ -1462,8 +1452,7 @@ public class AttendanceServiceImpl implements AttendanceService {
             queryDto.setPage(1);
             queryDto.setPageSize(50);
 
-            PageResult planResult = getAttendancePlanList(queryDto);
-            List<Map<String, Object>> plans = (List<Map<String, Object>>) planResult.getRecords();
+            List<Map<String, Object>> plans = selectPlanPage(queryDto).getList();
 
             // 筛选出当前时间范围内的计划
             LocalDateTime now = LocalDateTime.now();
@@ -1692,6 +1681,9 @@ public class AttendanceServiceImpl implements AttendanceService {
             throw new BusinessException("考勤计划不存在");
         }
 
+        // 值班名单变化，重建签到快速通道的参与名单
+        attendanceCheckInService.invalidatePlan(planId);
+
         // 查询现有的所有考勤记录
         List<AttendanceRecord> existingRecords = attendanceRecordMapper.selectByPlanId(planId);
         Set<Long> existingStudentIds = new HashSet<>();
@@ -1837,6 +1829,8 @@ public class AttendanceServiceImpl implements AttendanceService {
             }
         }
 
+        attendanceCheckInService.syncRecordStatus(planId, studentId, AttendanceStatus.leave);
+
         // 5. 更新考勤统计
         updateAttendanceStatistics(plan.getType(), plan.getStartTime().toLocalDate());
     }
@@ -0,0 +1,317 @@
+package com.back_hexiang_studio.service.impl;
+
+import com.back_hexiang_studio.service.ScheduledJobCoordinator;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.net.InetAddress;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 定时任务集群协调实现
+ *
+ * 租约保存在 MySQL 表 scheduled_job_lease 中，与业务数据同库：
+ * - 获取：租约空闲或已过期、且最近一次成功执行不在执行窗口内时，抢占并把防护令牌加一
+ * - 续约：后台线程按租约时长的 1/3 周期续约，令牌被接管后标记失效
+ * - 防护：业务事务内 SELECT ... FOR UPDATE 校验令牌，接管方须等本事务提交后才能抢到租约
+ * - 历史：每次执行写入 scheduled_job_run，记录节点、令牌、耗时和影响行数
+ * 时间统一取数据库 NOW(3)，不依赖各节点时钟一致
+ */
+@Slf4j
+@Service
+public class ScheduledJobCoordinatorImpl implements ScheduledJobCoordinator {
+
+    private static final String[] DDL = {
+        "CREATE TABLE IF NOT EXISTS scheduled_job_lease (" +
+            "lease_name VARCHAR(128) NOT NULL PRIMARY KEY, owner VARCHAR(128) NULL, " +
+            "fencing_token BIGINT NOT NULL DEFAULT 0, expire_time DATETIME(3) NULL, " +
+            "last_success_time DATETIME(3) NULL, update_time DATETIME(3) NULL)",
+        "CREATE TABLE IF NOT EXISTS scheduled_job_run (" +
+            "id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY, job_name VARCHAR(128) NOT NULL, " +
+            "shard_index INT NOT NULL DEFAULT 0, shard_count INT NOT NULL DEFAULT 1, " +
+            "node_id VARCHAR(128) NOT NULL, fencing_token BIGINT NOT NULL, status VARCHAR(16) NOT NULL, " +
+            "rows_touched INT NOT NULL DEFAULT 0, start_time DATETIME(3) NOT NULL, end_time DATETIME(3) NOT NULL, " +
+            "duration_ms BIGINT NOT NULL, error_message VARCHAR(500) NULL, " +
+            "KEY idx_job_start (job_name, start_time))"
+    };
+
+    private static final String INSERT_LEASE_SQL =
+        "INSERT IGNORE INTO scheduled_job_lease (lease_name, fencing_token, update_time) VALUES (?, 0, NOW(3))";
+
+    private static final String ACQUIRE_SQL =
+        "UPDATE scheduled_job_lease SET owner = ?, fencing_token = fencing_token + 1, " +
+        "expire_time = DATE_ADD(NOW(3), INTERVAL ? SECOND), update_time = NOW(3) " +
+        "WHERE lease_name = ? AND (owner IS NULL OR expire_time < NOW(3)) " +
+        "AND (last_success_time IS NULL OR last_success_time < DATE_SUB(NOW(3), INTERVAL ? SECOND))";
+
+    private static final String SELECT_TOKEN_SQL =
+        "SELECT fencing_token FROM scheduled_job_lease WHERE lease_name = ?";
+
+    private static final String FENCE_SQL =
+        "SELECT fencing_token FROM scheduled_job_lease WHERE lease_name = ? FOR UPDATE";
+
+    private static final String RENEW_SQL =
+        "UPDATE scheduled_job_lease SET expire_time = DATE_ADD(NOW(3), INTERVAL ? SECOND), update_time = NOW(3) " +
+        "WHERE lease_name = ? AND owner = ? AND fencing_token = ?";
+
+    private static final String RELEASE_SQL =
+        "UPDATE scheduled_job_lease SET owner = NULL, expire_time = NULL, " +
+        "last_success_time = IF(?, NOW(3), last_success_time), update_time = NOW(3) " +
+        "WHERE lease_name = ? AND owner = ? AND fencing_token = ?";
+
+    private static final String INSERT_RUN_SQL =
+        "INSERT INTO scheduled_job_run (job_name, shard_index, shard_count, node_id, fencing_token, status, " +
+        "rows_touched, start_time, end_time, duration_ms, error_message) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String PURGE_RUN_SQL =
+        "DELETE FROM scheduled_job_run WHERE start_time < ? LIMIT 5000";
+
+    private static final String STATUS_SUCCESS = "success";
+    private static final String STATUS_FAILED = "failed";
+    private static final String STATUS_LEASE_LOST = "lease_lost";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /** 租约时长（秒），执行期间自动续约 */
+    @Value("${scheduling.jobs.lease-seconds:120}")
+    private int leaseSeconds;
+
+    /** 分片任务的分片数，所有节点须一致 */
+    @Value("${scheduling.jobs.shard-count:4}")
+    private int shardCount;
+
+    /** 执行成功后该窗口内其他节点不再重复执行（秒），需大于节点间时钟偏差 */
+    @Value("${scheduling.jobs.run-window-seconds:60}")
+    private int runWindowSeconds;
+
+    /** 执行历史保留天数 */
+    @Value("${scheduling.jobs.history-retention-days:30}")
+    private int historyRetentionDays;
+
+    /** 节点标识，为空时取 主机名:进程号 */
+    @Value("${scheduling.jobs.node-id:}")
+    private String nodeId;
+
+    private TransactionTemplate leaseTransactionTemplate;
+
+    private ScheduledExecutorService renewExecutor;
+
+    private final Map<String, LeaseContext> activeLeases = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void initialize() {
+        if (nodeId == null || nodeId.isBlank()) {
+            String host;
+            try {
+                host = InetAddress.getLocalHost().getHostName();
+            } catch (Exception e) {
+                host = "unknown";
+            }
+            nodeId = host + ":" + ProcessHandle.current().pid();
+        }
+
+        // 租约的获取与释放独立提交，不加入调用方事务
+        leaseTransactionTemplate = new TransactionTemplate(transactionManager);
+        leaseTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        long renewPeriod = Math.max(1, leaseSeconds / 3);
+        renewExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "job-lease-renew");
+            thread.setDaemon(true);
+            return thread;
+        });
+        renewExecutor.scheduleWithFixedDelay(this::renewActiveLeases, renewPeriod, renewPeriod, TimeUnit.SECONDS);
+
+        try {
+            for (String ddl : DDL) {
+                jdbcTemplate.execute(ddl);
+            }
+            log.info(" 定时任务协调初始化完成: 节点={}, 租约={}s, 分片数={}, 执行窗口={}s",
+                    nodeId, leaseSeconds, shardCount, runWindowSeconds);
+        } catch (Exception e) {
+            log.error(" 创建定时任务租约表失败: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (renewExecutor != null) {
+            renewExecutor.shutdownNow();
+        }
+    }
+
+    @Override
+    public boolean runExclusive(String jobName, JobBody body) {
+        return runWithLease(jobName, jobName, 0, 1, body);
+    }
+
+    @Override
+    public int runSharded(String jobName, JobBody body) {
+        int count = Math.max(1, shardCount);
+        // 各节点从不同分片开始，减少争抢
+        int start = Math.floorMod(nodeId.hashCode(), count);
+        int executed = 0;
+        for (int offset = 0; offset < count; offset++) {
+            int shardIndex = (start + offset) % count;
+            String leaseName = jobName + "#" + shardIndex + "/" + count;
+            if (runWithLease(jobName, leaseName, shardIndex, count, body)) {
+                executed++;
+            }
+        }
+        return executed;
+    }
+
+    /**
+     * 清理过期的任务执行历史
+     */
+    @Scheduled(cron = "0 30 3 * * ?")
+    public void purgeRunHistory() {
+        runExclusive("purgeJobRunHistory", context -> jdbcTemplate.update(PURGE_RUN_SQL,
+                Timestamp.valueOf(LocalDateTime.now().minusDays(historyRetentionDays))));
+    }
+
+    private boolean runWithLease(String jobName, String leaseName, int shardIndex, int shardCount, JobBody body) {
+        Long token;
+        try {
+            token = acquire(leaseName);
+        } catch (Exception e) {
+            log.error(" 获取任务租约失败: {}, {}", leaseName, e.getMessage());
+            return false;
+        }
+        if (token == null) {
+            log.debug(" 任务 {} 的租约已被占用或本轮已执行，跳过", leaseName);
+            return false;
+        }
+
+        LeaseContext context = new LeaseContext(leaseName, token, shardIndex, shardCount);
+        activeLeases.put(leaseName, context);
+        LocalDateTime startTime = LocalDateTime.now();
+        long startNanos = System.nanoTime();
+        String status = STATUS_SUCCESS;
+        String errorMessage = null;
+        int rowsTouched = 0;
+        try {
+            rowsTouched = body.run(context);
+        } catch (Exception e) {
+            errorMessage = e.getMessage();
+            // 任务可能把 LeaseLostException 包装后抛出，以 fence 时记录的状态为准
+            if (context.lost) {
+                status = STATUS_LEASE_LOST;
+                log.warn(" 任务 {} 租约已被接管，停止执行，令牌: {}", leaseName, token);
+            } else {
+                status = STATUS_FAILED;
+                log.error(" 任务 {} 执行失败，令牌: {}", leaseName, token, e);
+            }
+        } finally {
+            activeLeases.remove(leaseName);
+        }
+        long durationMs = (System.nanoTime() - startNanos) / 1_000_000;
+
+        try {
+            jdbcTemplate.update(RELEASE_SQL, STATUS_SUCCESS.equals(status), leaseName, nodeId, token);
+        } catch (Exception e) {
+            log.error(" 释放任务租约失败: {}, {}", leaseName, e.getMessage());
+        }
+        try {
+            jdbcTemplate.update(INSERT_RUN_SQL, jobName, shardIndex, shardCount, nodeId, token, status,
+                    rowsTouched, Timestamp.valueOf(startTime), Timestamp.valueOf(LocalDateTime.now()), durationMs,
+                    errorMessage != null && errorMessage.length() > 500 ? errorMessage.substring(0, 500) : errorMessage);
+        } catch (Exception e) {
+            log.error(" 记录任务执行历史失败: {}, {}", leaseName, e.getMessage());
+        }
+        log.info(" 任务 {} 执行结束: 状态={}, 节点={}, 令牌={}, 影响行数={}, 耗时={}ms",
+                leaseName, status, nodeId, token, rowsTouched, durationMs);
+        return true;
+    }
+
+    /**
+     * 抢占租约
+     * @return 新的防护令牌，未抢到返回 null
+     */
+    private Long acquire(String leaseName) {
+        jdbcTemplate.update(INSERT_LEASE_SQL, leaseName);
+        return leaseTransactionTemplate.execute(status -> {
+            int updated = jdbcTemplate.update(ACQUIRE_SQL, nodeId, leaseSeconds, leaseName, runWindowSeconds);
+            if (updated == 0) {
+                return null;
+            }
+            return jdbcTemplate.queryForObject(SELECT_TOKEN_SQL, Long.class, leaseName);
+        });
+    }
+
+    private void renewActiveLeases() {
+        for (LeaseContext context : activeLeases.values()) {
+            try {
+                int updated = jdbcTemplate.update(RENEW_SQL, leaseSeconds, context.leaseName, nodeId, context.fencingToken);
+                if (updated == 0) {
+                    context.lost = true;
+                    log.warn(" 任务租约续约失败，已被其他节点接管: {}, 令牌: {}", context.leaseName, context.fencingToken);
+                }
+            } catch (Exception e) {
+                log.warn(" 任务租约续约异常: {}, {}", context.leaseName, e.getMessage());
+            }
+        }
+    }
+
+    private class LeaseContext implements JobContext {
+        private final String leaseName;
+        private final long fencingToken;
+        private final int shardIndex;
+        private final int shardCount;
+        private volatile boolean lost;
+
+        LeaseContext(String leaseName, long fencingToken, int shardIndex, int shardCount) {
+            this.leaseName = leaseName;
+            this.fencingToken = fencingToken;
+            this.shardIndex = shardIndex;
+            this.shardCount = shardCount;
+        }
+
+        @Override
+        public long getFencingToken() {
+            return fencingToken;
+        }
+
+        @Override
+        public int getShardIndex() {
+            return shardIndex;
+        }
+
+        @Override
+        public int getShardCount() {
+            return shardCount;
+        }
+
+        @Override
+        public void fence() {
+            if (lost) {
+                throw new LeaseLostException("租约已被接管: " + leaseName);
+            }
+            List<Long> tokens = jdbcTemplate.queryForList(FENCE_SQL, Long.class, leaseName);
+            if (tokens.isEmpty() || tokens.get(0) != fencingToken) {
+                lost = true;
+                throw new LeaseLostException("防护令牌已失效: " + leaseName + ", 当前令牌 " + fencingToken);
+            }
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.back_hexiang_studio.GlobalException.BusinessException;
 import com.back_hexiang_studio.GlobalException.DatabaseException;
 import com.back_hexiang_studio.GlobalException.ErrorCode;
 import com.back_hexiang_studio.annotation.AutoFill;
+import com.back_hexiang_studio.constants.CacheConstants;
 import com.back_hexiang_studio.dv.dto.UserDto;
 import com.back_hexiang_studio.dv.dto.UserLoginDto;
 import com.back_hexiang_studio.dv.dto.PageDto;
@@ -902,6 +903,13 @@ public class userServiceimpl implements UserService {
 
         // 如果有其他与用户相关的特定缓存，也在这里添加
         redisTemplate.delete(keysToDelete);
+
+        // 通知各实例失效本地认证缓存（禁用、改密、职位变更等）
+        try {
+            redisTemplate.convertAndSend(CacheConstants.AUTH_PRINCIPAL_INVALIDATE_CHANNEL, String.valueOf(userId));
+        } catch (Exception e) {
+            log.warn("发布认证缓存失效通知失败，用户ID: {}, 原因: {}", userId, e.getMessage());
+        }
         log.info("清理用户缓存，用户ID: {}, 键数量: {}", userId, keysToDelete.size());
     }
 
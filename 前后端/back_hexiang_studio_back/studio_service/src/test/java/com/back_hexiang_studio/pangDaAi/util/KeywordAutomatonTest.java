@@ -0,0 +1,258 @@
+package com.back_hexiang_studio.pangDaAi.util;
+
+import com.back_hexiang_studio.pangDaAi.config.AIModelProperties;
+import com.back_hexiang_studio.pangDaAi.service.KeywordClassifier;
+import com.back_hexiang_studio.pangDaAi.service.KeywordClassifier.ContextHint;
+import com.back_hexiang_studio.pangDaAi.service.rag.ToolClassificationService;
+import com.back_hexiang_studio.pangDaAi.service.rag.ToolClassificationService.ToolCategory;
+import com.back_hexiang_studio.pangDaAi.service.rag.ToolClassificationService.UsageScenario;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 关键词自动机与原逐个 contains 扫描的等价性校验
+ *
+ * 固定随机种子生成关键词与消息，逐组比对命中结果；
+ * 性能对比默认跳过，需要时加 -Dkeyword.benchmark=true：
+ * mvn test -pl studio_service -am -Dtest=KeywordAutomatonTest -Dkeyword.benchmark=true
+ * 这是手写计时的粗略对比（预热 5 轮、计时 10 轮），只看量级差异；结果写入日志
+ */
+@Slf4j
+class KeywordAutomatonTest {
+
+    private static final long SEED = 20261017L;
+
+    // 中英文混合、含大小写和相互重叠的片段，随机拼出关键词和消息
+    private static final String[] FRAGMENTS = {
+            "考勤", "考", "勤", "签到", "到", "任务", "任", "务", "课程", "公告", "统计", "成员",
+            "a", "b", "ab", "abc", "bc", "API", "api", "Bug", "he", "hell", "hello", "ell", "lo",
+            " ", "，", "？", "1", "2"
+    };
+
+    // 原 ModelRouterService 未配置问题类型时的正则（按优先级排列）
+    private static final Map<String, String> LEGACY_QUESTION_PATTERNS = new LinkedHashMap<>();
+    static {
+        LEGACY_QUESTION_PATTERNS.put("CASUAL", "(?i).*(你好|hello|hi|谢谢|再见|天气|新闻|时间).*");
+        LEGACY_QUESTION_PATTERNS.put("STUDIO_QUERY", "(?i).*(查询|查看|显示|列表|谁是|我是谁|成员|人员|统计).*");
+        LEGACY_QUESTION_PATTERNS.put("STUDIO_MANAGEMENT", "(?i).*(任务|考勤|请假|审批|权限|角色|部门|管理|分配).*");
+        LEGACY_QUESTION_PATTERNS.put("COMPLEX_ANALYSIS", "(?i).*(分析|对比|建议|优化|决策|策略|评估|如何提高).*");
+        LEGACY_QUESTION_PATTERNS.put("LONG_CONTENT", "(?i).*(计划|方案|总结|报告|详细说明|完整介绍|制定.*计划).*");
+        LEGACY_QUESTION_PATTERNS.put("CODE_GENERATION", "(?i).*(代码|编程|开发|bug|调试|系统设计|架构|算法|数据库|API).*");
+    }
+
+    /**
+     * 随机关键词分组，逐组命中集合与 toLowerCase().contains 结果一致
+     */
+    @Test
+    void scanMatchesContainsLoop() {
+        Random random = new Random(SEED);
+        for (int round = 0; round < 200; round++) {
+            Map<String, List<String>> groups = randomGroups(random);
+            KeywordAutomaton automaton = build(groups);
+
+            for (int i = 0; i < 50; i++) {
+                String text = randomText(random, 1 + random.nextInt(40));
+                KeywordAutomaton.Hits hits = automaton.scan(text);
+
+                Set<String> expectedGroups = new HashSet<>();
+                for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+                    Set<String> expected = containsLoop(text, group.getValue());
+                    if (!expected.isEmpty()) {
+                        expectedGroups.add(group.getKey());
+                    }
+                    assertEquals(expected, new HashSet<>(hits.matched(group.getKey())),
+                            "分组 " + group.getKey() + " 命中不一致，消息: " + text);
+                }
+                assertEquals(expectedGroups, hits.groups(), "命中分组不一致，消息: " + text);
+                assertEquals(!expectedGroups.isEmpty(), automaton.containsAny(text), "containsAny 不一致，消息: " + text);
+            }
+        }
+    }
+
+    /**
+     * 问题类型分类与原正则按优先级匹配的结果一致
+     */
+    @Test
+    void classifyQuestionMatchesLegacyPatterns() {
+        KeywordClassifier classifier = new KeywordClassifier();
+        ReflectionTestUtils.setField(classifier, "aiModelProperties", new AIModelProperties());
+        classifier.initialize();
+
+        Map<Pattern, String> legacy = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : LEGACY_QUESTION_PATTERNS.entrySet()) {
+            legacy.put(Pattern.compile(entry.getValue()), entry.getKey());
+        }
+        String[] words = {"你好", "Hello", "HI", "查询", "成员", "考勤", "审批", "分析", "如何提高", "制定", "学习",
+                "计划", "详细说明", "代码", "BUG", "api", "数据库", "今天", "的", "吗", " "};
+
+        Random random = new Random(SEED);
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder message = new StringBuilder();
+            int length = 1 + random.nextInt(5);
+            for (int j = 0; j < length; j++) {
+                message.append(words[random.nextInt(words.length)]);
+            }
+            String text = message.toString();
+            assertEquals(legacyClassify(legacy, text), classifier.classifyQuestion(text), "问题类型不一致，消息: " + text);
+        }
+    }
+
+    /**
+     * 全部分类关键词下，自动机单次扫描与逐个 contains 的耗时对比
+     */
+    @Test
+    void benchmarkAgainstContainsLoop() {
+        assumeTrue(Boolean.getBoolean("keyword.benchmark"), "未指定 keyword.benchmark=true，跳过性能对比");
+
+        Map<String, List<String>> groups = classifierGroups();
+        KeywordAutomaton automaton = build(groups);
+        Random random = new Random(SEED);
+        List<String> keywords = new ArrayList<>();
+        groups.values().forEach(keywords::addAll);
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            StringBuilder message = new StringBuilder(randomText(random, 20 + random.nextInt(60)));
+            message.insert(random.nextInt(message.length()), keywords.get(random.nextInt(keywords.size())));
+            messages.add(message.toString());
+        }
+
+        long sink = 0;
+        for (int warmup = 0; warmup < 5; warmup++) {
+            sink += runAutomaton(automaton, messages) + runContainsLoop(groups, messages);
+        }
+        long begin = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            sink += runAutomaton(automaton, messages);
+        }
+        long automatonNanos = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            sink += runContainsLoop(groups, messages);
+        }
+        long containsNanos = System.nanoTime() - begin;
+
+        // 命中数参与断言，防止计时循环被 JIT 当作死代码消除
+        assertTrue(sink > 0, "基准消息均插入了关键词，应有命中");
+
+        long scans = 10L * messages.size();
+        log.info("关键词 {} 个，消息 {} 条 x 10 轮：自动机 {} ns/条，contains 循环 {} ns/条",
+                automaton.size(), messages.size(), automatonNanos / scans, containsNanos / scans);
+        log.info("总耗时：自动机 {} ms，contains 循环 {} ms",
+                TimeUnit.NANOSECONDS.toMillis(automatonNanos), TimeUnit.NANOSECONDS.toMillis(containsNanos));
+    }
+
+    private static long runAutomaton(KeywordAutomaton automaton, List<String> messages) {
+        long hits = 0;
+        for (String message : messages) {
+            hits += automaton.scan(message).groups().size();
+        }
+        return hits;
+    }
+
+    private static long runContainsLoop(Map<String, List<String>> groups, List<String> messages) {
+        long hits = 0;
+        for (String message : messages) {
+            for (List<String> keywords : groups.values()) {
+                if (!containsLoop(message, keywords).isEmpty()) {
+                    hits++;
+                }
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * 原实现：消息转小写后逐个关键词 contains
+     */
+    private static Set<String> containsLoop(String text, List<String> keywords) {
+        String lowerText = text.toLowerCase();
+        Set<String> matched = new HashSet<>();
+        for (String keyword : keywords) {
+            String lowerKeyword = keyword.trim().toLowerCase();
+            if (!lowerKeyword.isEmpty() && lowerText.contains(lowerKeyword)) {
+                matched.add(lowerKeyword);
+            }
+        }
+        return matched;
+    }
+
+    private static String legacyClassify(Map<Pattern, String> legacy, String text) {
+        for (Map.Entry<Pattern, String> entry : legacy.entrySet()) {
+            if (entry.getKey().matcher(text).find()) {
+                return entry.getValue();
+            }
+        }
+        return "CASUAL";
+    }
+
+    private static KeywordAutomaton build(Map<String, List<String>> groups) {
+        KeywordAutomaton.Builder builder = KeywordAutomaton.builder();
+        groups.forEach(builder::addAll);
+        return builder.build();
+    }
+
+    private static Map<String, List<String>> randomGroups(Random random) {
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        int groupCount = 1 + random.nextInt(5);
+        for (int g = 0; g < groupCount; g++) {
+            List<String> keywords = new ArrayList<>();
+            int keywordCount = 1 + random.nextInt(8);
+            for (int k = 0; k < keywordCount; k++) {
+                keywords.add(randomText(random, 1 + random.nextInt(3)));
+            }
+            groups.put("group" + g, keywords);
+        }
+        return groups;
+    }
+
+    private static String randomText(Random random, int fragments) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < fragments; i++) {
+            String fragment = FRAGMENTS[random.nextInt(FRAGMENTS.length)];
+            text.append(random.nextBoolean() ? fragment.toUpperCase() : fragment);
+        }
+        return text.toString();
+    }
+
+    private static Map<String, List<String>> classifierGroups() {
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        for (ToolCategory category : ToolCategory.values()) {
+            groups.put(KeywordClassifier.CATEGORY_GROUP + category.getCode(), category.getKeywords());
+        }
+        for (UsageScenario scenario : UsageScenario.values()) {
+            groups.put(KeywordClassifier.SCENARIO_GROUP + scenario.name(), scenario.getKeywords());
+        }
+        for (Map.Entry<String, List<String>> entry : ToolClassificationService.SPECIAL_PATTERN_KEYWORDS.entrySet()) {
+            groups.put(KeywordClassifier.PATTERN_GROUP + entry.getKey(), entry.getValue());
+        }
+        for (ContextHint hint : ContextHint.values()) {
+            groups.put(KeywordClassifier.HINT_GROUP + hint.name(), hint.getKeywords());
+        }
+        for (Map.Entry<String, String> entry : LEGACY_QUESTION_PATTERNS.entrySet()) {
+            String alternatives = entry.getValue().substring("(?i).*(".length(), entry.getValue().length() - ").*".length());
+            List<String> keywords = new ArrayList<>();
+            for (String keyword : alternatives.split("\\|")) {
+                if (!keyword.contains(".*")) {
+                    keywords.add(keyword);
+                }
+            }
+            groups.put(KeywordClassifier.QUESTION_GROUP + entry.getKey(), keywords);
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,262 @@
+package com.back_hexiang_studio.service.impl;
+
+import com.back_hexiang_studio.GlobalException.BaseException;
+import com.back_hexiang_studio.entity.AttendancePlan;
+import com.back_hexiang_studio.enumeration.AttendanceStatus;
+import com.back_hexiang_studio.mapper.ActivityCapacityMapper;
+import com.back_hexiang_studio.mapper.ActivityReservationMapper;
+import com.back_hexiang_studio.mapper.AttendancePlanMapper;
+import com.back_hexiang_studio.mapper.StudentMapper;
+import com.back_hexiang_studio.service.ActivityReservationService;
+import com.back_hexiang_studio.service.AttendanceCheckInService;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.TransactionManager;
+import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource;
+import org.springframework.transaction.interceptor.TransactionInterceptor;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 活动预约并发压测
+ *
+ * 需要 MySQL（名额锁与隔离级别依赖 InnoDB 行为），未指定数据库时跳过：
+ * mvn test -pl studio_service -am -Dtest=ActivityReservationConcurrencyTest
+ *     -Dreservation.load-test.jdbc-url=jdbc:mysql://localhost:3306/hexiang_studio
+ *     -Dreservation.load-test.username=root -Dreservation.load-test.password=...
+ *
+ * 使用库中已有的学生，测试结束后按活动名称删除创建的活动、名额设置和预约记录
+ */
+@Slf4j
+class ActivityReservationConcurrencyTest {
+
+    private static final int THREADS = 32;
+    private static final int CAPACITY = 5;
+    private static final String PLAN_NAME = "预约并发压测";
+
+    private MySqlTestDatabase database;
+    private JdbcTemplate jdbcTemplate;
+    private AttendancePlanMapper attendancePlanMapper;
+    private ActivityReservationService reservationService;
+    private ExecutorService executor;
+    private Long planId;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        database = MySqlTestDatabase.connect("reservation.load-test", "预约并发压测");
+        jdbcTemplate = database.getJdbcTemplate();
+        SqlSessionTemplate sqlSession = database.openSession("ActivityReservationMapper.xml",
+                "ActivityCapacityMapper.xml", "AttendancePlanMapper.xml", "StudentMapper.xml");
+        attendancePlanMapper = sqlSession.getMapper(AttendancePlanMapper.class);
+
+        ActivityReservationServiceImpl target = new ActivityReservationServiceImpl();
+        ReflectionTestUtils.setField(target, "activityReservationMapper", sqlSession.getMapper(ActivityReservationMapper.class));
+        ReflectionTestUtils.setField(target, "studentMapper", sqlSession.getMapper(StudentMapper.class));
+        ReflectionTestUtils.setField(target, "attendancePlanMapper", attendancePlanMapper);
+        ReflectionTestUtils.setField(target, "activityCapacityMapper", sqlSession.getMapper(ActivityCapacityMapper.class));
+        ReflectionTestUtils.setField(target, "attendanceCheckInService", new NoopCheckInService());
+        ReflectionTestUtils.setField(target, "jdbcTemplate", jdbcTemplate);
+        target.initialize();
+
+        // 与容器中一致：按 @Transactional 注解（含隔离级别）开启事务
+        ProxyFactory proxyFactory = new ProxyFactory(target);
+        TransactionManager transactionManager = new DataSourceTransactionManager(database.getDataSource());
+        proxyFactory.addAdvice(new TransactionInterceptor(transactionManager, new AnnotationTransactionAttributeSource()));
+        reservationService = (ActivityReservationService) proxyFactory.getProxy();
+
+        AttendancePlan plan = new AttendancePlan();
+        plan.setType("activity");
+        plan.setName(PLAN_NAME);
+        plan.setStartTime(LocalDateTime.now().plusDays(1));
+        plan.setEndTime(LocalDateTime.now().plusDays(1).plusHours(2));
+        plan.setLocation("压测");
+        plan.setRadius(100);
+        plan.setStatus(1);
+        plan.setCreateTime(LocalDateTime.now());
+        plan.setUpdateTime(LocalDateTime.now());
+        attendancePlanMapper.insert(plan);
+        planId = plan.getPlanId();
+
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (database != null) {
+            database.deletePlansByName(PLAN_NAME, "activity_reservation", "activity_capacity");
+        }
+    }
+
+    /**
+     * 不同学生同时抢有限名额，预约成功数不能超过名额
+     */
+    @Test
+    void concurrentReservationsNeverExceedCapacity() throws Exception {
+        List<Long> studentIds = database.loadStudents(THREADS);
+        reservationService.saveCapacity(planId, CAPACITY, false);
+
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (Long studentId : studentIds) {
+            tasks.add(() -> reserve(studentId));
+        }
+        int succeeded = countSucceeded(runConcurrently(tasks));
+
+        assertEquals(CAPACITY, succeeded, "预约成功数应等于名额");
+        assertEquals(CAPACITY, countByStatus("reserved"), "已预约记录数应等于名额");
+    }
+
+    /**
+     * 同一学生并发重复提交，只能留下一条有效预约
+     */
+    @Test
+    void concurrentDuplicateReservationsKeepOneRecord() throws Exception {
+        Long studentId = database.loadStudents(1).get(0);
+        reservationService.saveCapacity(planId, null, false);
+
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            tasks.add(() -> reserve(studentId));
+        }
+        int succeeded = countSucceeded(runConcurrently(tasks));
+
+        assertEquals(1, succeeded, "重复预约只能成功一次");
+        Integer active = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM activity_reservation WHERE plan_id = ? AND student_id = ? AND status <> 'cancelled'",
+                Integer.class, planId, studentId);
+        assertEquals(1, active, "有效预约记录应只有一条");
+    }
+
+    /**
+     * 名额满后进入候补，并发取消与候补递补交错时已预约数保持等于名额
+     */
+    @Test
+    void concurrentCancellationsPromoteWaitlistWithinCapacity() throws Exception {
+        List<Long> studentIds = database.loadStudents(THREADS);
+        reservationService.saveCapacity(planId, CAPACITY, true);
+        for (Long studentId : studentIds) {
+            reservationService.reserveActivity(planId, studentId, null, null);
+        }
+        assertEquals(CAPACITY, countByStatus("reserved"));
+        assertEquals(studentIds.size() - CAPACITY, countByStatus("waitlisted"));
+
+        // 取消一半学生的预约（含已预约和候补），同时让取消的学生重新预约
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (int i = 0; i < studentIds.size(); i += 2) {
+            Long studentId = studentIds.get(i);
+            tasks.add(() -> cancel(studentId));
+            tasks.add(() -> reserve(studentId));
+        }
+        runConcurrently(tasks);
+
+        assertEquals(CAPACITY, countByStatus("reserved"), "递补后已预约数应等于名额");
+        Integer duplicated = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM (SELECT student_id FROM activity_reservation " +
+                "WHERE plan_id = ? AND status IN ('reserved', 'waitlisted') GROUP BY student_id HAVING COUNT(*) > 1) t",
+                Integer.class, planId);
+        assertEquals(0, duplicated, "同一学生不应有多条有效预约");
+    }
+
+    private boolean reserve(Long studentId) {
+        try {
+            reservationService.reserveActivity(planId, studentId, null, null);
+            return true;
+        } catch (BaseException e) {
+            return false;
+        }
+    }
+
+    private boolean cancel(Long studentId) {
+        Long reservationId = jdbcTemplate.query(
+                "SELECT reservation_id FROM activity_reservation WHERE plan_id = ? AND student_id = ? " +
+                "AND status IN ('reserved', 'waitlisted') ORDER BY reservation_id LIMIT 1",
+                rs -> rs.next() ? rs.getLong(1) : null, planId, studentId);
+        if (reservationId == null) {
+            return false;
+        }
+        try {
+            reservationService.cancelReservation(reservationId, studentId);
+            return true;
+        } catch (BaseException e) {
+            return false;
+        }
+    }
+
+    private List<Boolean> runConcurrently(List<Callable<Boolean>> tasks) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (Callable<Boolean> task : tasks) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return task.call();
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        List<Boolean> results = new ArrayList<>();
+        for (Future<Boolean> future : futures) {
+            results.add(future.get(60, TimeUnit.SECONDS));
+        }
+        long elapsedNanos = System.nanoTime() - begin;
+        log.info("并发请求 {} 个，线程 {}，耗时 {} ms，吞吐 {} 次/秒", tasks.size(), THREADS,
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                String.format("%.1f", tasks.size() * 1e9 / Math.max(1, elapsedNanos)));
+        return results;
+    }
+
+    private int countByStatus(String status) {
+        Integer count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM activity_reservation WHERE plan_id = ? AND status = ?",
+                Integer.class, planId, status);
+        return count != null ? count : 0;
+    }
+
+    private static int countSucceeded(List<Boolean> results) {
+        return Collections.frequency(results, Boolean.TRUE);
+    }
+
+    /**
+     * 预约流程不依赖签到缓存，测试中不做处理
+     */
+    private static class NoopCheckInService implements AttendanceCheckInService {
+
+        @Override
+        public Map<String, Object> tryFastCheckIn(Long planId, Long userId, Double latitude, Double longitude, String location) {
+            return null;
+        }
+
+        @Override
+        public void syncRecordStatus(Long planId, Long studentId, AttendanceStatus status) {
+        }
+
+        @Override
+        public void invalidatePlan(Long planId) {
+        }
+
+        @Override
+        public Map<String, Object> getStats() {
+            return Collections.emptyMap();
+        }
+    }
+}
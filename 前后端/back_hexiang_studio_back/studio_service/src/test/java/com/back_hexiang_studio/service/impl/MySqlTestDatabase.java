@@ -0,0 +1,101 @@
+package com.back_hexiang_studio.service.impl;
+
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.mybatis.spring.SqlSessionFactoryBean;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 依赖 MySQL 的测试公共支持
+ *
+ * 数据库通过系统属性 &lt;前缀&gt;.jdbc-url / &lt;前缀&gt;.username / &lt;前缀&gt;.password 指定，未指定时跳过测试；
+ * 测试生成的计划和值班安排以名称作为标记，结束后按标记删除
+ */
+final class MySqlTestDatabase {
+
+    private static final String PLANS_BY_NAME = "SELECT plan_id FROM attendance_plan WHERE name = ?";
+
+    private final String testName;
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+
+    private MySqlTestDatabase(String testName, DataSource dataSource) {
+        this.testName = testName;
+        this.dataSource = dataSource;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * 按系统属性连接数据库，未指定 jdbc-url 时跳过当前测试
+     *
+     * @param propertyPrefix 系统属性前缀
+     * @param testName 测试名称，用于跳过提示
+     */
+    static MySqlTestDatabase connect(String propertyPrefix, String testName) {
+        String url = System.getProperty(propertyPrefix + ".jdbc-url");
+        assumeTrue(url != null && !url.isEmpty(), "未指定 " + propertyPrefix + ".jdbc-url，跳过" + testName);
+        return new MySqlTestDatabase(testName, new DriverManagerDataSource(url,
+                System.getProperty(propertyPrefix + ".username", "root"),
+                System.getProperty(propertyPrefix + ".password", "")));
+    }
+
+    DataSource getDataSource() {
+        return dataSource;
+    }
+
+    JdbcTemplate getJdbcTemplate() {
+        return jdbcTemplate;
+    }
+
+    /**
+     * 只加载给定的 Mapper XML（位于 classpath 的 mapper/ 目录），不启动 Spring 容器
+     */
+    SqlSessionTemplate openSession(String... mapperFiles) throws Exception {
+        Resource[] resources = new Resource[mapperFiles.length];
+        for (int i = 0; i < mapperFiles.length; i++) {
+            resources[i] = new ClassPathResource("mapper/" + mapperFiles[i]);
+        }
+        SqlSessionFactoryBean factoryBean = new SqlSessionFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setMapperLocations(resources);
+        SqlSessionFactory sqlSessionFactory = factoryBean.getObject();
+        return new SqlSessionTemplate(sqlSessionFactory);
+    }
+
+    /**
+     * 取库中已有的前 count 名学生，数量不足时跳过当前测试
+     */
+    List<Long> loadStudents(int count) {
+        List<Long> studentIds = jdbcTemplate.queryForList(
+                "SELECT student_id FROM student ORDER BY student_id LIMIT ?", Long.class, count);
+        assumeTrue(studentIds.size() >= count, "学生数量不足 " + count + "，跳过" + testName);
+        return studentIds;
+    }
+
+    /**
+     * 删除名称为 name 的考勤计划，先删除 planTables 中按 plan_id 关联的数据
+     */
+    void deletePlansByName(String name, String... planTables) {
+        for (String table : planTables) {
+            jdbcTemplate.update("DELETE FROM " + table + " WHERE plan_id IN (" + PLANS_BY_NAME + ")", name);
+        }
+        jdbcTemplate.update("DELETE FROM attendance_plan WHERE name = ?", name);
+    }
+
+    /**
+     * 删除名称为 name 的值班安排及其值班学生
+     */
+    void deleteDutySchedulesByName(String name) {
+        jdbcTemplate.update("DELETE FROM duty_schedule_student WHERE schedule_id IN " +
+                "(SELECT schedule_id FROM duty_schedule WHERE duty_name = ?)", name);
+        jdbcTemplate.update("DELETE FROM duty_schedule WHERE duty_name = ?", name);
+    }
+}
@@ -0,0 +1,302 @@
+package com.back_hexiang_studio.service.impl;
+
+import com.back_hexiang_studio.mapper.AttendancePlanMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 学生可见考勤计划查询（selectVisiblePlansForStudent）基准测试
+ *
+ * 需要 MySQL，未指定数据库时跳过：
+ * mvn test -pl studio_service -am -Dtest=VisiblePlansQueryBenchmarkTest
+ *     -Dattendance.benchmark.jdbc-url=jdbc:mysql://localhost:3306/hexiang_studio
+ *     -Dattendance.benchmark.username=root -Dattendance.benchmark.password=...
+ *
+ * 固定随机种子生成课程/活动/值班计划、预约、值班安排与值班学生和考勤记录
+ * （课程计划使用库中已有的课程与选课关系），先按生成的数据逐个学生及管理员校验查询结果，
+ * 再统计查询耗时；测试结束后删除生成的数据
+ */
+@Slf4j
+class VisiblePlansQueryBenchmarkTest {
+
+    private static final long SEED = 20261017L;
+    private static final String MARKER = "可见计划基准";
+    private static final int PLANS = 3000;
+    private static final int STUDENTS = 50;
+    private static final int DUTY_SCHEDULES = 20;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURE_ROUNDS = 20;
+    private static final String[] RECORD_STATUSES = {"pending", "present", "late", "absent", "leave"};
+
+    private MySqlTestDatabase database;
+    private JdbcTemplate jdbcTemplate;
+    private AttendancePlanMapper attendancePlanMapper;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        database = MySqlTestDatabase.connect("attendance.benchmark", "可见计划基准测试");
+        jdbcTemplate = database.getJdbcTemplate();
+        attendancePlanMapper = database.openSession("AttendancePlanMapper.xml").getMapper(AttendancePlanMapper.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (database == null) {
+            return;
+        }
+        database.deletePlansByName(MARKER, "attendance_record", "activity_reservation");
+        database.deleteDutySchedulesByName(MARKER);
+    }
+
+    @Test
+    void visiblePlansMatchSeededDataAndReportLatency() {
+        List<Long> studentIds = database.loadStudents(STUDENTS);
+        List<Long> courseIds = jdbcTemplate.queryForList(
+                "SELECT course_id FROM course ORDER BY course_id LIMIT 5", Long.class);
+
+        // 数据库 DATETIME 精确到秒，参数同样取整，避免边界比较受毫秒影响
+        LocalDateTime now = LocalDateTime.now().withNano(0);
+        LocalDateTime showBefore = now.plusDays(1);
+        Random random = new Random(SEED);
+        Map<Long, Set<Long>> rosters = seedDutySchedules(random, studentIds, now);
+        SeededPlans seeded = seedPlans(random, now, courseIds, new ArrayList<>(rosters.keySet()));
+        seeded.rosters.putAll(rosters);
+        seedReservationsAndRecords(random, seeded, studentIds, now);
+        Map<Long, Set<Long>> enrolled = loadEnrollments(courseIds);
+
+        // 正确性：按生成的数据计算每个学生应看到的计划
+        for (Long studentId : studentIds) {
+            Set<Long> expected = new TreeSet<>();
+            for (Long planId : seeded.planIds) {
+                if (isVisible(seeded, planId, studentId, enrolled, now, showBefore)) {
+                    expected.add(planId);
+                }
+            }
+            assertEquals(expected, seededPlanIds(seeded,
+                    attendancePlanMapper.selectVisiblePlansForStudent(studentId, false, now, showBefore)),
+                    "学生 " + studentId + " 的可见计划不一致");
+        }
+
+        // 管理员不按选课/预约/值班过滤，窗口内的计划都可见；HAVING 仍按传入的学生ID排除其已签到的计划
+        Long adminStudentId = studentIds.get(0);
+        Set<Long> expectedForAdmin = new TreeSet<>();
+        for (Long planId : seeded.planIds) {
+            if (isInWindow(seeded, planId, now, showBefore) && !hasCheckedIn(seeded, planId, adminStudentId)) {
+                expectedForAdmin.add(planId);
+            }
+        }
+        assertEquals(expectedForAdmin, seededPlanIds(seeded,
+                attendancePlanMapper.selectVisiblePlansForStudent(adminStudentId, true, now, showBefore)),
+                "管理员的可见计划不一致");
+
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (Long studentId : studentIds) {
+                attendancePlanMapper.selectVisiblePlansForStudent(studentId, false, now, showBefore);
+            }
+        }
+        List<Long> studentLatencies = new ArrayList<>();
+        List<Long> adminLatencies = new ArrayList<>();
+        for (int round = 0; round < MEASURE_ROUNDS; round++) {
+            for (Long studentId : studentIds) {
+                long begin = System.nanoTime();
+                attendancePlanMapper.selectVisiblePlansForStudent(studentId, false, now, showBefore);
+                studentLatencies.add(System.nanoTime() - begin);
+            }
+            long begin = System.nanoTime();
+            attendancePlanMapper.selectVisiblePlansForStudent(adminStudentId, true, now, showBefore);
+            adminLatencies.add(System.nanoTime() - begin);
+        }
+        log.info("计划 {} 个，学生 {} 名，值班安排 {} 个，记录 {} 条", PLANS, STUDENTS, DUTY_SCHEDULES, seeded.recordCount);
+        report("学生查询", studentLatencies);
+        report("管理员查询", adminLatencies);
+    }
+
+    /**
+     * 生成值班安排，每个安排随机选取约五分之一的学生值班
+     *
+     * @return 值班安排ID -> 值班学生
+     */
+    private Map<Long, Set<Long>> seedDutySchedules(Random random, List<Long> studentIds, LocalDateTime now) {
+        Timestamp created = Timestamp.valueOf(now);
+        List<Object[]> schedules = new ArrayList<>(DUTY_SCHEDULES);
+        for (int i = 0; i < DUTY_SCHEDULES; i++) {
+            schedules.add(new Object[]{MARKER, Timestamp.valueOf(now.minusDays(3)), Timestamp.valueOf(now.plusDays(3)), created});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO duty_schedule (duty_name, location, time_slot, start_time, end_time, " +
+                "status, create_time) VALUES (?, '基准', '08:00-10:00', ?, ?, 1, ?)", schedules);
+
+        // 保持安排ID顺序，计划按下标随机选取安排时结果可复现
+        Map<Long, Set<Long>> rosters = new LinkedHashMap<>();
+        List<Object[]> rosterRows = new ArrayList<>();
+        for (Long scheduleId : jdbcTemplate.queryForList(
+                "SELECT schedule_id FROM duty_schedule WHERE duty_name = ? ORDER BY schedule_id", Long.class, MARKER)) {
+            Set<Long> roster = new HashSet<>();
+            for (Long studentId : studentIds) {
+                if (random.nextInt(5) == 0) {
+                    roster.add(studentId);
+                    rosterRows.add(new Object[]{scheduleId, studentId, created});
+                }
+            }
+            rosters.put(scheduleId, roster);
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO duty_schedule_student (schedule_id, student_id, status, create_time) " +
+                "VALUES (?, ?, 'normal', ?)", rosterRows);
+        return rosters;
+    }
+
+    private SeededPlans seedPlans(Random random, LocalDateTime now, List<Long> courseIds, List<Long> scheduleIds) {
+        List<Object[]> rows = new ArrayList<>(PLANS);
+        for (int i = 0; i < PLANS; i++) {
+            // 课程、活动、值班三类计划大致各占三分之一；库中没有课程时课程计划改为活动
+            int kind = random.nextInt(3);
+            String type = kind == 0 && !courseIds.isEmpty() ? "course" : kind == 2 ? "duty" : "activity";
+            // 开始时间分布在前后三天，只有一部分落在展示窗口内
+            LocalDateTime start = now.plusMinutes(random.nextInt(6 * 24 * 60) - 3 * 24 * 60);
+            LocalDateTime end = start.plusMinutes(60 + random.nextInt(120));
+            Long courseId = "course".equals(type) ? courseIds.get(random.nextInt(courseIds.size())) : null;
+            Long scheduleId = "duty".equals(type) ? scheduleIds.get(random.nextInt(scheduleIds.size())) : null;
+            rows.add(new Object[]{type, MARKER, Timestamp.valueOf(start), Timestamp.valueOf(end), courseId, scheduleId,
+                    "bench-" + i, Timestamp.valueOf(now), Timestamp.valueOf(now)});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO attendance_plan (type, name, start_time, end_time, location, radius, " +
+                "course_id, schedule_id, note, status, create_time, update_time) " +
+                "VALUES (?, ?, ?, ?, '基准', 100, ?, ?, ?, 1, ?, ?)", rows);
+
+        SeededPlans seeded = new SeededPlans();
+        jdbcTemplate.query("SELECT plan_id, type, start_time, end_time, course_id, schedule_id FROM attendance_plan " +
+                "WHERE name = ? ORDER BY plan_id", rs -> {
+            long planId = rs.getLong("plan_id");
+            seeded.planIds.add(planId);
+            seeded.types.put(planId, rs.getString("type"));
+            seeded.starts.put(planId, rs.getTimestamp("start_time").toLocalDateTime());
+            seeded.ends.put(planId, rs.getTimestamp("end_time").toLocalDateTime());
+            long courseId = rs.getLong("course_id");
+            seeded.courseIds.put(planId, rs.wasNull() ? null : courseId);
+            long scheduleId = rs.getLong("schedule_id");
+            seeded.scheduleIds.put(planId, rs.wasNull() ? null : scheduleId);
+        }, MARKER);
+        return seeded;
+    }
+
+    private void seedReservationsAndRecords(Random random, SeededPlans seeded, List<Long> studentIds, LocalDateTime now) {
+        Timestamp created = Timestamp.valueOf(now);
+        List<Object[]> reservations = new ArrayList<>();
+        List<Object[]> records = new ArrayList<>();
+        for (Long planId : seeded.planIds) {
+            for (Long studentId : studentIds) {
+                if ("activity".equals(seeded.types.get(planId)) && random.nextInt(10) < 3) {
+                    String status = random.nextInt(4) == 0 ? "cancelled" : "reserved";
+                    reservations.add(new Object[]{planId, studentId, status, created, created, created});
+                    if ("reserved".equals(status)) {
+                        seeded.reserved.computeIfAbsent(planId, id -> new HashSet<>()).add(studentId);
+                    }
+                }
+                if (random.nextInt(10) < 3) {
+                    String status = RECORD_STATUSES[random.nextInt(RECORD_STATUSES.length)];
+                    records.add(new Object[]{planId, studentId, status, created, created});
+                    seeded.recordStatus.put(planId + ":" + studentId, status);
+                }
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO activity_reservation (plan_id, student_id, status, reservation_time, " +
+                "create_time, update_time) VALUES (?, ?, ?, ?, ?, ?)", reservations);
+        jdbcTemplate.batchUpdate("INSERT INTO attendance_record (plan_id, student_id, status, create_time, update_time) " +
+                "VALUES (?, ?, ?, ?, ?)", records);
+        seeded.recordCount = records.size();
+    }
+
+    private Map<Long, Set<Long>> loadEnrollments(List<Long> courseIds) {
+        Map<Long, Set<Long>> enrolled = new HashMap<>();
+        for (Long courseId : courseIds) {
+            enrolled.put(courseId, new HashSet<>(jdbcTemplate.queryForList(
+                    "SELECT student_id FROM student_course WHERE course_id = ?", Long.class, courseId)));
+        }
+        return enrolled;
+    }
+
+    private static boolean isVisible(SeededPlans seeded, Long planId, Long studentId, Map<Long, Set<Long>> enrolled,
+                                     LocalDateTime now, LocalDateTime showBefore) {
+        if (!isInWindow(seeded, planId, now, showBefore)) {
+            return false;
+        }
+        boolean eligible;
+        switch (seeded.types.get(planId)) {
+            case "course":
+                eligible = enrolled.getOrDefault(seeded.courseIds.get(planId), Collections.emptySet()).contains(studentId);
+                break;
+            case "duty":
+                eligible = seeded.rosters.getOrDefault(seeded.scheduleIds.get(planId), Collections.emptySet()).contains(studentId);
+                break;
+            default:
+                eligible = seeded.reserved.getOrDefault(planId, Collections.emptySet()).contains(studentId);
+        }
+        return eligible && !hasCheckedIn(seeded, planId, studentId);
+    }
+
+    private static boolean isInWindow(SeededPlans seeded, Long planId, LocalDateTime now, LocalDateTime showBefore) {
+        return seeded.starts.get(planId).isBefore(showBefore) && seeded.ends.get(planId).isAfter(now);
+    }
+
+    private static boolean hasCheckedIn(SeededPlans seeded, Long planId, Long studentId) {
+        String status = seeded.recordStatus.get(planId + ":" + studentId);
+        return "present".equals(status) || "late".equals(status);
+    }
+
+    private static Set<Long> seededPlanIds(SeededPlans seeded, List<Map<String, Object>> plans) {
+        Set<Long> planIds = new TreeSet<>();
+        for (Map<String, Object> plan : plans) {
+            Long planId = ((Number) plan.get("planId")).longValue();
+            if (seeded.types.containsKey(planId)) {
+                planIds.add(planId);
+            }
+        }
+        return planIds;
+    }
+
+    private static void report(String name, List<Long> latencies) {
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        long total = 0;
+        for (Long latency : sorted) {
+            total += latency;
+        }
+        log.info("{} {} 次：平均 {} ms，p50 {} ms，p95 {} ms", name, sorted.size(),
+                String.format("%.2f", total / 1e6 / sorted.size()),
+                String.format("%.2f", sorted.get(sorted.size() / 2) / 1e6),
+                String.format("%.2f", sorted.get((int) (sorted.size() * 0.95)) / 1e6));
+    }
+
+    /**
+     * 生成的计划及其预约、值班学生、考勤记录，用于计算期望结果
+     */
+    private static class SeededPlans {
+        final List<Long> planIds = new ArrayList<>();
+        final Map<Long, String> types = new HashMap<>();
+        final Map<Long, LocalDateTime> starts = new HashMap<>();
+        final Map<Long, LocalDateTime> ends = new HashMap<>();
+        final Map<Long, Long> courseIds = new HashMap<>();
+        final Map<Long, Long> scheduleIds = new HashMap<>();
+        final Map<Long, Set<Long>> rosters = new HashMap<>();
+        final Map<Long, Set<Long>> reserved = new HashMap<>();
+        final Map<String, String> recordStatus = new HashMap<>();
+        int recordCount;
+    }
+}
@@ -1,11 +1,15 @@
 package com.back_hexiang_studio.config;
 
+import com.back_hexiang_studio.constants.CacheConstants;
+import com.back_hexiang_studio.securuty.AuthPrincipalCache;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
@@ -57,5 +61,18 @@ public class RedisConfig {
         return template;
     }
 
+    /**
+     * Redis消息监听容器
+     * 订阅认证主体缓存失效通知，使各实例的本地认证缓存同步失效
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory factory,
+                                                                       AuthPrincipalCache authPrincipalCache) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(factory);
+        container.addMessageListener(authPrincipalCache, new ChannelTopic(CacheConstants.AUTH_PRINCIPAL_INVALIDATE_CHANNEL));
+        return container;
+    }
+
 
 }
\ No newline at end of file
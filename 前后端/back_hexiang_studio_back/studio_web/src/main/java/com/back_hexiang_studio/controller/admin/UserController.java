@@ -21,6 +21,7 @@ import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import  com.back_hexiang_studio.securuty.TokenService;
+import com.back_hexiang_studio.securuty.AuthPrincipalCache;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.util.HashMap;
@@ -53,6 +54,9 @@ public class UserController {
 
     @Autowired
     private LoginSecurityService loginSecurityService;
+
+    @Autowired
+    private AuthPrincipalCache authPrincipalCache;
     @Autowired
     private CaptchaService captchaService;
 
@@ -356,6 +360,18 @@ public class UserController {
         return Result.success("用户状态更新成功");
     }
 
+    /**
+     * 刷新权限：角色或职位的权限配置变更后调用，通知所有实例清空认证缓存，下次请求重新加载权限
+     * @return 操作结果
+     */
+    @PostMapping("/permissions/refresh")
+    @PreAuthorize("hasAuthority('ROLE_ADMIN')")
+    public Result refreshPermissions() {
+        log.info("角色权限配置变更，清空全部认证缓存");
+        authPrincipalCache.invalidateAll();
+        return Result.success("权限已刷新");
+    }
+
     /**
      * 获取培训方向列表
      * @return 培训方向列表
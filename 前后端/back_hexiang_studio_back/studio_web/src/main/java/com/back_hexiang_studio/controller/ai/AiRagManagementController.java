@@ -1,6 +1,7 @@
 package com.back_hexiang_studio.controller.ai;
 
 import com.back_hexiang_studio.pangDaAi.service.rag.FullSyncService;
+import com.back_hexiang_studio.pangDaAi.service.rag.QueryEmbeddingCache;
 import com.back_hexiang_studio.pangDaAi.service.rag.VectorStoreService;
 import com.back_hexiang_studio.result.Result;
 import lombok.extern.slf4j.Slf4j;
@@ -36,6 +37,9 @@ public class AiRagManagementController {
     @Autowired
     private FullSyncService fullSyncService;
 
+    @Autowired
+    private QueryEmbeddingCache queryEmbeddingCache;
+
     /**
      * 🔍 获取RAG系统状态
      * 提供向量数据库的详细状态信息
@@ -53,6 +57,7 @@ public class AiRagManagementController {
             status.put("storagePath", stats.getStoragePath());
             status.put("embeddingModel", stats.getEmbeddingModel());
             status.put("storeType", stats.getStoreType());
+            status.put("queryEmbeddingCache", queryEmbeddingCache.getStats());
             
             // 系统健康状态
             status.put("systemHealth", "healthy");
@@ -95,6 +100,35 @@ public class AiRagManagementController {
         }
     }
 
+    /**
+     *  手动增量同步
+     * 只对新增、变更、删除的数据重新向量化，同步期间检索不中断
+     */
+    @PostMapping("/sync-incremental")
+    public Result<Map<String, Object>> syncIncremental() {
+        try {
+            log.info(" 开始手动增量同步");
+
+            FullSyncService.SyncResult syncResult = fullSyncService.syncIncremental();
+            if (!syncResult.isSuccess()) {
+                return Result.error("增量同步失败: " + syncResult.getErrorMessage());
+            }
+
+            Map<String, Object> data = new HashMap<>();
+            data.put("inserted", syncResult.getInsertedCount());
+            data.put("updated", syncResult.getUpdatedCount());
+            data.put("skipped", syncResult.getSkippedCount());
+            data.put("deleted", syncResult.getDeletedCount());
+            data.put("durationMs", syncResult.getDurationMs());
+
+            return Result.success(data);
+
+        } catch (Exception e) {
+            log.error(" 增量同步失败", e);
+            return Result.error("增量同步失败: " + e.getMessage());
+        }
+    }
+
     /**
      * 🗑️ 清空向量数据库
      * 删除所有向量数据，谨慎使用
@@ -115,6 +149,21 @@ public class AiRagManagementController {
         }
     }
 
+    /**
+     *  压缩向量数据库
+     * 清理已删除文档残留的失效向量，返回压缩报告
+     */
+    @PostMapping("/compact")
+    public Result<VectorStoreService.CompactionReport> compactVectorStore() {
+        try {
+            log.info(" 开始压缩向量数据库");
+            return Result.success(vectorStoreService.compact());
+        } catch (Exception e) {
+            log.error(" 压缩向量数据库失败", e);
+            return Result.error("压缩操作失败: " + e.getMessage());
+        }
+    }
+
 
 
     /**
@@ -2,16 +2,20 @@ package com.back_hexiang_studio.controller.ai;
 
 import com.back_hexiang_studio.context.UserContextHolder;
 
+import com.back_hexiang_studio.pangDaAi.service.StreamBulkhead;
 import com.back_hexiang_studio.pangDaAi.service.assistant.AssistantAgent;
 import com.back_hexiang_studio.pangDaAi.util.Result;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
 import reactor.core.scheduler.Schedulers;
 
 import java.time.Duration;
@@ -21,6 +25,9 @@ import java.util.concurrent.ConcurrentHashMap;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
 
 /**
  * AI助手流式输出控制器
@@ -39,6 +46,10 @@ public class StreamingAssistantController {
     @Autowired
     private AssistantAgent assistantAgent;
 
+    // 流式对话并发隔离：全局/单用户并发、排队与拒绝
+    @Autowired
+    private StreamBulkhead streamBulkhead;
+
     //  Redis缓存支持
     @Autowired(required = false)
     private RedisTemplate<String, String> redisTemplate;
@@ -56,7 +67,7 @@ public class StreamingAssistantController {
      * @return 流式响应
      */
     @PostMapping(value = "/chat", produces = MediaType.TEXT_PLAIN_VALUE)
-    public Flux<String> streamChat(@RequestBody ChatRequest request) {
+    public ResponseEntity<Flux<String>> streamChat(@RequestBody ChatRequest request) {
         // 获取当前登录用户ID
         Long currentUserId = UserContextHolder.getCurrentId();
         String actualUserId = currentUserId != null ? currentUserId.toString() : request.getUserId();
@@ -67,10 +78,16 @@ public class StreamingAssistantController {
         // 优先使用前端传入的会话ID，否则生成持久化会话ID
         String sessionId = generateOrGetSessionId(actualUserId, request.getSessionId());
         
+        // 并发准入：超限直接返回429
+        StreamBulkhead.Admission admission = streamBulkhead.enter(bulkheadKey(actualUserId));
+        if (admission.isRejected()) {
+            return rejected(admission, Flux.just(rejectionMessage(admission)));
+        }
+        
         // 保存当前的Security上下文，防止异步处理时丢失权限信息
         SecurityContext securityContext = SecurityContextHolder.getContext();
         
-        return Flux.<String>create(sink -> {
+        return ResponseEntity.ok(admitted(admission.getTicket(), null, error -> error, sink -> {
             try {
                 // 在异步线程中恢复Security上下文
                 SecurityContextHolder.setContext(securityContext);
@@ -112,11 +129,10 @@ public class StreamingAssistantController {
                 SecurityContextHolder.clearContext();
             }
         })
-        .subscribeOn(Schedulers.boundedElastic()) //  使用支持阻塞操作的调度器
         .doOnNext(chunk -> {
             // 调试日志：记录流式输出片段
             log.debug(" 推送流式片段 - 用户: {}, 长度: {}", request.getUserId(), chunk.length());
-        });
+        }));
     }
 
     /**
@@ -127,7 +143,7 @@ public class StreamingAssistantController {
      * @return 结构化流式响应
      */
     @PostMapping(value = "/chat-with-progress", produces = MediaType.APPLICATION_NDJSON_VALUE)
-    public Flux<StreamResponse> streamChatWithProgress(@RequestBody ChatRequest request) {
+    public ResponseEntity<Flux<StreamResponse>> streamChatWithProgress(@RequestBody ChatRequest request) {
         // 获取当前登录用户ID
         Long currentUserId = UserContextHolder.getCurrentId();
         String actualUserId = currentUserId != null ? currentUserId.toString() : request.getUserId();
@@ -137,10 +153,16 @@ public class StreamingAssistantController {
         
         String sessionId = generateOrGetSessionId(actualUserId, request.getSessionId());
         
+        // 并发准入：超限直接返回429，排队时推送排队位置
+        StreamBulkhead.Admission admission = streamBulkhead.enter(bulkheadKey(actualUserId));
+        if (admission.isRejected()) {
+            return rejected(admission, Flux.just(StreamResponse.error(rejectionMessage(admission))));
+        }
+        
         //  保存当前的Security上下文
         SecurityContext securityContext = SecurityContextHolder.getContext();
         
-        return Flux.<StreamResponse>create(sink -> {
+        return ResponseEntity.ok(admitted(admission.getTicket(), StreamResponse::queued, StreamResponse::error, sink -> {
             try {
                 //  在异步线程中恢复Security上下文
                 SecurityContextHolder.setContext(securityContext);
@@ -181,8 +203,7 @@ public class StreamingAssistantController {
                 //  清理Security上下文
                 SecurityContextHolder.clearContext();
             }
-        })
-        .subscribeOn(Schedulers.boundedElastic()); //  使用支持阻塞操作的调度器
+        }));
     }
 
     /**
@@ -194,7 +215,7 @@ public class StreamingAssistantController {
      * @return SSE 流式响应
      */
     @GetMapping(value = "/chat-sse", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<String> streamChatSSE(@RequestParam String userId, @RequestParam String message) {
+    public ResponseEntity<Flux<String>> streamChatSSE(@RequestParam String userId, @RequestParam String message) {
         // 获取当前登录用户ID
         Long currentUserId = UserContextHolder.getCurrentId();
         String actualUserId = currentUserId != null ? currentUserId.toString() : userId;
@@ -204,10 +225,19 @@ public class StreamingAssistantController {
         
         String sessionId = generateOrGetSessionId(actualUserId, null); // SSE没有sessionId参数
         
+        // 并发准入：超限直接返回429，排队时推送排队位置
+        StreamBulkhead.Admission admission = streamBulkhead.enter(bulkheadKey(actualUserId));
+        if (admission.isRejected()) {
+            return rejected(admission, Flux.just("event: error\ndata: " + rejectionMessage(admission) + "\n\n"));
+        }
+        
         //  保存当前的Security上下文
         SecurityContext securityContext = SecurityContextHolder.getContext();
         
-        return Flux.<String>create(sink -> {
+        return ResponseEntity.ok(admitted(admission.getTicket(),
+            position -> "event: queued\ndata: " + position + "\n\n",
+            error -> "event: error\ndata: " + error + "\n\n",
+            sink -> {
             try {
                 //  在异步线程中恢复Security上下文
                 SecurityContextHolder.setContext(securityContext);
@@ -247,8 +277,7 @@ public class StreamingAssistantController {
                 SecurityContextHolder.clearContext();
             }
         })
-        .subscribeOn(Schedulers.boundedElastic()) //  使用支持阻塞操作的调度器
-        .delayElements(Duration.ofMillis(50)); // 控制推送频率
+        .delayElements(Duration.ofMillis(50))); // 控制推送频率
     }
 
     /**
@@ -293,7 +322,8 @@ public class StreamingAssistantController {
                            " 支持的流式接口：\n" +
                            "• POST /stream/chat - Flux<String> 流式文本\n" +
                            "• POST /stream/chat-with-progress - 带进度的结构化流式\n" +
-                           "• GET /stream/chat-sse - Server-Sent Events\n\n" +
+                           "• GET /stream/chat-sse - Server-Sent Events\n" +
+                           "• GET /stream/limits - 并发与排队实时指标\n\n" +
                            " 特性：\n" +
                            "• 实时逐字输出\n" +
                            "• 进度状态推送\n" +
@@ -309,10 +339,72 @@ public class StreamingAssistantController {
         }
     }
 
+    /**
+     * 流式对话并发实时指标：进行中、排队中、各模型并发及拒绝/超时次数
+     */
+    @GetMapping("/limits")
+    public Result<Map<String, Object>> getStreamLimits() {
+        return Result.success(streamBulkhead.getStats());
+    }
+
     // ===================================================================
     // 工具方法和数据类
     // ===================================================================
 
+    /**
+     * 已准入或排队中的流：排队期间推送排队位置，获得名额后在 boundedElastic 上执行流式处理，
+     * 排队超时推送错误并结束；流结束或客户端断开时释放名额
+     *
+     * @param ticket      并发名额
+     * @param queuedEvent 排队位置事件，为空时不推送
+     * @param errorEvent  排队超时事件
+     * @param streaming   获得名额后的流式处理
+     */
+    private <T> Flux<T> admitted(StreamBulkhead.Ticket ticket, IntFunction<T> queuedEvent,
+                                 Function<String, T> errorEvent, Consumer<FluxSink<T>> streaming) {
+        return Flux.<T>create(sink -> {
+            sink.onDispose(ticket::release);
+            if (queuedEvent != null) {
+                ticket.onPositionChanged(position -> sink.next(queuedEvent.apply(position)));
+            }
+            ticket.admitted().whenComplete((ignored, error) -> {
+                if (error != null) {
+                    sink.next(errorEvent.apply(" 当前使用人数较多，排队超时，请稍后重试"));
+                    sink.complete();
+                    return;
+                }
+                //  使用支持阻塞操作的调度器
+                Schedulers.boundedElastic().schedule(() -> {
+                    if (!sink.isCancelled()) {
+                        streaming.accept(sink);
+                    }
+                });
+            });
+        });
+    }
+
+    /**
+     * 并发准入使用的用户标识
+     */
+    private String bulkheadKey(String actualUserId) {
+        return actualUserId != null ? actualUserId : "anonymous";
+    }
+
+    /**
+     * 拒绝响应：429 + Retry-After
+     */
+    private <T> ResponseEntity<Flux<T>> rejected(StreamBulkhead.Admission admission, Flux<T> body) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(admission.getRetryAfterSeconds()))
+                .body(body);
+    }
+
+    private String rejectionMessage(StreamBulkhead.Admission admission) {
+        return admission.isUserLimited()
+                ? " 您已有对话正在进行，请等待完成后再试"
+                : " 当前使用人数较多，请 " + admission.getRetryAfterSeconds() + " 秒后重试";
+    }
+
     /**
      * 构建用户上下文消息
      *  保护隐私：不在消息中暴露用户ID，但保持上下文语义
@@ -490,8 +582,9 @@ public class StreamingAssistantController {
      * 流式响应数据结构
      */
     public static class StreamResponse {
-        private String type;        // 响应类型：progress, content, complete, error
+        private String type;        // 响应类型：queued, progress, content, complete, error
         private String data;        // 响应内容
+        private Integer position;   // 排队位置（仅 queued）
         private long timestamp;     // 时间戳
         
         public StreamResponse(String type, String data) {
@@ -501,6 +594,12 @@ public class StreamingAssistantController {
         }
         
         // 静态工厂方法
+        public static StreamResponse queued(int position) {
+            StreamResponse response = new StreamResponse("queued", " 当前使用人数较多，正在排队，前面还有 " + (position - 1) + " 位");
+            response.setPosition(position);
+            return response;
+        }
+        
         public static StreamResponse progress(String message) {
             return new StreamResponse("progress", message);
         }
@@ -534,6 +633,14 @@ public class StreamingAssistantController {
             this.data = data;
         }
         
+        public Integer getPosition() {
+            return position;
+        }
+        
+        public void setPosition(Integer position) {
+            this.position = position;
+        }
+        
         public long getTimestamp() {
             return timestamp;
         }
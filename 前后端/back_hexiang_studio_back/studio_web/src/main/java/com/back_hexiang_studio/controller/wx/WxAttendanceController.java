@@ -3,6 +3,7 @@ package com.back_hexiang_studio.controller.wx;
 import com.back_hexiang_studio.result.Result;
 import com.back_hexiang_studio.result.PageResult;
 import com.back_hexiang_studio.context.UserContextHolder;
+import com.back_hexiang_studio.service.AttendanceCheckInService;
 import com.back_hexiang_studio.service.AttendanceService;
 import com.back_hexiang_studio.service.CommonLocationService;
 import com.back_hexiang_studio.dv.dto.AttendanceQueryDto;
@@ -37,6 +38,9 @@ public class WxAttendanceController {
 
     @Autowired
     private AttendanceService attendanceService;
+
+    @Autowired
+    private AttendanceCheckInService attendanceCheckInService;
     
     @Autowired
     private CommonLocationService commonLocationService;
@@ -308,8 +312,11 @@ public class WxAttendanceController {
             Double latitude = Double.valueOf(latitudeObj.toString());
             Double longitude = Double.valueOf(longitudeObj.toString());
 
-            // 调用服务进行签到
-            Map<String, Object> result = attendanceService.studentCheckIn(planId, currentUserId, latitude, longitude, location);
+            // 调用服务进行签到：优先走快速通道，不可用时走原流程
+            Map<String, Object> result = attendanceCheckInService.tryFastCheckIn(planId, currentUserId, latitude, longitude, location);
+            if (result == null) {
+                result = attendanceService.studentCheckIn(planId, currentUserId, latitude, longitude, location);
+            }
 
             log.info("用户签到成功，用户ID: {}, 计划ID: {}", currentUserId, planId);
             return Result.success(result);
@@ -340,7 +347,10 @@ public class WxAttendanceController {
             Double longitude = Double.valueOf(data.get("longitude").toString());
             String location = (String) data.get("location");
 
-            Map<String, Object> result = attendanceService.studentCheckIn(planId, currentUserId, latitude, longitude, location);
+            Map<String, Object> result = attendanceCheckInService.tryFastCheckIn(planId, currentUserId, latitude, longitude, location);
+            if (result == null) {
+                result = attendanceService.studentCheckIn(planId, currentUserId, latitude, longitude, location);
+            }
 
             log.info("学生签到成功，用户ID: {}, 计划ID: {}", currentUserId, planId);
             return Result.success(result);
@@ -798,10 +808,12 @@ public class WxAttendanceController {
      * 学生预约活动
      * @param planId 活动计划ID
      * @param remark 备注
+     * @param idempotencyKey 幂等键（可选），客户端重试同一次预约时携带相同的值
      * @return 预约结果
      */
     @PostMapping("/reservation/{planId}")
-    public Result reserveActivity(@PathVariable Long planId, @RequestParam(required = false) String remark) {
+    public Result reserveActivity(@PathVariable Long planId, @RequestParam(required = false) String remark,
+                                  @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
         log.info("学生预约活动，计划ID: {}, 备注: {}", planId, remark);
         try {
             // 获取当前登录用户对应的学生ID
@@ -815,7 +827,7 @@ public class WxAttendanceController {
                 return Result.error("当前用户不是学生");
             }
             
-            Map<String, Object> result = activityReservationService.reserveActivity(planId, studentId, remark);
+            Map<String, Object> result = activityReservationService.reserveActivity(planId, studentId, remark, idempotencyKey);
             return Result.success(result);
         } catch (Exception e) {
             log.error("预约活动失败: {}", e.getMessage());
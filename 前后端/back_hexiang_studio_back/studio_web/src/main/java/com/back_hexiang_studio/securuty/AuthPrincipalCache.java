@@ -0,0 +1,177 @@
+package com.back_hexiang_studio.securuty;
+
+import cn.hutool.crypto.SecureUtil;
+import com.back_hexiang_studio.constants.CacheConstants;
+import com.back_hexiang_studio.entity.User;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 认证主体本地缓存
+ *
+ * JwtAuthFilter 每个请求都要经过 Redis Token 校验、用户查询、权限查询三次往返，
+ * 这里把校验通过的结果按 userId 缓存在本地（绑定当前 Access Token 的摘要）：
+ * - 命中且 Token 一致：只做本地 JWT 验签，不再访问 Redis / MySQL
+ * - Token 变化（重新登录、刷新）：视为未命中，走完整校验
+ * - 用户禁用、登出、改密、职位变更：通过 Redis Pub/Sub 通知所有实例失效
+ * - 写入后短 TTL 兜底，即使通知丢失也只会在很短时间内使用旧数据
+ *
+ * @author Hexiang
+ */
+@Slf4j
+@Component
+public class AuthPrincipalCache implements MessageListener {
+
+    @Value("${jwt.principal-cache.max-size:10000}")
+    private long maxSize;
+
+    @Value("${jwt.principal-cache.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    @Autowired
+    private RedisTemplate<String, Object> redisTemplate;
+
+    private Cache<Long, CachedPrincipal> cache;
+
+    @PostConstruct
+    public void initialize() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        log.info(" 认证主体本地缓存初始化完成: 最大条数={}, 过期={}秒", maxSize, ttlSeconds);
+    }
+
+    /**
+     * 查询缓存的认证主体，Token 不一致时返回 null
+     *
+     * @param userId 用户ID
+     * @param token  当前请求的 Access Token
+     * @return 缓存的认证主体，未命中返回 null
+     */
+    public CachedPrincipal get(Long userId, String token) {
+        CachedPrincipal principal = cache.getIfPresent(userId);
+        if (principal == null) {
+            return null;
+        }
+        if (!principal.getTokenHash().equals(hash(token))) {
+            cache.invalidate(userId);
+            return null;
+        }
+        return principal;
+    }
+
+    /**
+     * 缓存校验通过的认证主体
+     */
+    public void put(Long userId, String token, User user, List<String> permissions) {
+        cache.put(userId, new CachedPrincipal(hash(token), user, permissions));
+    }
+
+    /**
+     * 失效指定用户（本实例立即失效，并通知其它实例）
+     *
+     * @param userId 用户ID
+     */
+    public void invalidateUser(Long userId) {
+        if (userId == null) {
+            return;
+        }
+        cache.invalidate(userId);
+        publish(String.valueOf(userId));
+    }
+
+    /**
+     * 失效全部用户（权限配置批量变更时使用）
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+        publish(CacheConstants.AUTH_PRINCIPAL_INVALIDATE_ALL);
+    }
+
+    /**
+     * 接收其它实例（或业务层）发布的失效通知
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        try {
+            Object body = redisTemplate.getValueSerializer().deserialize(message.getBody());
+            String target = body == null ? null : body.toString();
+            if (target == null || target.isEmpty()) {
+                return;
+            }
+            if (CacheConstants.AUTH_PRINCIPAL_INVALIDATE_ALL.equals(target)) {
+                cache.invalidateAll();
+                log.info(" 收到认证缓存失效通知，已清空全部");
+            } else {
+                cache.invalidate(Long.parseLong(target));
+                log.debug(" 收到认证缓存失效通知，用户ID: {}", target);
+            }
+        } catch (Exception e) {
+            // 无法解析时保守处理：全部失效
+            cache.invalidateAll();
+            log.warn(" ️ 解析认证缓存失效通知失败，已清空全部: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 缓存命中统计
+     */
+    public Map<String, Object> getStats() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("size", cache.size());
+        result.put("requestCount", stats.requestCount());
+        result.put("hitCount", stats.hitCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictionCount", stats.evictionCount());
+        return result;
+    }
+
+    private void publish(String target) {
+        try {
+            redisTemplate.convertAndSend(CacheConstants.AUTH_PRINCIPAL_INVALIDATE_CHANNEL, target);
+        } catch (Exception e) {
+            log.warn(" ️ 发布认证缓存失效通知失败，其它实例将在TTL后失效: {}", e.getMessage());
+        }
+    }
+
+    private static String hash(String token) {
+        return SecureUtil.sha256(token);
+    }
+
+    /**
+     * 缓存的认证主体
+     */
+    public static class CachedPrincipal {
+        private final String tokenHash;
+        private final User user;
+        private final List<String> permissions;
+
+        public CachedPrincipal(String tokenHash, User user, List<String> permissions) {
+            this.tokenHash = tokenHash;
+            this.user = user;
+            this.permissions = permissions == null ? Collections.emptyList() : Collections.unmodifiableList(permissions);
+        }
+
+        public String getTokenHash() { return tokenHash; }
+        public User getUser() { return user; }
+        public List<String> getPermissions() { return permissions; }
+    }
+}
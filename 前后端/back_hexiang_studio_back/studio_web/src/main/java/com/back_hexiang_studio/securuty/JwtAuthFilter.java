@@ -48,6 +48,9 @@ public class JwtAuthFilter extends OncePerRequestFilter {
     
     @Autowired
     private TokenService tokenService;
+
+    @Autowired
+    private AuthPrincipalCache authPrincipalCache;
     
     @Autowired
     private GlobalExceptionHandler globalExceptionHandler;
@@ -160,8 +163,8 @@ public class JwtAuthFilter extends OncePerRequestFilter {
         }
         log.debug("JwtAuthFilter: 已提取token，长度: {}", token.length());
 
-        // 校验Access Token有效性（双Token模式）
-        if (!tokenService.validateAccessToken(token)) {
+        // 本地JWT验签（签名、过期、类型），不访问Redis
+        if (!jwtUtils.isAccessTokenValid(token)) {
             log.warn("JwtAuthFilter: Access Token无效，URI: {}", request.getRequestURI());
             throw new UnauthorizedException(ErrorCode.TOKEN_INVALID, "登录已过期，请重新登录");
         }
@@ -170,7 +173,17 @@ public class JwtAuthFilter extends OncePerRequestFilter {
         Long userId = jwtUtils.getUserIdFromToken(token);
         log.debug("JwtAuthFilter: 用户ID: {}", userId);
 
+        // 优先使用本地认证缓存，命中时跳过Redis Token校验和用户、权限查询
+        AuthPrincipalCache.CachedPrincipal cachedPrincipal = authPrincipalCache.get(userId, token);
+
+        // 未命中：校验Access Token与Redis一致（双Token模式）
+        if (cachedPrincipal == null && !tokenService.validateAccessToken(token)) {
+            log.warn("JwtAuthFilter: Access Token无效，URI: {}", request.getRequestURI());
+            throw new UnauthorizedException(ErrorCode.TOKEN_INVALID, "登录已过期，请重新登录");
+        }
+
         // 【新增】无感刷新逻辑：检查Token是否即将过期（剩余时间少于5分钟）
+        boolean tokenRotated = false;
         if (jwtUtils.isTokenAboutToExpired(token)) {
             try {
                 log.debug("JwtAuthFilter: Access Token即将过期，尝试自动刷新，用户ID: {}", userId);
@@ -180,6 +193,7 @@ public class JwtAuthFilter extends OncePerRequestFilter {
                     if (newAccessToken != null) {
                         // 在响应头中返回新的Access Token，前端会自动更新
                         response.setHeader("X-New-Access-Token", newAccessToken);
+                        tokenRotated = true;
                         log.info("JwtAuthFilter: Access Token自动刷新成功，用户ID: {}", userId);
                     } else {
                         log.warn("JwtAuthFilter: Access Token自动刷新失败，Refresh Token无效，用户ID: {}", userId);
@@ -197,26 +211,25 @@ public class JwtAuthFilter extends OncePerRequestFilter {
         UserContextHolder.setCurrentId(userId);
         log.debug("JwtAuthFilter: 已设置当前用户ID到ThreadLocal: {}", userId);
 
-        // 根据用户ID加载用户信息
-        User user = userservice.getUserById(userId);
+        User user;
+        List<String> permissions;
+        if (cachedPrincipal != null) {
+            user = cachedPrincipal.getUser();
+            permissions = cachedPrincipal.getPermissions();
+            log.debug("JwtAuthFilter: 命中本地认证缓存，用户ID: {}", userId);
+        } else {
+            user = loadEnabledUser(userId);
 
-        // 如果用户不存在，清理上下文并抛出未授权异常
-        if (user == null) {
-            log.error("JwtAuthFilter: 用户不存在，用户ID: {}", userId);
-            UserContextHolder.clear();
-            throw new UnauthorizedException(ErrorCode.USER_NOT_FOUND, "用户不存在");
-        }
-        
-        // 检查用户状态，如果被禁用，清理上下文并抛出禁止访问异常
-        if (STATUS_DISABLED.equals(user.getStatus())) {
-            log.warn("JwtAuthFilter: 用户已被禁用, 用户ID: {}", userId);
-            UserContextHolder.clear();
-            throw new ForbiddenException(ErrorCode.ACCOUNT_DISABLED, "账号已被禁用，请联系管理员");
-        }
+            // 获取用户权限列表（基于职位ID）
+            permissions = userservice.getPermissionsByRole(user.getPositionId());
+            log.debug("JwtAuthFilter: 用户权限: {}", permissions);
 
-        // 获取用户权限列表（基于职位ID）
-        List<String> permissions = userservice.getPermissionsByRole(user.getPositionId());
-        log.debug("JwtAuthFilter: 用户权限: {}", permissions);
+            // 只缓存校验通过的启用用户；禁用、登出等由失效通知清理
+            // 旧Token刚被轮换时不缓存，避免其在TTL内继续免校验通过
+            if (!tokenRotated) {
+                authPrincipalCache.put(userId, token, user, permissions);
+            }
+        }
 
         // 创建UserDetailsImpl对象
         UserDetailsImpl userDetails = new UserDetailsImpl(user, permissions);
@@ -238,6 +251,34 @@ public class JwtAuthFilter extends OncePerRequestFilter {
         log.debug("JwtAuthFilter: 已设置认证信息，当前authorities={}", authenticationToken.getAuthorities());
     }
     
+    /**
+     * 加载用户并校验状态
+     *
+     * @param userId 用户ID
+     * @return 启用状态的用户
+     * @throws UnauthorizedException 用户不存在
+     * @throws ForbiddenException 用户已被禁用
+     */
+    private User loadEnabledUser(Long userId) {
+        // 根据用户ID加载用户信息
+        User user = userservice.getUserById(userId);
+
+        // 如果用户不存在，清理上下文并抛出未授权异常
+        if (user == null) {
+            log.error("JwtAuthFilter: 用户不存在，用户ID: {}", userId);
+            UserContextHolder.clear();
+            throw new UnauthorizedException(ErrorCode.USER_NOT_FOUND, "用户不存在");
+        }
+        
+        // 检查用户状态，如果被禁用，清理上下文并抛出禁止访问异常
+        if (STATUS_DISABLED.equals(user.getStatus())) {
+            log.warn("JwtAuthFilter: 用户已被禁用, 用户ID: {}", userId);
+            UserContextHolder.clear();
+            throw new ForbiddenException(ErrorCode.ACCOUNT_DISABLED, "账号已被禁用，请联系管理员");
+        }
+        return user;
+    }
+    
     /**
      * 处理认证异常，调用全局异常处理器并返回统一格式响应
      * 
@@ -25,6 +25,9 @@ public class TokenService {
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
 
+    @Autowired
+    private AuthPrincipalCache authPrincipalCache;
+
     @Value("${jwt.access-expiration}")
     private long accessExpiration;  // 30分钟（毫秒）
 
@@ -63,6 +66,9 @@ public class TokenService {
         // 5. 设置HttpOnly Cookie存储Refresh Token
         setRefreshTokenCookie(response, refreshToken);
 
+        // 6. 旧Token已被覆盖，失效各实例的认证缓存
+        authPrincipalCache.invalidateUser(userId);
+
         log.info("双Token创建成功 - 用户ID: {}, 用户名: {}, Access Token过期: {}分钟, Refresh Token过期: {}天",
                 userId, username, accessExpiration / (60 * 1000), refreshExpiration / (24 * 60 * 60 * 1000));
 
@@ -157,6 +163,9 @@ public class TokenService {
             redisTemplate.expire(refreshKey, refreshExpiration, TimeUnit.MILLISECONDS);
             redisTemplate.expire(userKey, refreshExpiration, TimeUnit.MILLISECONDS);
 
+            // 6. Access Token已轮换，失效各实例的认证缓存
+            authPrincipalCache.invalidateUser(userId);
+
             log.info("Token刷新成功 - 用户ID: {}, 新Access Token已生成", userId);
             return newAccessToken;
 
@@ -176,6 +185,7 @@ public class TokenService {
             redisTemplate.delete("login:access:" + userId);
             redisTemplate.delete("login:refresh:" + userId);
             redisTemplate.delete("login:user:" + userId);
+            authPrincipalCache.invalidateUser(userId);
 
             log.info("用户登出完成 - 用户ID: {}, 所有Token已清理", userId);
         } catch (Exception e) {
@@ -292,6 +302,9 @@ public class TokenService {
         // 5. 设置长期HttpOnly Cookie存储Refresh Token（30天）
         setLongTermRefreshTokenCookie(response, refreshToken);
 
+        // 6. 旧Token已被覆盖，失效各实例的认证缓存
+        authPrincipalCache.invalidateUser(userId);
+
         log.info("长期双Token创建成功 - 用户ID: {}, 用户名: {}, 记住密码: 30天",
                 userId, username);
 